@@ -0,0 +1,89 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.benchmarks;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import ij_plugins.toolkit.filters.FastMedianUInt16;
+import ij_plugins.toolkit.filters.FastMedianUInt8;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running median filters for 8-bit and 16-bit images, {@link FastMedianUInt8} and {@link FastMedianUInt16}.
+ *
+ * @author Jarek Sacha
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FastMedianBenchmark {
+
+    @Param({"512", "2048"})
+    public int size;
+
+    @Param({"3", "7", "15"})
+    public int filterSize;
+
+    @Param({"8", "16"})
+    public int bitDepth;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private ImageProcessor src;
+
+
+    @Setup
+    public void setup() {
+        src = SyntheticImages.blobs(size, size, bitDepth, 1);
+    }
+
+
+    @Benchmark
+    public ImageProcessor median() {
+        if (bitDepth == 8) {
+            final FastMedianUInt8 filter = new FastMedianUInt8();
+            filter.setNumberOfThreads(threads);
+            return filter.run((ByteProcessor) src, filterSize, filterSize);
+        } else {
+            final FastMedianUInt16 filter = new FastMedianUInt16();
+            filter.setNumberOfThreads(threads);
+            return filter.run((ShortProcessor) src, filterSize, filterSize);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.benchmarks;
+
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij_plugins.toolkit.filters.GaussianSmoothFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link GaussianSmoothFilter} using ImageJ's Gaussian blur and the recursive Gaussian.
+ *
+ * @author Jarek Sacha
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GaussianSmoothBenchmark {
+
+    @Param({"1024", "4096"})
+    public int size;
+
+    @Param({"2", "10", "40"})
+    public double standardDeviation;
+
+    @Param({"false", "true"})
+    public boolean recursive;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private FloatProcessor src;
+
+
+    @Setup
+    public void setup() {
+        src = SyntheticImages.blobs(size, size, 1.0, 1);
+    }
+
+
+    @Benchmark
+    public ImageProcessor smooth() {
+        final GaussianSmoothFilter filter = new GaussianSmoothFilter();
+        filter.setStandardDeviation(standardDeviation);
+        filter.setRecursive(recursive);
+        filter.setNumberOfThreads(threads);
+        return filter.run(src);
+    }
+}
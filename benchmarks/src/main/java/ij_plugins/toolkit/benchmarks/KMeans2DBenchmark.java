@@ -0,0 +1,89 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.benchmarks;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij_plugins.toolkit.clustering.KMeans2D;
+import ij_plugins.toolkit.clustering.KMeansConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * k-means clustering of multi-band images, {@link KMeans2D}.
+ *
+ * @author Jarek Sacha
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class KMeans2DBenchmark {
+
+    @Param({"256", "1024"})
+    public int size;
+
+    @Param({"3", "12"})
+    public int numberOfBands;
+
+    @Param({"4", "16"})
+    public int numberOfClusters;
+
+    @Param({"LLOYD", "HAMERLY"})
+    public KMeansConfig.AssignmentStrategy assignmentStrategy;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private ImageStack stack;
+
+
+    @Setup
+    public void setup() {
+        stack = SyntheticImages.clusters(size, size, numberOfBands, numberOfClusters, 1);
+    }
+
+
+    @Benchmark
+    public ByteProcessor cluster() {
+        final KMeansConfig config = new KMeansConfig();
+        config.setNumberOfClusters(numberOfClusters);
+        config.setRandomizationSeedEnabled(true);
+        config.setRandomizationSeed(7);
+        config.setNumberOfThreads(threads);
+        config.setAssignmentStrategy(assignmentStrategy);
+        return new KMeans2D(config).run(stack);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.benchmarks;
+
+import ij.process.FloatProcessor;
+import ij_plugins.toolkit.filters.IRunningMedianFloatOperator;
+import ij_plugins.toolkit.filters.RunningFilter;
+import ij_plugins.toolkit.filters.RunningMedianOperator;
+import ij_plugins.toolkit.filters.RunningMedianRBTOperator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Running median of float images, {@link RunningMedianOperator} compared to {@link RunningMedianRBTOperator},
+ * driven by {@link RunningFilter}.
+ *
+ * @author Jarek Sacha
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RunningMedianOperatorBenchmark {
+
+    @Param({"512", "2048"})
+    public int size;
+
+    @Param({"3", "7", "15"})
+    public int filterSize;
+
+    @Param({"array", "rbt"})
+    public String operator;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private FloatProcessor src;
+    private Supplier<? extends IRunningMedianFloatOperator> operatorFactory;
+
+
+    @Setup
+    public void setup() {
+        src = SyntheticImages.blobs(size, size, 1.0, 1);
+        switch (operator) {
+            case "array":
+                operatorFactory = RunningMedianOperator::new;
+                break;
+            case "rbt":
+                operatorFactory = RunningMedianRBTOperator::new;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operator: " + operator + ".");
+        }
+    }
+
+
+    @Benchmark
+    public FloatProcessor median() {
+        final RunningFilter filter = new RunningFilter(operatorFactory, filterSize, filterSize);
+        filter.setNumberOfThreads(threads);
+        return filter.run(src);
+    }
+}
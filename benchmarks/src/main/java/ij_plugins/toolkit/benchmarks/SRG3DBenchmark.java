@@ -0,0 +1,87 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.benchmarks;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij_plugins.toolkit.im3d.grow.SRG3D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seeded region growing of 3D images, {@link SRG3D}. Seeds are placed in the middle slice.
+ *
+ * @author Jarek Sacha
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SRG3DBenchmark {
+
+    @Param({"32", "96"})
+    public int size;
+
+    @Param({"8", "32"})
+    public int bitDepth;
+
+    @Param({"4", "16"})
+    public int numberOfRegions;
+
+    private ImageStack image;
+    private ImageStack seeds;
+
+
+    @Setup
+    public void setup() {
+        image = SyntheticImages.blobs(size, size, size, bitDepth, 1);
+        seeds = new ImageStack(size, size);
+        for (int z = 0; z < size; z++) {
+            seeds.addSlice("" + (z + 1), z == size / 2
+                    ? SyntheticImages.gridSeeds(size, size, numberOfRegions)
+                    : new ByteProcessor(size, size));
+        }
+    }
+
+
+    @Benchmark
+    public ImageStack grow() {
+        final SRG3D srg = new SRG3D();
+        srg.setImage(image);
+        srg.setSeeds(seeds);
+        srg.run();
+        return srg.getRegionMarkers();
+    }
+}
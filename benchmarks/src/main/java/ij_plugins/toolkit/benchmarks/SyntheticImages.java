@@ -0,0 +1,151 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.benchmarks;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.Random;
+
+/**
+ * Deterministic synthetic test data for benchmarks, so that results do not depend on external files.
+ *
+ * @author Jarek Sacha
+ */
+final class SyntheticImages {
+
+    private SyntheticImages() {
+    }
+
+
+    /**
+     * Image of smooth blobs with additive noise, values are scaled to range <code>[0, maxValue]</code>.
+     *
+     * @param width    image width.
+     * @param height   image height.
+     * @param maxValue maximum pixel value.
+     * @param seed     seed of the noise generator.
+     * @return synthetic image.
+     */
+    static FloatProcessor blobs(final int width, final int height, final double maxValue, final long seed) {
+        final Random random = new Random(seed);
+        final float[] pixels = new float[width * height];
+        final double fx = 2 * Math.PI * 4 / width;
+        final double fy = 2 * Math.PI * 3 / height;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final double blob = 0.5 + 0.3 * Math.sin(fx * x) * Math.cos(fy * y);
+                final double v = blob + 0.2 * (random.nextDouble() - 0.5);
+                pixels[x + y * width] = (float) (maxValue * Math.max(0, Math.min(1, v)));
+            }
+        }
+        return new FloatProcessor(width, height, pixels);
+    }
+
+
+    /**
+     * Synthetic image of given bit depth.
+     *
+     * @param width    image width.
+     * @param height   image height.
+     * @param bitDepth 8, 16, or 32.
+     * @param seed     seed of the noise generator.
+     * @return synthetic image.
+     */
+    static ImageProcessor blobs(final int width, final int height, final int bitDepth, final long seed) {
+        switch (bitDepth) {
+            case 8:
+                return blobs(width, height, 255.0, seed).convertToByteProcessor(false);
+            case 16:
+                return blobs(width, height, 4095.0, seed).convertToShortProcessor(false);
+            case 32:
+                return blobs(width, height, 1.0, seed);
+            default:
+                throw new IllegalArgumentException("Unsupported bit depth: " + bitDepth + ".");
+        }
+    }
+
+
+    /**
+     * Stack of synthetic slices of given bit depth, each slice is generated with a different seed.
+     */
+    static ImageStack blobs(final int width, final int height, final int depth, final int bitDepth, final long seed) {
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; z++) {
+            stack.addSlice("" + (z + 1), blobs(width, height, bitDepth, seed + z));
+        }
+        return stack;
+    }
+
+
+    /**
+     * Multi-band image of pixels drawn from <code>numberOfClusters</code> Gaussian clusters
+     * in the band space, arranged in vertical stripes.
+     *
+     * @return stack of float images, one slice per band.
+     */
+    static ImageStack clusters(final int width, final int height, final int numberOfBands,
+                               final int numberOfClusters, final long seed) {
+        final Random random = new Random(seed);
+        final float[][] centers = new float[numberOfClusters][numberOfBands];
+        for (final float[] center : centers) {
+            for (int b = 0; b < numberOfBands; b++) {
+                center[b] = 255 * random.nextFloat();
+            }
+        }
+
+        final ImageStack stack = new ImageStack(width, height);
+        final float[][] bands = new float[numberOfBands][width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final float[] center = centers[x * numberOfClusters / width];
+                for (int b = 0; b < numberOfBands; b++) {
+                    bands[b][x + y * width] = center[b] + (float) (8 * random.nextGaussian());
+                }
+            }
+        }
+        for (int b = 0; b < numberOfBands; b++) {
+            stack.addSlice("Band " + (b + 1), bands[b]);
+        }
+        return stack;
+    }
+
+
+    /**
+     * Seeds placed on a regular grid, each seed is a separate region.
+     *
+     * @return seed image, background is 0, region <code>i</code> is marked with value <code>i</code>.
+     */
+    static ByteProcessor gridSeeds(final int width, final int height, final int numberOfRegions) {
+        final ByteProcessor seeds = new ByteProcessor(width, height);
+        final int columns = (int) Math.ceil(Math.sqrt(numberOfRegions));
+        final int rows = (numberOfRegions + columns - 1) / columns;
+        for (int i = 0; i < numberOfRegions; i++) {
+            final int x = (i % columns) * width / columns + width / (2 * columns);
+            final int y = (i / columns) * height / rows + height / (2 * rows);
+            seeds.set(x, y, i + 1);
+        }
+        return seeds;
+    }
+}
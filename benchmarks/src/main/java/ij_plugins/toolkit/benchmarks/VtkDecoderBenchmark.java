@@ -0,0 +1,91 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.benchmarks;
+
+import ij.ImagePlus;
+import ij_plugins.toolkit.io.vtk.VtkDecoder;
+import ij_plugins.toolkit.io.vtk.VtkEncoder;
+import ij_plugins.toolkit.io.vtk.VtkImageException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading of VTK files, {@link VtkDecoder}. Synthetic stack is written to a temporary directory during setup.
+ *
+ * @author Jarek Sacha
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class VtkDecoderBenchmark {
+
+    @Param({"128", "256"})
+    public int size;
+
+    @Param({"8", "16", "32"})
+    public int bitDepth;
+
+    @Param({"false", "true"})
+    public boolean ascii;
+
+    private File directory;
+    private File file;
+
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("ijp-vtk-benchmark").toFile();
+        final ImagePlus imp = new ImagePlus("blobs", SyntheticImages.blobs(size, size, 64, bitDepth, 1));
+        file = new File(directory, "blobs.vtk");
+        VtkEncoder.save(file.getAbsolutePath(), imp, ascii);
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        TemporaryFiles.delete(directory);
+    }
+
+
+    @Benchmark
+    public ImagePlus read() throws VtkImageException {
+        return VtkDecoder.open(file);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.clustering;
+
+import java.util.Arrays;
+
+/**
+ * Assignment of pixels to the closest cluster accelerated using triangle inequality, as described in:
+ * Greg Hamerly, "Making k-means even faster", SIAM International Conference on Data Mining, 2010.
+ * <br>
+ * For each pixel, an upper bound on the distance to its assigned center and a lower bound on the distance to
+ * all other centers are maintained. When centers move, bounds are updated using the distance each center moved.
+ * Distances to all centers are only computed when bounds cannot guarantee that the assignment did not change.
+ * <br>
+ * Bounds are kept with a small safety margin, so skipping distance computation never changes the result:
+ * assignment is always the same as computed by {@link KMeansUtils#closestCluster(float[], float[][])}.
+ * Different pixels can be assigned concurrently from multiple threads.
+ *
+ * @author Jarek Sacha
+ */
+final class HamerlyAssignment {
+
+    /**
+     * Relative margin added to bounds to account for round-off errors in distance computations.
+     */
+    private static final double EPS = 1e-6;
+
+    private final float[] upperBounds;
+    private final float[] lowerBounds;
+    private final int[] assignments;
+
+    private float[][] previousCenters;
+    private double[] shifts;
+    private double[] halfMinDistances;
+    private int maxShiftIndex;
+    private double maxShift;
+    private double secondMaxShift;
+
+
+    HamerlyAssignment(final int numberOfPixels) {
+        upperBounds = new float[numberOfPixels];
+        lowerBounds = new float[numberOfPixels];
+        assignments = new int[numberOfPixels];
+        Arrays.fill(assignments, -1);
+    }
+
+
+    /**
+     * Update distances between centers and distances centers moved since last update. Must be called when centers
+     * change, before assigning pixels to the new centers.
+     *
+     * @param centers current cluster centers.
+     */
+    void update(final float[][] centers) {
+        final int nbClusters = centers.length;
+
+        // Half of the distance to the closest other center. Centers of empty clusters are NaN, they are never
+        // closest to any pixel and are ignored.
+        halfMinDistances = new double[nbClusters];
+        Arrays.fill(halfMinDistances, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < nbClusters; i++) {
+            for (int j = i + 1; j < nbClusters; j++) {
+                final double d = 0.5 * Math.sqrt(KMeansUtils.distanceSqr(centers[i], centers[j])) * (1 - EPS);
+                if (d < halfMinDistances[i]) {
+                    halfMinDistances[i] = d;
+                }
+                if (d < halfMinDistances[j]) {
+                    halfMinDistances[j] = d;
+                }
+            }
+        }
+
+        // Distance each center moved
+        shifts = new double[nbClusters];
+        maxShiftIndex = -1;
+        maxShift = 0;
+        secondMaxShift = 0;
+        if (previousCenters != null) {
+            for (int i = 0; i < nbClusters; i++) {
+                shifts[i] = Math.sqrt(KMeansUtils.distanceSqr(previousCenters[i], centers[i])) * (1 + EPS);
+                if (shifts[i] > maxShift) {
+                    secondMaxShift = maxShift;
+                    maxShift = shifts[i];
+                    maxShiftIndex = i;
+                } else if (shifts[i] > secondMaxShift) {
+                    secondMaxShift = shifts[i];
+                }
+            }
+        }
+
+        previousCenters = new float[nbClusters][];
+        for (int i = 0; i < nbClusters; i++) {
+            previousCenters[i] = centers[i].clone();
+        }
+    }
+
+
+    /**
+     * Return index of the cluster closest to pixel {@code index}.
+     *
+     * @param index   index of the pixel.
+     * @param v       value of the pixel.
+     * @param centers cluster centers, the same as passed to the last call of {@link #update(float[][])}.
+     * @return index of the closest cluster.
+     */
+    int closestCluster(final int index, final float[] v, final float[][] centers) {
+        final int a = assignments[index];
+        if (a >= 0) {
+            double upper = upperBounds[index] + shifts[a];
+            final double lower = lowerBounds[index] - (a == maxShiftIndex ? secondMaxShift : maxShift);
+            final double bound = Math.max(halfMinDistances[a], lower);
+            if (upper * (1 + 2 * EPS) < bound) {
+                store(index, a, upper, lower);
+                return a;
+            }
+
+            // Tighten the upper bound and test again
+            upper = Math.sqrt(KMeansUtils.distanceSqr(centers[a], v)) * (1 + EPS);
+            if (upper * (1 + 2 * EPS) < bound) {
+                store(index, a, upper, lower);
+                return a;
+            }
+        }
+
+        // Find closest and second closest center, the same way as KMeansUtils.closestCluster()
+        double minDistance = Double.MAX_VALUE;
+        double secondMinDistance = Double.MAX_VALUE;
+        int closestCluster = -1;
+        for (int i = 0; i < centers.length; i++) {
+            final double d = KMeansUtils.distanceSqr(centers[i], v);
+            if (d < minDistance) {
+                secondMinDistance = minDistance;
+                minDistance = d;
+                closestCluster = i;
+            } else if (d < secondMinDistance) {
+                secondMinDistance = d;
+            }
+        }
+
+        if (closestCluster < 0) {
+            // All distances are NaN, bounds are of no use
+            assignments[index] = -1;
+            return closestCluster;
+        }
+
+        store(index, closestCluster,
+                Math.sqrt(minDistance) * (1 + EPS),
+                Math.sqrt(secondMinDistance) * (1 - EPS));
+        return closestCluster;
+    }
+
+
+    private void store(final int index, final int assignment, final double upper, final double lower) {
+        assignments[index] = assignment;
+        // Round conservatively, upper bound up and lower bound down
+        upperBounds[index] = Math.nextUp((float) upper);
+        lowerBounds[index] = Math.nextDown((float) lower);
+    }
+}
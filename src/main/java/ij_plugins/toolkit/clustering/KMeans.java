@@ -24,6 +24,7 @@ package ij_plugins.toolkit.clustering;
 
 import ij.IJ;
 import ij.ImageStack;
+import ij_plugins.toolkit.util.ParallelBands;
 import ij_plugins.toolkit.util.Validate;
 
 import java.util.Random;
@@ -46,13 +47,27 @@ import java.util.Random;
  * Anil K. Jain and Richard C. Dubes, <i>Algorithms for Clustering Data</i>,
  * Prentice Hall, 1988.
  * <a href="http://homepages.inf.ed.ac.uk/rbf/BOOKS/JAIN/Clustering_Jain_Dubes.pdf">http://homepages.inf.ed.ac.uk/rbf/BOOKS/JAIN/Clustering_Jain_Dubes.pdf</a>
+ * <br>
+ * Each iteration is computed in parallel using {@link KMeansConfig#getNumberOfThreads()} threads.
+ * Pixels are split into blocks of fixed size, partial cluster sums are computed for each block,
+ * and then merged in block order. Since partitioning into blocks does not depend on the number of
+ * threads, results are the same for any number of threads.
+ * <br>
+ * Assignment of pixels to clusters can be accelerated using triangle inequality, see
+ * {@link KMeansConfig#getAssignmentStrategy()}.
  *
  * @author Jarek Sacha
  */
 abstract class KMeans<T> {
+
+    /**
+     * Number of pixels in a block for which partial cluster sums are computed.
+     */
+    static final int PIXEL_BLOCK_SIZE = 1 << 14;
+
     final KMeansConfig config;
     float[][] clusterCenters;
-    private long numberOfStepsToConvergence;
+    long numberOfStepsToConvergence;
 
     KMeans(KMeansConfig config) {
         this.config = config.duplicate();
@@ -90,14 +105,41 @@ abstract class KMeans<T> {
 
     abstract protected ImageStack encodeCentroidValueImage();
 
-    abstract protected java.util.Iterator<float[]> newPixelIterator();
+    /**
+     * Number of pixels that are clustered.
+     */
+    abstract protected int numberOfPixels();
+
+    /**
+     * Value of a pixel, may be called concurrently from multiple threads.
+     *
+     * @param index index of the pixel, from 0 to {@link #numberOfPixels()} - 1.
+     * @param dest  buffer of size {@link #numberOfValues()} that can be used to store pixel value.
+     * @return pixel value, either {@code dest} or a reference to internal data that must not be modified.
+     */
+    abstract protected float[] pixelValue(int index, float[] dest);
 
     /**
-     * Initialize clusters using k-means++ approach, see http://en.wikipedia.org/wiki/K-means++
+     * Initialize clusters using k-means++ approach, see http://en.wikipedia.org/wiki/K-means++,
+     * or k-means||, depending on {@link KMeansConfig#getInitialization()}.
      *
      * @return initial cluster centers.
      */
-    abstract protected float[][] initializeClusterCenters();
+    protected float[][] initializeClusterCenters() {
+        return initializeClusterCenters(createRandom());
+    }
+
+    final float[][] initializeClusterCenters(final Random random) {
+        final KMeansSeeding seeding = new KMeansSeeding(this, random, config.getNumberOfThreads());
+        switch (config.getInitialization()) {
+            case KMEANS_PLUS_PLUS:
+                return seeding.kMeansPlusPlus(config.getNumberOfClusters());
+            case KMEANS_PARALLEL:
+                return seeding.kMeansParallel(config.getNumberOfClusters());
+            default:
+                throw new IllegalStateException("Unsupported initialization: " + config.getInitialization());
+        }
+    }
 
     boolean supportsClusterAnimation() {
         return false;
@@ -130,24 +172,19 @@ abstract class KMeans<T> {
         }
 
 
+        final HamerlyAssignment hamerly =
+                config.getAssignmentStrategy() == KMeansConfig.AssignmentStrategy.HAMERLY
+                        ? new HamerlyAssignment(numberOfPixels())
+                        : null;
+
         // Optimize cluster centers
         boolean converged = false;
         long count = 0;
         while (!converged) {
 
-            final MeanElement[] newClusterMeans = new MeanElement[config.getNumberOfClusters()];
-            for (int i = 0; i < newClusterMeans.length; i++) {
-                newClusterMeans[i] = new MeanElement(numberOfValues());
-            }
-
             // Generate a new partition by assigning each pattern to its closest cluster center
             // Compute new cluster centers as the centroids of the clusters
-            final java.util.Iterator<float[]> iterator = newPixelIterator();
-            while (iterator.hasNext()) {
-                final float[] v = iterator.next();
-                final int c = KMeansUtils.closestCluster(v, clusterCenters);
-                newClusterMeans[c].add(v);
-            }
+            final MeanElement[] newClusterMeans = computeClusterMeans(clusterCenters, hamerly);
 
             // Check for convergence
             float distanceSum = 0;
@@ -179,6 +216,59 @@ abstract class KMeans<T> {
         this.numberOfStepsToConvergence = count;
     }
 
+    /**
+     * Assign each pixel to the closest cluster and compute means of the pixels in each cluster.
+     *
+     * @param centers current cluster centers.
+     * @param hamerly  if not {@code null}, used to accelerate assignment of pixels to clusters.
+     * @return sums of pixel values assigned to each cluster.
+     */
+    private MeanElement[] computeClusterMeans(final float[][] centers, final HamerlyAssignment hamerly) {
+        final int nbClusters = centers.length;
+        final int nbValues = numberOfValues();
+        final int nbPixels = numberOfPixels();
+        final int nbBlocks = (nbPixels + PIXEL_BLOCK_SIZE - 1) / PIXEL_BLOCK_SIZE;
+
+        if (hamerly != null) {
+            hamerly.update(centers);
+        }
+
+        final MeanElement[][] blockMeans = new MeanElement[nbBlocks][];
+        ParallelBands.run(null, config.getNumberOfThreads(), 0, nbBlocks, (band, blockStart, blockEnd) -> {
+            final float[] buffer = new float[nbValues];
+            for (int b = blockStart; b < blockEnd; b++) {
+                final MeanElement[] means = newMeanElements(nbClusters, nbValues);
+                final int end = (int) Math.min((long) (b + 1) * PIXEL_BLOCK_SIZE, nbPixels);
+                for (int i = b * PIXEL_BLOCK_SIZE; i < end; i++) {
+                    final float[] v = pixelValue(i, buffer);
+                    final int c = hamerly != null
+                            ? hamerly.closestCluster(i, v, centers)
+                            : KMeansUtils.closestCluster(v, centers);
+                    means[c].add(v);
+                }
+                blockMeans[b] = means;
+            }
+        });
+
+        // Merge in block order, so the result does not depend on the number of threads
+        final MeanElement[] means = newMeanElements(nbClusters, nbValues);
+        for (final MeanElement[] block : blockMeans) {
+            for (int c = 0; c < nbClusters; c++) {
+                means[c].add(block[c]);
+            }
+        }
+
+        return means;
+    }
+
+    private static MeanElement[] newMeanElements(final int nbClusters, final int nbValues) {
+        final MeanElement[] means = new MeanElement[nbClusters];
+        for (int i = 0; i < nbClusters; i++) {
+            means[i] = new MeanElement(nbValues);
+        }
+        return means;
+    }
+
     /**
      * Return location of cluster centers.
      *
@@ -250,6 +340,17 @@ abstract class KMeans<T> {
             ++count;
         }
 
+        public void add(final MeanElement other) {
+            if (other.sum.length != sum.length) {
+                throw new IllegalArgumentException("Invalid element size, got " + other.sum.length + ", expecting" + sum.length);
+            }
+
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] += other.sum[i];
+            }
+            count += other.count;
+        }
+
         public float[] mean() {
             final float[] r = new float[sum.length];
             for (int i = 0; i < r.length; i++) {
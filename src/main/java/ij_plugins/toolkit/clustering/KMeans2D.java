@@ -28,9 +28,6 @@ import ij.process.FloatProcessor;
 import ij_plugins.toolkit.multiband.VectorProcessor;
 import ij_plugins.toolkit.util.Validate;
 
-import java.awt.*;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
 
 
@@ -45,6 +42,9 @@ public final class KMeans2D extends KMeans<ByteProcessor> {
 //    private ByteProcessor mask;
 
     private VectorProcessor vp;
+    private ByteProcessor segmented;
+    private float[][] samples;
+    private int numberOfBands;
     private ImageStack clusterAnimation;
 
     public KMeans2D() {
@@ -58,24 +58,24 @@ public final class KMeans2D extends KMeans<ByteProcessor> {
     static ByteProcessor encodeSegmentedImage(final VectorProcessor vp, final float[][] clusterCenters) {
         // Encode output image
         final ByteProcessor dest = new ByteProcessor(vp.getWidth(), vp.getHeight());
-        final VectorProcessor.PixelIterator iterator = vp.pixelIterator();
-        while (iterator.hasNext()) {
-            final float[] v = iterator.next();
-            final int c = KMeansUtils.closestCluster(v, clusterCenters);
-            dest.putPixel(iterator.getX(), iterator.getY(), c);
+        final byte[] destPixels = (byte[]) dest.getPixels();
+        final float[] v = new float[vp.getNumberOfValues()];
+        for (int offset = 0; offset < destPixels.length; offset++) {
+            vp.getValues(offset, v);
+            destPixels[offset] = (byte) KMeansUtils.closestCluster(v, clusterCenters);
         }
         return dest;
     }
 
-    private static Point toPoint(final int offset, final int width) {
-        final int y = offset / width;
-        final int x = offset - y * width;
-        return new Point(x, y);
-    }
-
     /**
      * Perform k-means clustering of the input <code>stack</code>. Elements of the
      * <code>stack</code> must be of type <code>FloatProcessor</code>.
+     * <br>
+     * When mini-batch k-means is enabled, see {@link KMeansConfig#getMiniBatchSize()}, the stack is not copied,
+     * pixel values are read from the stack as needed, and can be of any grayscale type.
+     * The stack can be a virtual stack. Cluster animation is not available in mini-batch mode. Initial cluster centers
+     * are selected from the pixel samples of the first chunk of mini-batches, using method given by
+     * {@link KMeansConfig#getInitialization()}.
      *
      * @param stack stack representing a multi-band image.
      * @return segmented image.
@@ -83,11 +83,24 @@ public final class KMeans2D extends KMeans<ByteProcessor> {
     public ByteProcessor run(final ImageStack stack) {
 
         Validate.isTrue(stack.getSize() > 0, "Input stack cannot be empty.");
+
+        vp = null;
+        segmented = null;
+        samples = null;
+        clusterAnimation = null;
+        numberOfBands = stack.getSize();
+
+        if (config.getMiniBatchSize() > 0) {
+            Validate.isTrue(stack.getBitDepth() != 24,
+                    "Color (RGB) stacks are not supported, convert to a stack of bands.");
+            return runMiniBatch(stack);
+        }
+
         Validate.isTrue(
                 stack.getProcessor(1) instanceof FloatProcessor,
                 "Slices on the stack must be floating point images (FloatProcessor).");
 
-        vp = new VectorProcessor(stack);
+        vp = new VectorProcessor(stack, VectorProcessor.Layout.BAND_PLANAR);
 
         // TODO: add support for using ROI. ROI of the first slice is applied to all slices.
 //    Rectangle roi = stack.getProcessor(1).getRoi();
@@ -101,6 +114,38 @@ public final class KMeans2D extends KMeans<ByteProcessor> {
         return encodeSegmentedImage(vp, clusterCenters);
     }
 
+    private ByteProcessor runMiniBatch(final ImageStack stack) {
+        final Random random = createRandom();
+        final int miniBatchSize = config.getMiniBatchSize();
+        final int nbIterations = config.getMiniBatchIterations();
+        final int batchesPerChunk = MiniBatchKMeans.batchesPerChunk(miniBatchSize, stack.getSize());
+        final long[] counts = new long[config.getNumberOfClusters()];
+
+        // Mini-batches are sampled in chunks, so memory used by samples does not depend on number of iterations
+        for (int batch = 0; batch < nbIterations; batch += batchesPerChunk) {
+            final int nbBatches = Math.min(batchesPerChunk, nbIterations - batch);
+            samples = MiniBatchKMeans.sample(stack, nbBatches * miniBatchSize, random);
+
+            if (batch == 0) {
+                // Samples of the first chunk act as pixels while initial cluster centers are selected
+                clusterCenters = initializeClusterCenters(random);
+                if (config.isPrintTraceEnabled()) {
+                    printClusters("Initial clusters");
+                }
+            }
+
+            MiniBatchKMeans.update(clusterCenters, counts, samples, miniBatchSize, batch, nbIterations);
+        }
+        samples = null;
+        numberOfStepsToConvergence = config.getMiniBatchIterations();
+        if (config.isPrintTraceEnabled()) {
+            printClusters("Mini-batch k-means clusters");
+        }
+
+        segmented = MiniBatchKMeans.encodeSegmentedImage(stack, clusterCenters, config.getNumberOfThreads());
+        return segmented;
+    }
+
     /**
      * Return stack representing clustering optimization. This will return not <code>null</code>
      * value only when configuration parameters <code>clusterAnimationEnabled</code> is set to
@@ -113,82 +158,21 @@ public final class KMeans2D extends KMeans<ByteProcessor> {
     }
 
     protected int numberOfValues() {
-        return vp.getNumberOfValues();
+        return numberOfBands;
     }
 
     protected ImageStack encodeCentroidValueImage() {
-        return KMeansUtils.encodeCentroidValueImage(clusterCenters, vp);
+        return vp != null
+                ? KMeansUtils.encodeCentroidValueImage(clusterCenters, vp)
+                : MiniBatchKMeans.encodeCentroidValueImage(segmented, clusterCenters);
     }
 
-    protected java.util.Iterator<float[]> newPixelIterator() {
-        return vp.pixelIterator();
+    protected int numberOfPixels() {
+        return vp != null ? vp.getWidth() * vp.getHeight() : samples.length;
     }
 
-    protected float[][] initializeClusterCenters() {
-        final Random random = createRandom();
-
-        final int nbClusters = config.getNumberOfClusters();
-        final int width = vp.getWidth();
-        final int height = vp.getHeight();
-        final int nbPixels = width * height;
-
-        // Cluster centers
-        final List<float[]> centers = new ArrayList<>();
-        // Location of pixels used as cluster centers
-        final List<Point> centerLocation = new ArrayList<>();
-
-        // Choose one center uniformly at random from among pixels
-        {
-            final Point p = toPoint(random.nextInt(nbPixels), width);
-            centerLocation.add(p);
-            centers.add(vp.get(p.x, p.y));
-        }
-
-        final double[] dp2 = new double[nbPixels];
-        while (centers.size() < nbClusters) {
-            assert centers.size() == centerLocation.size();
-
-            // For each data point p compute D(p), the distance between p and the nearest center that
-            // has already been chosen.
-            double sum = 0;
-            final float[][] centersArray = centers.toArray(new float[centers.size()][]);
-            for (int offset = 0; offset < nbPixels; offset++) {
-                final Point p = toPoint(offset, width);
-
-                // Test that this is not a repeat of already selected center
-                if (centerLocation.contains(p)) {
-                    continue;
-                }
-
-                // Distance to closest cluster
-                final float[] v = vp.get(p.x, p.y);
-                final int cci = KMeansUtils.closestCluster(v, centersArray);
-                sum += KMeansUtils.distanceSqr(v, centersArray[cci]);
-                dp2[offset] = sum;
-            }
-
-
-            // Add one new data point at random as a new center, using a weighted probability distribution where
-            // a point p is chosen with probability proportional to D(p)^2
-            final double r = random.nextDouble() * sum;
-            for (int offset = 0; offset < nbPixels; offset++) {
-                final Point p = toPoint(offset, width);
-
-                // Test that this is not a repeat of already selected center
-                if (centerLocation.contains(p)) {
-                    continue;
-                }
-
-                if (dp2[offset] >= r) {
-                    centerLocation.add(p);
-                    final float[] v = vp.get(p.x, p.y);
-                    centers.add(v);
-                    break;
-                }
-            }
-        }
-
-        return centers.toArray(new float[centers.size()][]);
+    protected float[] pixelValue(final int index, final float[] dest) {
+        return vp != null ? vp.getValues(index, dest) : samples[index];
     }
 
     protected boolean supportsClusterAnimation() {
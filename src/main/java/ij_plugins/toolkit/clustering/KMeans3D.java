@@ -25,9 +25,6 @@ package ij_plugins.toolkit.clustering;
 import ij.ImageStack;
 import ij.process.ByteProcessor;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
 
 
 /**
@@ -48,16 +45,22 @@ public final class KMeans3D extends KMeans<ImageStack> {
     }
 
     /**
-     * Perform k-means clustering of the input <code>stack</code>.
+     * Perform k-means clustering of the input <code>stack</code>. Mini-batch k-means is not supported,
+     * {@link KMeansConfig#getMiniBatchSize()} must be 0.
      *
      * @param stack stack representing a 3D image.
      * @return segmented image.
+     * @throws IllegalArgumentException if the stack is empty or mini-batch k-means is enabled.
      */
     public ImageStack run(final ImageStack stack) {
 
         if (stack.getSize() < 1) {
             throw new IllegalArgumentException("Input stack cannot be empty");
         }
+        if (config.getMiniBatchSize() > 0) {
+            throw new IllegalArgumentException("Mini-batch k-means is not supported for 3D images, "
+                    + "set mini-batch size to 0.");
+        }
 
         this.stack = stack;
 
@@ -77,11 +80,15 @@ public final class KMeans3D extends KMeans<ImageStack> {
         for (int z = 0; z < stack.getSize(); z++) {
             dest.addSlice(stack.getSliceLabel(z + 1), new ByteProcessor(stack.getWidth(), stack.getHeight()));
         }
-        final StackPixelIterator iterator = newPixelIterator();
-        while (iterator.hasNext()) {
-            final float[] v = iterator.next();
-            final int c = KMeansUtils.closestCluster(v, clusterCenters);
-            dest.setVoxel(iterator.getX(), iterator.getY(), iterator.getZ(), c);
+        final int width = stack.getWidth();
+        final int sliceSize = width * stack.getHeight();
+        final float[] buffer = new float[numberOfValues()];
+        final int nbPixels = numberOfPixels();
+        for (int i = 0; i < nbPixels; i++) {
+            final int c = KMeansUtils.closestCluster(pixelValue(i, buffer), clusterCenters);
+            final int z = i / sliceSize;
+            final int y = (i - z * sliceSize) / width;
+            dest.setVoxel(i - z * sliceSize - y * width, y, z, c);
         }
         return dest;
     }
@@ -90,128 +97,36 @@ public final class KMeans3D extends KMeans<ImageStack> {
 
         final int width = stack.getWidth();
         final int height = stack.getHeight();
-//        final int numberOfValues = vp.getNumberOfValues();
         final ImageStack dest = new ImageStack(width, height);
         for (int i = 0; i < stack.getSize(); ++i) {
             dest.addSlice(stack.getSliceLabel(i + 1), stack.getProcessor(i + 1).duplicate());
         }
 
         assert numberOfValues() == 1;
-        final StackPixelIterator iterator = newPixelIterator();
-        while (iterator.hasNext()) {
-            final float[] v = iterator.next();
-            final int c = closestCluster(v);
-            dest.setVoxel(iterator.getX(), iterator.getY(), iterator.getZ(), clusterCenters[c][0]);
+        final int sliceSize = width * height;
+        final float[] buffer = new float[numberOfValues()];
+        final int nbPixels = numberOfPixels();
+        for (int i = 0; i < nbPixels; i++) {
+            final int c = closestCluster(pixelValue(i, buffer));
+            final int z = i / sliceSize;
+            final int y = (i - z * sliceSize) / width;
+            dest.setVoxel(i - z * sliceSize - y * width, y, z, clusterCenters[c][0]);
         }
 
         return dest;
     }
 
-    protected StackPixelIterator newPixelIterator() {
-        return new StackPixelIterator(stack);
+    protected int numberOfPixels() {
+        return stack.getWidth() * stack.getHeight() * stack.getSize();
     }
 
-    protected float[][] initializeClusterCenters() {
-        final Random random = createRandom();
-
-        final int nbClusters = config.getNumberOfClusters();
+    protected float[] pixelValue(final int index, final float[] dest) {
         final int width = stack.getWidth();
-        final int height = stack.getHeight();
-        final int depth = stack.getSize();
-        final int nbPixels = width * height * depth;
-
-        // Cluster centers
-        final List<float[]> centers = new ArrayList<>();
-        // Location of pixels used as cluster centers
-        final List<Point3D> centerLocation = new ArrayList<>();
-
-        // Choose one center uniformly at random from among pixels
-        {
-            final Point3D p = toPoint(random.nextInt(nbPixels), width, height);
-            centerLocation.add(p);
-            centers.add(new float[]{(float) stack.getVoxel(p.x, p.y, p.z)});
-        }
-
-        final double[] dp2 = new double[nbPixels];
-        while (centers.size() < nbClusters) {
-            assert centers.size() == centerLocation.size();
-
-            // For each data point p compute D(p), the distance between p and the nearest center that
-            // has already been chosen.
-            double sum = 0;
-            final float[][] centersArray = centers.toArray(new float[centers.size()][]);
-            for (int offset = 0; offset < nbPixels; offset++) {
-                final Point3D p = toPoint(offset, width, height);
-
-                // Test that this is not a repeat of already selected center
-                if (centerLocation.contains(p)) {
-                    continue;
-                }
-
-                // Distance to closest cluster
-                final float[] v = new float[]{(float) stack.getVoxel(p.x, p.y, p.z)};
-                final int cci = KMeansUtils.closestCluster(v, centersArray);
-                sum += KMeansUtils.distanceSqr(v, centersArray[cci]);
-                dp2[offset] = sum;
-            }
-
-
-            // Add one new data point at random as a new center, using a weighted probability distribution where
-            // a point p is chosen with probability proportional to D(p)^2
-            final double r = random.nextDouble() * sum;
-            for (int offset = 0; offset < nbPixels; offset++) {
-                final Point3D p = toPoint(offset, width, height);
-
-                // Test that this is not a repeat of already selected center
-                if (centerLocation.contains(p)) {
-                    continue;
-                }
-
-                if (dp2[offset] >= r) {
-                    centerLocation.add(p);
-                    final float[] v = new float[]{(float) stack.getVoxel(p.x, p.y, p.z)};
-                    centers.add(v);
-                    break;
-                }
-            }
-        }
-
-        return centers.toArray(new float[centers.size()][]);
-    }
-
-    private static Point3D toPoint(final int offset, final int width, final int height) {
-        final int wh = width * height;
-        final int z = offset / wh;
-        final int zOffset = offset - z * wh;
-        final int y = zOffset / width;
-        final int x = zOffset - y * width;
-        return new Point3D(x, y, z);
-    }
-
-    private final static class Point3D {
-        final int x;
-        final int y;
-        final int z;
-
-        private Point3D(int x, int y, int z) {
-            this.x = x;
-            this.y = y;
-            this.z = z;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (obj instanceof Point3D) {
-                final Point3D o = (Point3D) obj;
-                return x == o.x && y == o.y && z == o.z;
-            } else {
-                return false;
-            }
-        }
-
-        @Override
-        public int hashCode() {
-            return x + y + z;
-        }
+        final int sliceSize = width * stack.getHeight();
+        final int z = index / sliceSize;
+        final int y = (index - z * sliceSize) / width;
+        final int x = index - z * sliceSize - y * width;
+        dest[0] = (float) stack.getVoxel(x, y, z);
+        return dest;
     }
 }
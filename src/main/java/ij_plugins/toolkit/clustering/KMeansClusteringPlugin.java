@@ -25,6 +25,7 @@ package ij_plugins.toolkit.clustering;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.Prefs;
 import ij.gui.GenericDialog;
 import ij.measure.ResultsTable;
 import ij.plugin.Duplicator;
@@ -164,6 +165,18 @@ public final class KMeansClusteringPlugin implements PlugIn {
         dialog.addNumericField("Number_of_clusters", CONFIG.getNumberOfClusters(), 0);
         dialog.addNumericField("Cluster_center_tolerance", CONFIG.getTolerance(), 8);
         dialog.addCheckbox("Interpret_stack_as_3D", interpretStackAs3D);
+        final String[] initializations = new String[KMeansConfig.Initialization.values().length];
+        for (int i = 0; i < initializations.length; i++) {
+            initializations[i] = KMeansConfig.Initialization.values()[i].name();
+        }
+        dialog.addChoice("Initialization", initializations, CONFIG.getInitialization().name());
+        final String[] strategies = new String[KMeansConfig.AssignmentStrategy.values().length];
+        for (int i = 0; i < strategies.length; i++) {
+            strategies[i] = KMeansConfig.AssignmentStrategy.values()[i].name();
+        }
+        dialog.addChoice("Assignment_strategy", strategies, CONFIG.getAssignmentStrategy().name());
+        dialog.addNumericField("Mini-batch_size (0 to disable)", CONFIG.getMiniBatchSize(), 0);
+        dialog.addNumericField("Mini-batch_iterations", CONFIG.getMiniBatchIterations(), 0);
         dialog.addCheckbox("Enable_randomization_seed", CONFIG.isRandomizationSeedEnabled());
         dialog.addNumericField("Randomization_seed", CONFIG.getRandomizationSeed(), 0);
         dialog.addCheckbox("Show_clusters_as_centroid_value", showCentroidImage);
@@ -182,14 +195,24 @@ public final class KMeansClusteringPlugin implements PlugIn {
         CONFIG.setNumberOfClusters((int) Math.round(dialog.getNextNumber()));
         CONFIG.setTolerance((float) dialog.getNextNumber());
         interpretStackAs3D = dialog.getNextBoolean();
+        CONFIG.setInitialization(KMeansConfig.Initialization.values()[dialog.getNextChoiceIndex()]);
+        CONFIG.setAssignmentStrategy(KMeansConfig.AssignmentStrategy.values()[dialog.getNextChoiceIndex()]);
+        CONFIG.setMiniBatchSize(Math.max(0, (int) Math.round(dialog.getNextNumber())));
+        CONFIG.setMiniBatchIterations(Math.max(1, (int) Math.round(dialog.getNextNumber())));
         CONFIG.setRandomizationSeedEnabled(dialog.getNextBoolean());
         CONFIG.setRandomizationSeed((int) Math.round(dialog.getNextNumber()));
         showCentroidImage = dialog.getNextBoolean();
         CONFIG.setClusterAnimationEnabled(dialog.getNextBoolean());
         CONFIG.setPrintTraceEnabled(dialog.getNextBoolean());
         sendToResultTable = dialog.getNextBoolean();
+        CONFIG.setNumberOfThreads(Prefs.getThreads());
 
         if (interpretStackAs3D) {
+            if (CONFIG.getMiniBatchSize() > 0) {
+                IJ.error(TITLE, "Mini-batch k-means is not supported when stack is interpreted as 3D.\n"
+                        + "Set mini-batch size to 0 or do not interpret the stack as 3D.");
+                return;
+            }
             run3D(imp);
         } else {
             run(imp);
@@ -233,8 +256,10 @@ public final class KMeansClusteringPlugin implements PlugIn {
     }
 
     private void run(final ImagePlus imp) {
-        // Convert to a stack of float images
-        final ImagePlus stack = convertToFloatStack(imp);
+        // Convert to a stack of float images. Mini-batch k-means reads grayscale stacks directly, without a copy.
+        final ImagePlus stack = CONFIG.getMiniBatchSize() > 0 && imp.getType() != ImagePlus.COLOR_RGB
+                ? imp
+                : convertToFloatStack(imp);
 
         // Run clustering
         final KMeans2D kMeans = new KMeans2D(CONFIG);
@@ -259,7 +284,7 @@ public final class KMeansClusteringPlugin implements PlugIn {
         r.show();
 
         // Show animation
-        if (CONFIG.isClusterAnimationEnabled()) {
+        if (CONFIG.isClusterAnimationEnabled() && kMeans.getClusterAnimation() != null) {
             final ImageStack animationStack = kMeans.getClusterAnimation();
             if (APPLY_LUT) {
                 animationStack.setColorModel(defaultColorModel());
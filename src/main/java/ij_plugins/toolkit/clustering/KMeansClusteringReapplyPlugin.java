@@ -145,7 +145,7 @@ public final class KMeansClusteringReapplyPlugin implements PlugIn {
         }
 
         // Apply clustering to input image
-        final VectorProcessor vp = new VectorProcessor(stack);
+        final VectorProcessor vp = new VectorProcessor(stack, VectorProcessor.Layout.BAND_PLANAR);
         final ByteProcessor bp = KMeans2D.encodeSegmentedImage(vp, clusterCenters);
         // Apply default color map
         if (KMeansClusteringPlugin.APPLY_LUT) {
@@ -158,7 +158,7 @@ public final class KMeansClusteringReapplyPlugin implements PlugIn {
 
         // Apply clustering
         if (CONFIG.showCentroidImage) {
-            final ImageStack clustered = KMeansUtils.encodeCentroidValueImage(clusterCenters, new VectorProcessor(stack));
+            final ImageStack clustered = KMeansUtils.encodeCentroidValueImage(clusterCenters, vp);
             final ImagePlus cvImp = KMeansUtils.createCentroidImage(imp.getType(), clustered);
             cvImp.show();
         }
@@ -22,11 +22,47 @@
 
 package ij_plugins.toolkit.clustering;
 
+import ij_plugins.toolkit.util.Validate;
+
 /**
  * Configurable parameters of the k-means algorithm.
  */
 public final class KMeansConfig implements Cloneable {
 
+    /**
+     * Method used to assign pixels to the closest cluster center in each k-means iteration.
+     * All methods produce the same clusters, they differ in speed and memory use.
+     */
+    public enum AssignmentStrategy {
+        /**
+         * Compute distance from each pixel to every cluster center, standard Lloyd's algorithm.
+         */
+        LLOYD,
+        /**
+         * Skip most distance computations using triangle inequality, as in Hamerly's algorithm.
+         * Requires additional 12 bytes of memory per pixel. Typically much faster than {@link #LLOYD} for larger
+         * number of clusters, once cluster centers stabilize.
+         */
+        HAMERLY
+    }
+
+
+    /**
+     * Method used to select initial cluster centers.
+     */
+    public enum Initialization {
+        /**
+         * k-means++, centers are selected one at a time with probability proportional to squared distance to
+         * the nearest center already selected.
+         */
+        KMEANS_PLUS_PLUS,
+        /**
+         * k-means||, candidate centers are oversampled in a few rounds then reduced to the requested number of
+         * clusters. Needs fewer passes over the image than k-means++ when number of clusters is large.
+         */
+        KMEANS_PARALLEL
+    }
+
     /**
      * Seed used to initialize random number generator.
      */
@@ -36,6 +72,11 @@ public final class KMeansConfig implements Cloneable {
     private int numberOfClusters = 4;
     private boolean clusterAnimationEnabled;
     private boolean printTraceEnabled;
+    private int numberOfThreads = 1;
+    private AssignmentStrategy assignmentStrategy = AssignmentStrategy.LLOYD;
+    private Initialization initialization = Initialization.KMEANS_PLUS_PLUS;
+    private int miniBatchSize = 0;
+    private int miniBatchIterations = 100;
 
 
     public int getRandomizationSeed() {
@@ -123,6 +164,97 @@ public final class KMeansConfig implements Cloneable {
     }
 
 
+    /**
+     * Number of threads used to assign pixels to clusters and to update cluster centers.
+     * Clustering results do not depend on the number of threads.
+     *
+     * @return number of threads.
+     */
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+
+    public void setNumberOfThreads(final int numberOfThreads) {
+        Validate.isTrue(numberOfThreads > 0, "Number of threads must be at least 1, got " + numberOfThreads + ".");
+        this.numberOfThreads = numberOfThreads;
+    }
+
+
+    /**
+     * Method used to assign pixels to the closest cluster center.
+     *
+     * @return assignment strategy.
+     */
+    public AssignmentStrategy getAssignmentStrategy() {
+        return assignmentStrategy;
+    }
+
+
+    public void setAssignmentStrategy(final AssignmentStrategy assignmentStrategy) {
+        Validate.argumentNotNull(assignmentStrategy, "assignmentStrategy");
+        this.assignmentStrategy = assignmentStrategy;
+    }
+
+
+    /**
+     * Method used to select initial cluster centers. In mini-batch mode, see {@link #getMiniBatchSize()}, centers are
+     * selected from the pixel samples rather than from all pixels.
+     *
+     * @return initialization method.
+     */
+    public Initialization getInitialization() {
+        return initialization;
+    }
+
+
+    public void setInitialization(final Initialization initialization) {
+        Validate.argumentNotNull(initialization, "initialization");
+        this.initialization = initialization;
+    }
+
+
+    /**
+     * Number of pixels in a mini-batch. When larger than 0, {@link KMeans2D} uses mini-batch k-means: cluster centers
+     * are estimated from random pixel samples, read directly from the input stack, and the whole image is only read
+     * once more to assign pixels to clusters. Memory use does not depend on the number of bands, so the input stack
+     * can be larger than available memory, for instance, a virtual stack.
+     * When 0, the default, standard k-means iterations over all pixels are used. Mini-batch k-means is not available
+     * in {@link KMeans3D}.
+     *
+     * @return mini-batch size, 0 if mini-batch k-means is disabled.
+     * @see #getMiniBatchIterations()
+     */
+    public int getMiniBatchSize() {
+        return miniBatchSize;
+    }
+
+
+    public void setMiniBatchSize(final int miniBatchSize) {
+        Validate.isTrue(miniBatchSize >= 0, "Mini-batch size cannot be negative, got " + miniBatchSize + ".");
+        this.miniBatchSize = miniBatchSize;
+    }
+
+
+    /**
+     * Number of mini-batches used to estimate cluster centers in mini-batch k-means.
+     * Samples are read from the stack in chunks of mini-batches, only one chunk is kept in memory.
+     *
+     * @return number of mini-batch iterations.
+     * @see #getMiniBatchSize()
+     */
+    public int getMiniBatchIterations() {
+        return miniBatchIterations;
+    }
+
+
+    public void setMiniBatchIterations(final int miniBatchIterations) {
+        Validate.isTrue(miniBatchIterations > 0,
+                "Number of mini-batch iterations must be at least 1, got " + miniBatchIterations + ".");
+        this.miniBatchIterations = miniBatchIterations;
+    }
+
+
     /**
      * Make duplicate of this object. This a convenience wrapper for {@link #clone()} method.
      *
@@ -0,0 +1,345 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.clustering;
+
+import ij_plugins.toolkit.util.ParallelBands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Selection of initial cluster centers for k-means.
+ * <br>
+ * Squared distance from each pixel to the nearest center selected so far is kept in a single {@code double} array
+ * and updated incrementally, in parallel, when a new center is added. Pixels are split into blocks of
+ * {@link KMeans#PIXEL_BLOCK_SIZE} pixels, sums of distances are computed per block, new centers are selected using
+ * binary search on cumulative block sums followed by a scan within a single block. Block boundaries do not depend
+ * on the number of threads, so selected centers are the same for any number of threads.
+ *
+ * @author Jarek Sacha
+ * @see KMeansConfig#getInitialization()
+ */
+final class KMeansSeeding {
+
+    /**
+     * Number of sampling rounds in k-means||.
+     */
+    static final int PARALLEL_ROUNDS = 5;
+
+    private final KMeans<?> kMeans;
+    private final Random random;
+    private final int numberOfThreads;
+    private final int nbPixels;
+    private final int nbValues;
+    private final int nbBlocks;
+    private final double[] minDistances;
+    private final double[] blockSums;
+    private final double[] cumulativeSums;
+
+
+    KMeansSeeding(final KMeans<?> kMeans, final Random random, final int numberOfThreads) {
+        this.kMeans = kMeans;
+        this.random = random;
+        this.numberOfThreads = numberOfThreads;
+        this.nbPixels = kMeans.numberOfPixels();
+        this.nbValues = kMeans.numberOfValues();
+        this.nbBlocks = (nbPixels + KMeans.PIXEL_BLOCK_SIZE - 1) / KMeans.PIXEL_BLOCK_SIZE;
+        this.minDistances = new double[nbPixels];
+        this.blockSums = new double[nbBlocks];
+        this.cumulativeSums = new double[nbBlocks];
+    }
+
+
+    /**
+     * Select cluster centers using k-means++ approach: the first center is selected uniformly at random, each
+     * following center is selected from among pixels with probability proportional to squared distance to the
+     * nearest center already selected, see: David Arthur and Sergei Vassilvitskii,
+     * "k-means++: the advantages of careful seeding", SODA 2007.
+     *
+     * @param nbClusters number of clusters.
+     * @return initial cluster centers.
+     */
+    float[][] kMeansPlusPlus(final int nbClusters) {
+        final int[] selected = new int[nbClusters];
+        final float[][] centers = new float[nbClusters][];
+
+        // Choose one center uniformly at random from among pixels
+        selected[0] = random.nextInt(nbPixels);
+        centers[0] = pixelValue(selected[0]);
+        Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+        updateMinDistances(centers, 0, 1);
+
+        for (int c = 1; c < nbClusters; c++) {
+            // Add one new data point at random as a new center, using a weighted probability distribution where
+            // a point p is chosen with probability proportional to D(p)^2
+            final double r = random.nextDouble() * sum();
+            selected[c] = select(r, selected, c);
+            centers[c] = pixelValue(selected[c]);
+            updateMinDistances(centers, c, c + 1);
+        }
+
+        return centers;
+    }
+
+
+    /**
+     * Select cluster centers using k-means|| approach. In each of {@link #PARALLEL_ROUNDS} rounds, every pixel is
+     * selected as a candidate independently, with probability proportional to squared distance to the nearest candidate
+     * already selected, about {@code 2 * nbClusters} candidates per round. Candidates are weighted by the number of
+     * pixels closest to them and reduced to {@code nbClusters} centers using weighted k-means++, see:
+     * Bahman Bahmani et al., "Scalable k-means++", Proceedings of the VLDB Endowment, 2012.
+     *
+     * @param nbClusters number of clusters.
+     * @return initial cluster centers.
+     */
+    float[][] kMeansParallel(final int nbClusters) {
+        final double oversampling = 2.0 * nbClusters;
+        final List<float[]> candidates = new ArrayList<>();
+
+        candidates.add(pixelValue(random.nextInt(nbPixels)));
+        Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+        updateMinDistances(candidates.toArray(new float[0][]), 0, 1);
+
+        for (int round = 0; round < PARALLEL_ROUNDS; round++) {
+            final double cost = sum();
+            if (!(cost > 0)) {
+                break;
+            }
+
+            // Each block uses its own random generator, so selection does not depend on number of threads
+            final long[] blockSeeds = new long[nbBlocks];
+            for (int b = 0; b < nbBlocks; b++) {
+                blockSeeds[b] = random.nextLong();
+            }
+            final boolean[][] blockSelected = new boolean[nbBlocks][];
+            ParallelBands.run(null, numberOfThreads, 0, nbBlocks, (band, blockStart, blockEnd) -> {
+                for (int b = blockStart; b < blockEnd; b++) {
+                    final Random blockRandom = new Random(blockSeeds[b]);
+                    final int start = b * KMeans.PIXEL_BLOCK_SIZE;
+                    final int end = blockEnd(b);
+                    final boolean[] s = new boolean[end - start];
+                    for (int i = start; i < end; i++) {
+                        s[i - start] = blockRandom.nextDouble() * cost < oversampling * minDistances[i];
+                    }
+                    blockSelected[b] = s;
+                }
+            });
+
+            final int first = candidates.size();
+            for (int b = 0; b < nbBlocks; b++) {
+                final boolean[] s = blockSelected[b];
+                for (int i = 0; i < s.length; i++) {
+                    if (s[i]) {
+                        candidates.add(pixelValue(b * KMeans.PIXEL_BLOCK_SIZE + i));
+                    }
+                }
+            }
+            updateMinDistances(candidates.toArray(new float[0][]), first, candidates.size());
+        }
+
+        final float[][] c = candidates.toArray(new float[0][]);
+        if (c.length <= nbClusters) {
+            // Not enough distinct candidates, fall back to sequential selection
+            return kMeansPlusPlus(nbClusters);
+        }
+
+        return weightedKMeansPlusPlus(c, candidateWeights(c), nbClusters);
+    }
+
+
+    /**
+     * Number of pixels closest to each of the candidates.
+     */
+    private long[] candidateWeights(final float[][] candidates) {
+        final long[][] blockCounts = new long[nbBlocks][];
+        ParallelBands.run(null, numberOfThreads, 0, nbBlocks, (band, blockStart, blockEnd) -> {
+            final float[] buffer = new float[nbValues];
+            for (int b = blockStart; b < blockEnd; b++) {
+                final long[] counts = new long[candidates.length];
+                for (int i = b * KMeans.PIXEL_BLOCK_SIZE; i < blockEnd(b); i++) {
+                    counts[KMeansUtils.closestCluster(kMeans.pixelValue(i, buffer), candidates)]++;
+                }
+                blockCounts[b] = counts;
+            }
+        });
+
+        final long[] weights = new long[candidates.length];
+        for (final long[] counts : blockCounts) {
+            for (int c = 0; c < weights.length; c++) {
+                weights[c] += counts[c];
+            }
+        }
+        return weights;
+    }
+
+
+    private float[][] weightedKMeansPlusPlus(final float[][] points, final long[] weights, final int nbClusters) {
+        final float[][] centers = new float[nbClusters][];
+        final double[] d2 = new double[points.length];
+        Arrays.fill(d2, Double.POSITIVE_INFINITY);
+
+        // First center selected with probability proportional to weight
+        long totalWeight = 0;
+        for (final long w : weights) {
+            totalWeight += w;
+        }
+        final double r0 = random.nextDouble() * totalWeight;
+        double cumulative = 0;
+        int selected = points.length - 1;
+        for (int i = 0; i < points.length; i++) {
+            cumulative += weights[i];
+            if (cumulative > r0) {
+                selected = i;
+                break;
+            }
+        }
+
+        for (int c = 0; c < nbClusters; c++) {
+            if (c > 0) {
+                double sum = 0;
+                for (int i = 0; i < points.length; i++) {
+                    sum += weights[i] * d2[i];
+                }
+                final double r = random.nextDouble() * sum;
+                cumulative = 0;
+                selected = points.length - 1;
+                for (int i = 0; i < points.length; i++) {
+                    cumulative += weights[i] * d2[i];
+                    if (cumulative > r) {
+                        selected = i;
+                        break;
+                    }
+                }
+            }
+
+            centers[c] = points[selected].clone();
+            for (int i = 0; i < points.length; i++) {
+                d2[i] = Math.min(d2[i], KMeansUtils.distanceSqr(centers[c], points[i]));
+            }
+        }
+
+        return centers;
+    }
+
+
+    /**
+     * Update distance from each pixel to the nearest center using centers from {@code first} to {@code last - 1},
+     * and update sums of distances in each block.
+     */
+    private void updateMinDistances(final float[][] centers, final int first, final int last) {
+        ParallelBands.run(null, numberOfThreads, 0, nbBlocks, (band, blockStart, blockEnd) -> {
+            final float[] buffer = new float[nbValues];
+            for (int b = blockStart; b < blockEnd; b++) {
+                double sum = 0;
+                for (int i = b * KMeans.PIXEL_BLOCK_SIZE; i < blockEnd(b); i++) {
+                    final float[] v = kMeans.pixelValue(i, buffer);
+                    double d = minDistances[i];
+                    for (int c = first; c < last; c++) {
+                        d = Math.min(d, KMeansUtils.distanceSqr(v, centers[c]));
+                    }
+                    minDistances[i] = d;
+                    sum += d;
+                }
+                blockSums[b] = sum;
+            }
+        });
+    }
+
+
+    /**
+     * Sum of distances to the nearest center, over all pixels. Updates cumulative sums of blocks.
+     */
+    private double sum() {
+        double sum = 0;
+        for (int b = 0; b < nbBlocks; b++) {
+            sum += blockSums[b];
+            cumulativeSums[b] = sum;
+        }
+        return sum;
+    }
+
+
+    /**
+     * Find first pixel for which cumulative sum of distances reaches {@code r}. Pixels already selected are skipped.
+     *
+     * @param r          value of cumulative sum, between 0 and {@link #sum()}, the last computed.
+     * @param selected   pixels selected so far.
+     * @param nbSelected number of pixels selected so far.
+     * @return index of the pixel.
+     */
+    private int select(final double r, final int[] selected, final int nbSelected) {
+        // Binary search for the first block where cumulative sum reaches r
+        int block = Arrays.binarySearch(cumulativeSums, r);
+        if (block < 0) {
+            block = Math.min(-block - 1, nbBlocks - 1);
+        } else {
+            // Find the first of equal sums
+            while (block > 0 && cumulativeSums[block - 1] >= r) {
+                block--;
+            }
+        }
+
+        // Scan within the block
+        final int start = block * KMeans.PIXEL_BLOCK_SIZE;
+        final int end = blockEnd(block);
+        int index = end - 1;
+        double cumulative = block > 0 ? cumulativeSums[block - 1] : 0;
+        for (int i = start; i < end; i++) {
+            cumulative += minDistances[i];
+            if (cumulative >= r) {
+                index = i;
+                break;
+            }
+        }
+
+        // Do not repeat already selected center
+        while (nbSelected < nbPixels && contains(selected, nbSelected, index)) {
+            index = (index + 1) % nbPixels;
+        }
+
+        return index;
+    }
+
+
+    private static boolean contains(final int[] values, final int length, final int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private int blockEnd(final int block) {
+        return (int) Math.min((long) (block + 1) * KMeans.PIXEL_BLOCK_SIZE, nbPixels);
+    }
+
+
+    private float[] pixelValue(final int index) {
+        final float[] dest = new float[nbValues];
+        final float[] v = kMeans.pixelValue(index, dest);
+        return v == dest ? dest : v.clone();
+    }
+}
@@ -50,13 +50,13 @@ final class KMeansUtils {
             s.addSlice("Band i", new FloatProcessor(width, height));
         }
 
-        final VectorProcessor.PixelIterator iterator = vp.pixelIterator();
         final Object[] pixels = s.getImageArray();
-        while (iterator.hasNext()) {
-            final float[] v = iterator.next();
+        final float[] v = new float[numberOfValues];
+        for (int offset = 0; offset < width * height; offset++) {
+            vp.getValues(offset, v);
             final int c = closestCluster(v, clusterCenters);
             for (int j = 0; j < numberOfValues; ++j) {
-                ((float[]) pixels[j])[iterator.getOffset()] = clusterCenters[c][j];
+                ((float[]) pixels[j])[offset] = clusterCenters[c][j];
             }
         }
 
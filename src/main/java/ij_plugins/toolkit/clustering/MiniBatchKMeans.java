@@ -0,0 +1,216 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.clustering;
+
+import ij.IJ;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij_plugins.toolkit.util.ParallelBands;
+
+import java.util.Random;
+
+/**
+ * Mini-batch k-means working directly on a multi-band image stack, as described in:
+ * D. Sculley, "Web-scale k-means clustering", Proceedings of the 19th International Conference on World Wide Web,
+ * 2010.
+ * <br>
+ * Pixels are never loaded all at once. Random samples are read from the stack one band at a time, in chunks of
+ * mini-batches of at most {@link #MAX_SAMPLE_VALUES} values, cluster centers are updated incrementally from each
+ * mini-batch. Then pixels are assigned to clusters in a single pass over the bands, accumulating squared distance of
+ * each pixel to each cluster center. Each slice of the stack is retrieved once for each chunk of samples and once
+ * when assigning pixels, so this works with virtual stacks too. Apart from a single slice, memory use is given by
+ * the chunk size and by the number of clusters times the number of pixels, it does not depend on the number of
+ * bands.
+ *
+ * @author Jarek Sacha
+ */
+final class MiniBatchKMeans {
+
+    /**
+     * Maximum number of values, samples times bands, in a chunk of mini-batches read from the stack at once.
+     * A chunk contains at least one mini-batch.
+     */
+    static final int MAX_SAMPLE_VALUES = 1 << 22;
+
+    private MiniBatchKMeans() {
+    }
+
+
+    /**
+     * Number of mini-batches in a chunk of samples read from the stack at once.
+     *
+     * @param miniBatchSize number of samples in a mini-batch.
+     * @param nbBands       number of bands.
+     * @return number of mini-batches, at least 1.
+     */
+    static int batchesPerChunk(final int miniBatchSize, final int nbBands) {
+        return (int) Math.max(1, MAX_SAMPLE_VALUES / ((long) miniBatchSize * nbBands));
+    }
+
+
+    /**
+     * Read values of randomly selected pixels.
+     *
+     * @param stack        multi-band image, each slice is a band.
+     * @param nbSamples    number of pixels to read, the same pixel may be read more than once.
+     * @param random       random number generator used to select pixels.
+     * @return array of samples, first index is the sample number, second the band.
+     */
+    static float[][] sample(final ImageStack stack, final int nbSamples, final Random random) {
+        final int nbPixels = stack.getWidth() * stack.getHeight();
+        final int nbBands = stack.getSize();
+
+        final int[] offsets = new int[nbSamples];
+        for (int i = 0; i < nbSamples; i++) {
+            offsets[i] = random.nextInt(nbPixels);
+        }
+
+        final float[][] samples = new float[nbSamples][nbBands];
+        for (int b = 0; b < nbBands; b++) {
+            IJ.showStatus("Sampling band " + (b + 1) + " of " + nbBands);
+            final ImageProcessor ip = stack.getProcessor(b + 1);
+            for (int i = 0; i < nbSamples; i++) {
+                samples[i][b] = ip.getf(offsets[i]);
+            }
+        }
+
+        return samples;
+    }
+
+
+    /**
+     * Update cluster centers using mini-batches of samples. Within each mini-batch samples are first assigned to the
+     * closest center, then each center is moved towards its samples with per-center learning rate equal to the
+     * inverse of the number of samples assigned to the center so far.
+     *
+     * @param centers       cluster centers, updated in place.
+     * @param counts        number of samples assigned to each center so far, updated in place.
+     * @param samples       pixel values.
+     * @param miniBatchSize number of samples in a mini-batch.
+     * @param firstBatch    number of mini-batches processed before, used to report progress.
+     * @param totalBatches  total number of mini-batches, used to report progress.
+     */
+    static void update(final float[][] centers, final long[] counts, final float[][] samples, final int miniBatchSize,
+                       final int firstBatch, final int totalBatches) {
+        final int nbValues = centers[0].length;
+        final int[] assignments = new int[miniBatchSize];
+        final int nbBatches = samples.length / miniBatchSize;
+        for (int batch = 0; batch < nbBatches; batch++) {
+            final int start = batch * miniBatchSize;
+            for (int i = 0; i < miniBatchSize; i++) {
+                assignments[i] = KMeansUtils.closestCluster(samples[start + i], centers);
+            }
+
+            for (int i = 0; i < miniBatchSize; i++) {
+                final int c = assignments[i];
+                final float[] x = samples[start + i];
+                final float[] center = centers[c];
+                counts[c]++;
+                final double eta = 1.0 / counts[c];
+                for (int j = 0; j < nbValues; j++) {
+                    center[j] = (float) (center[j] + eta * (x[j] - center[j]));
+                }
+            }
+
+            IJ.showStatus("Mini-batch k-means iteration " + (firstBatch + batch + 1) + " of " + totalBatches);
+        }
+    }
+
+
+    /**
+     * Assign each pixel in the stack to the closest cluster. Each band is read once, squared distances of pixels to
+     * cluster centers are accumulated band by band.
+     *
+     * @param stack           multi-band image, each slice is a band.
+     * @param centers         cluster centers.
+     * @param numberOfThreads number of threads used to process pixels of a band.
+     * @return image of cluster indices.
+     */
+    static ByteProcessor encodeSegmentedImage(final ImageStack stack,
+                                              final float[][] centers,
+                                              final int numberOfThreads) {
+        final int width = stack.getWidth();
+        final int height = stack.getHeight();
+        final int nbPixels = width * height;
+        final int nbBands = stack.getSize();
+        final int nbClusters = centers.length;
+
+        final ByteProcessor dest = new ByteProcessor(width, height);
+        final byte[] destPixels = (byte[]) dest.getPixels();
+        // Squared distance of each pixel to each cluster center, summed over bands read so far
+        final float[][] distances = new float[nbClusters][nbPixels];
+        for (int b = 0; b < nbBands; b++) {
+            IJ.showProgress(b, nbBands);
+            final ImageProcessor ip = stack.getProcessor(b + 1);
+            final int band = b;
+            final boolean last = b == nbBands - 1;
+            ParallelBands.run(null, numberOfThreads, 0, nbPixels, (pixelBand, start, end) -> {
+                for (int offset = start; offset < end; offset++) {
+                    final float v = ip.getf(offset);
+                    float minDistance = Float.MAX_VALUE;
+                    int closestCluster = 0;
+                    for (int c = 0; c < nbClusters; c++) {
+                        final float d = v - centers[c][band];
+                        final float distance = distances[c][offset] + d * d;
+                        distances[c][offset] = distance;
+                        if (last && distance < minDistance) {
+                            minDistance = distance;
+                            closestCluster = c;
+                        }
+                    }
+                    if (last) {
+                        destPixels[offset] = (byte) closestCluster;
+                    }
+                }
+            });
+        }
+        IJ.showProgress(nbBands, nbBands);
+
+        return dest;
+    }
+
+
+    /**
+     * Create multi-band image where each pixel is replaced by the center of its cluster.
+     *
+     * @param segmented image of cluster indices.
+     * @param centers   cluster centers.
+     * @return stack with a slice for each band.
+     */
+    static ImageStack encodeCentroidValueImage(final ByteProcessor segmented, final float[][] centers) {
+        final int width = segmented.getWidth();
+        final int height = segmented.getHeight();
+        final byte[] clusters = (byte[]) segmented.getPixels();
+        final ImageStack s = new ImageStack(width, height);
+        for (int b = 0; b < centers[0].length; b++) {
+            final float[] pixels = new float[width * height];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = centers[clusters[i] & 0xff][b];
+            }
+            s.addSlice("Band " + (b + 1), new FloatProcessor(width, height, pixels));
+        }
+
+        return s;
+    }
+}
@@ -241,25 +241,41 @@ public final class ColorSpaceConversion {
      * Convert between RGB and CIE L*a*b* color image representation.
      *
      * @param cp RGB image to be converted
-     * @return CIE L*a*b* image represented by {@link VectorProcessor}.
+     * @return CIE L*a*b* image represented by {@link VectorProcessor} with {@link VectorProcessor.Layout#PIXEL_ARRAYS}
+     * layout.
      */
     public static VectorProcessor rgbToLabVectorProcessor(final ColorProcessor cp) {
+        return rgbToLabVectorProcessor(cp, VectorProcessor.Layout.PIXEL_ARRAYS);
+    }
+
 
-        final VectorProcessor vp = new VectorProcessor(cp);
-        final float[][] pixels = vp.getPixels();
+    /**
+     * Convert between RGB and CIE L*a*b* color image representation.
+     *
+     * @param cp     RGB image to be converted
+     * @param layout layout of the returned image.
+     * @return CIE L*a*b* image represented by {@link VectorProcessor}.
+     */
+    public static VectorProcessor rgbToLabVectorProcessor(final ColorProcessor cp,
+                                                          final VectorProcessor.Layout layout) {
+
+        final VectorProcessor vp = new VectorProcessor(cp, layout);
+        final int nbPixels = vp.getWidth() * vp.getHeight();
+        final float[] pixel = new float[3];
         final float[] tmp = new float[3];
 
         // Calculate increment, make sure that different/larger than 0 otherwise '%' operation will fail.
-        final int progressStep = Math.max(pixels.length / 10, 1);
-        for (int i = 0; i < pixels.length; i++) {
+        final int progressStep = Math.max(nbPixels / 10, 1);
+        for (int i = 0; i < nbPixels; i++) {
             if (i % progressStep == 0) {
-                IJ.showProgress(i, pixels.length);
+                IJ.showProgress(i, nbPixels);
             }
-            final float[] pixel = pixels[i];
+            vp.getValues(i, pixel);
             ColorSpaceConversion.rgbToXYZ(pixel, tmp);
             ColorSpaceConversion.xyzToLab(tmp, pixel);
+            vp.setValues(i, pixel);
         }
-        IJ.showProgress(pixels.length, pixels.length);
+        IJ.showProgress(nbPixels, nbPixels);
 
         return vp;
     }
@@ -269,24 +285,39 @@ public final class ColorSpaceConversion {
      * Convert between sRGB and XYZ color image representation.
      *
      * @param cp RGB image to be converted
-     * @return XYZ image represented by {@link VectorProcessor}.
+     * @return XYZ image represented by {@link VectorProcessor} with {@link VectorProcessor.Layout#PIXEL_ARRAYS} layout.
      */
     public static VectorProcessor rgbToXYZVectorProcessor(final ColorProcessor cp) {
+        return rgbToXYZVectorProcessor(cp, VectorProcessor.Layout.PIXEL_ARRAYS);
+    }
+
+
+    /**
+     * Convert between sRGB and XYZ color image representation.
+     *
+     * @param cp     RGB image to be converted
+     * @param layout layout of the returned image.
+     * @return XYZ image represented by {@link VectorProcessor}.
+     */
+    public static VectorProcessor rgbToXYZVectorProcessor(final ColorProcessor cp,
+                                                          final VectorProcessor.Layout layout) {
 
-        final VectorProcessor vp = new VectorProcessor(cp);
-        final float[][] pixels = vp.getPixels();
+        final VectorProcessor vp = new VectorProcessor(cp, layout);
+        final int nbPixels = vp.getWidth() * vp.getHeight();
+        final float[] pixel = new float[3];
 
         // Calculate increment, make sure that different/larger than 0 otherwise '%' operation will fail.
-        final int progressStep = Math.max(pixels.length / 10, 1);
-        for (int i = 0; i < pixels.length; i++) {
+        final int progressStep = Math.max(nbPixels / 10, 1);
+        for (int i = 0; i < nbPixels; i++) {
             if (i % progressStep == 0) {
-                IJ.showProgress(i, pixels.length);
+                IJ.showProgress(i, nbPixels);
             }
-            final float[] pixel = pixels[i];
+            vp.getValues(i, pixel);
             // Replace sRGB content with XYZ
             ColorSpaceConversion.rgbToXYZ(pixel, pixel);
+            vp.setValues(i, pixel);
         }
-        IJ.showProgress(pixels.length, pixels.length);
+        IJ.showProgress(nbPixels, nbPixels);
 
         return vp;
     }
@@ -299,7 +330,7 @@ public final class ColorSpaceConversion {
      * @return RGB image represented by a {@link ColorProcessor}.
      */
     public static ColorProcessor labToColorProcessor(final VectorProcessor vp) {
-        final float[][] pixels = vp.getPixels();
+        final float[] pixel = new float[3];
         final float[] tmpXYZ = new float[3];
         final float[] tmpRGB = new float[3];
 
@@ -311,12 +342,12 @@ public final class ColorSpaceConversion {
         final byte[] blue = new byte[sliceSize];
 
         // Calculate increment, make sure that different/larger than 0 otherwise '%' operation will fail.
-        final int progressStep = Math.max(pixels.length / 10, 1);
-        for (int i = 0; i < pixels.length; i++) {
+        final int progressStep = Math.max(sliceSize / 10, 1);
+        for (int i = 0; i < sliceSize; i++) {
             if (i % progressStep == 0) {
-                IJ.showProgress(i, pixels.length);
+                IJ.showProgress(i, sliceSize);
             }
-            final float[] pixel = pixels[i];
+            vp.getValues(i, pixel);
             ColorSpaceConversion.labToXYZ(pixel, tmpXYZ);
             ColorSpaceConversion.xyzToRGB(tmpXYZ, tmpRGB);
             final int r = Math.min(Math.max(Math.round(tmpRGB[0]), 0), 255);
@@ -326,7 +357,7 @@ public final class ColorSpaceConversion {
             green[i] = (byte) (g & 0xff);
             blue[i] = (byte) (b & 0xff);
         }
-        IJ.showProgress(pixels.length, pixels.length);
+        IJ.showProgress(sliceSize, sliceSize);
 
         final ColorProcessor cp = new ColorProcessor(width, height);
         cp.setRGB(red, green, blue);
@@ -338,27 +369,42 @@ public final class ColorSpaceConversion {
      * Convert between CIE L*a*b* and XYZ color image representation.
      *
      * @param vp L*a*b* image represented by {@link VectorProcessor}.
-     * @return XYZ image represented by a {@link VectorProcessor}.
+     * @return XYZ image represented by a {@link VectorProcessor} with {@link VectorProcessor.Layout#PIXEL_ARRAYS}
+     * layout.
      */
     public static VectorProcessor labToXYZVectorProcessor(final VectorProcessor vp) {
-        final float[][] pixels = vp.getPixels();
+        return labToXYZVectorProcessor(vp, VectorProcessor.Layout.PIXEL_ARRAYS);
+    }
+
+
+    /**
+     * Convert between CIE L*a*b* and XYZ color image representation.
+     *
+     * @param vp     L*a*b* image represented by {@link VectorProcessor}.
+     * @param layout layout of the returned image.
+     * @return XYZ image represented by a {@link VectorProcessor}.
+     */
+    public static VectorProcessor labToXYZVectorProcessor(final VectorProcessor vp,
+                                                          final VectorProcessor.Layout layout) {
         final int width = vp.getWidth();
         final int height = vp.getHeight();
+        final int nbPixels = width * height;
+        final float[] pixel = new float[3];
+        final float[] xyz = new float[3];
 
-        final VectorProcessor dest = new VectorProcessor(width, height, 3);
-        final float[][] destPixels = dest.getPixels();
+        final VectorProcessor dest = new VectorProcessor(width, height, 3, layout);
 
         // Calculate increment, make sure that different/larger than 0 otherwise '%' operation will fail.
-        final int progressStep = Math.max(pixels.length / 10, 1);
-        for (int i = 0; i < pixels.length; i++) {
+        final int progressStep = Math.max(nbPixels / 10, 1);
+        for (int i = 0; i < nbPixels; i++) {
             if (i % progressStep == 0) {
-                IJ.showProgress(i, pixels.length);
+                IJ.showProgress(i, nbPixels);
             }
-            final float[] pixel = pixels[i];
-            final float[] xyz = destPixels[i];
+            vp.getValues(i, pixel);
             ColorSpaceConversion.labToXYZ(pixel, xyz);
+            dest.setValues(i, xyz);
         }
-        IJ.showProgress(pixels.length, pixels.length);
+        IJ.showProgress(nbPixels, nbPixels);
 
         return dest;
     }
@@ -371,7 +417,7 @@ public final class ColorSpaceConversion {
      * @return RGB image represented by a {@link ColorProcessor}.
      */
     public static ColorProcessor xyzToColorProcessor(final VectorProcessor vp) {
-        final float[][] pixels = vp.getPixels();
+        final float[] pixel = new float[3];
         final float[] rgb = new float[3];
 
         final int width = vp.getWidth();
@@ -382,12 +428,12 @@ public final class ColorSpaceConversion {
         final byte[] blue = new byte[sliceSize];
 
         // Calculate increment, make sure that different/larger than 0 otherwise '%' operation will fail.
-        final int progressStep = Math.max(pixels.length / 10, 1);
-        for (int i = 0; i < pixels.length; i++) {
+        final int progressStep = Math.max(sliceSize / 10, 1);
+        for (int i = 0; i < sliceSize; i++) {
             if (i % progressStep == 0) {
-                IJ.showProgress(i, pixels.length);
+                IJ.showProgress(i, sliceSize);
             }
-            final float[] pixel = pixels[i];
+            vp.getValues(i, pixel);
             ColorSpaceConversion.xyzToRGB(pixel, rgb);
             final int r = Math.min(Math.max(Math.round(rgb[0]), 0), 255);
             final int g = Math.min(Math.max(Math.round(rgb[1]), 0), 255);
@@ -396,7 +442,7 @@ public final class ColorSpaceConversion {
             green[i] = (byte) (g & 0xff);
             blue[i] = (byte) (b & 0xff);
         }
-        IJ.showProgress(pixels.length, pixels.length);
+        IJ.showProgress(sliceSize, sliceSize);
 
 
         final ColorProcessor cp = new ColorProcessor(width, height);
@@ -409,27 +455,42 @@ public final class ColorSpaceConversion {
      * Convert between CIE XYZ and L*a*b* color image representation.
      *
      * @param vp XYZ image represented by {@link VectorProcessor}.
-     * @return L*a*b* image represented by a {@link VectorProcessor}.
+     * @return L*a*b* image represented by a {@link VectorProcessor} with {@link VectorProcessor.Layout#PIXEL_ARRAYS}
+     * layout.
      */
     public static VectorProcessor xyzToLabVectorProcessor(final VectorProcessor vp) {
-        final float[][] pixels = vp.getPixels();
+        return xyzToLabVectorProcessor(vp, VectorProcessor.Layout.PIXEL_ARRAYS);
+    }
+
+
+    /**
+     * Convert between CIE XYZ and L*a*b* color image representation.
+     *
+     * @param vp     XYZ image represented by {@link VectorProcessor}.
+     * @param layout layout of the returned image.
+     * @return L*a*b* image represented by a {@link VectorProcessor}.
+     */
+    public static VectorProcessor xyzToLabVectorProcessor(final VectorProcessor vp,
+                                                          final VectorProcessor.Layout layout) {
         final int width = vp.getWidth();
         final int height = vp.getHeight();
+        final int nbPixels = width * height;
+        final float[] pixel = new float[3];
+        final float[] lab = new float[3];
 
-        final VectorProcessor dest = new VectorProcessor(width, height, 3);
-        final float[][] destPixels = dest.getPixels();
+        final VectorProcessor dest = new VectorProcessor(width, height, 3, layout);
 
         // Calculate increment, make sure that different/larger than 0 otherwise '%' operation will fail.
-        final int progressStep = Math.max(pixels.length / 10, 1);
-        for (int i = 0; i < pixels.length; i++) {
+        final int progressStep = Math.max(nbPixels / 10, 1);
+        for (int i = 0; i < nbPixels; i++) {
             if (i % progressStep == 0) {
-                IJ.showProgress(i, pixels.length);
+                IJ.showProgress(i, nbPixels);
             }
-            final float[] pixel = pixels[i];
-            final float[] lab = destPixels[i];
+            vp.getValues(i, pixel);
             ColorSpaceConversion.xyzToLab(pixel, lab);
+            dest.setValues(i, lab);
         }
-        IJ.showProgress(pixels.length, pixels.length);
+        IJ.showProgress(nbPixels, nbPixels);
 
         return dest;
     }
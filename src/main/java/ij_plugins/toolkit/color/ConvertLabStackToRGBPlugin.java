@@ -72,7 +72,7 @@ public class ConvertLabStackToRGBPlugin implements PlugIn {
         }
 
         IJ.showStatus(PLUGIN_NAME);
-        final VectorProcessor vp = new VectorProcessor(imp.getStack());
+        final VectorProcessor vp = new VectorProcessor(imp.getStack(), VectorProcessor.Layout.BAND_PLANAR);
         final ColorProcessor cp = ColorSpaceConversion.labToColorProcessor(vp);
         final ImagePlus dest = new ImagePlus(imp.getTitle() + " - RGB", cp);
         dest.show();
@@ -66,8 +66,9 @@ public class ConvertLabStackToXYZPlugin implements PlugIn {
         }
 
         IJ.showStatus(PLUGIN_NAME);
-        final VectorProcessor vp = new VectorProcessor(imp.getStack());
-        final VectorProcessor lab = ColorSpaceConversion.labToXYZVectorProcessor(vp);
+        final VectorProcessor vp = new VectorProcessor(imp.getStack(), VectorProcessor.Layout.BAND_PLANAR);
+        final VectorProcessor lab =
+                ColorSpaceConversion.labToXYZVectorProcessor(vp, VectorProcessor.Layout.BAND_PLANAR);
         final ImagePlus dest = lab.toFloatStack(new String[]{"X", "Y", "X"});
         dest.setTitle(imp.getTitle() + " - XYZ");
         dest.show();
@@ -67,7 +67,7 @@ public class ConvertRGBToLabStackPlugin implements PlugInFilter {
         IJ.showStatus(PLUGIN_NAME);
 
         final ColorProcessor cp = (ColorProcessor) ip;
-        final VectorProcessor vp = ColorSpaceConversion.rgbToLabVectorProcessor(cp);
+        final VectorProcessor vp = ColorSpaceConversion.rgbToLabVectorProcessor(cp, VectorProcessor.Layout.BAND_PLANAR);
         final ImagePlus imp = vp.toFloatStack(new String[]{"L*", "a*", "b*"});
         imp.setTitle(imageTitle + " - L*a*b*");
         imp.show();
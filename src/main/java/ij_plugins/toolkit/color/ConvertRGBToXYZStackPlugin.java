@@ -66,7 +66,7 @@ public class ConvertRGBToXYZStackPlugin implements PlugInFilter {
 //        IJ.showStatus(PLUGIN_NAME);
 
         final ColorProcessor cp = (ColorProcessor) ip;
-        final VectorProcessor vp = ColorSpaceConversion.rgbToXYZVectorProcessor(cp);
+        final VectorProcessor vp = ColorSpaceConversion.rgbToXYZVectorProcessor(cp, VectorProcessor.Layout.BAND_PLANAR);
         final ImagePlus imp = vp.toFloatStack(new String[]{"X", "Y", "Z"});
         imp.setTitle(imageTitle + " - XYZ");
         imp.show();
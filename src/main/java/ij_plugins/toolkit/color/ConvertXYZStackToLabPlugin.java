@@ -64,8 +64,9 @@ public class ConvertXYZStackToLabPlugin implements PlugIn {
         }
 
 //        IJ.showStatus(PLUGIN_NAME);
-        final VectorProcessor vp = new VectorProcessor(imp.getStack());
-        final VectorProcessor lab = ColorSpaceConversion.xyzToLabVectorProcessor(vp);
+        final VectorProcessor vp = new VectorProcessor(imp.getStack(), VectorProcessor.Layout.BAND_PLANAR);
+        final VectorProcessor lab =
+                ColorSpaceConversion.xyzToLabVectorProcessor(vp, VectorProcessor.Layout.BAND_PLANAR);
         final ImagePlus dest = lab.toFloatStack(new String[]{"L*", "a*", "b*"});
         dest.setTitle(imp.getTitle() + " - L*a*b*");
         dest.show();
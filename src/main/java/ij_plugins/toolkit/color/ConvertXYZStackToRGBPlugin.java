@@ -67,7 +67,7 @@ public class ConvertXYZStackToRGBPlugin implements PlugIn {
         }
 
 //        IJ.showStatus(PLUGIN_NAME);
-        final VectorProcessor vp = new VectorProcessor(imp.getStack());
+        final VectorProcessor vp = new VectorProcessor(imp.getStack(), VectorProcessor.Layout.BAND_PLANAR);
         final ColorProcessor cp = ColorSpaceConversion.xyzToColorProcessor(vp);
         final ImagePlus dest = new ImagePlus(imp.getTitle() + " - RGB", cp);
         dest.show();
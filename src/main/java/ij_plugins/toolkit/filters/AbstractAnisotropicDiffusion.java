@@ -21,17 +21,33 @@
  */
 package ij_plugins.toolkit.filters;
 
+import ij.ImageStack;
 import ij.process.FloatProcessor;
+import ij_plugins.toolkit.ui.progress.ProgressAccumulator;
 import ij_plugins.toolkit.ui.progress.ProgressReporter4J;
 import ij_plugins.toolkit.util.IJDebug;
+import ij_plugins.toolkit.util.ParallelBands;
+import ij_plugins.toolkit.util.Validate;
 
+import java.awt.*;
 import java.text.DecimalFormat;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 /**
  * Base class for implementing anisotropic diffusion filters. extending classes need only to
- * implement single diffusion step: {@link #diffuse(ij.process.FloatProcessor,
- * ij.process.FloatProcessor)} .
+ * implement single diffusion step: {@link #diffuse(float[], float[], int, Rectangle, int, int, int)}.
+ * <br>
+ * Each diffusion step can be executed by several threads, each processing a band of image rows.
+ * Bands read neighbouring rows of the source image directly, the destination is a separate buffer,
+ * so results do not depend on the number of threads.
+ * <br>
+ * Stacks can be processed using {@link #process(ImageStack)}, slices are then distributed among the threads.
  *
  * @author Jarek Sacha
  */
@@ -41,6 +57,8 @@ public abstract class AbstractAnisotropicDiffusion extends ProgressReporter4J {
     private int numberOfIterations = 100;
     private double timeStep = 0.05;
     private double meanSquareError = 0.01;
+    private int numberOfThreads = 1;
+    private int queueDepth = 0;
 
     // Internal variables
     private final DecimalFormat decimalFormat = new DecimalFormat("0.######");
@@ -77,10 +95,45 @@ public abstract class AbstractAnisotropicDiffusion extends ProgressReporter4J {
     }
 
 
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+
+    /**
+     * Set number of threads used in each diffusion step.
+     *
+     * @param numberOfThreads number of threads, must be at least 1.
+     */
+    public void setNumberOfThreads(final int numberOfThreads) {
+        Validate.isTrue(numberOfThreads > 0, "Number of threads must be at least 1, got " + numberOfThreads + ".");
+        this.numberOfThreads = numberOfThreads;
+    }
+
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+
+    /**
+     * Set maximum number of stack slices that are processed, or waiting for processing, at the same time when
+     * filtering stacks with {@link #process(ImageStack)}. This limits memory used by slice working copies.
+     *
+     * @param queueDepth maximum number of slices in flight, if 0 twice the number of threads is used.
+     */
+    public void setQueueDepth(final int queueDepth) {
+        Validate.isTrue(queueDepth >= 0, "Queue depth cannot be negative, got " + queueDepth + ".");
+        this.queueDepth = queueDepth;
+    }
+
+
     /**
      * Performs anisotropic diffusion. Makes <code>numberOfIterations</code> calls to {@link
-     * #diffuse(ij.process.FloatProcessor, ij.process.FloatProcessor)}, updating value of
-     * <code>time</code> before each call.
+     * #diffuse(float[], float[], int, Rectangle, int, int, int)} for each band of image rows, updating value of
+     * <code>time</code> before each iteration.
+     * <br>
+     * Pixels on the image border are not modified.
      *
      * @param src input image to which to apply anisotropic diffusion.
      * @return result of anisotropic diffusion filtering.
@@ -91,9 +144,26 @@ public abstract class AbstractAnisotropicDiffusion extends ProgressReporter4J {
         FloatProcessor fp1 = (FloatProcessor) src.duplicate();
         FloatProcessor fp2 = (FloatProcessor) src.duplicate();
 
+        final int width = fp1.getWidth();
+        final int height = fp1.getHeight();
+        final Rectangle interior = new Rectangle(1, 1, width - 2, height - 2);
+        if (interior.isEmpty()) {
+            notifyProgressListeners(1, "");
+            return fp1;
+        }
+
+        final int yEnd = interior.y + interior.height;
+        final int numberOfBands = ParallelBands.numberOfBands(numberOfThreads, interior.y, yEnd);
+        final double[] bandSums = new double[numberOfBands];
+        final int numberOfPixels = width * height;
+        initialize(width, height, numberOfBands);
+
         for (int i = 0; i < numberOfIterations; i++) {
             time = i * timeStep;
-            diffuse(fp1, fp2);
+            final float[] srcPixels = (float[]) fp1.getPixels();
+            final float[] destPixels = (float[]) fp2.getPixels();
+            ParallelBands.run(null, numberOfBands, interior.y, yEnd, (band, start, end) ->
+                    bandSums[band] = diffuse(srcPixels, destPixels, width, interior, band, start, end));
 
             // swap
             final FloatProcessor tmp = fp2;
@@ -101,7 +171,11 @@ public abstract class AbstractAnisotropicDiffusion extends ProgressReporter4J {
             fp1 = tmp;
 
             // test change in images
-            final double mse = meanSquareDifference((float[]) fp1.getPixels(), (float[]) fp2.getPixels());
+            double sum = 0;
+            for (final double bandSum : bandSums) {
+                sum += bandSum;
+            }
+            final double mse = Math.sqrt(sum / numberOfPixels);
             final String msg = "Iteration: " + i + ", mean square error: " + decimalFormat.format(mse);
             notifyProgressListeners((double) (i + 1) / (double) numberOfIterations, msg);
             IJDebug.log(msg);
@@ -117,35 +191,150 @@ public abstract class AbstractAnisotropicDiffusion extends ProgressReporter4J {
 
 
     /**
-     * Perform single diffusion operation, called iteratively by {@link
-     * #process(ij.process.FloatProcessor)}.
+     * Performs anisotropic diffusion of each slice of a stack. Slices are filtered independently and distributed
+     * among <code>numberOfThreads</code> worker threads. At most <code>queueDepth</code> slices are in flight at any
+     * time, results are written to the destination stack as soon as a slice is completed. Progress of all slices is
+     * aggregated and reported to listeners of this filter.
      *
-     * @param src  source image
-     * @param dest destination image
+     * @param src input stack to which to apply anisotropic diffusion.
+     * @return stack of floating point images containing results of anisotropic diffusion filtering of each slice.
      */
-    protected abstract void diffuse(final FloatProcessor src, final FloatProcessor dest);
+    public ImageStack process(final ImageStack src) {
+        Validate.argumentNotNull(src, "src");
+
+        final int nbSlices = src.getSize();
+        final ImageStack dest = new ImageStack(src.getWidth(), src.getHeight(), nbSlices);
+
+        // Split threads between slices, remaining threads are used within each slice
+        final int nbWorkers = Math.max(1, Math.min(numberOfThreads, nbSlices));
+        final int threadsPerSlice = Math.max(1, numberOfThreads / nbWorkers);
+        final int maxInFlight = queueDepth > 0 ? queueDepth : 2 * nbWorkers;
+
+        final ProgressAccumulator accumulator = new ProgressAccumulator();
+        accumulator.addProgressListener(e -> notifyProgressListeners(e.progress(), e.message()));
+        final SliceTask[] tasks = new SliceTask[nbSlices];
+        for (int i = 0; i < nbSlices; i++) {
+            tasks[i] = new SliceTask(this, src, dest, i + 1, threadsPerSlice);
+            accumulator.addProgressReporter(tasks[i]);
+        }
+
+        notifyProgressListeners(0, "");
+        final ExecutorService threadPool = Executors.newFixedThreadPool(nbWorkers);
+        try {
+            final CompletionService<Void> completionService = new ExecutorCompletionService<>(threadPool);
+            int nbSubmitted = 0;
+            int nbCompleted = 0;
+            while (nbCompleted < nbSlices) {
+                // Keep queue filled, without exceeding its depth
+                while (nbSubmitted < nbSlices && nbSubmitted - nbCompleted < maxInFlight) {
+                    completionService.submit(tasks[nbSubmitted]);
+                    nbSubmitted++;
+                }
+
+                // Wait for the next slice to complete
+                completionService.take().get();
+                nbCompleted++;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for slice processing to complete.", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        } finally {
+            threadPool.shutdownNow();
+            accumulator.removeAllProgressReporter();
+        }
 
+        notifyProgressListeners(1, "");
 
-    protected double time() {
-        return time;
+        return dest;
     }
 
 
-    private double meanSquareDifference(final float[] a, final float[] b) {
-        assert a != null;
-        assert b != null;
-        assert a.length == b.length;
-
-        if (a.length == 0) {
-            return 0;
+    /**
+     * Filters a single stack slice using a copy of the filter, forwarding progress of the copy.
+     */
+    private static class SliceTask extends ProgressReporter4J implements Callable<Void> {
+        private final AbstractAnisotropicDiffusion prototype;
+        private final ImageStack src;
+        private final ImageStack dest;
+        private final int slice;
+        private final int numberOfThreads;
+
+
+        private SliceTask(final AbstractAnisotropicDiffusion prototype, final ImageStack src, final ImageStack dest,
+                          final int slice, final int numberOfThreads) {
+            this.prototype = prototype;
+            this.src = src;
+            this.dest = dest;
+            this.slice = slice;
+            this.numberOfThreads = numberOfThreads;
         }
 
-        double sum = 0;
-        for (int i = 0; i < a.length; i++) {
-            final float d = a[i] - b[i];
-            sum += d * d;
+
+        @Override
+        public Void call() {
+            final AbstractAnisotropicDiffusion filter = prototype.duplicate();
+            filter.setNumberOfIterations(prototype.numberOfIterations);
+            filter.setTimeStep(prototype.timeStep);
+            filter.setMeanSquareError(prototype.meanSquareError);
+            filter.setNumberOfThreads(numberOfThreads);
+            // Forward progress notification
+            filter.addProgressListener(e -> notifyProgressListeners(e.progress(), e.message()));
+
+            final FloatProcessor fp = (FloatProcessor) src.getProcessor(slice).convertToFloat();
+            dest.setPixels(filter.process(fp).getPixels(), slice);
+            dest.setSliceLabel(src.getSliceLabel(slice), slice);
+            return null;
         }
+    }
+
+
+    /**
+     * Create a new instance of this filter with the same filter specific parameters. Used by {@link
+     * #process(ImageStack)} to filter slices concurrently. Parameters defined in this class, and progress listeners,
+     * do not need to be copied.
+     */
+    protected abstract AbstractAnisotropicDiffusion duplicate();
+
 
-        return Math.sqrt(sum / a.length);
+    /**
+     * Called once by {@link #process(FloatProcessor)} before the first iteration. Extending classes can allocate here
+     * working buffers that are reused in all iterations. Default implementation does nothing.
+     *
+     * @param width         image width.
+     * @param height        image height.
+     * @param numberOfBands number of row bands each iteration is split into.
+     */
+    protected void initialize(final int width, final int height, final int numberOfBands) {
+    }
+
+
+    /**
+     * Perform single diffusion operation on a band of image rows, called iteratively by {@link
+     * #process(ij.process.FloatProcessor)}. Bands may be processed concurrently.
+     *
+     * @param src      source pixels, may be read anywhere.
+     * @param dest     destination pixels, only pixels in rows of the band can be written.
+     * @param width    image width.
+     * @param interior pixels to process, each of them has all neighbours within the image.
+     * @param band     index of the band, from 0 to number of bands - 1.
+     * @param yStart   first row of the band.
+     * @param yEnd     row past the last row of the band.
+     * @return sum of squared differences between source and destination pixels of the band.
+     */
+    protected abstract double diffuse(final float[] src, final float[] dest, final int width,
+                                      final Rectangle interior, final int band, final int yStart, final int yEnd);
+
+
+    protected double time() {
+        return time;
     }
 }
@@ -0,0 +1,544 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.ImageStack;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import ij_plugins.toolkit.io.FloatFileStack;
+import ij_plugins.toolkit.ui.progress.ProgressReporter4J;
+import ij_plugins.toolkit.util.IJDebug;
+import ij_plugins.toolkit.util.ParallelBands;
+import ij_plugins.toolkit.util.Validate;
+
+import java.text.DecimalFormat;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+
+/**
+ * Base class for implementing volumetric anisotropic diffusion filters, stack slices are treated as a 3D image.
+ * Extending classes need only to implement diffusion step for a single slice:
+ * {@link #diffuse(float[], float[], float[], float[], int, int)}. Filters that need a smoothed copy of the volume,
+ * for instance to estimate gradient direction, override {@link #isSmoothing()}, {@link #smooth(float[], int, int)},
+ * and {@link #diffuse(float[], float[], float[], float[], float[], float[], float[], int, int, Object, boolean)}.
+ * Values computed for one slice that can be reused for the next one, like fluxes between the slices, can be kept
+ * in slab data, see {@link #createSlabData(int, int)}.
+ * <br>
+ * Slices are split into slabs that are processed concurrently. By default, the volume is converted to floating
+ * point and each iteration reads one copy of it and writes another. In low memory mode slices are streamed through
+ * the destination stack and updated in place. The filter then keeps only a few float slices per slab: the previous,
+ * current, and next slice, and the slices just outside of the slab (halo slices). The source stack is read one slice
+ * at a time, it is never converted to a float volume. The result is still stored in the destination stack, memory
+ * use is bounded only when the destination is a {@link FloatFileStack}. Results are the same in both modes and do
+ * not depend on the number of threads.
+ * <br>
+ * There is no flux through the volume boundary.
+ *
+ * @author Jarek Sacha
+ */
+public abstract class AbstractAnisotropicDiffusion3D extends ProgressReporter4J {
+
+    // Properties
+    private int numberOfIterations = 100;
+    private double timeStep = 0.05;
+    private double meanSquareError = 0.01;
+    private int numberOfThreads = 1;
+    private boolean lowMemory = false;
+
+    // Internal variables
+    private final DecimalFormat decimalFormat = new DecimalFormat("0.######");
+    private double time;
+
+
+    public int getNumberOfIterations() {
+        return numberOfIterations;
+    }
+
+
+    public void setNumberOfIterations(final int numberOfIterations) {
+        this.numberOfIterations = numberOfIterations;
+    }
+
+
+    public double getTimeStep() {
+        return timeStep;
+    }
+
+
+    public void setTimeStep(final double timeStep) {
+        this.timeStep = timeStep;
+    }
+
+
+    public double getMeanSquareError() {
+        return meanSquareError;
+    }
+
+
+    public void setMeanSquareError(final double meanSquareError) {
+        this.meanSquareError = meanSquareError;
+    }
+
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+
+    /**
+     * Set number of threads used in each diffusion step.
+     *
+     * @param numberOfThreads number of threads, must be at least 1.
+     */
+    public void setNumberOfThreads(final int numberOfThreads) {
+        Validate.isTrue(numberOfThreads > 0, "Number of threads must be at least 1, got " + numberOfThreads + ".");
+        this.numberOfThreads = numberOfThreads;
+    }
+
+
+    public boolean isLowMemory() {
+        return lowMemory;
+    }
+
+
+    /**
+     * When <code>true</code> slices of the destination stack are updated in place, the filter keeps only a few float
+     * slices per slab instead of two float copies of the whole volume.
+     *
+     * @see #process(ImageStack, ImageStack)
+     */
+    public void setLowMemory(final boolean lowMemory) {
+        this.lowMemory = lowMemory;
+    }
+
+
+    /**
+     * Performs anisotropic diffusion of a volume. Makes up to <code>numberOfIterations</code> diffusion steps,
+     * stops earlier if mean square change of voxel values is not larger than <code>meanSquareError</code>.
+     *
+     * The result is an in-memory stack, also in low memory mode, use {@link #process(ImageStack, ImageStack)}
+     * with a {@link FloatFileStack} destination to keep it on disk.
+     *
+     * @param src input volume to which to apply anisotropic diffusion, it is not modified.
+     * @return volume of floating point images containing result of anisotropic diffusion filtering.
+     */
+    public ImageStack process(final ImageStack src) {
+        Validate.argumentNotNull(src, "src");
+
+        final ImageStack dest = new ImageStack(src.getWidth(), src.getHeight(), src.getSize());
+        for (int z = 1; z <= src.getSize(); z++) {
+            dest.setSliceLabel(src.getSliceLabel(z), z);
+        }
+        process(src, dest);
+
+        return dest;
+    }
+
+
+    /**
+     * Performs anisotropic diffusion of a volume and writes the result to {@code dest}, as 32-bit slices.
+     * <br>
+     * In low memory mode {@code dest} holds the volume between iterations. It can be the {@code src} stack itself,
+     * if that is a 32-bit stack, then the volume is processed in place without any additional copy.
+     * The {@code src} stack can be virtual, its slices are only read. The {@code dest} stack cannot be a
+     * {@link ij.VirtualStack}, since it discards slices set with {@link ImageStack#setPixels(Object, int)}, except for
+     * {@link FloatFileStack} that writes slices to a file. With {@code src} a virtual stack and {@code dest}
+     * a {@link FloatFileStack}, volumes that do not fit in memory can be processed.
+     *
+     * @param src  input volume, it is not modified unless it is the same as {@code dest}.
+     * @param dest destination stack of the same size as {@code src}, its slices are replaced.
+     * @throws IllegalArgumentException if {@code dest} is a virtual stack other than {@link FloatFileStack}.
+     */
+    public void process(final ImageStack src, final ImageStack dest) {
+        Validate.argumentNotNull(src, "src");
+        Validate.argumentNotNull(dest, "dest");
+        Validate.isTrue(src.getWidth() == dest.getWidth() && src.getHeight() == dest.getHeight()
+                        && src.getSize() == dest.getSize(),
+                "Source and destination stacks must have the same size.");
+        Validate.isTrue(!dest.isVirtual() || dest instanceof FloatFileStack,
+                "Destination stack cannot be virtual, slices written to it would be lost. "
+                        + "Use an in-memory stack or " + FloatFileStack.class.getSimpleName() + ".");
+
+        notifyProgressListeners(0, "");
+
+        final int width = src.getWidth();
+        final int height = src.getHeight();
+        final int depth = src.getSize();
+        final int sliceSize = width * height;
+
+        final int numberOfBands = ParallelBands.numberOfBands(numberOfThreads, 0, depth);
+        final double[] bandSums = new double[numberOfBands];
+        final Slab[] slabs = new Slab[numberOfBands];
+        for (int b = 0; b < numberOfBands; b++) {
+            slabs[b] = new Slab(sliceSize, isSmoothing(), createSlabData(width, height));
+        }
+        final double numberOfVoxels = (double) width * height * depth;
+
+        float[][] volume = null;
+        float[][] next = null;
+        if (!lowMemory) {
+            volume = new float[depth][];
+            next = new float[depth][sliceSize];
+            for (int z = 0; z < depth; z++) {
+                volume[z] = readSlice(src, z, new float[sliceSize]);
+            }
+        }
+
+        boolean destWritten = false;
+        for (int i = 0; i < numberOfIterations; i++) {
+            time = i * timeStep;
+
+            if (lowMemory) {
+                final ImageStack in = destWritten ? dest : src;
+                prepareHalos(in, slabs);
+                ParallelBands.run(null, numberOfBands, 0, depth, (band, zStart, zEnd) ->
+                        bandSums[band] = diffuseStack(in, dest, slabs[band], width, height, zStart, zEnd));
+                destWritten = true;
+            } else {
+                final float[][] s = volume;
+                final float[][] d = next;
+                ParallelBands.run(null, numberOfBands, 0, depth, (band, zStart, zEnd) ->
+                        bandSums[band] = diffuseVolume(s, d, slabs[band], width, height, zStart, zEnd));
+
+                // swap
+                next = volume;
+                volume = d;
+            }
+
+            // test change in images
+            double sum = 0;
+            for (final double bandSum : bandSums) {
+                sum += bandSum;
+            }
+            final double mse = Math.sqrt(sum / numberOfVoxels);
+            final String msg = "Iteration: " + i + ", mean square error: " + decimalFormat.format(mse);
+            notifyProgressListeners((double) (i + 1) / (double) numberOfIterations, msg);
+            IJDebug.log(msg);
+            if (mse <= meanSquareError) {
+                break;
+            }
+        }
+
+        if (!lowMemory) {
+            for (int z = 0; z < depth; z++) {
+                dest.setPixels(volume[z], z + 1);
+            }
+        } else if (!destWritten && src != dest) {
+            for (int z = 0; z < depth; z++) {
+                dest.setPixels(readSlice(src, z, new float[sliceSize]), z + 1);
+            }
+        }
+
+        notifyProgressListeners(1, "");
+    }
+
+
+    /**
+     * Perform single diffusion operation on a slice. Slices may be processed concurrently.
+     *
+     * @param prev   source pixels of the previous slice, same as <code>src</code> for the first slice.
+     * @param src    source pixels of the slice.
+     * @param next   source pixels of the next slice, same as <code>src</code> for the last slice.
+     * @param dest   destination pixels of the slice.
+     * @param width  slice width.
+     * @param height slice height.
+     * @return sum of squared differences between source and destination pixels.
+     */
+    protected abstract double diffuse(final float[] prev, final float[] src, final float[] next, final float[] dest,
+                                      final int width, final int height);
+
+
+    /**
+     * Perform single diffusion operation on a slice, using also smoothed copies of the slices and slab data.
+     * This is the method called for each slice, the default implementation calls
+     * {@link #diffuse(float[], float[], float[], float[], int, int)}.
+     * <br>
+     * Each slab is processed by a single thread, slices of a slab are processed in increasing order.
+     *
+     * @param prevSmoothed smoothed pixels of the previous slice, same as <code>srcSmoothed</code> for the first slice.
+     *                     Same as {@code prev} if {@link #isSmoothing()} is {@code false}.
+     * @param srcSmoothed  smoothed pixels of the slice.
+     * @param nextSmoothed smoothed pixels of the next slice, same as <code>srcSmoothed</code> for the last slice.
+     * @param slabData     data of the slab created by {@link #createSlabData(int, int)}.
+     * @param continued    {@code true} if the previous call with the same {@code slabData}, in the same iteration,
+     *                     was for the previous slice, so values it stored in {@code slabData} can be reused.
+     * @see #diffuse(float[], float[], float[], float[], int, int)
+     */
+    protected double diffuse(final float[] prev, final float[] src, final float[] next,
+                             final float[] prevSmoothed, final float[] srcSmoothed, final float[] nextSmoothed,
+                             final float[] dest, final int width, final int height,
+                             final Object slabData, final boolean continued) {
+        return diffuse(prev, src, next, dest, width, height);
+    }
+
+
+    /**
+     * Create working data of a slab, it is passed to each diffusion step of slices in that slab.
+     * Called once for each slab in {@link #process(ImageStack, ImageStack)}.
+     *
+     * @param width  slice width.
+     * @param height slice height.
+     * @return slab data, the default implementation returns {@code null}.
+     */
+    protected Object createSlabData(final int width, final int height) {
+        return null;
+    }
+
+
+    /**
+     * @return {@code true} if diffusion step needs smoothed slices, see {@link #smooth(float[], int, int)}.
+     */
+    protected boolean isSmoothing() {
+        return false;
+    }
+
+
+    /**
+     * Smooth a copy of a slice in place. Each slice is smoothed once per iteration, smoothed slices are passed to
+     * {@link #diffuse(float[], float[], float[], float[], float[], float[], float[], int, int, Object, boolean)}.
+     * Slices may be smoothed concurrently.
+     *
+     * @param pixels slice pixels.
+     * @param width  slice width.
+     * @param height slice height.
+     */
+    protected void smooth(final float[] pixels, final int width, final int height) {
+    }
+
+
+    protected double time() {
+        return time;
+    }
+
+
+    /**
+     * Diffuse slices of a slab of the {@code src} volume, results are written to the {@code dest} volume.
+     */
+    private double diffuseVolume(final float[][] src, final float[][] dest, final Slab slab,
+                                 final int width, final int height, final int zStart, final int zEnd) {
+        final int depth = src.length;
+        slab.reset();
+        double sum = 0;
+        for (int z = zStart; z < zEnd; z++) {
+            sum += diffuseSlice(slab, z, z > 0 ? src[z - 1] : null, src[z], z < depth - 1 ? src[z + 1] : null,
+                    dest[z], width, height);
+        }
+        return sum;
+    }
+
+
+    /**
+     * Diffuse slices of a slab streaming them through stacks. When {@code in} and {@code out} are the same stack,
+     * slices are updated in place. New values of a slice are written to a spare buffer that then replaces
+     * the slice in the stack, the original values are kept as the previous slice for the next step.
+     * Slices just outside of the slab are read from halo copies, as they may be already updated by other slabs.
+     */
+    private double diffuseStack(final ImageStack in, final ImageStack out, final Slab slab,
+                                final int width, final int height, final int zStart, final int zEnd) {
+        final int depth = in.getSize();
+        final boolean inPlace = in == out;
+        // Pixel arrays of an in-memory float stack are used directly, other stacks are copied to slab buffers
+        final boolean borrow = !in.isVirtual() && in.getPixels(1) instanceof float[];
+
+        slab.reset();
+        double sum = 0;
+        float[] prev = zStart > 0 ? slab.haloBelow : null;
+        boolean prevOwned = false;
+        float[] src = borrow ? (float[]) in.getPixels(zStart + 1) : readSlice(in, zStart, slab.take());
+        boolean srcOwned = !borrow;
+        for (int z = zStart; z < zEnd; z++) {
+            final float[] next;
+            boolean nextOwned = false;
+            if (z + 1 < zEnd) {
+                next = borrow ? (float[]) in.getPixels(z + 2) : readSlice(in, z + 1, slab.take());
+                nextOwned = !borrow;
+            } else if (z + 1 < depth) {
+                next = slab.haloAbove;
+            } else {
+                next = null;
+            }
+
+            // Write directly to an existing in-memory float slice, unless it is still needed as input
+            final Object destPixels = inPlace || out.isVirtual() ? null : out.getPixels(z + 1);
+            final float[] dest = destPixels instanceof float[] ? (float[]) destPixels : slab.take();
+
+            sum += diffuseSlice(slab, z, prev, src, next, dest, width, height);
+            if (dest != destPixels) {
+                out.setPixels(dest, z + 1);
+                if (out instanceof FloatFileStack) {
+                    // Written to file, the buffer can be reused
+                    slab.release(dest);
+                }
+            }
+
+            if (prevOwned) {
+                slab.release(prev);
+            }
+            prev = src;
+            // Replaced slice of an in-memory stack is referenced only by this slab now
+            prevOwned = srcOwned || (inPlace && borrow);
+            src = next;
+            srcOwned = nextOwned;
+        }
+        if (prevOwned) {
+            slab.release(prev);
+        }
+
+        return sum;
+    }
+
+
+    /**
+     * Diffuse slice {@code z}, {@code prev} and {@code next} are {@code null} at the volume boundary.
+     */
+    private double diffuseSlice(final Slab slab, final int z,
+                                final float[] prev, final float[] src, final float[] next, final float[] dest,
+                                final int width, final int height) {
+        final boolean continued = slab.lastZ == z - 1;
+        slab.lastZ = z;
+
+        final float[] p = prev != null ? prev : src;
+        final float[] n = next != null ? next : src;
+        if (!slab.smoothing) {
+            return diffuse(p, src, n, p, src, n, dest, width, height, slab.data, continued);
+        }
+
+        final float[] srcSmoothed = slab.smoothed(z, src, width, height);
+        final float[] prevSmoothed = prev != null ? slab.smoothed(z - 1, prev, width, height) : srcSmoothed;
+        final float[] nextSmoothed = next != null ? slab.smoothed(z + 1, next, width, height) : srcSmoothed;
+        return diffuse(p, src, n, prevSmoothed, srcSmoothed, nextSmoothed, dest, width, height, slab.data, continued);
+    }
+
+
+    /**
+     * Copy original values of slices neighbouring each slab, before slabs are updated in place.
+     */
+    private static void prepareHalos(final ImageStack stack, final Slab[] slabs) {
+        final int depth = stack.getSize();
+        for (int b = 0; b < slabs.length; b++) {
+            final int zStart = ParallelBands.bandStart(b, slabs.length, 0, depth);
+            final int zEnd = ParallelBands.bandStart(b + 1, slabs.length, 0, depth);
+            if (zStart > 0) {
+                readSlice(stack, zStart - 1, slabs[b].haloBelow);
+            }
+            if (zEnd < depth) {
+                readSlice(stack, zEnd, slabs[b].haloAbove);
+            }
+        }
+    }
+
+
+    /**
+     * Copy slice {@code z} (zero based) of a stack to {@code buffer}, converting it to float.
+     *
+     * @return the {@code buffer}.
+     */
+    private static float[] readSlice(final ImageStack stack, final int z, final float[] buffer) {
+        if (stack instanceof FloatFileStack) {
+            return ((FloatFileStack) stack).readPixels(z + 1, buffer);
+        }
+
+        final Object pixels = stack.getPixels(z + 1);
+        if (pixels instanceof float[]) {
+            System.arraycopy(pixels, 0, buffer, 0, buffer.length);
+            return buffer;
+        }
+
+        final ImageProcessor ip = stack.getProcessor(z + 1);
+        if (ip instanceof ColorProcessor) {
+            System.arraycopy(ip.convertToFloat().getPixels(), 0, buffer, 0, buffer.length);
+        } else {
+            for (int i = 0; i < buffer.length; i++) {
+                buffer[i] = ip.getf(i);
+            }
+        }
+        return buffer;
+    }
+
+
+    /**
+     * Working buffers of a slab.
+     */
+    private final class Slab {
+        final int sliceSize;
+        final boolean smoothing;
+        final float[] haloBelow;
+        final float[] haloAbove;
+        // Released slice buffers, reused when streaming slices through stacks
+        final ArrayDeque<float[]> free = new ArrayDeque<>();
+        // Smoothed copies of the last three slices used by the slab and their indices
+        final float[][] smoothed;
+        final int[] smoothedZ;
+        // Data of the extending class and index of the last slice diffused in current iteration
+        final Object data;
+        int lastZ;
+
+        Slab(final int sliceSize, final boolean smoothing, final Object data) {
+            this.sliceSize = sliceSize;
+            this.smoothing = smoothing;
+            this.data = data;
+            haloBelow = new float[sliceSize];
+            haloAbove = new float[sliceSize];
+            smoothed = smoothing ? new float[3][sliceSize] : new float[0][];
+            smoothedZ = new int[smoothed.length];
+        }
+
+        float[] take() {
+            final float[] buffer = free.poll();
+            return buffer != null ? buffer : new float[sliceSize];
+        }
+
+        void release(final float[] buffer) {
+            free.push(buffer);
+        }
+
+        /**
+         * Called at the start of each iteration.
+         */
+        void reset() {
+            Arrays.fill(smoothedZ, Integer.MIN_VALUE);
+            lastZ = Integer.MIN_VALUE;
+        }
+
+        /**
+         * Smoothed copy of slice {@code z}. Slices are requested in increasing order, so the copy with
+         * the lowest index is replaced when a new slice is requested.
+         */
+        float[] smoothed(final int z, final float[] pixels, final int width, final int height) {
+            int lowest = 0;
+            for (int i = 0; i < smoothedZ.length; i++) {
+                if (smoothedZ[i] == z) {
+                    return smoothed[i];
+                }
+                if (smoothedZ[i] < smoothedZ[lowest]) {
+                    lowest = i;
+                }
+            }
+
+            System.arraycopy(pixels, 0, smoothed[lowest], 0, sliceSize);
+            smooth(smoothed[lowest], width, height);
+            smoothedZ[lowest] = z;
+            return smoothed[lowest];
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.gui.ProgressBar;
+import ij.process.ImageProcessor;
+import ij_plugins.toolkit.util.ParallelBands;
+import ij_plugins.toolkit.util.Validate;
+
+import java.awt.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Iterates a running operator over an integer image, shared by {@link RunningUInt8Filter} and
+ * {@link RunningUInt16Filter}. Subclasses only define how a row or column segment of the source pixels is added to,
+ * or removed from, an operator.
+ * <br>
+ * Pixels are visited in a serpentine (boustrophedon) order, the operator is updated by adding and removing
+ * a single column when moving along a row, and by adding and removing a single row when stepping to the next row.
+ * The cost per pixel is proportional to the filter height, there is no per row reinitialization of the operator.
+ * <br>
+ * The ROI can be processed in parallel, split into horizontal bands, see {@link #setNumberOfThreads(int)}.
+ * Each band uses its own operator instance created by the operator factory. Bands read the source rows above and
+ * below them (halo rows) so the result is identical to the result of the serial processing.
+ *
+ * @param <O> type of the operator.
+ * @param <P> type of the pixel array, for instance {@code byte[]}.
+ * @author Jarek Sacha
+ */
+abstract class AbstractRunningIntegerFilter<O, P> {
+    private ProgressBar progressBar;
+    private int numberOfThreads = 1;
+    private ExecutorService executor;
+
+
+    /**
+     * Slide the filter window over the ROI and call the {@code evaluator} for each pixel within the ROI.
+     * The evaluator may be called concurrently for pixels in different bands.
+     *
+     * @param src             input image, its pixel array has to be of type {@code P}.
+     * @param filterWidth     filter width.
+     * @param filterHeight    filter height.
+     * @param operatorFactory creates operators, one for each band.
+     * @param evaluator       called for each pixel.
+     * @param skipOutsideMask if {@code true} the evaluator is not called for pixels outside of the ROI mask.
+     *                        The filter window still includes them.
+     */
+    <T extends O> void iterate(final ImageProcessor src,
+                               final int filterWidth,
+                               final int filterHeight,
+                               final Supplier<? extends T> operatorFactory,
+                               final IRunningEvaluator<? super T> evaluator,
+                               final boolean skipOutsideMask) {
+
+        final int width = src.getWidth();
+        @SuppressWarnings("unchecked") final P srcPixels = (P) src.getPixels();
+
+        final int xr = filterWidth / 2;
+        final int yr = filterHeight / 2;
+
+        final Rectangle roi = src.getRoi();
+
+        final int xMin = roi.x;
+        final int xMax = roi.x + roi.width;
+        final int yMin = roi.y;
+        final int yMax = roi.y + roi.height;
+
+        final ImageProcessor mask = skipOutsideMask ? src.getMask() : null;
+        final byte[] maskPixels = mask != null ? (byte[]) mask.getPixels() : null;
+
+        // Calculate increment, make sure that different/larger than 0 otherwise '%' operation will fail.
+        final int progressIncrement = Math.max((yMax - yMin) / 100, 1);
+        final AtomicInteger rowsDone = new AtomicInteger(0);
+
+        ParallelBands.run(executor, numberOfThreads, yMin, yMax, (band, yStart, yEnd) -> {
+            final T operator = operatorFactory.get();
+
+            // Initialize operator with the structural element centered at the first pixel of the band.
+            // After that the operator is never cleared, the structural element snakes through the band:
+            // left to right on even rows, right to left on odd rows, stepping one row down at the end of each row.
+            clear(operator);
+            final int xxMax = Math.min(xMin + xr + 1, xMax);
+            for (int yy = Math.max(yStart - yr, yMin); yy < Math.min(yStart + yr + 1, yMax); ++yy) {
+                addRow(operator, srcPixels, yy * width, xMin, xxMax);
+            }
+
+            for (int y = yStart; y < yEnd; ++y) {
+                final int yOffset = y * width;
+                final int maskOffset = (y - yMin) * roi.width - xMin;
+                final int yyMin = Math.max(y - yr, yMin);
+                final int yyMax = Math.min(y + yr + 1, yMax);
+
+                final int xLast;
+                if (((y - yStart) & 1) == 0) {
+                    // Left to right
+                    for (int x = xMin; x < xMax; ++x) {
+                        if (x > xMin) {
+                            if (x + xr < xMax) {
+                                addColumn(operator, srcPixels, width, x + xr, yyMin, yyMax);
+                            }
+                            if (x - xr - 1 >= xMin) {
+                                removeColumn(operator, srcPixels, width, x - xr - 1, yyMin, yyMax);
+                            }
+                        }
+
+                        if (maskPixels == null || maskPixels[x + maskOffset] != 0) {
+                            evaluator.evaluate(operator, x + yOffset);
+                        }
+                    }
+                    xLast = xMax - 1;
+                } else {
+                    // Right to left
+                    for (int x = xMax - 1; x >= xMin; --x) {
+                        if (x < xMax - 1) {
+                            if (x - xr >= xMin) {
+                                addColumn(operator, srcPixels, width, x - xr, yyMin, yyMax);
+                            }
+                            if (x + xr + 1 < xMax) {
+                                removeColumn(operator, srcPixels, width, x + xr + 1, yyMin, yyMax);
+                            }
+                        }
+
+                        if (maskPixels == null || maskPixels[x + maskOffset] != 0) {
+                            evaluator.evaluate(operator, x + yOffset);
+                        }
+                    }
+                    xLast = xMin;
+                }
+
+                // Step one row down
+                if (y + 1 < yEnd) {
+                    final int xxFrom = Math.max(xLast - xr, xMin);
+                    final int xxTo = Math.min(xLast + xr + 1, xMax);
+                    if (y - yr >= yMin) {
+                        removeRow(operator, srcPixels, (y - yr) * width, xxFrom, xxTo);
+                    }
+                    if (y + yr + 1 < yMax) {
+                        addRow(operator, srcPixels, (y + yr + 1) * width, xxFrom, xxTo);
+                    }
+                }
+
+                final int done = rowsDone.incrementAndGet();
+                if (done % progressIncrement == 0) {
+                    showProgress((double) done / (yMax - yMin));
+                }
+            }
+        });
+
+        hideProgress();
+    }
+
+    /**
+     * Remove all values from the operator.
+     */
+    protected abstract void clear(O operator);
+
+    /**
+     * Add pixels {@code xFrom} (inclusive) to {@code xTo} (exclusive) of the row starting at {@code yOffset}.
+     */
+    protected abstract void addRow(O operator, P pixels, int yOffset, int xFrom, int xTo);
+
+    /**
+     * Remove pixels {@code xFrom} (inclusive) to {@code xTo} (exclusive) of the row starting at {@code yOffset}.
+     */
+    protected abstract void removeRow(O operator, P pixels, int yOffset, int xFrom, int xTo);
+
+    /**
+     * Add pixels {@code yFrom} (inclusive) to {@code yTo} (exclusive) of column {@code x}.
+     */
+    protected abstract void addColumn(O operator, P pixels, int width, int x, int yFrom, int yTo);
+
+    /**
+     * Remove pixels {@code yFrom} (inclusive) to {@code yTo} (exclusive) of column {@code x}.
+     */
+    protected abstract void removeColumn(O operator, P pixels, int width, int x, int yFrom, int yTo);
+
+    public void setProgressBar(final ProgressBar progressBar) {
+        this.progressBar = progressBar;
+    }
+
+    public void setNumberOfThreads(final int numberOfThreads) {
+        Validate.isTrue(numberOfThreads > 0, "Number of threads must be larger than 0, got " + numberOfThreads + ".");
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    /**
+     * Assigns executor used for processing bands when number of threads is larger than 1.
+     * Set {@code executor} to {@code null} to use {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+     */
+    public void setExecutor(final ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    protected void showProgress(final double percentDone) {
+        if (progressBar != null) {
+            progressBar.show(percentDone);
+        }
+    }
+
+    protected void hideProgress() {
+        showProgress(1.0);
+    }
+}
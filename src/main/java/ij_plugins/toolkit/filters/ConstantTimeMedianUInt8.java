@@ -0,0 +1,309 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.gui.ProgressBar;
+import ij.process.ByteProcessor;
+import ij_plugins.toolkit.util.ParallelBands;
+import ij_plugins.toolkit.util.Validate;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Median filter with processing time per pixel independent of the filter size.
+ * <br>
+ * Implementation is based on: S. Perreault and P. H&eacute;bert, "Median Filtering in Constant Time",
+ * IEEE Transactions on Image Processing, 16(9), 2007. A histogram is maintained for each image column, when moving
+ * to the next row each column histogram is updated by removing one pixel and adding one pixel. The kernel histogram
+ * is maintained as a sum of column histograms at two levels: coarse with 16 bins and fine with 256 bins. Coarse level
+ * is updated for every pixel, a segment of the fine level is updated lazily only when the median falls into it.
+ * <br>
+ * Results are the same as of {@link FastMedianUInt8}, pixels outside of the rectangular ROI are ignored, the median
+ * of an even number of values is an average of the two middle values. {@link FastMedianUInt8} is faster for small
+ * filter sizes.
+ *
+ * @author Jarek Sacha
+ */
+public class ConstantTimeMedianUInt8 implements IRunningUInt8Filter {
+
+    private static final int FINE_BINS = 256;
+    private static final int COARSE_BINS = 16;
+    private static final int COARSE_SHIFT = 4;
+
+    private ProgressBar progressBar;
+    private int numberOfThreads = 1;
+    private ExecutorService executor;
+
+
+    @Override
+    public ByteProcessor run(final ByteProcessor src, final int filterWidth, final int filterHeight) {
+
+        final int width = src.getWidth();
+        final ByteProcessor dest = (ByteProcessor) src.duplicate();
+
+        final byte[] srcPixels = (byte[]) src.getPixels();
+        final byte[] destPixels = (byte[]) dest.getPixels();
+
+        final int xr = filterWidth / 2;
+        final int yr = filterHeight / 2;
+
+        final Rectangle roi = src.getRoi();
+
+        final int xMin = roi.x;
+        final int xMax = roi.x + roi.width;
+        final int yMin = roi.y;
+        final int yMax = roi.y + roi.height;
+
+        // Calculate increment, make sure that different/larger than 0 otherwise '%' operation will fail.
+        final int progressIncrement = Math.max((yMax - yMin) / 100, 1);
+        final AtomicInteger rowsDone = new AtomicInteger(0);
+
+        ParallelBands.run(executor, numberOfThreads, yMin, yMax, (band, yStart, yEnd) -> {
+            final Kernel kernel = new Kernel(srcPixels, width, xMin, xMax);
+
+            // Column histograms cover rows of the structural element centered at the first row of the band
+            for (int yy = Math.max(yStart - yr, yMin); yy < Math.min(yStart + yr + 1, yMax); ++yy) {
+                kernel.addRowToColumns(yy);
+            }
+
+            for (int y = yStart; y < yEnd; ++y) {
+                if (y > yStart) {
+                    if (y - yr - 1 >= yMin) {
+                        kernel.removeRowFromColumns(y - yr - 1);
+                    }
+                    if (y + yr < yMax) {
+                        kernel.addRowToColumns(y + yr);
+                    }
+                }
+
+                final int rows = Math.min(y + yr + 1, yMax) - Math.max(y - yr, yMin);
+                final int yOffset = y * width;
+
+                kernel.clear();
+                for (int xx = xMin; xx < Math.min(xMin + xr + 1, xMax); ++xx) {
+                    kernel.addColumn(xx);
+                }
+
+                for (int x = xMin; x < xMax; ++x) {
+                    if (x > xMin) {
+                        if (x + xr < xMax) {
+                            kernel.addColumn(x + xr);
+                        }
+                        if (x - xr - 1 >= xMin) {
+                            kernel.removeColumn(x - xr - 1);
+                        }
+                    }
+
+                    final int lo = Math.max(x - xr, xMin);
+                    final int hi = Math.min(x + xr + 1, xMax);
+                    destPixels[x + yOffset] = (byte) (kernel.median(rows * (hi - lo), lo, hi) & 0xFF);
+                }
+
+                final int done = rowsDone.incrementAndGet();
+                if (done % progressIncrement == 0) {
+                    showProgress((double) done / (yMax - yMin));
+                }
+            }
+        });
+
+        hideProgress();
+
+        return dest;
+    }
+
+    @Override
+    public void setProgressBar(final ProgressBar progressBar) {
+        this.progressBar = progressBar;
+    }
+
+    @Override
+    public void setNumberOfThreads(final int numberOfThreads) {
+        Validate.isTrue(numberOfThreads > 0, "Number of threads must be larger than 0, got " + numberOfThreads + ".");
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    /**
+     * Assigns executor used for processing bands when number of threads is larger than 1.
+     * Set {@code executor} to {@code null} to use {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+     */
+    public void setExecutor(final ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    protected void showProgress(final double percentDone) {
+        if (progressBar != null) {
+            progressBar.show(percentDone);
+        }
+    }
+
+    protected void hideProgress() {
+        showProgress(1.0);
+    }
+
+
+    /**
+     * Column histograms and the two-level kernel histogram used by a single band.
+     */
+    private static final class Kernel {
+        private final byte[] pixels;
+        private final int width;
+        private final int xMin;
+        private final int xMax;
+
+        // Fine and coarse histograms of each column in [xMin, xMax)
+        private final int[] columnFine;
+        private final int[] columnCoarse;
+
+        private final int[] fine = new int[FINE_BINS];
+        private final int[] coarse = new int[COARSE_BINS];
+        // Range of columns [fineFrom[c], fineTo[c]) currently summed in segment `c` of the fine histogram
+        private final int[] fineFrom = new int[COARSE_BINS];
+        private final int[] fineTo = new int[COARSE_BINS];
+
+        Kernel(final byte[] pixels, final int width, final int xMin, final int xMax) {
+            this.pixels = pixels;
+            this.width = width;
+            this.xMin = xMin;
+            this.xMax = xMax;
+            this.columnFine = new int[(xMax - xMin) * FINE_BINS];
+            this.columnCoarse = new int[(xMax - xMin) * COARSE_BINS];
+        }
+
+        void addRowToColumns(final int y) {
+            final int offset = y * width;
+            for (int x = xMin; x < xMax; ++x) {
+                final int v = pixels[x + offset] & 0xFF;
+                ++columnFine[(x - xMin) * FINE_BINS + v];
+                ++columnCoarse[(x - xMin) * COARSE_BINS + (v >> COARSE_SHIFT)];
+            }
+        }
+
+        void removeRowFromColumns(final int y) {
+            final int offset = y * width;
+            for (int x = xMin; x < xMax; ++x) {
+                final int v = pixels[x + offset] & 0xFF;
+                --columnFine[(x - xMin) * FINE_BINS + v];
+                --columnCoarse[(x - xMin) * COARSE_BINS + (v >> COARSE_SHIFT)];
+            }
+        }
+
+        void clear() {
+            Arrays.fill(coarse, 0);
+            Arrays.fill(fine, 0);
+            Arrays.fill(fineFrom, xMin);
+            Arrays.fill(fineTo, xMin);
+        }
+
+        void addColumn(final int x) {
+            final int offset = (x - xMin) * COARSE_BINS;
+            for (int c = 0; c < COARSE_BINS; ++c) {
+                coarse[c] += columnCoarse[offset + c];
+            }
+        }
+
+        void removeColumn(final int x) {
+            final int offset = (x - xMin) * COARSE_BINS;
+            for (int c = 0; c < COARSE_BINS; ++c) {
+                coarse[c] -= columnCoarse[offset + c];
+            }
+        }
+
+        /**
+         * Median of the kernel containing {@code count} values from columns {@code [lo, hi)}.
+         */
+        int median(final int count, final int lo, final int hi) {
+            final int upper = select(count / 2, lo, hi);
+            if (count % 2 == 1) {
+                return upper;
+            }
+            final int lower = select(count / 2 - 1, lo, hi);
+            return (lower + upper + 1) / 2;
+        }
+
+        /**
+         * Value with given zero based {@code rank} in the kernel containing columns {@code [lo, hi)}.
+         */
+        private int select(final int rank, final int lo, final int hi) {
+            int sum = 0;
+            int c = 0;
+            while (sum + coarse[c] <= rank) {
+                sum += coarse[c];
+                ++c;
+            }
+
+            updateFineSegment(c, lo, hi);
+
+            int v = c << COARSE_SHIFT;
+            while (sum + fine[v] <= rank) {
+                sum += fine[v];
+                ++v;
+            }
+            return v;
+        }
+
+        /**
+         * Bring segment {@code c} of the fine histogram to represent columns {@code [lo, hi)}.
+         * Columns only move to the right along a row, so columns are removed from the left and added on the right.
+         */
+        private void updateFineSegment(final int c, final int lo, final int hi) {
+            final int from = fineFrom[c];
+            final int to = fineTo[c];
+            if (from == lo && to == hi) {
+                return;
+            }
+
+            final int segment = c << COARSE_SHIFT;
+            if (lo >= to) {
+                // No overlap with the previous range, start from scratch
+                Arrays.fill(fine, segment, segment + COARSE_BINS, 0);
+                addFineColumns(segment, lo, hi);
+            } else {
+                subtractFineColumns(segment, from, lo);
+                addFineColumns(segment, to, hi);
+            }
+
+            fineFrom[c] = lo;
+            fineTo[c] = hi;
+        }
+
+        private void addFineColumns(final int segment, final int from, final int to) {
+            for (int x = from; x < to; ++x) {
+                final int offset = (x - xMin) * FINE_BINS + segment;
+                for (int i = 0; i < COARSE_BINS; ++i) {
+                    fine[segment + i] += columnFine[offset + i];
+                }
+            }
+        }
+
+        private void subtractFineColumns(final int segment, final int from, final int to) {
+            for (int x = from; x < to; ++x) {
+                final int offset = (x - xMin) * FINE_BINS + segment;
+                for (int i = 0; i < COARSE_BINS; ++i) {
+                    fine[segment + i] -= columnFine[offset + i];
+                }
+            }
+        }
+    }
+}
@@ -21,17 +21,32 @@
  */
 package ij_plugins.toolkit.filters;
 
+import ij.ImageStack;
+import ij.plugin.filter.GaussianBlur;
 import ij.process.FloatProcessor;
-import ij_plugins.toolkit.operators.Neighborhood3x3;
-import ij_plugins.toolkit.operators.PixelIterator;
+import ij_plugins.toolkit.operators.BorderMode;
+import ij_plugins.toolkit.operators.Stencil3x3;
+import ij_plugins.toolkit.util.ParallelBands;
+import ij_plugins.toolkit.util.Validate;
+
+import java.util.Arrays;
 
 
 /**
+ * Computes directional coherence of an image from its smoothed gradient. By default pixels on the image border are
+ * set to 0, use {@link #setBorderMode(BorderMode)} to compute coherence over the full image.
+ * <br>
+ * {@link #run(FloatProcessor, double...)} computes the structure tensor at several integration scales
+ * and outputs coherence, orientation and eigenvalues for each of them.
+ *
  * @author Jarek Sacha
  */
 public class DirectionalCoherenceFilter {
 
     private double spaceScale = 0.5;
+    private BorderMode borderMode = BorderMode.NONE;
+    private int numberOfThreads = 1;
+    private boolean recursiveSmoothing = false;
 
     public double getSpaceScale() {
         return spaceScale;
@@ -41,36 +56,183 @@ public class DirectionalCoherenceFilter {
         this.spaceScale = spaceScale;
     }
 
+    public BorderMode getBorderMode() {
+        return borderMode;
+    }
+
+    /**
+     * @param borderMode handling of pixels outside of the image when computing gradient on the image border.
+     */
+    public void setBorderMode(final BorderMode borderMode) {
+        Validate.argumentNotNull(borderMode, "borderMode");
+        this.borderMode = borderMode;
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    /**
+     * @param numberOfThreads number of threads used to compute coherence, must be at least 1.
+     */
+    public void setNumberOfThreads(final int numberOfThreads) {
+        Validate.isTrue(numberOfThreads > 0, "Number of threads must be at least 1, got " + numberOfThreads + ".");
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    public boolean isRecursiveSmoothing() {
+        return recursiveSmoothing;
+    }
+
+    /**
+     * @param recursiveSmoothing if <code>true</code>, pre-smoothing uses recursive Gaussian,
+     *                           which cost does not depend on the {@link #getSpaceScale() space scale}.
+     * @see GaussianSmoothFilter#setRecursive(boolean)
+     */
+    public void setRecursiveSmoothing(final boolean recursiveSmoothing) {
+        this.recursiveSmoothing = recursiveSmoothing;
+    }
+
     public FloatProcessor run(FloatProcessor src) {
         // Pre-smooth - noise reduction
         final GaussianSmoothFilter gaussian = new GaussianSmoothFilter();
         gaussian.setStandardDeviation(spaceScale);
+        gaussian.setRecursive(recursiveSmoothing);
+        gaussian.setNumberOfThreads(numberOfThreads);
+        src = (FloatProcessor) gaussian.run(src);
+
+        final FloatProcessor dest = new FloatProcessor(src.getWidth(), src.getHeight());
+
+        final Stencil3x3 stencil = new Stencil3x3();
+        stencil.setBorderMode(borderMode);
+        stencil.setNumberOfThreads(numberOfThreads);
+        stencil.run(src, dest, (s, above, center, below, d, destOffset, length) -> {
+            for (int i = 0; i < length; i++) {
+                final float gX = 0.5f * (s[center + i + 1] - s[center + i - 1]);
+                final float gY = 0.5f * (s[below + i] - s[above + i]);
+                final float gXX = gX * gX;
+                final float gXY = gX * gY;
+                final float gYY = gY * gY;
+                final float dd = gXX - gYY;
+                final double delta = Math.sqrt((4 * gXY * gXY) + (dd * dd));
+
+                //            double lambda1 = 0.5*(gXX+gYY+delta);
+                //            double lambda2 = 0.5*(gXX+gYY-delta);
+                d[destOffset + i] = (float) (delta * delta);
+            }
+        });
+
+        return dest;
+    }
+
+    /**
+     * Compute structure tensor <code>J = G<sub>s</sub> * (&nabla;u &nabla;u<sup>T</sup>)</code> at several
+     * integration scales <code>s</code>, where <code>u</code> is the source pre-smoothed with the
+     * {@link #getSpaceScale() space scale}.
+     * <br>
+     * Gradient products are computed once, in a single pass. Each scale is then obtained by smoothing products of
+     * the previous scale with a Gaussian of standard deviation <code>sqrt(s<sub>i</sub><sup>2</sup> -
+     * s<sub>i-1</sub><sup>2</sup>)</code>, so the cost of a scale does not grow with its value. Near the image border,
+     * within about three scales, results differ from integrating at the given scale directly, as smoothing is
+     * done with border pixels replicated.
+     * <br>
+     * The output stack contains four slices for each scale, in order of increasing scale:
+     * <ul>
+     * <li>coherence, <code>(&lambda;<sub>1</sub> - &lambda;<sub>2</sub>)<sup>2</sup></code>, at scale 0 it is, up to rounding,
+     * the same as computed by {@link #run(FloatProcessor)},</li>
+     * <li>orientation of the dominant eigenvector, in radians, in range <code>[-&pi;/2, &pi;/2]</code>, measured
+     * from x axis towards y axis,</li>
+     * <li>larger eigenvalue <code>&lambda;<sub>1</sub></code>,</li>
+     * <li>smaller eigenvalue <code>&lambda;<sub>2</sub></code>.</li>
+     * </ul>
+     *
+     * @param src               source image.
+     * @param integrationScales standard deviations, in pixels, of Gaussian used to integrate the gradient products.
+     *                          Values must be non-negative, 0 means no integration.
+     * @return stack of coherence, orientation and eigenvalue maps.
+     */
+    public ImageStack run(FloatProcessor src, final double... integrationScales) {
+        Validate.argumentNotNull(src, "src");
+        Validate.argumentNotNull(integrationScales, "integrationScales");
+        Validate.isTrue(integrationScales.length > 0, "At least one integration scale is required.");
+        final double[] scales = integrationScales.clone();
+        Arrays.sort(scales);
+        Validate.isTrue(scales[0] >= 0, "Integration scales cannot be negative, got " + scales[0] + ".");
+
+        // Pre-smooth - noise reduction
+        final GaussianSmoothFilter gaussian = new GaussianSmoothFilter();
+        gaussian.setStandardDeviation(spaceScale);
+        gaussian.setRecursive(recursiveSmoothing);
+        gaussian.setNumberOfThreads(numberOfThreads);
         src = (FloatProcessor) gaussian.run(src);
 
         final int width = src.getWidth();
         final int height = src.getHeight();
 
-        final FloatProcessor dest = new FloatProcessor(width, height);
-        final float[] destPixels = (float[]) dest.getPixels();
-
-        final PixelIterator iterator = new PixelIterator(src);
-
-        while (iterator.hasNext()) {
-            final Neighborhood3x3 n = iterator.next();
-            final float gX = 0.5f * (n.neighbor1 - n.neighbor5);
-            final float gY = 0.5f * (n.neighbor7 - n.neighbor3);
-            final float gXX = gX * gX;
-            final float gXY = gX * gY;
-            final float gYY = gY * gY;
-            final float dd = gXX - gYY;
-            final double delta = Math.sqrt((4 * gXY * gXY) + (dd * dd));
-
-            //            double lambda1 = 0.5*(gXX+gYY+delta);
-            //            double lambda2 = 0.5*(gXX+gYY-delta);
-            final float coherence = (float) (delta * delta);
-            destPixels[n.offset] = coherence;
+        // Gradient products
+        final FloatProcessor jXXFP = new FloatProcessor(width, height);
+        final float[] jXX = (float[]) jXXFP.getPixels();
+        final float[] jXY = new float[width * height];
+        final float[] jYY = new float[width * height];
+        final Stencil3x3 stencil = new Stencil3x3();
+        stencil.setBorderMode(borderMode);
+        stencil.setNumberOfThreads(numberOfThreads);
+        stencil.run(src, jXXFP, (s, above, center, below, d, destOffset, length) -> {
+            for (int i = 0; i < length; i++) {
+                final float gX = 0.5f * (s[center + i + 1] - s[center + i - 1]);
+                final float gY = 0.5f * (s[below + i] - s[above + i]);
+                d[destOffset + i] = gX * gX;
+                jXY[destOffset + i] = gX * gY;
+                jYY[destOffset + i] = gY * gY;
+            }
+        });
+
+        final ImageStack dest = new ImageStack(width, height);
+        double previousScale = 0;
+        for (final double scale : scales) {
+            // Integrate products incrementally, Gaussian of scale s1 followed by s2 has scale sqrt(s1^2 + s2^2)
+            final double increment = Math.sqrt(scale * scale - previousScale * previousScale);
+            if (increment > 0) {
+                smooth(jXX, width, height, increment);
+                smooth(jXY, width, height, increment);
+                smooth(jYY, width, height, increment);
+            }
+            previousScale = scale;
+
+            final float[] coherence = new float[width * height];
+            final float[] orientation = new float[width * height];
+            final float[] lambda1 = new float[width * height];
+            final float[] lambda2 = new float[width * height];
+            ParallelBands.run(null, numberOfThreads, 0, height, (band, yStart, yEnd) -> {
+                for (int i = yStart * width; i < yEnd * width; i++) {
+                    final double xx = jXX[i];
+                    final double xy = jXY[i];
+                    final double yy = jYY[i];
+                    final double dd = xx - yy;
+                    final double delta = Math.sqrt((4 * xy * xy) + (dd * dd));
+                    coherence[i] = (float) (delta * delta);
+                    orientation[i] = (float) (0.5 * Math.atan2(2 * xy, dd));
+                    lambda1[i] = (float) (0.5 * (xx + yy + delta));
+                    lambda2[i] = (float) (0.5 * (xx + yy - delta));
+                }
+            });
+
+            dest.addSlice("Coherence, scale " + scale, coherence);
+            dest.addSlice("Orientation, scale " + scale, orientation);
+            dest.addSlice("Lambda1, scale " + scale, lambda1);
+            dest.addSlice("Lambda2, scale " + scale, lambda2);
         }
 
         return dest;
     }
+
+    private void smooth(final float[] pixels, final int width, final int height, final double sigma) {
+        if (recursiveSmoothing && sigma >= RecursiveGaussian.MIN_SIGMA) {
+            final RecursiveGaussian gaussian = new RecursiveGaussian(sigma);
+            gaussian.setNumberOfThreads(numberOfThreads);
+            gaussian.run(pixels, width, height);
+        } else {
+            new GaussianBlur().blurGaussian(new FloatProcessor(width, height, pixels), sigma, sigma, 0.0002);
+        }
+    }
 }
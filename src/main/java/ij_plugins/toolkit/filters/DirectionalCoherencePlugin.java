@@ -21,11 +21,15 @@
  */
 package ij_plugins.toolkit.filters;
 
+import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
 import ij.gui.GenericDialog;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
+import ij_plugins.toolkit.operators.BorderMode;
 import ij_plugins.toolkit.util.IJPUtils;
 
 /**
@@ -51,6 +55,15 @@ public class DirectionalCoherencePlugin implements PlugInFilter {
         final GenericDialog dialog = new GenericDialog(TITLE);
         dialog.addPanel(IJPUtils.createInfoPanel(TITLE, DESCRIPTION));
         dialog.addNumericField("Space_scale", filter.getSpaceScale(), 2, 6, "");
+        final String[] borderModes = new String[BorderMode.values().length];
+        for (int i = 0; i < borderModes.length; i++) {
+            borderModes[i] = BorderMode.values()[i].name();
+        }
+        dialog.addChoice("Border", borderModes, filter.getBorderMode().name());
+        dialog.addCheckbox("Recursive_smoothing", filter.isRecursiveSmoothing());
+        dialog.addStringField("Integration_scales", "", 12);
+        dialog.addMessage("Comma separated integration scales produce coherence, orientation and eigenvalues\n" +
+                "for each scale. Leave empty for coherence only.");
         dialog.addHelp(HELP_URL);
 
         dialog.showDialog();
@@ -60,8 +73,36 @@ public class DirectionalCoherencePlugin implements PlugInFilter {
 
         // Filter
         filter.setSpaceScale(dialog.getNextNumber());
-        final FloatProcessor dest = filter.run(src);
-        new ImagePlus(TITLE, dest).show();
+        filter.setBorderMode(BorderMode.values()[dialog.getNextChoiceIndex()]);
+        filter.setRecursiveSmoothing(dialog.getNextBoolean());
+        filter.setNumberOfThreads(Prefs.getThreads());
+        final String scalesText = dialog.getNextString().trim();
+        if (scalesText.isEmpty()) {
+            final FloatProcessor dest = filter.run(src);
+            new ImagePlus(TITLE, dest).show();
+            return;
+        }
+
+        final String[] tokens = scalesText.split("[,\\s]+");
+        final double[] scales = new double[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            try {
+                scales[i] = Double.parseDouble(tokens[i]);
+            } catch (final NumberFormatException e) {
+                IJ.error(TITLE, "Invalid integration scale: '" + tokens[i] + "'.");
+                return;
+            }
+            if (scales[i] < 0) {
+                IJ.error(TITLE, "Integration scale cannot be negative: " + tokens[i] + ".");
+                return;
+            }
+        }
+
+        final ImageStack dest = filter.run(src, scales);
+        final ImagePlus imp = new ImagePlus(TITLE, dest);
+        imp.setDimensions(4, scales.length, 1);
+        imp.setOpenAsHyperStack(true);
+        imp.show();
     }
 
 }
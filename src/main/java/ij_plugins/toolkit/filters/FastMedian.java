@@ -22,11 +22,14 @@
 package ij_plugins.toolkit.filters;
 
 import ij.IJ;
+import ij.Prefs;
 import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
 import ij_plugins.toolkit.color.ColorProcessorUtils;
+import ij_plugins.toolkit.util.ParallelBands;
 
 
 /**
@@ -44,6 +47,13 @@ import ij_plugins.toolkit.color.ColorProcessorUtils;
  */
 public final class FastMedian {
 
+    /**
+     * Filters sizes equal or larger than this threshold use the constant time median algorithm
+     * ({@link ConstantTimeMedianUInt8}) for 8-bit and color images,
+     * smaller filters use running histogram median ({@link FastMedianUInt8}).
+     */
+    public static final int CONSTANT_TIME_THRESHOLD = 5;
+
     /**
      * Apply fast median filter to input image {@code ip}.
      * For color images ({@link ColorProcessor}) it will process each color band (R,G,B) independently.
@@ -58,11 +68,17 @@ public final class FastMedian {
         final ImageProcessor dest;
         if (ip instanceof ByteProcessor) {
             dest = process((ByteProcessor) ip, filterSize);
+        } else if (ip instanceof ShortProcessor) {
+            dest = process((ShortProcessor) ip, filterSize);
         } else if (ip instanceof ColorProcessor) {
+            // Process color bands concurrently, remaining threads are used to split each band
             final ByteProcessor[] srcBps = ColorProcessorUtils.splitRGB((ColorProcessor) ip);
-            for (int i = 0; i < srcBps.length; i++) {
-                srcBps[i] = process(srcBps[i], filterSize);
-            }
+            final int threadsPerBand = Math.max(1, Prefs.getThreads() / srcBps.length);
+            ParallelBands.run(null, Prefs.getThreads(), 0, srcBps.length, (band, start, end) -> {
+                for (int i = start; i < end; i++) {
+                    srcBps[i] = process(srcBps[i], filterSize, threadsPerBand);
+                }
+            });
             dest = ColorProcessorUtils.mergeRGB(srcBps);
         } else {
             final FloatProcessor src = (FloatProcessor) (ip instanceof FloatProcessor
@@ -70,7 +86,8 @@ public final class FastMedian {
                     : ip.convertToFloat());
 
             final RunningFilter filter
-                    = new RunningFilter(new RunningMedianOperator(), filterSize, filterSize);
+                    = new RunningFilter(RunningMedianOperator::new, filterSize, filterSize);
+            filter.setNumberOfThreads(Prefs.getThreads());
 
             // Set progress bar
             if (IJ.getInstance() != null) {
@@ -94,8 +111,36 @@ public final class FastMedian {
      * @return median filtered input image.
      */
     public static ByteProcessor process(final ByteProcessor src, final int filterSize) {
-        // TODO: This method should be public, as ByteProcessor is a special case with faster implementation
-        final FastMedianUInt8 filter = new FastMedianUInt8();
+        return process(src, filterSize, Prefs.getThreads());
+    }
+
+
+    private static ByteProcessor process(final ByteProcessor src, final int filterSize, final int numberOfThreads) {
+        final IRunningUInt8Filter filter = filterSize >= CONSTANT_TIME_THRESHOLD
+                ? new ConstantTimeMedianUInt8()
+                : new FastMedianUInt8();
+
+        filter.setNumberOfThreads(numberOfThreads);
+
+        // Set progress bar
+        if (IJ.getInstance() != null) {
+            filter.setProgressBar(IJ.getInstance().getProgressBar());
+        }
+        return filter.run(src, filterSize, filterSize);
+    }
+
+
+    /**
+     * Apply fast median filter to input image {@code ip}.
+     * Pixels are processed as unsigned 16 bit integers, without conversion to float.
+     *
+     * @param src        input image.
+     * @param filterSize filter size (window size is filterSize x filterSize)
+     * @return median filtered input image.
+     */
+    public static ShortProcessor process(final ShortProcessor src, final int filterSize) {
+        final FastMedianUInt16 filter = new FastMedianUInt16();
+        filter.setNumberOfThreads(Prefs.getThreads());
 
         // Set progress bar
         if (IJ.getInstance() != null) {
@@ -34,7 +34,7 @@ import java.io.IOException;
  */
 public class FastMedianUInt8 extends RunningUInt8Filter {
     public FastMedianUInt8() {
-        super(new RunningMedianUInt8Operator());
+        super(RunningMedianUInt8Operator::new);
     }
 
     public static void main(final String[] args) {
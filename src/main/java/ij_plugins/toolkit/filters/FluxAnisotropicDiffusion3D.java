@@ -0,0 +1,338 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.process.FloatProcessor;
+
+
+/**
+ * Flux based anisotropic diffusion of a volume, a volumetric version of {@link FluxAnisotropicDiffusionFilter}.
+ * <br>
+ * Flux through each of the 6 faces of a voxel is computed from a diffusion tensor that attenuates diffusion along
+ * the gradient direction and leaves diffusion across it unchanged. Gradient direction is estimated from slices
+ * smoothed in-plane by a Gaussian with standard deviation {@link #getSigma() sigma}. Same as in the 2D filter, each
+ * voxel is updated by a weighted average of its value and fluxes from its neighbours, where the voxel value is
+ * weighted by {@link #getBeta() beta}. The {@link #getTimeStep() time step} is not used, smaller {@code beta} gives
+ * a larger step.
+ * <br>
+ * Unlike the 2D filter, there is no flux through the volume boundary, all voxels are updated.
+ *
+ * @author Jarek Sacha
+ * @see FluxAnisotropicDiffusionFilter
+ */
+public class FluxAnisotropicDiffusion3D extends AbstractAnisotropicDiffusion3D {
+
+    // Edge threshold of the diffusivity along the gradient
+    private static final double K = 10;
+
+    private double sigma = 1;
+    private double beta = 0.05;
+    private boolean recursiveSmoothing = false;
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    /**
+     * @param sigma standard deviation of in-plane smoothing used to estimate the gradient direction,
+     *              0 to use slices without smoothing.
+     */
+    public void setSigma(final double sigma) {
+        this.sigma = sigma;
+    }
+
+    public double getBeta() {
+        return beta;
+    }
+
+    public void setBeta(final double beta) {
+        this.beta = beta;
+    }
+
+    public boolean isRecursiveSmoothing() {
+        return recursiveSmoothing;
+    }
+
+    /**
+     * @param recursiveSmoothing if <code>true</code>, slices are smoothed using recursive Gaussian,
+     *                           which cost does not depend on {@link #getSigma() sigma}.
+     * @see GaussianSmoothFilter#setRecursive(boolean)
+     */
+    public void setRecursiveSmoothing(final boolean recursiveSmoothing) {
+        this.recursiveSmoothing = recursiveSmoothing;
+    }
+
+    @Override
+    protected boolean isSmoothing() {
+        return sigma > 0;
+    }
+
+    @Override
+    protected void smooth(final float[] pixels, final int width, final int height) {
+        final GaussianSmoothFilter gaussianSmooth = new GaussianSmoothFilter();
+        gaussianSmooth.setStandardDeviation(sigma);
+        gaussianSmooth.setRecursive(recursiveSmoothing);
+        gaussianSmooth.runInPlace(new FloatProcessor(width, height, pixels));
+    }
+
+    @Override
+    protected double diffuse(final float[] prev, final float[] src, final float[] next, final float[] dest,
+                             final int width, final int height) {
+        return diffuse(prev, src, next, prev, src, next, dest, width, height, null, false);
+    }
+
+    @Override
+    protected Object createSlabData(final int width, final int height) {
+        return new Faces(width, height);
+    }
+
+    /**
+     * Perform single diffusion operation. Flux coefficients of each face are computed once: faces between rows are
+     * reused for the next row, faces towards the next slice are kept in the slab data and reused for the next slice.
+     */
+    @Override
+    protected double diffuse(final float[] prev, final float[] src, final float[] next,
+                             final float[] prevSmoothed, final float[] srcSmoothed, final float[] nextSmoothed,
+                             final float[] dest, final int width, final int height,
+                             final Object slabData, final boolean continued) {
+        final Faces faces = slabData != null ? (Faces) slabData : new Faces(width, height);
+
+        // No flux through the first and the last slice
+        final boolean hasPrev = prev != src;
+        final boolean hasNext = next != src;
+
+        // Flux coefficients of the last computed face: {alpha, gamma}
+        final double[] face = new double[2];
+        // Flux coefficients of faces between rows y - 1 and y, and between rows y and y + 1
+        double[] alphaUp = faces.alphaUp;
+        double[] gammaUp = faces.gammaUp;
+        double[] alphaDown = faces.alphaDown;
+        double[] gammaDown = faces.gammaDown;
+
+        double sumSquares = 0;
+        for (int y = 0; y < height; y++) {
+            final int rowOffset = y * width;
+            if (y < height - 1) {
+                for (int x = 0; x < width; x++) {
+                    faceY(prev, src, next, prevSmoothed, srcSmoothed, nextSmoothed, x, y, width, face);
+                    alphaDown[x] = face[0];
+                    gammaDown[x] = face[1];
+                }
+            }
+
+            // Flux coefficients of the face between (x-1, y) and (x, y)
+            double alphaLeft = 0;
+            double gammaLeft = 0;
+            for (int x = 0; x < width; x++) {
+                final int offset = rowOffset + x;
+                final float center = src[offset];
+
+                // Flux from each neighbour is alpha * (neighbour - center) + gamma, with gamma computed for
+                // the face oriented towards increasing coordinate, so it is subtracted for the lower neighbour.
+                double flux = 0;
+                double weight = beta;
+
+                if (x > 0) {
+                    flux += alphaLeft * (src[offset - 1] - center) - gammaLeft;
+                    weight += alphaLeft;
+                }
+                if (x < width - 1) {
+                    faceX(prev, src, next, prevSmoothed, srcSmoothed, nextSmoothed, x, y, width, height, face);
+                    flux += face[0] * (src[offset + 1] - center) + face[1];
+                    weight += face[0];
+                    alphaLeft = face[0];
+                    gammaLeft = face[1];
+                }
+                if (y > 0) {
+                    flux += alphaUp[x] * (src[offset - width] - center) - gammaUp[x];
+                    weight += alphaUp[x];
+                }
+                if (y < height - 1) {
+                    flux += alphaDown[x] * (src[offset + width] - center) + gammaDown[x];
+                    weight += alphaDown[x];
+                }
+                // Coefficients of faces between slices are stored as float, also when computed here, so results do
+                // not depend on where the volume is split into slabs.
+                if (hasPrev) {
+                    final float alpha;
+                    final float gamma;
+                    if (continued) {
+                        alpha = faces.alphaZ[offset];
+                        gamma = faces.gammaZ[offset];
+                    } else {
+                        faceZ(prev, src, prevSmoothed, srcSmoothed, x, y, width, height, face);
+                        alpha = (float) face[0];
+                        gamma = (float) face[1];
+                    }
+                    flux += alpha * (prev[offset] - center) - gamma;
+                    weight += alpha;
+                }
+                if (hasNext) {
+                    faceZ(src, next, srcSmoothed, nextSmoothed, x, y, width, height, face);
+                    final float alpha = (float) face[0];
+                    final float gamma = (float) face[1];
+                    flux += alpha * (next[offset] - center) + gamma;
+                    weight += alpha;
+                    // Face towards the previous slice of the next slice
+                    faces.alphaZ[offset] = alpha;
+                    faces.gammaZ[offset] = gamma;
+                }
+
+                final float newValue = Math.abs(weight) < 1E-5 ? center : (float) (center + flux / weight);
+                dest[offset] = newValue;
+
+                final float d = newValue - center;
+                sumSquares += d * d;
+            }
+
+            // swap
+            final double[] alpha = alphaUp;
+            final double[] gamma = gammaUp;
+            alphaUp = alphaDown;
+            gammaUp = gammaDown;
+            alphaDown = alpha;
+            gammaDown = gamma;
+        }
+        return sumSquares;
+    }
+
+    /**
+     * Flux coefficients at the face between voxels {@code (x, y)} and {@code (x + 1, y)} of slice {@code src}.
+     */
+    private static void faceX(final float[] prev, final float[] src, final float[] next,
+                              final float[] prevSmoothed, final float[] srcSmoothed, final float[] nextSmoothed,
+                              final int x, final int y, final int width, final int height, final double[] face) {
+        final int p = y * width + x;
+        final int q = p + 1;
+        final int up = y > 0 ? -width : 0;
+        final int down = y < height - 1 ? width : 0;
+
+        coefficients(
+                src[q] - src[p],
+                (src[p + down] - src[p + up] + src[q + down] - src[q + up]) / 4.0,
+                (next[p] - prev[p] + next[q] - prev[q]) / 4.0,
+                srcSmoothed[q] - srcSmoothed[p],
+                (srcSmoothed[p + down] - srcSmoothed[p + up] + srcSmoothed[q + down] - srcSmoothed[q + up]) / 4.0,
+                (nextSmoothed[p] - prevSmoothed[p] + nextSmoothed[q] - prevSmoothed[q]) / 4.0,
+                face);
+    }
+
+    /**
+     * Flux coefficients at the face between voxels {@code (x, y)} and {@code (x, y + 1)} of slice {@code src}.
+     */
+    private static void faceY(final float[] prev, final float[] src, final float[] next,
+                              final float[] prevSmoothed, final float[] srcSmoothed, final float[] nextSmoothed,
+                              final int x, final int y, final int width, final double[] face) {
+        final int p = y * width + x;
+        final int q = p + width;
+        final int left = x > 0 ? -1 : 0;
+        final int right = x < width - 1 ? 1 : 0;
+
+        coefficients(
+                src[q] - src[p],
+                (src[p + right] - src[p + left] + src[q + right] - src[q + left]) / 4.0,
+                (next[p] - prev[p] + next[q] - prev[q]) / 4.0,
+                srcSmoothed[q] - srcSmoothed[p],
+                (srcSmoothed[p + right] - srcSmoothed[p + left] + srcSmoothed[q + right] - srcSmoothed[q + left]) / 4.0,
+                (nextSmoothed[p] - prevSmoothed[p] + nextSmoothed[q] - prevSmoothed[q]) / 4.0,
+                face);
+    }
+
+    /**
+     * Flux coefficients at the face between voxel {@code (x, y)} of slice {@code lower} and of the following
+     * slice {@code upper}.
+     */
+    private static void faceZ(final float[] lower, final float[] upper,
+                              final float[] lowerSmoothed, final float[] upperSmoothed,
+                              final int x, final int y, final int width, final int height, final double[] face) {
+        final int p = y * width + x;
+        final int left = x > 0 ? -1 : 0;
+        final int right = x < width - 1 ? 1 : 0;
+        final int up = y > 0 ? -width : 0;
+        final int down = y < height - 1 ? width : 0;
+
+        coefficients(
+                upper[p] - lower[p],
+                (lower[p + right] - lower[p + left] + upper[p + right] - upper[p + left]) / 4.0,
+                (lower[p + down] - lower[p + up] + upper[p + down] - upper[p + up]) / 4.0,
+                upperSmoothed[p] - lowerSmoothed[p],
+                (lowerSmoothed[p + right] - lowerSmoothed[p + left]
+                        + upperSmoothed[p + right] - upperSmoothed[p + left]) / 4.0,
+                (lowerSmoothed[p + down] - lowerSmoothed[p + up]
+                        + upperSmoothed[p + down] - upperSmoothed[p + up]) / 4.0,
+                face);
+    }
+
+    /**
+     * Compute flux coefficients at a face from the gradient of the volume {@code g} and the gradient of
+     * the smoothed volume {@code e}, each given by the component normal to the face and two tangential components.
+     * Diffusion tensor is {@code I + (phi0 - 1) e e^T} with normalized {@code e}, {@code alpha} is its normal-normal
+     * component and {@code gamma} is the flux due to the tangential components of the gradient.
+     */
+    private static void coefficients(final double gN, final double gT1, final double gT2,
+                                     final double eN, final double eT1, final double eT2,
+                                     final double[] face) {
+        final double norm = Math.sqrt(eN * eN + eT1 * eT1 + eT2 * eT2);
+        final double e0n;
+        final double e0t1;
+        final double e0t2;
+        if (norm > 1E-5) {
+            e0n = eN / norm;
+            e0t1 = eT1 / norm;
+            e0t2 = eT2 / norm;
+        } else {
+            e0n = 1;
+            e0t1 = 0;
+            e0t2 = 0;
+        }
+
+        final double c = phi0((gN * e0n) + (gT1 * e0t1) + (gT2 * e0t2)) - 1;
+        face[0] = 1 + c * e0n * e0n;
+        face[1] = c * e0n * ((e0t1 * gT1) + (e0t2 * gT2));
+    }
+
+    private static double phi0(final double x) {
+        return Math.exp(-0.5 * ((x * x) / K / K));
+    }
+
+    /**
+     * Flux coefficients of faces shared by neighbouring voxels.
+     */
+    private static final class Faces {
+        final double[] alphaUp;
+        final double[] gammaUp;
+        final double[] alphaDown;
+        final double[] gammaDown;
+        // Faces between a slice and the next slice
+        final float[] alphaZ;
+        final float[] gammaZ;
+
+        Faces(final int width, final int height) {
+            alphaUp = new double[width];
+            gammaUp = new double[width];
+            alphaDown = new double[width];
+            gammaDown = new double[width];
+            alphaZ = new float[width * height];
+            gammaZ = new float[width * height];
+        }
+    }
+}
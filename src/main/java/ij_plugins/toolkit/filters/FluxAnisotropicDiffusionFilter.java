@@ -21,21 +21,29 @@
  */
 package ij_plugins.toolkit.filters;
 
+import ij.IJ;
 import ij.process.FloatProcessor;
-
-import java.awt.*;
+import ij_plugins.toolkit.util.IJDebug;
+import ij_plugins.toolkit.util.ParallelBands;
+import ij_plugins.toolkit.util.Validate;
 
 
 /**
+ * Flux based anisotropic diffusion.
+ * <br>
+ * Each iteration is split into bands of image rows that can be processed concurrently. Iterations alternate
+ * between two image buffers, so the image is not copied between iterations.
+ *
  * @author Jarek Sacha
  */
 public class FluxAnisotropicDiffusionFilter {
     private int sizeX;
     private int sizeY;
-    private FloatProcessor smoothedImage;
     private double sigma = 1;
     private double beta = 0.05;
     private int numberOfIterations = 1;
+    private int numberOfThreads = 1;
+    private boolean recursiveSmoothing = false;
 
     public int getNumberOfIterations() {
         return numberOfIterations;
@@ -61,238 +69,310 @@ public class FluxAnisotropicDiffusionFilter {
         this.beta = beta;
     }
 
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    /**
+     * Set number of threads used in each iteration.
+     *
+     * @param numberOfThreads number of threads, must be at least 1.
+     */
+    public void setNumberOfThreads(final int numberOfThreads) {
+        Validate.isTrue(numberOfThreads > 0, "Number of threads must be at least 1, got " + numberOfThreads + ".");
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    public boolean isRecursiveSmoothing() {
+        return recursiveSmoothing;
+    }
+
+    /**
+     * @param recursiveSmoothing if <code>true</code>, image is smoothed in each iteration using recursive Gaussian,
+     *                           which cost does not depend on {@link #getSigma() sigma}.
+     * @see GaussianSmoothFilter#setRecursive(boolean)
+     */
+    public void setRecursiveSmoothing(final boolean recursiveSmoothing) {
+        this.recursiveSmoothing = recursiveSmoothing;
+    }
+
     public FloatProcessor run(final FloatProcessor src) {
         sizeX = src.getWidth();
         sizeY = src.getHeight();
 
-        final FloatProcessor tmpSrc = (FloatProcessor) src.duplicate();
-
-        final FloatProcessor tmpDest = new FloatProcessor(sizeX, sizeY);
+        FloatProcessor tmpSrc = (FloatProcessor) src.duplicate();
+        FloatProcessor tmpDest = new FloatProcessor(sizeX, sizeY);
 
+        final FloatProcessor smoothedFP = new FloatProcessor(sizeX, sizeY);
         final GaussianSmoothFilter gaussianSmooth = new GaussianSmoothFilter();
+        gaussianSmooth.setRecursive(recursiveSmoothing);
+        gaussianSmooth.setNumberOfThreads(numberOfThreads);
+
+        // Working buffers of each band
+        final int numberOfBands = ParallelBands.numberOfBands(numberOfThreads, 0, sizeY - 1);
+        final Band[] bands = new Band[numberOfBands];
+        for (int b = 0; b < numberOfBands; b++) {
+            bands[b] = new Band(sizeX);
+        }
 
         for (int i = 1; i <= numberOfIterations; i++) {
             // 1. compute the smoothed image
             gaussianSmooth.setStandardDeviation(sigma);
 
             //                    gaussianSmooth.setRadiusFactors(3.01, 3.01, 0);
-            smoothedImage = (FloatProcessor) gaussianSmooth.run(tmpSrc);
+            final float[] in = (float[]) tmpSrc.getPixels();
+            System.arraycopy(in, 0, smoothedFP.getPixels(), 0, in.length);
+            gaussianSmooth.runInPlace(smoothedFP);
+            final float[] smoothed = (float[]) smoothedFP.getPixels();
 
             // 2. run iteration
-            iterate2D(tmpSrc, tmpDest);
+            final float[] out = (float[]) tmpDest.getPixels();
+            if (sizeY > 1) {
+                ParallelBands.run(null, numberOfBands, 0, sizeY - 1, (band, yStart, yEnd) ->
+                        iterate2D(in, smoothed, out, yStart, yEnd, bands[band]));
+            }
 
-            copy(tmpDest, tmpSrc);
+            // The scheme does not update the last row and column, they are set to 0.
+            for (int y = 0; y < sizeY - 1; y++) {
+                out[y * sizeX + sizeX - 1] = 0;
+            }
+            for (int x = 0, pos = (sizeY - 1) * sizeX; x < sizeX; x++, pos++) {
+                out[pos] = 0;
+            }
+
+            if (IJ.debugMode) {
+                double maxError = 0;
+                int nbUnstablePoints = 0;
+                for (final Band band : bands) {
+                    maxError = Math.max(maxError, band.maxError);
+                    nbUnstablePoints += band.nbUnstablePoints;
+                }
+                IJDebug.log("Iteration " + i + ", max error = " + maxError + ", unstable points: " + nbUnstablePoints);
+            }
+
+            // swap
+            final FloatProcessor tmp = tmpDest;
+            tmpDest = tmpSrc;
+            tmpSrc = tmp;
         }
 
         return tmpSrc;
     }
 
-    private static void copy(final FloatProcessor src, final FloatProcessor dest) {
-        final float[] srcPixels = (float[]) src.getPixels();
-        final float[] destPixels = (float[]) dest.getPixels();
-        System.arraycopy(srcPixels, 0, destPixels, 0, srcPixels.length);
-    }
-
-    private double iterate2D(final FloatProcessor inData, final FloatProcessor outData) {
-        final double[] _alpha_y = new double[sizeX];
-        final double[] _gamma_y = new double[sizeX];
-
-        double _alpha_x = 0;
-        double _gamma_x = 0;
-
-        double maxError = 0;
-        final Point maxErrorPoint = new Point(-1, -1);
-
-        int nbUnstabilePoints = 0;
-
-        final float[] in = (float[]) inData.getPixels();
-        final float[] Iconv = (float[]) smoothedImage.getPixels();
+    /**
+     * Update rows from {@code yStart} (inclusive) to {@code yEnd} (exclusive). Flux in y direction between rows
+     * {@code yStart - 1} and {@code yStart} is computed by the band itself, so bands are independent.
+     */
+    private void iterate2D(final float[] in, final float[] Iconv, final float[] out,
+                           final int yStart, final int yEnd, final Band band) {
+
+        band.maxError = 0;
+        band.nbUnstablePoints = 0;
+
+        // Flux in y direction at row y-1/2 (_alpha_y, _gamma_y) and y+1/2 (alpha1_y, gamma1_y)
+        double[] _alpha_y = band.alphaY0;
+        double[] _gamma_y = band.gammaY0;
+        double[] alpha1_y = band.alphaY1;
+        double[] gamma1_y = band.gammaY1;
+        if (yStart > 0) {
+            fluxY(in, Iconv, yStart - 1, _alpha_y, _gamma_y);
+        }
 
-        for (int y = 0; y < (sizeY - 1); ++y) {
+        for (int y = yStart; y < yEnd; ++y) {
             final int offset = y * sizeX;
+            fluxY(in, Iconv, y, alpha1_y, gamma1_y);
+
+            double _alpha_x = 0;
+            double _gamma_x = 0;
 
             for (int x = 0; x < (sizeX - 1); ++x) {
                 final int pos = offset + x;
 
                 final double val0 = in[pos];
-                final Vector2D grad = new Vector2D();
-                final Point2D e0 = new Point2D();
-                final Point2D e1 = new Point2D();
 
                 //----- Calcul de alpha1_x, gamma1_x
                 // Gradient en (x+1/2,y)
                 // et Calcul de e0, e1
-                if ((x < (sizeX - 1)) && (y > 0) && (y < (sizeY - 1))) {
-                    grad.y = ((in[pos + sizeX] - in[pos - sizeX] +
+                final double gradY;
+                double e0y;
+                if ((y > 0) && (y < (sizeY - 1))) {
+                    gradY = ((in[pos + sizeX] - in[pos - sizeX] +
                             in[pos + sizeX + 1]) - in[pos - sizeX + 1]) / 4.0;
-                    e0.y = ((Iconv[pos + sizeX] - Iconv[pos - sizeX] +
+                    e0y = ((Iconv[pos + sizeX] - Iconv[pos - sizeX] +
                             Iconv[pos + sizeX + 1]) - Iconv[pos - sizeX + 1]) / 4.0;
                 } else {
-                    grad.y = 0;
-                    e0.y = 0;
-                }
-
-                if ((x > 0) && (x < (sizeX - 1))) {
-                    grad.x = in[pos + 1] - in[pos];
-                    e0.x = Iconv[pos + 1] - Iconv[pos];
-                } else {
-                    grad.x = 0;
-                    e0.x = 0;
-                }
-
-                double norm = Math.sqrt((e0.x * e0.x) + (e0.y * e0.y));
-
-                if (norm > 1E-5) {
-                    e0.x /= norm;
-                    e0.y /= norm;
-                } else {
-                    e0.x = 1.0;
-                    e0.y = 0;
-                }
-
-                e1.x = -e0.y;
-                e1.y = e0.x;
-
-                // Derivees directionnelles
-                double u_e0 = (grad.x * e0.x) + (grad.y * e0.y);
-                double u_e1 = (grad.x * e1.x) + (grad.y * e1.y);
-
-                double phi0_param;
-
-                boolean smoothedParam = false;
-                if (smoothedParam) {
-                    phi0_param = norm;
-                } else {
-                    phi0_param = u_e0;
-                }
-
-                final double alpha1_x = (phi0(phi0_param) * e0.x * e0.x) +
-                        (phi1(u_e1) * e1.x * e1.x);
-
-                final double gamma1_x = grad.y * ((e0.y * phi0(phi0_param) * e0.x) +
-                        (e1.y * phi1(u_e1) * e1.x));
-
-                //----- Calcul de alpha1_y, gamma1_y
-                // Gradient en (x,y+1/2)
-                if ((y > 0) && (y < (sizeY - 1))) {
-                    //        grad.y = (*(in  +sizeX+sizeX) - *(in) + (*in+sizeX) - (*in-sizeX))/4.0;
-                    grad.y = in[pos + sizeX] - in[pos];
-                    e0.y = Iconv[pos + sizeX] - Iconv[pos];
-                } else {
-                    grad.y = 0.0;
-                    e0.y = 0.0;
+                    gradY = 0;
+                    e0y = 0;
                 }
 
-                //  gradient en X
-                if ((y < (sizeY - 1)) && (x > 0) && (x < (sizeX - 1))) {
-                    grad.x = ((in[pos + 1] - in[pos - 1] + in[pos + 1 + sizeX]) -
-                            in[pos - 1 + sizeX]) / 4.0;
-                    e0.x = ((Iconv[pos + 1] - Iconv[pos - 1] +
-                            Iconv[pos + 1 + sizeX]) - Iconv[pos - 1 + sizeX]) / 4.0;
+                final double gradX;
+                double e0x;
+                if (x > 0) {
+                    gradX = in[pos + 1] - in[pos];
+                    e0x = Iconv[pos + 1] - Iconv[pos];
                 } else {
-                    grad.x = 0;
-                    e0.x = 0.0;
+                    gradX = 0;
+                    e0x = 0;
                 }
 
-                // Calcul de e0, e1
-                norm = Math.sqrt((e0.x * e0.x) + (e0.y * e0.y));
+                final double norm = Math.sqrt((e0x * e0x) + (e0y * e0y));
 
                 if (norm > 1E-5) {
-                    e0.x /= norm;
-                    e0.y /= norm;
+                    e0x /= norm;
+                    e0y /= norm;
                 } else {
-                    e0.x = 1.0;
-                    e0.y = 0.0;
+                    e0x = 1.0;
+                    e0y = 0;
                 }
 
-                e1.x = -e0.y;
-                e1.y = e0.x;
+                final double e1x = -e0y;
+                final double e1y = e0x;
 
                 // Derivees directionnelles
-                u_e0 = (grad.x * e0.x) + (grad.y * e0.y);
-                u_e1 = (grad.x * e1.x) + (grad.y * e1.y);
+                final double u_e0 = (gradX * e0x) + (gradY * e0y);
+                final double u_e1 = (gradX * e1x) + (gradY * e1y);
 
-                if (smoothedParam) {
-                    phi0_param = norm;
-                } else {
-                    phi0_param = u_e0;
-                }
+                final double phi0 = phi0(u_e0);
+                final double phi1 = phi1(u_e1);
 
-                final double alpha1_y = (phi0(phi0_param) * e0.y * e0.y) +
-                        (phi1(u_e1) * e1.y * e1.y);
-
-                final double gamma1_y = (grad.x * e0.x * phi0(phi0_param) * e0.y) +
-                        (grad.x * e1.x * phi1(u_e1) * e1.y);
+                final double alpha1_x = (phi0 * e0x * e0x) + (phi1 * e1x * e1x);
+                final double gamma1_x = gradY * ((e0y * phi0 * e0x) + (e1y * phi1 * e1x));
 
                 //----- Mise a jour de l'image
-                double val1 = beta * inData.getPixelValue(x, y);
+                double val1 = beta * val0;
                 double val1div = beta;
 
-                if ((x > 0) && (x < (sizeX - 1))) {
+                if (x > 0) {
                     val1 += (((alpha1_x * (in[pos + 1])) +
                             (_alpha_x * (in[pos - 1])) + gamma1_x) - _gamma_x);
 
                     val1div += (alpha1_x + _alpha_x);
                 }
 
-                if ((y > 0) && (y < (sizeY - 1))) {
-                    val1 += (((alpha1_y * (in[pos + sizeX])) +
-                            (_alpha_y[x] * (in[pos - sizeX])) + gamma1_y) -
+                if (y > 0) {
+                    val1 += (((alpha1_y[x] * (in[pos + sizeX])) +
+                            (_alpha_y[x] * (in[pos - sizeX])) + gamma1_y[x]) -
                             _gamma_y[x]);
 
-                    val1div += (alpha1_y + _alpha_y[x]);
+                    val1div += (alpha1_y[x] + _alpha_y[x]);
                 }
 
                 if (Math.abs(val1div) < 1E-5) {
-                    val1 = inData.getPixelValue(x, y);
+                    val1 = val0;
                 } else {
                     val1 /= val1div;
                 }
 
-                _alpha_y[x] = alpha1_y;
                 _alpha_x = alpha1_x;
-
-                _gamma_y[x] = gamma1_y;
                 _gamma_x = gamma1_x;
 
-                double epsilon = 1E-2;
-                if (Math.abs(val1 - val0) > epsilon) {
-                    nbUnstabilePoints++;
+                final double error = Math.abs(val1 - val0);
+                if (error > 1E-2) {
+                    band.nbUnstablePoints++;
                 }
-
-                if (Math.abs(val1 - val0) > maxError) {
-                    maxError = Math.abs(val1 - val0);
-                    maxErrorPoint.x = x;
-                    maxErrorPoint.y = y;
+                if (error > band.maxError) {
+                    band.maxError = error;
                 }
 
-                outData.putPixelValue(x, y, val1);
+                out[pos] = (float) val1;
             }
+
+            // Flux at y+1/2 becomes flux at y-1/2 for the next row
+            final double[] tmpAlpha = _alpha_y;
+            _alpha_y = alpha1_y;
+            alpha1_y = tmpAlpha;
+            final double[] tmpGamma = _gamma_y;
+            _gamma_y = gamma1_y;
+            gamma1_y = tmpGamma;
         }
+    }
 
-        System.out.println("Max maxError at (" + maxErrorPoint.x + "," +
-                maxErrorPoint.y + ") = " + maxError);
-        System.out.println("Unstabile points: " + nbUnstabilePoints);
+    /**
+     * Compute flux coefficients in y direction, between rows {@code y} and {@code y+1}, for each column except
+     * the last one.
+     */
+    private void fluxY(final float[] in, final float[] Iconv, final int y,
+                       final double[] alpha1_y, final double[] gamma1_y) {
+        final int offset = y * sizeX;
+        for (int x = 0; x < (sizeX - 1); ++x) {
+            final int pos = offset + x;
+
+            //----- Calcul de alpha1_y, gamma1_y
+            // Gradient en (x,y+1/2)
+            final double gradY;
+            double e0y;
+            if ((y > 0) && (y < (sizeY - 1))) {
+                gradY = in[pos + sizeX] - in[pos];
+                e0y = Iconv[pos + sizeX] - Iconv[pos];
+            } else {
+                gradY = 0.0;
+                e0y = 0.0;
+            }
 
-        return maxError;
+            //  gradient en X
+            final double gradX;
+            double e0x;
+            if ((y < (sizeY - 1)) && (x > 0)) {
+                gradX = ((in[pos + 1] - in[pos - 1] + in[pos + 1 + sizeX]) -
+                        in[pos - 1 + sizeX]) / 4.0;
+                e0x = ((Iconv[pos + 1] - Iconv[pos - 1] +
+                        Iconv[pos + 1 + sizeX]) - Iconv[pos - 1 + sizeX]) / 4.0;
+            } else {
+                gradX = 0;
+                e0x = 0.0;
+            }
+
+            // Calcul de e0, e1
+            final double norm = Math.sqrt((e0x * e0x) + (e0y * e0y));
+
+            if (norm > 1E-5) {
+                e0x /= norm;
+                e0y /= norm;
+            } else {
+                e0x = 1.0;
+                e0y = 0.0;
+            }
+
+            final double e1x = -e0y;
+            final double e1y = e0x;
+
+            // Derivees directionnelles
+            final double u_e0 = (gradX * e0x) + (gradY * e0y);
+            final double u_e1 = (gradX * e1x) + (gradY * e1y);
+
+            final double phi0 = phi0(u_e0);
+            final double phi1 = phi1(u_e1);
+
+            alpha1_y[x] = (phi0 * e0y * e0y) + (phi1 * e1y * e1y);
+            gamma1_y[x] = (gradX * e0x * phi0 * e0y) + (gradX * e1x * phi1 * e1y);
+        }
     }
 
-    private double phi0(final double x) {
-        double k = 10;
+    private static double phi0(final double x) {
+        final double k = 10;
         return Math.exp(-0.5 * (((x) * (x)) / k / k));
     }
 
-    private double phi1(final double x) {
+    private static double phi1(final double x) {
         return 1.0;
     }
 
-    private static class Point2D {
-        double x;
-        double y;
-    }
-
-    private static class Vector2D {
-        double x;
-        double y;
+    /**
+     * Working buffers and statistics of a band of rows.
+     */
+    private static final class Band {
+        final double[] alphaY0;
+        final double[] gammaY0;
+        final double[] alphaY1;
+        final double[] gammaY1;
+        double maxError;
+        int nbUnstablePoints;
+
+        Band(final int sizeX) {
+            alphaY0 = new double[sizeX];
+            gammaY0 = new double[sizeX];
+            alphaY1 = new double[sizeX];
+            gammaY1 = new double[sizeX];
+        }
     }
 }
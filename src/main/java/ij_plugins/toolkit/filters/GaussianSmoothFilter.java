@@ -21,15 +21,30 @@
  */
 package ij_plugins.toolkit.filters;
 
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.plugin.GaussianBlur3D;
 import ij.plugin.filter.GaussianBlur;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
+import ij_plugins.toolkit.util.Validate;
+
+import java.awt.*;
 
 
 /**
+ * Gaussian smoothing of images and stacks.
+ * <br>
+ * By default smoothing is done by ImageJ's <code>GaussianBlur</code>, which cost grows with the standard
+ * deviation. When {@link #setRecursive(boolean) recursive} is set, {@link RecursiveGaussian} is used instead,
+ * its cost per pixel is constant. Both methods smooth with the same effective standard deviation.
+ *
  * @author Jarek Sacha
  */
 public class GaussianSmoothFilter {
     private double standardDeviation = 1;
+    private boolean recursive = false;
+    private int numberOfThreads = 1;
 
     /**
      * @return Gaussian kernel standard deviation.
@@ -45,6 +60,30 @@ public class GaussianSmoothFilter {
         this.standardDeviation = standardDeviation;
     }
 
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    /**
+     * @param recursive if <code>true</code> use recursive Gaussian approximation. It is used only when
+     *                  {@link #effectiveSigma()} is at least {@link RecursiveGaussian#MIN_SIGMA}.
+     */
+    public void setRecursive(final boolean recursive) {
+        this.recursive = recursive;
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    /**
+     * @param numberOfThreads number of threads used by recursive smoothing, must be at least 1.
+     */
+    public void setNumberOfThreads(final int numberOfThreads) {
+        Validate.isTrue(numberOfThreads > 0, "Number of threads must be at least 1, got " + numberOfThreads + ".");
+        this.numberOfThreads = numberOfThreads;
+    }
+
     /**
      * @return effective radius of the Gaussian kernel.
      */
@@ -52,6 +91,14 @@ public class GaussianSmoothFilter {
         return standardDeviation * 2;
     }
 
+    /**
+     * @return standard deviation of the Gaussian actually applied to the image. <code>GaussianBlur</code>
+     * interprets {@link #kernelRadius()} as 2.5 standard deviations.
+     */
+    public double effectiveSigma() {
+        return 0.4 * kernelRadius();
+    }
+
     /**
      * Run Gaussian smooth filtering.
      *
@@ -66,12 +113,136 @@ public class GaussianSmoothFilter {
     }
 
     /**
-     * Run Gaussian smooth filtering in place.
+     * Run Gaussian smooth filtering in place. Only pixels within the ROI of {@code ip}, and its mask if
+     * the ROI is not rectangular, are modified. Pixels outside the ROI are still used as input.
      *
      * @param ip image to be filtered.
      */
     public void runInPlace(final ImageProcessor ip) {
-        final GaussianBlur gaussianBlur = new GaussianBlur();
-        gaussianBlur.blur(ip, kernelRadius());
+        final Rectangle roi = ip.getRoi();
+        final ImageProcessor mask = ip.getMask();
+        final ImageProcessor original = mask != null ? ip.crop() : null;
+
+        if (useRecursive()) {
+            runRecursive(ip, roi);
+        } else {
+            final GaussianBlur gaussianBlur = new GaussianBlur();
+            gaussianBlur.blur(ip, kernelRadius());
+        }
+
+        // Restore pixels outside of the mask
+        if (original != null) {
+            for (int y = 0; y < roi.height; y++) {
+                for (int x = 0; x < roi.width; x++) {
+                    if (mask.get(x, y) == 0) {
+                        ip.set(x + roi.x, y + roi.y, original.get(x, y));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Smooth pixels within the {@code roi} rectangle using recursive Gaussian. Only the {@code roi} extended by
+     * a margin of 4 standard deviations is smoothed, beyond that the Gaussian does not affect pixels in the ROI.
+     */
+    private void runRecursive(final ImageProcessor ip, final Rectangle roi) {
+        final RecursiveGaussian gaussian = newRecursiveGaussian();
+        final int margin = (int) Math.ceil(4 * gaussian.getSigma()) + 1;
+        final Rectangle region = new Rectangle(roi.x - margin, roi.y - margin,
+                roi.width + 2 * margin, roi.height + 2 * margin)
+                .intersection(new Rectangle(0, 0, ip.getWidth(), ip.getHeight()));
+        final boolean wholeImage = region.width == ip.getWidth() && region.height == ip.getHeight();
+
+        FloatProcessor fp = null;
+        final FloatProcessor part = wholeImage ? null : new FloatProcessor(region.width, region.height);
+        for (int c = 0; c < ip.getNChannels(); c++) {
+            fp = ip.toFloat(c, fp);
+            if (wholeImage && roi.width == ip.getWidth() && roi.height == ip.getHeight()) {
+                gaussian.run(fp);
+            } else {
+                final FloatProcessor smoothed;
+                if (wholeImage) {
+                    smoothed = (FloatProcessor) fp.duplicate();
+                } else {
+                    smoothed = part;
+                    for (int y = 0; y < region.height; y++) {
+                        for (int x = 0; x < region.width; x++) {
+                            part.setf(x, y, fp.getf(x + region.x, y + region.y));
+                        }
+                    }
+                }
+                gaussian.run(smoothed);
+                for (int y = roi.y; y < roi.y + roi.height; y++) {
+                    for (int x = roi.x; x < roi.x + roi.width; x++) {
+                        fp.setf(x, y, smoothed.getf(x - region.x, y - region.y));
+                    }
+                }
+            }
+            ip.setPixels(c, fp);
+        }
+    }
+
+    /**
+     * Run 3D Gaussian smooth filtering, the same standard deviation is used in each direction.
+     *
+     * @param stack input stack.
+     * @return filtered stack.
+     */
+    public ImageStack run(final ImageStack stack) {
+        final ImageStack dest = stack.duplicate();
+        runInPlace(dest);
+
+        return dest;
+    }
+
+    /**
+     * Run 3D Gaussian smooth filtering in place, the same standard deviation is used in each direction.
+     *
+     * @param stack stack to be filtered.
+     */
+    public void runInPlace(final ImageStack stack) {
+        Validate.argumentNotNull(stack, "stack");
+
+        if (!useRecursive()) {
+            final double sigma = effectiveSigma();
+            GaussianBlur3D.blur(new ImagePlus("", stack), sigma, sigma, sigma);
+            return;
+        }
+
+        final RecursiveGaussian gaussian = newRecursiveGaussian();
+        if (stack.getBitDepth() == 32) {
+            gaussian.run(stack);
+            return;
+        }
+
+        // Filter each channel of other stack types as a float volume
+        final int depth = stack.getSize();
+        final ImageProcessor[] processors = new ImageProcessor[depth];
+        for (int z = 0; z < depth; z++) {
+            processors[z] = stack.getProcessor(z + 1);
+        }
+        final FloatProcessor[] fps = new FloatProcessor[depth];
+        final float[][] slices = new float[depth][];
+        for (int c = 0; c < processors[0].getNChannels(); c++) {
+            for (int z = 0; z < depth; z++) {
+                fps[z] = processors[z].toFloat(c, fps[z]);
+                slices[z] = (float[]) fps[z].getPixels();
+            }
+            gaussian.run(slices, stack.getWidth(), stack.getHeight());
+            for (int z = 0; z < depth; z++) {
+                processors[z].setPixels(c, fps[z]);
+            }
+        }
+    }
+
+    private boolean useRecursive() {
+        return recursive && effectiveSigma() >= RecursiveGaussian.MIN_SIGMA;
+    }
+
+    private RecursiveGaussian newRecursiveGaussian() {
+        final RecursiveGaussian gaussian = new RecursiveGaussian(effectiveSigma());
+        gaussian.setNumberOfThreads(numberOfThreads);
+        return gaussian;
     }
 }
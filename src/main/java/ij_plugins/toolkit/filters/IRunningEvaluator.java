@@ -0,0 +1,40 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+/**
+ * Called by a running filter for each processed pixel, when the operator contains values from the filter window
+ * centered at that pixel.
+ *
+ * @param <T> type of the operator.
+ * @author Jarek Sacha
+ */
+@FunctionalInterface
+interface IRunningEvaluator<T> {
+    /**
+     * Evaluate operator for a pixel.
+     *
+     * @param operator operator containing values from the filter window.
+     * @param offset   offset of the pixel in the image pixel array, {@code x + y * width}.
+     */
+    void evaluate(T operator, int offset);
+}
@@ -0,0 +1,37 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+/**
+ * Running operator that can evaluate arbitrary rank of the values it contains, not only the median.
+ *
+ * @author Jarek Sacha
+ */
+public interface IRunningRankFloatOperator extends IRunningMedianFloatOperator {
+    /**
+     * Evaluate value at a given fraction of the sorted values, 0 is the minimum, 1 is the maximum.
+     * For {@code n} values this is the value with zero based rank {@code round(fraction * (n - 1))}.
+     *
+     * @param fraction value between 0 and 1 (inclusive).
+     */
+    float evaluate(double fraction);
+}
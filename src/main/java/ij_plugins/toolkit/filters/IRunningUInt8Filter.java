@@ -47,4 +47,12 @@ interface IRunningUInt8Filter {
      */
 
     void setProgressBar(ProgressBar progressBar);
+
+    /**
+     * Number of threads used for filtering. When larger than 1 the ROI is split into horizontal bands processed
+     * concurrently. Results do not depend on the number of threads. Default value is 1.
+     *
+     * @param numberOfThreads number of threads, must be larger than 0.
+     */
+    void setNumberOfThreads(int numberOfThreads);
 }
@@ -0,0 +1,562 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import java.util.Arrays;
+
+/**
+ * Order statistic tree storing a multiset of float keys, implemented as a red-black tree.
+ * <br>
+ * Unlike {@link RedBlackTreeFloat} it keeps a single node for each distinct key together with the number of its
+ * occurrences. Nodes are stored in parallel primitive arrays and addressed by index, removed nodes are recycled
+ * through a free list. Once the tree reaches its working size, insertions and removals do not allocate memory.
+ * <br>
+ * Keys are ordered by {@link Float#compare(float, float)}, same as {@link Arrays#sort(float[])}:
+ * {@code NaN} is a single key larger than positive infinity, and {@code -0.0f} is smaller than {@code 0.0f}.
+ *
+ * @author Jarek Sacha
+ */
+public final class OrderStatisticTreeFloat {
+
+    private static final boolean RED = false;
+    private static final boolean BLACK = true;
+
+    // Index of the sentinel node, its size and count are always 0
+    private static final int NIL = 0;
+
+    private float[] key;
+    private int[] count;
+    private int[] size;
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    private boolean[] color;
+
+    private int root = NIL;
+    // Next never used node index
+    private int nextUnused = 1;
+    // Head of the list of released nodes, linked through `right`
+    private int freeList = NIL;
+
+
+    public OrderStatisticTreeFloat() {
+        this(16);
+    }
+
+
+    /**
+     * @param initialCapacity expected number of distinct keys, the tree grows as needed.
+     */
+    public OrderStatisticTreeFloat(final int initialCapacity) {
+        final int n = Math.max(initialCapacity, 1) + 1;
+        key = new float[n];
+        count = new int[n];
+        size = new int[n];
+        left = new int[n];
+        right = new int[n];
+        parent = new int[n];
+        color = new boolean[n];
+        color[NIL] = BLACK;
+    }
+
+
+    /**
+     * Total number of keys in the tree, including repeated keys.
+     */
+    public int size() {
+        return size[root];
+    }
+
+
+    /**
+     * Test if the tree is logically empty.
+     *
+     * @return true if empty, false otherwise.
+     */
+    public boolean isEmpty() {
+        return root == NIL;
+    }
+
+
+    /**
+     * Remove all keys from the tree. Node storage is retained for reuse.
+     */
+    public void clear() {
+        root = NIL;
+        nextUnused = 1;
+        freeList = NIL;
+        parent[NIL] = NIL;
+    }
+
+
+    /**
+     * Test if tree contains <code>key</code>.
+     *
+     * @param key the key to search for.
+     * @return true if the key is present at least once.
+     */
+    public boolean contains(final float key) {
+        return find(key) != NIL;
+    }
+
+
+    /**
+     * Insert a single occurrence of the {@code key}.
+     */
+    public void insert(final float key) {
+        insert(key, 1);
+    }
+
+
+    /**
+     * Insert {@code n} occurrences of the {@code key}.
+     */
+    public void insert(final float key, final int n) {
+        if (n <= 0) {
+            return;
+        }
+
+        int y = NIL;
+        int x = root;
+        int c = 0;
+        while (x != NIL && (c = Float.compare(key, this.key[x])) != 0) {
+            y = x;
+            x = c < 0 ? left[x] : right[x];
+        }
+
+        if (x != NIL) {
+            // Key already present, only counts change
+            count[x] += n;
+            for (int v = x; v != NIL; v = parent[v]) {
+                size[v] += n;
+            }
+            return;
+        }
+
+        for (int v = y; v != NIL; v = parent[v]) {
+            size[v] += n;
+        }
+
+        final int z = allocate(key, n);
+        parent[z] = y;
+        if (y == NIL) {
+            root = z;
+        } else if (c < 0) {
+            left[y] = z;
+        } else {
+            right[y] = z;
+        }
+
+        insertFixup(z);
+    }
+
+
+    /**
+     * Insert all keys from a sorted array, equal keys are inserted with a single tree update.
+     *
+     * @param sortedKeys keys sorted in ascending order.
+     * @param length     number of keys to insert, starting from the beginning of the array.
+     */
+    public void insertAll(final float[] sortedKeys, final int length) {
+        int i = 0;
+        while (i < length) {
+            final float k = sortedKeys[i];
+            int j = i + 1;
+            while (j < length && Float.compare(sortedKeys[j], k) == 0) {
+                ++j;
+            }
+            insert(k, j - i);
+            i = j;
+        }
+    }
+
+
+    /**
+     * Remove a single occurrence of the {@code key}.
+     *
+     * @return {@code false} if key is not in the tree.
+     */
+    public boolean remove(final float key) {
+        return remove(key, 1);
+    }
+
+
+    /**
+     * Remove {@code n} occurrences of the {@code key}.
+     *
+     * @return {@code false} if key is not in the tree at least {@code n} times, in that case tree is not modified.
+     */
+    public boolean remove(final float key, final int n) {
+        final int z = find(key);
+        if (z == NIL || count[z] < n) {
+            return false;
+        }
+        if (n <= 0) {
+            return true;
+        }
+
+        count[z] -= n;
+        for (int v = z; v != NIL; v = parent[v]) {
+            size[v] -= n;
+        }
+
+        if (count[z] == 0) {
+            removeNode(z);
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Remove all keys from a sorted array, equal keys are removed with a single tree update.
+     *
+     * @param sortedKeys keys sorted in ascending order.
+     * @param length     number of keys to remove, starting from the beginning of the array.
+     * @return {@code false} if some of the keys were not present in the tree.
+     */
+    public boolean removeAll(final float[] sortedKeys, final int length) {
+        boolean removed = true;
+        int i = 0;
+        while (i < length) {
+            final float k = sortedKeys[i];
+            int j = i + 1;
+            while (j < length && Float.compare(sortedKeys[j], k) == 0) {
+                ++j;
+            }
+            removed &= remove(k, j - i);
+            i = j;
+        }
+        return removed;
+    }
+
+
+    /**
+     * Select <code>i</code>-th key in the tree (key with rank <code>i</code>).
+     *
+     * @param i rank of the key to select, first key has rank 1.
+     * @return value of key with rank <code>i</code>.
+     */
+    public float select(final int i) {
+        if (i < 1) {
+            throw new IllegalArgumentException("Rank argument i must be larger than zero.");
+        }
+        if (i > size[root]) {
+            throw new IllegalArgumentException("Input argument rank is too large.");
+        }
+
+        int r = i;
+        int x = root;
+        while (true) {
+            final int leftSize = size[left[x]];
+            if (r <= leftSize) {
+                x = left[x];
+            } else if (r <= leftSize + count[x]) {
+                return key[x];
+            } else {
+                r -= leftSize + count[x];
+                x = right[x];
+            }
+        }
+    }
+
+
+    /**
+     * Verify red-black tree properties and consistency of node sizes.
+     *
+     * @throws IllegalStateException if tree is not consistent.
+     */
+    public void verify() throws IllegalStateException {
+        if (color[root] != BLACK) {
+            throw new IllegalStateException("Root node is not black.");
+        }
+        if (color[NIL] != BLACK || size[NIL] != 0 || count[NIL] != 0) {
+            throw new IllegalStateException("Sentinel node is corrupted.");
+        }
+        verify(root);
+    }
+
+
+    /**
+     * @return black height of the sub-tree.
+     */
+    private int verify(final int x) {
+        if (x == NIL) {
+            return 1;
+        }
+        if (count[x] <= 0) {
+            throw new IllegalStateException("Node with non-positive count: " + key[x]);
+        }
+        if (size[x] != size[left[x]] + size[right[x]] + count[x]) {
+            throw new IllegalStateException("Size mismatch at node: " + key[x]);
+        }
+        if (color[x] == RED && (color[left[x]] == RED || color[right[x]] == RED)) {
+            throw new IllegalStateException("Red node must have both children black: " + key[x]);
+        }
+        final int leftHeight = verify(left[x]);
+        if (leftHeight != verify(right[x])) {
+            throw new IllegalStateException("Black path mismatch in sub-tree: " + key[x]);
+        }
+        return leftHeight + (color[x] == BLACK ? 1 : 0);
+    }
+
+
+    private int find(final float k) {
+        int x = root;
+        int c;
+        while (x != NIL && (c = Float.compare(k, key[x])) != 0) {
+            x = c < 0 ? left[x] : right[x];
+        }
+        return x;
+    }
+
+
+    private int allocate(final float k, final int n) {
+        final int z;
+        if (freeList != NIL) {
+            z = freeList;
+            freeList = right[z];
+        } else {
+            if (nextUnused == key.length) {
+                grow();
+            }
+            z = nextUnused++;
+        }
+
+        key[z] = k;
+        count[z] = n;
+        size[z] = n;
+        left[z] = NIL;
+        right[z] = NIL;
+        parent[z] = NIL;
+        color[z] = RED;
+        return z;
+    }
+
+
+    private void release(final int z) {
+        count[z] = 0;
+        size[z] = 0;
+        right[z] = freeList;
+        freeList = z;
+    }
+
+
+    private void grow() {
+        final int n = key.length * 2;
+        key = Arrays.copyOf(key, n);
+        count = Arrays.copyOf(count, n);
+        size = Arrays.copyOf(size, n);
+        left = Arrays.copyOf(left, n);
+        right = Arrays.copyOf(right, n);
+        parent = Arrays.copyOf(parent, n);
+        color = Arrays.copyOf(color, n);
+    }
+
+
+    /**
+     * Remove node {@code z} that has count 0, sizes of its ancestors are already updated.
+     */
+    private void removeNode(final int z) {
+        final int y = left[z] == NIL || right[z] == NIL ? z : treeMinimum(right[z]);
+        final int x = left[y] != NIL ? left[y] : right[y];
+
+        if (y != z) {
+            // `y` moves into `z`, nodes between them lose count of `y`
+            for (int v = parent[y]; v != z; v = parent[v]) {
+                size[v] -= count[y];
+            }
+            key[z] = key[y];
+            count[z] = count[y];
+        }
+
+        parent[x] = parent[y];
+        if (parent[y] == NIL) {
+            root = x;
+        } else if (y == left[parent[y]]) {
+            left[parent[y]] = x;
+        } else {
+            right[parent[y]] = x;
+        }
+
+        if (color[y] == BLACK) {
+            deleteFixup(x);
+        }
+
+        release(y);
+    }
+
+
+    private int treeMinimum(final int node) {
+        int x = node;
+        while (left[x] != NIL) {
+            x = left[x];
+        }
+        return x;
+    }
+
+
+    private void insertFixup(final int node) {
+        int z = node;
+        while (color[parent[z]] == RED) {
+            final int p = parent[z];
+            final int g = parent[p];
+            if (p == left[g]) {
+                final int y = right[g];
+                if (color[y] == RED) {
+                    color[p] = BLACK;
+                    color[y] = BLACK;
+                    color[g] = RED;
+                    z = g;
+                } else {
+                    if (z == right[p]) {
+                        z = p;
+                        leftRotate(z);
+                    }
+                    color[parent[z]] = BLACK;
+                    color[parent[parent[z]]] = RED;
+                    rightRotate(parent[parent[z]]);
+                }
+            } else {
+                final int y = left[g];
+                if (color[y] == RED) {
+                    color[p] = BLACK;
+                    color[y] = BLACK;
+                    color[g] = RED;
+                    z = g;
+                } else {
+                    if (z == left[p]) {
+                        z = p;
+                        rightRotate(z);
+                    }
+                    color[parent[z]] = BLACK;
+                    color[parent[parent[z]]] = RED;
+                    leftRotate(parent[parent[z]]);
+                }
+            }
+        }
+        color[root] = BLACK;
+    }
+
+
+    private void deleteFixup(final int node) {
+        int x = node;
+        while (x != root && color[x] == BLACK) {
+            if (x == left[parent[x]]) {
+                int w = right[parent[x]];
+                if (color[w] == RED) {
+                    color[w] = BLACK;
+                    color[parent[x]] = RED;
+                    leftRotate(parent[x]);
+                    w = right[parent[x]];
+                }
+                if (color[left[w]] == BLACK && color[right[w]] == BLACK) {
+                    color[w] = RED;
+                    x = parent[x];
+                } else {
+                    if (color[right[w]] == BLACK) {
+                        color[left[w]] = BLACK;
+                        color[w] = RED;
+                        rightRotate(w);
+                        w = right[parent[x]];
+                    }
+                    color[w] = color[parent[x]];
+                    color[parent[x]] = BLACK;
+                    color[right[w]] = BLACK;
+                    leftRotate(parent[x]);
+                    x = root;
+                }
+            } else {
+                int w = left[parent[x]];
+                if (color[w] == RED) {
+                    color[w] = BLACK;
+                    color[parent[x]] = RED;
+                    rightRotate(parent[x]);
+                    w = left[parent[x]];
+                }
+                if (color[right[w]] == BLACK && color[left[w]] == BLACK) {
+                    color[w] = RED;
+                    x = parent[x];
+                } else {
+                    if (color[left[w]] == BLACK) {
+                        color[right[w]] = BLACK;
+                        color[w] = RED;
+                        leftRotate(w);
+                        w = left[parent[x]];
+                    }
+                    color[w] = color[parent[x]];
+                    color[parent[x]] = BLACK;
+                    color[left[w]] = BLACK;
+                    rightRotate(parent[x]);
+                    x = root;
+                }
+            }
+        }
+        color[x] = BLACK;
+    }
+
+
+    private void leftRotate(final int x) {
+        final int y = right[x];
+        right[x] = left[y];
+        if (left[y] != NIL) {
+            parent[left[y]] = x;
+        }
+
+        parent[y] = parent[x];
+        if (parent[x] == NIL) {
+            root = y;
+        } else if (x == left[parent[x]]) {
+            left[parent[x]] = y;
+        } else {
+            right[parent[x]] = y;
+        }
+
+        left[y] = x;
+        parent[x] = y;
+        size[y] = size[x];
+        size[x] = size[left[x]] + size[right[x]] + count[x];
+    }
+
+
+    private void rightRotate(final int x) {
+        final int y = left[x];
+        left[x] = right[y];
+        if (right[y] != NIL) {
+            parent[right[y]] = x;
+        }
+
+        parent[y] = parent[x];
+        if (parent[x] == NIL) {
+            root = y;
+        } else if (x == right[parent[x]]) {
+            right[parent[x]] = y;
+        } else {
+            left[parent[x]] = y;
+        }
+
+        right[y] = x;
+        parent[x] = y;
+        size[y] = size[x];
+        size[x] = size[left[x]] + size[right[x]] + count[x];
+    }
+}
@@ -21,9 +21,7 @@
  */
 package ij_plugins.toolkit.filters;
 
-import ij.process.FloatProcessor;
-import ij_plugins.toolkit.operators.Neighborhood3x3;
-import ij_plugins.toolkit.operators.PixelIterator;
+import java.awt.*;
 
 
 /**
@@ -51,40 +49,47 @@ public class PeronaMalikAnisotropicDiffusion extends AbstractAnisotropicDiffusio
         this.bigRegionFunction = bigRegionFunction;
     }
 
+    @Override
+    protected AbstractAnisotropicDiffusion duplicate() {
+        final PeronaMalikAnisotropicDiffusion r = new PeronaMalikAnisotropicDiffusion();
+        r.setK(k);
+        r.setBigRegionFunction(bigRegionFunction);
+        return r;
+    }
+
     /**
      * Perform single diffusion operation
      */
     @Override
-    protected void diffuse(final FloatProcessor src, final FloatProcessor dest) {
-        final float[] destPixels = (float[]) dest.getPixels();
-        final PixelIterator iterator = new PixelIterator(src);
-
-        /* TODO: Update: "Calculate the gradient values for each point" */
-        while (iterator.hasNext()) {
-            final Neighborhood3x3 n = iterator.next();
-            final float[] neighbors = n.getNeighbors();
-
-            // 4-connected neighbors
-            double sum4component = 0;
-
-            for (int i = 1; i < neighbors.length; i += 2) {
-                final float gradient = neighbors[i] - n.center;
-                sum4component += (g(gradient) * gradient);
+    protected double diffuse(final float[] src, final float[] dest, final int width,
+                             final Rectangle interior, final int band, final int yStart, final int yEnd) {
+        final double timeStep = getTimeStep();
+        final int xEnd = interior.x + interior.width;
+        double sumSquares = 0;
+        for (int y = yStart; y < yEnd; y++) {
+            final int rowOffset = y * width;
+            for (int offset = rowOffset + interior.x; offset < rowOffset + xEnd; offset++) {
+                final float center = src[offset];
+
+                // 4-connected neighbors: right, up, left, down
+                double sum4component = 0;
+                final float g1 = src[offset + 1] - center;
+                sum4component += g(g1) * g1;
+                final float g3 = src[offset - width] - center;
+                sum4component += g(g3) * g3;
+                final float g5 = src[offset - 1] - center;
+                sum4component += g(g5) * g5;
+                final float g7 = src[offset + width] - center;
+                sum4component += g(g7) * g7;
+
+                final float newValue = (float) (center + (timeStep * (sum4component)));
+                dest[offset] = newValue;
+
+                final float d = newValue - center;
+                sumSquares += d * d;
             }
-
-            //      // 8-connected neighbors
-            //      double sum8component = 0;
-            //      for (int i = 2; i < neighbors.length; i+=2) {
-            //        float gradient = neighbors[i] - n.center;
-            //        sum8component += gradient;
-            //      }
-            //
-            //      double sqrt2div2 = .707106781;
-            //      double newValue = (n.center + timeStep * (sum4component + sqrt2div2 * sum8component));
-            final double newValue = n.center + (getTimeStep() * (sum4component));
-
-            destPixels[n.offset] = (float) newValue;
         }
+        return sumSquares;
     }
 
     /**
@@ -0,0 +1,179 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij_plugins.toolkit.util.Validate;
+
+
+/**
+ * Perona-Malik anisotropic diffusion of a volume. Flux to each of 6 face neighbours, or to each of 26 face, edge,
+ * and corner neighbours, is computed from the difference of voxel values using an edge preserving function.
+ * Fluxes to edge and corner neighbours are weighted by inverse of squared distance to the neighbour.
+ *
+ * @author Jarek Sacha
+ * @see PeronaMalikAnisotropicDiffusion
+ */
+public class PeronaMalikAnisotropicDiffusion3D extends AbstractAnisotropicDiffusion3D {
+    private boolean bigRegionFunction = true;
+    private double k = 10;
+    private double inv_k = 1 / k;
+    private int connectivity = 6;
+
+    public double getK() {
+        return k;
+    }
+
+    public void setK(final double k) {
+        this.k = k;
+        inv_k = 1 / k;
+    }
+
+    public boolean isBigRegionFunction() {
+        return bigRegionFunction;
+    }
+
+    public void setBigRegionFunction(final boolean bigRegionFunction) {
+        this.bigRegionFunction = bigRegionFunction;
+    }
+
+    public int getConnectivity() {
+        return connectivity;
+    }
+
+    /**
+     * @param connectivity number of neighbours, 6 or 26.
+     */
+    public void setConnectivity(final int connectivity) {
+        Validate.isTrue(connectivity == 6 || connectivity == 26,
+                "Connectivity must be 6 or 26, got " + connectivity + ".");
+        this.connectivity = connectivity;
+    }
+
+    /**
+     * Perform single diffusion operation
+     */
+    @Override
+    protected double diffuse(final float[] prev, final float[] src, final float[] next, final float[] dest,
+                             final int width, final int height) {
+        return connectivity == 6
+                ? diffuse6(prev, src, next, dest, width, height)
+                : diffuse26(prev, src, next, dest, width, height);
+    }
+
+    private double diffuse6(final float[] prev, final float[] src, final float[] next, final float[] dest,
+                            final int width, final int height) {
+        final double timeStep = getTimeStep();
+        double sumSquares = 0;
+        for (int y = 0; y < height; y++) {
+            // Neighbours outside of the volume are replaced by the center, so there is no flux through the boundary
+            final int up = y > 0 ? -width : 0;
+            final int down = y < height - 1 ? width : 0;
+            final int rowOffset = y * width;
+            for (int x = 0; x < width; x++) {
+                final int offset = rowOffset + x;
+                final int left = x > 0 ? -1 : 0;
+                final int right = x < width - 1 ? 1 : 0;
+                final float center = src[offset];
+
+                double sum = 0;
+                final float g1 = src[offset + right] - center;
+                sum += g(g1) * g1;
+                final float g2 = src[offset + up] - center;
+                sum += g(g2) * g2;
+                final float g3 = src[offset + left] - center;
+                sum += g(g3) * g3;
+                final float g4 = src[offset + down] - center;
+                sum += g(g4) * g4;
+                final float g5 = prev[offset] - center;
+                sum += g(g5) * g5;
+                final float g6 = next[offset] - center;
+                sum += g(g6) * g6;
+
+                final float newValue = (float) (center + timeStep * sum);
+                dest[offset] = newValue;
+
+                final float d = newValue - center;
+                sumSquares += d * d;
+            }
+        }
+        return sumSquares;
+    }
+
+    private double diffuse26(final float[] prev, final float[] src, final float[] next, final float[] dest,
+                             final int width, final int height) {
+        // Weight and inverse distance for neighbours at squared distance 1, 2, and 3
+        final double[] weight = {0, 1, 1 / 2d, 1 / 3d};
+        final double[] invDistance = {0, 1, 1 / Math.sqrt(2), 1 / Math.sqrt(3)};
+        final float[][] slices = {prev, src, next};
+        final int[] dxs = new int[3];
+        final int[] dys = new int[3];
+
+        final double timeStep = getTimeStep();
+        double sumSquares = 0;
+        for (int y = 0; y < height; y++) {
+            // Neighbours outside of the volume are replaced by the center, so there is no flux through the boundary
+            dys[0] = y > 0 ? -width : 0;
+            dys[2] = y < height - 1 ? width : 0;
+            final int rowOffset = y * width;
+            for (int x = 0; x < width; x++) {
+                final int offset = rowOffset + x;
+                dxs[0] = x > 0 ? -1 : 0;
+                dxs[2] = x < width - 1 ? 1 : 0;
+                final float center = src[offset];
+
+                double sum = 0;
+                for (int iz = 0; iz < 3; iz++) {
+                    final float[] slice = slices[iz];
+                    for (int iy = 0; iy < 3; iy++) {
+                        for (int ix = 0; ix < 3; ix++) {
+                            final int distance2 = Math.abs(iz - 1) + Math.abs(iy - 1) + Math.abs(ix - 1);
+                            if (distance2 == 0) {
+                                continue;
+                            }
+                            final float gradient = slice[offset + dys[iy] + dxs[ix]] - center;
+                            sum += weight[distance2] * g(gradient * invDistance[distance2]) * gradient;
+                        }
+                    }
+                }
+
+                final float newValue = (float) (center + timeStep * sum);
+                dest[offset] = newValue;
+
+                final float d = newValue - center;
+                sumSquares += d * d;
+            }
+        }
+        return sumSquares;
+    }
+
+    /**
+     * Function preserving (and enhancing) edges
+     */
+    public final double g(final double v) {
+        final double h = v * inv_k;
+        if (bigRegionFunction) {
+            return 1 / (1 + (h * h));
+        } else {
+            return Math.exp(-h * h);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.WindowManager;
+import ij.gui.GenericDialog;
+import ij.measure.Calibration;
+import ij.plugin.PlugIn;
+import ij_plugins.toolkit.io.FloatFileStack;
+import ij_plugins.toolkit.ui.progress.IJProgressBarAdapter;
+import ij_plugins.toolkit.util.IJPUtils;
+
+import java.io.IOException;
+
+/**
+ * Perona-Malik anisotropic diffusion applied to a stack treated as a 3D image. In low memory mode the result is
+ * written to a temporary file, see {@link FloatFileStack}, so it does not need to fit in memory.
+ *
+ * @author Jarek Sacha
+ */
+public class PeronaMalikAnisotropicDiffusion3DPlugin implements PlugIn {
+
+    private final static String TITLE = "Perona-Malik Anisotropic Diffusion 3D";
+    private static final String DESCRIPTION = "The classic anisotropic diffusion filter, with diffusion between slices.";
+    private static final String HELP_URL = "https://github.com/ij-plugins/ijp-toolkit/wiki/Filters";
+    private static final String[] CONNECTIVITY = {"6", "26"};
+
+    @Override
+    public void run(final String arg) {
+        final ImagePlus imp = WindowManager.getCurrentImage();
+        if (imp == null) {
+            IJ.noImage();
+            return;
+        }
+
+        if (imp.getType() != ImagePlus.GRAY8 && imp.getType() != ImagePlus.GRAY16 && imp.getType() != ImagePlus.GRAY32) {
+            IJ.showMessage(TITLE, "This plugin works only with GRAY8, GRAY16, and GRAY32 images.");
+            return;
+        }
+
+        final PeronaMalikAnisotropicDiffusion3D filter = new PeronaMalikAnisotropicDiffusion3D();
+
+        // Show options dialog
+        final GenericDialog dialog = new GenericDialog(TITLE);
+        dialog.addPanel(IJPUtils.createInfoPanel(TITLE, DESCRIPTION));
+        dialog.addNumericField("k", filter.getK(), 2, 6, "");
+        dialog.addNumericField("Mean_square_error", filter.getMeanSquareError(), 2, 8, "");
+        dialog.addNumericField("Number_of_iterations", filter.getNumberOfIterations(), 0, 8, "");
+        dialog.addNumericField("Time_step", filter.getTimeStep(), 2, 8, "");
+        dialog.addCheckbox("Use_big_region_function", filter.isBigRegionFunction());
+        dialog.addChoice("Neighbours", CONNECTIVITY, Integer.toString(filter.getConnectivity()));
+        dialog.addCheckbox("Low_memory", filter.isLowMemory());
+        dialog.addHelp(HELP_URL);
+
+        dialog.showDialog();
+
+        if (dialog.wasCanceled()) {
+            return;
+        }
+
+        filter.setK(dialog.getNextNumber());
+        filter.setMeanSquareError(dialog.getNextNumber());
+        filter.setNumberOfIterations((int) Math.round(dialog.getNextNumber()));
+        filter.setTimeStep(dialog.getNextNumber());
+        filter.setBigRegionFunction(dialog.getNextBoolean());
+        filter.setConnectivity(Integer.parseInt(dialog.getNextChoice()));
+        filter.setLowMemory(dialog.getNextBoolean());
+        filter.setNumberOfThreads(Prefs.getThreads());
+
+        // Filter
+        final IJProgressBarAdapter progressBarAdapter = new IJProgressBarAdapter();
+        filter.addProgressListener(progressBarAdapter);
+        try {
+            final ImageStack dest;
+            if (filter.isLowMemory()) {
+                // Keep the result on disk, only a few slices are in memory at any time
+                final ImageStack src = imp.getStack();
+                try {
+                    dest = new FloatFileStack(src.getWidth(), src.getHeight(), src.getSize());
+                } catch (final IOException e) {
+                    IJ.error(TITLE, "Cannot create temporary file for the result. " + e.getMessage());
+                    return;
+                }
+                for (int z = 1; z <= src.getSize(); z++) {
+                    dest.setSliceLabel(src.getSliceLabel(z), z);
+                }
+                filter.process(src, dest);
+            } else {
+                dest = filter.process(imp.getStack());
+            }
+            final ImagePlus result = new ImagePlus(imp.getTitle() + "+PM3D", dest);
+            final Calibration calibration = imp.getCalibration().copy();
+            calibration.disableDensityCalibration();
+            result.setCalibration(calibration);
+            result.show();
+        } finally {
+            filter.removeProgressListener(progressBarAdapter);
+        }
+    }
+}
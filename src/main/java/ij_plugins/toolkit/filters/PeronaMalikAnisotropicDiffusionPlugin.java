@@ -22,6 +22,8 @@
 package ij_plugins.toolkit.filters;
 
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
 import ij.gui.GenericDialog;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.FloatProcessor;
@@ -39,16 +41,18 @@ public class PeronaMalikAnisotropicDiffusionPlugin implements PlugInFilter {
     private static final String DESCRIPTION = "The classic anisotropic diffusion filter.";
     private static final String HELP_URL = "https://github.com/ij-plugins/ijp-toolkit/wiki/Filters";
 
+    private ImagePlus imp;
+
 
     @Override
     public int setup(final String s, final ImagePlus imagePlus) {
-        return DOES_8G | DOES_16 | DOES_32 | DOES_STACKS | NO_CHANGES;
+        imp = imagePlus;
+        return DOES_8G | DOES_16 | DOES_32 | NO_CHANGES;
     }
 
     @Override
     public void run(final ImageProcessor ip) {
 
-        final FloatProcessor src = (FloatProcessor) ip.convertToFloat();
         final PeronaMalikAnisotropicDiffusion filter = new PeronaMalikAnisotropicDiffusion();
 
         // Show options dialog
@@ -72,13 +76,20 @@ public class PeronaMalikAnisotropicDiffusionPlugin implements PlugInFilter {
         filter.setNumberOfIterations((int) Math.round(dialog.getNextNumber()));
         filter.setTimeStep(dialog.getNextNumber());
         filter.setBigRegionFunction(dialog.getNextBoolean());
+        filter.setNumberOfThreads(Prefs.getThreads());
 
         // Filter
         final IJProgressBarAdapter progressBarAdapter = new IJProgressBarAdapter();
         filter.addProgressListener(progressBarAdapter);
         try {
-            final FloatProcessor dest = filter.process(src);
-            new ImagePlus(TITLE, dest).show();
+            if (imp.getStackSize() > 1) {
+                // Filter all slices, distributing them among threads
+                final ImageStack dest = filter.process(imp.getStack());
+                new ImagePlus(TITLE, dest).show();
+            } else {
+                final FloatProcessor dest = filter.process((FloatProcessor) ip.convertToFloat());
+                new ImagePlus(TITLE, dest).show();
+            }
         } finally {
             filter.removeProgressListener(progressBarAdapter);
         }
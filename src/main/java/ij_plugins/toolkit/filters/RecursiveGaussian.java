@@ -0,0 +1,381 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import ij_plugins.toolkit.util.ParallelBands;
+import ij_plugins.toolkit.util.Validate;
+
+/**
+ * Recursive (IIR) approximation of Gaussian smoothing, its cost per pixel does not depend on the standard deviation.
+ * <br>
+ * Each image line is filtered by a causal and an anti-causal third order recursive filter, following
+ * L.J. van Vliet, I.T. Young, P.W. Verbeek, "Recursive Gaussian derivative filters", Proc. 14th ICPR, 1998,
+ * p.509-514. The base poles are scaled to give exactly the requested variance. Image is extended beyond its border
+ * by replicating the border pixels, as in ImageJ's <code>GaussianBlur</code>. The anti-causal filter is initialized following B. Triggs, M. Sdika, "Boundary
+ * conditions for Young-van Vliet recursive filtering", IEEE Trans. Signal Processing, 2006, vol.54, p.2365-2367,
+ * so there are no artifacts near the end of a line. Lines are filtered in double precision.
+ * <br>
+ * Rows, columns and, for stacks, lines along z are processed in turn. Lines in each direction are split into bands
+ * processed concurrently, see {@link #setNumberOfThreads(int)}.
+ * <br>
+ * The shape of the filter only approximates the Gaussian. The difference from exact Gaussian smoothing of a step
+ * edge is below 1% of the step height for standard deviation above 1, it is larger for smaller values.
+ *
+ * @author Jarek Sacha
+ */
+public final class RecursiveGaussian {
+
+    /**
+     * Smallest standard deviation for which the filter coefficients are valid.
+     */
+    public static final double MIN_SIGMA = 0.5;
+
+    // Base poles, for standard deviation 2: 1.41650 +- 1.00829i and 1.86543
+    private static final double POLE_MODULUS = Math.hypot(1.41650, 1.00829);
+    private static final double POLE_ARGUMENT = Math.atan2(1.00829, 1.41650);
+    private static final double REAL_POLE = 1.86543;
+
+    // Number of adjacent lines filtered together
+    private static final int BLOCK_SIZE = 32;
+
+    private final double sigma;
+    // Feedback coefficients, same for causal and anti-causal filter
+    private final double a1;
+    private final double a2;
+    private final double a3;
+    // Gain normalizing the response of both filters to 1.
+    private final double gain;
+    // Triggs-Sdika matrix, row major
+    private final double[] m;
+    private int numberOfThreads = 1;
+
+
+    /**
+     * @param sigma standard deviation of the Gaussian, at least {@link #MIN_SIGMA}.
+     */
+    public RecursiveGaussian(final double sigma) {
+        Validate.isTrue(sigma >= MIN_SIGMA, "Standard deviation must be at least " + MIN_SIGMA + ", got " + sigma + ".");
+        this.sigma = sigma;
+
+        // Scale base poles so that the filter variance is sigma^2
+        final double q = solveScale(sigma);
+        final double r = Math.pow(POLE_MODULUS, -1 / q);
+        final double re = r * Math.cos(POLE_ARGUMENT / q);
+        final double modulus2 = r * r;
+        final double p3 = Math.pow(REAL_POLE, -1 / q);
+        a1 = 2 * re + p3;
+        a2 = -(modulus2 + 2 * re * p3);
+        a3 = modulus2 * p3;
+
+        final double g = 1 - a1 - a2 - a3;
+        gain = g * g;
+
+        final double s = 1 / ((1 + a1 - a2 + a3) * (1 - a1 - a2 - a3) * (1 + a2 + (a1 - a3) * a3));
+        m = new double[]{
+                s * (-a3 * a1 + 1 - a3 * a3 - a2),
+                s * (a3 + a1) * (a2 + a3 * a1),
+                s * a3 * (a1 + a3 * a2),
+                s * (a1 + a3 * a2),
+                -s * (a2 - 1) * (a2 + a3 * a1),
+                -s * a3 * (a3 * a1 + a3 * a3 + a2 - 1),
+                s * (a3 * a1 + a2 + a1 * a1 - a2 * a2),
+                s * (a1 * a2 + a3 * a2 * a2 - a1 * a3 * a3 - a3 * a3 * a3 - a3 * a2 + a3),
+                s * a3 * (a1 + a3 * a2)
+        };
+    }
+
+
+    /**
+     * Find scale <code>q</code> for which poles <code>d<sup>1/q</sup></code> give a filter with variance
+     * <code>sigma<sup>2</sup></code>.
+     */
+    private static double solveScale(final double sigma) {
+        // Variance is monotonically increasing with q
+        double lo = 0;
+        double hi = sigma + 1;
+        for (int i = 0; i < 100; i++) {
+            final double mid = 0.5 * (lo + hi);
+            if (variance(mid) < sigma * sigma) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return 0.5 * (lo + hi);
+    }
+
+
+    /**
+     * Variance of the causal and anti-causal filter pair with poles <code>d<sup>1/q</sup></code>.
+     * Each pole <code>d</code> contributes <code>2d / (d - 1)<sup>2</sup></code>.
+     */
+    private static double variance(final double q) {
+        final double r = Math.pow(POLE_MODULUS, 1 / q);
+        final double re = r * Math.cos(POLE_ARGUMENT / q);
+        final double im = r * Math.sin(POLE_ARGUMENT / q);
+        // (d - 1)^2 for the complex pole
+        final double dr = re - 1;
+        final double sr = dr * dr - im * im;
+        final double si = 2 * dr * im;
+        // Real part of d / (d - 1)^2, the conjugate pole contributes the same
+        final double complexPair = 2 * (re * sr + im * si) / (sr * sr + si * si);
+        final double d = Math.pow(REAL_POLE, 1 / q);
+        return 2 * (complexPair + d / ((d - 1) * (d - 1)));
+    }
+
+
+    public double getSigma() {
+        return sigma;
+    }
+
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+
+    /**
+     * @param numberOfThreads number of threads used to filter lines in each direction, must be at least 1.
+     */
+    public void setNumberOfThreads(final int numberOfThreads) {
+        Validate.isTrue(numberOfThreads > 0, "Number of threads must be at least 1, got " + numberOfThreads + ".");
+        this.numberOfThreads = numberOfThreads;
+    }
+
+
+    /**
+     * Smooth image in place.
+     *
+     * @param fp image to smooth.
+     */
+    public void run(final FloatProcessor fp) {
+        Validate.argumentNotNull(fp, "fp");
+        run((float[]) fp.getPixels(), fp.getWidth(), fp.getHeight());
+    }
+
+
+    /**
+     * Smooth image in place.
+     *
+     * @param pixels image pixels.
+     * @param width  image width.
+     * @param height image height.
+     */
+    public void run(final float[] pixels, final int width, final int height) {
+        Validate.argumentNotNull(pixels, "pixels");
+        Validate.isTrue(pixels.length >= width * height,
+                "Pixel array is smaller than image size " + width + "x" + height + ".");
+        runXY(new float[][]{pixels}, width, height);
+    }
+
+
+    /**
+     * Smooth 32-bit stack in place, in all three directions.
+     *
+     * @param stack stack to smooth.
+     */
+    public void run(final ImageStack stack) {
+        Validate.argumentNotNull(stack, "stack");
+        Validate.isTrue(stack.getBitDepth() == 32, "Expecting 32-bit stack, got " + stack.getBitDepth() + "-bit.");
+
+        final float[][] slices = new float[stack.getSize()][];
+        for (int z = 0; z < slices.length; z++) {
+            slices[z] = (float[]) stack.getPixels(z + 1);
+        }
+        run(slices, stack.getWidth(), stack.getHeight());
+    }
+
+
+    /**
+     * Smooth volume in place, in all three directions.
+     *
+     * @param slices pixels of consecutive slices.
+     * @param width  slice width.
+     * @param height slice height.
+     */
+    public void run(final float[][] slices, final int width, final int height) {
+        Validate.argumentNotNull(slices, "slices");
+        runXY(slices, width, height);
+        runZ(slices, width * height);
+    }
+
+
+    private void runXY(final float[][] slices, final int width, final int height) {
+        final int depth = slices.length;
+
+        // Rows
+        ParallelBands.run(null, numberOfThreads, 0, depth * height, (band, start, end) -> {
+            final Lines lines = new Lines(width, 1);
+            final double[] buffer = lines.buffer;
+            for (int i = start; i < end; i++) {
+                final float[] pixels = slices[i / height];
+                final int offset = (i % height) * width;
+                for (int x = 0; x < width; x++) {
+                    buffer[x] = pixels[offset + x];
+                }
+                filter(lines, width, 1);
+                for (int x = 0; x < width; x++) {
+                    pixels[offset + x] = (float) buffer[x];
+                }
+            }
+        });
+
+        // Columns, filtered in blocks of adjacent columns, so that pixels are accessed row by row
+        final int blocksPerSlice = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ParallelBands.run(null, numberOfThreads, 0, depth * blocksPerSlice, (band, start, end) -> {
+            final Lines lines = new Lines(height, BLOCK_SIZE);
+            final double[] buffer = lines.buffer;
+            for (int i = start; i < end; i++) {
+                final float[] pixels = slices[i / blocksPerSlice];
+                final int x0 = (i % blocksPerSlice) * BLOCK_SIZE;
+                final int b = Math.min(BLOCK_SIZE, width - x0);
+                for (int y = 0; y < height; y++) {
+                    final int offset = y * width + x0;
+                    for (int j = 0; j < b; j++) {
+                        buffer[y * b + j] = pixels[offset + j];
+                    }
+                }
+                filter(lines, height, b);
+                for (int y = 0; y < height; y++) {
+                    final int offset = y * width + x0;
+                    for (int j = 0; j < b; j++) {
+                        pixels[offset + j] = (float) buffer[y * b + j];
+                    }
+                }
+            }
+        });
+    }
+
+
+    private void runZ(final float[][] slices, final int sliceSize) {
+        final int depth = slices.length;
+        if (depth < 2) {
+            return;
+        }
+
+        // Lines along z, filtered in blocks of adjacent pixels, so that each slice is accessed sequentially
+        final int nbBlocks = (sliceSize + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ParallelBands.run(null, numberOfThreads, 0, nbBlocks, (band, start, end) -> {
+            final Lines lines = new Lines(depth, BLOCK_SIZE);
+            final double[] buffer = lines.buffer;
+            for (int i = start; i < end; i++) {
+                final int i0 = i * BLOCK_SIZE;
+                final int b = Math.min(BLOCK_SIZE, sliceSize - i0);
+                for (int z = 0; z < depth; z++) {
+                    final float[] pixels = slices[z];
+                    for (int j = 0; j < b; j++) {
+                        buffer[z * b + j] = pixels[i0 + j];
+                    }
+                }
+                filter(lines, depth, b);
+                for (int z = 0; z < depth; z++) {
+                    final float[] pixels = slices[z];
+                    for (int j = 0; j < b; j++) {
+                        pixels[i0 + j] = (float) buffer[z * b + j];
+                    }
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Filter in place <code>b</code> interleaved lines of length <code>n</code>, stored in the buffer so that
+     * <code>k</code>-th value of <code>j</code>-th line is at <code>k * b + j</code>.
+     */
+    private void filter(final Lines lines, final int n, final int b) {
+        final double[] buffer = lines.buffer;
+        final double[] last = lines.last;
+        final double[] s1 = lines.s1;
+        final double[] s2 = lines.s2;
+        final double[] s3 = lines.s3;
+
+        // Extending lines by replicating their last value does not change the result, and gives at least 3 values.
+        final int length = Math.max(n, 3);
+        for (int k = n; k < length; k++) {
+            System.arraycopy(buffer, (n - 1) * b, buffer, k * b, b);
+        }
+
+        // Causal filter, initialized with steady state response to constant extension of the first value
+        final double g = 1 - a1 - a2 - a3;
+        for (int j = 0; j < b; j++) {
+            last[j] = buffer[(length - 1) * b + j];
+            s1[j] = buffer[j] / g;
+            s2[j] = s1[j];
+            s3[j] = s1[j];
+        }
+        for (int k = 0, offset = 0; k < length; k++, offset += b) {
+            for (int j = 0; j < b; j++) {
+                final double w = buffer[offset + j] + a1 * s1[j] + a2 * s2[j] + a3 * s3[j];
+                s3[j] = s2[j];
+                s2[j] = s1[j];
+                s1[j] = w;
+                buffer[offset + j] = w;
+            }
+        }
+
+        // Anti-causal filter, initialized with Triggs-Sdika conditions for constant extension of the last value
+        for (int j = 0; j < b; j++) {
+            final double uPlus = last[j] / g;
+            final double vPlus = uPlus / g;
+            final double u0 = buffer[(length - 1) * b + j] - uPlus;
+            final double u1 = buffer[(length - 2) * b + j] - uPlus;
+            final double u2 = buffer[(length - 3) * b + j] - uPlus;
+            s1[j] = m[0] * u0 + m[1] * u1 + m[2] * u2 + vPlus;
+            s2[j] = m[3] * u0 + m[4] * u1 + m[5] * u2 + vPlus;
+            s3[j] = m[6] * u0 + m[7] * u1 + m[8] * u2 + vPlus;
+            buffer[(length - 1) * b + j] = s1[j] * gain;
+        }
+        for (int k = length - 2, offset = k * b; k >= 0; k--, offset -= b) {
+            for (int j = 0; j < b; j++) {
+                final double v = buffer[offset + j] + a1 * s1[j] + a2 * s2[j] + a3 * s3[j];
+                s3[j] = s2[j];
+                s2[j] = s1[j];
+                s1[j] = v;
+                buffer[offset + j] = v * gain;
+            }
+        }
+    }
+
+
+    /**
+     * Working buffers for filtering a block of lines.
+     */
+    private static final class Lines {
+        final double[] buffer;
+        // Last input value and filter state of each line
+        final double[] last;
+        final double[] s1;
+        final double[] s2;
+        final double[] s3;
+
+        Lines(final int n, final int b) {
+            buffer = new double[Math.max(n, 3) * b];
+            last = new double[b];
+            s1 = new double[b];
+            s2 = new double[b];
+            s3 = new double[b];
+        }
+    }
+}
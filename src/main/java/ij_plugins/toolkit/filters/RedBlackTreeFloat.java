@@ -32,6 +32,9 @@ import java.util.List;
  */
 public final class RedBlackTreeFloat {
 
+    // Sentinel is owned by the tree, its parent link is modified during removal,
+    // so it cannot be shared between trees used concurrently.
+    private final Node nil = new Node();
     private Node root;
 
     private static final int RED = 0;
@@ -39,7 +42,7 @@ public final class RedBlackTreeFloat {
 
 
     public RedBlackTreeFloat() {
-        root = Node.NULL;
+        root = nil;
     }
 
 
@@ -51,7 +54,7 @@ public final class RedBlackTreeFloat {
         }
 
         // Rule 3
-        if (Node.NULL.color != BLACK) {
+        if (nil.color != BLACK) {
             throw new IllegalStateException("NULL node is not black.");
         }
 
@@ -60,7 +63,7 @@ public final class RedBlackTreeFloat {
 
 
     private void verify(final Node node) {
-        if (node == Node.NULL) {
+        if (node == nil) {
             return;
         }
 
@@ -101,7 +104,7 @@ public final class RedBlackTreeFloat {
 
     private int countBlackToParent(final Node leaf, final Node node) {
 
-        if (leaf == Node.NULL) {
+        if (leaf == nil) {
             throw new IllegalArgumentException("Leaf node cannot be NULL");
         }
 
@@ -116,11 +119,11 @@ public final class RedBlackTreeFloat {
 
 
     private void findLeaves(final Node node, final List<Node> leaves) {
-        if (node == Node.NULL) {
+        if (node == nil) {
             return;
         }
 
-        if (node.right == Node.NULL && node.left == Node.NULL) {
+        if (node.right == nil && node.left == nil) {
             leaves.add(node);
             return;
         }
@@ -136,7 +139,7 @@ public final class RedBlackTreeFloat {
     public void clear() {
         // Remove one by one to remove circular references and enable garbage collection.
         Node x = root;
-        while (x != Node.NULL) {
+        while (x != nil) {
             remove(x);
             x = root;
         }
@@ -150,19 +153,19 @@ public final class RedBlackTreeFloat {
 
     public void insert(final float key) {
 
-        Node y = Node.NULL;
+        Node y = nil;
         Node x = root;
-        final Node z = new Node(key);
+        final Node z = new Node(key, nil);
 
         // Find insertion point
-        while (x != Node.NULL) {
+        while (x != nil) {
             ++x.size;
             y = x;
             x = key < x.key ? x.left : x.right;
         }
         // Insert the new node
         z.parent = y;
-        if (y == Node.NULL) {
+        if (y == nil) {
             root = z;
         } else {
             if (key < y.key) {
@@ -182,23 +185,23 @@ public final class RedBlackTreeFloat {
 
 
     private boolean remove(final Node node) {
-        if (node == Node.NULL) {
+        if (node == nil) {
             return false;
         }
 
-        final Node y = node.left == Node.NULL || node.right == Node.NULL
+        final Node y = node.left == nil || node.right == nil
                 ? node
                 : successor(node);
 
-        final Node x = y.left != Node.NULL
+        final Node x = y.left != nil
                 ? y.left
                 : y.right;
 
-        //        if (x != Node.NULL) {
+        //        if (x != nil) {
         x.parent = y.parent;
         //        }
 
-        if (y.parent == Node.NULL) {
+        if (y.parent == nil) {
             root = x;
         } else {
             if (y == y.parent.left) {
@@ -214,7 +217,7 @@ public final class RedBlackTreeFloat {
 
         // Update count
         Node v = y.parent;
-        while (v != Node.NULL) {
+        while (v != nil) {
             --v.size;
             v = v.parent;
         }
@@ -223,7 +226,7 @@ public final class RedBlackTreeFloat {
             deleteFixup(x);
         }
 
-        y.clear();
+        y.clear(nil);
 
         return true;
 
@@ -242,7 +245,7 @@ public final class RedBlackTreeFloat {
         }
 
         final Node n = select(root, i);
-        if (n == Node.NULL) {
+        if (n == nil) {
             throw new IllegalArgumentException("Input argument rank is too large.");
         }
 
@@ -267,7 +270,7 @@ public final class RedBlackTreeFloat {
      * @return the matching key or null if not found.
      */
     public boolean contains(final float key) {
-        return find(root, key) != Node.NULL;
+        return find(root, key) != nil;
     }
 
 
@@ -277,7 +280,7 @@ public final class RedBlackTreeFloat {
      * @return true if empty, false otherwise.
      */
     public boolean isEmpty() {
-        return root == Node.NULL;
+        return root == nil;
     }
 
 
@@ -331,12 +334,12 @@ public final class RedBlackTreeFloat {
         final Node y = x.left;
         x.left = y.right;
 
-        if (y.right != Node.NULL) {
+        if (y.right != nil) {
             y.right.parent = x;
         }
 
         y.parent = x.parent;
-        if (x.parent == Node.NULL) {
+        if (x.parent == nil) {
             root = y;
         } else {
             if (x == x.parent.right) {
@@ -357,12 +360,12 @@ public final class RedBlackTreeFloat {
         final Node y = x.right;
         x.right = y.left;
 
-        if (y.left != Node.NULL) {
+        if (y.left != nil) {
             y.left.parent = x;
         }
 
         y.parent = x.parent;
-        if (x.parent == Node.NULL) {
+        if (x.parent == nil) {
             root = y;
         } else {
             if (x == x.parent.left) {
@@ -387,11 +390,11 @@ public final class RedBlackTreeFloat {
      */
     private Node successor(final Node node) {
         Node x = node;
-        if (x.right != Node.NULL) {
+        if (x.right != nil) {
             return treeMinimum(x.right);
         }
         Node y = x.parent;
-        while (y != Node.NULL && x == y.right) {
+        while (y != nil && x == y.right) {
             x = y;
             y = y.parent;
         }
@@ -402,7 +405,7 @@ public final class RedBlackTreeFloat {
 
     private Node treeMinimum(final Node node) {
         Node x = node;
-        while (x.left != Node.NULL) {
+        while (x.left != nil) {
             x = x.left;
         }
 
@@ -469,13 +472,13 @@ public final class RedBlackTreeFloat {
 
     private Node find(final Node node, final float key) {
         Node x = node;
-        //        if (x == Node.NULL || key == x.key) {
+        //        if (x == nil || key == x.key) {
         //            return x;
         //        }
         //
         //        return (key < x.key) ? find(x.left, key) : find(x.right, key);
 
-        while (x != Node.NULL && key != x.key) {
+        while (x != nil && key != x.key) {
             x = (key < x.key) ? x.left : x.right;
         }
 
@@ -484,7 +487,7 @@ public final class RedBlackTreeFloat {
 
 
     private void printTree(final Node node) {
-        if (node != Node.NULL) {
+        if (node != nil) {
             printTree(node.left);
             System.out.println(node);
             printTree(node.right);
@@ -497,8 +500,6 @@ public final class RedBlackTreeFloat {
      */
     private static final class Node {
 
-        public static final Node NULL;
-
         /**
          * Data stored by the node
          */
@@ -516,22 +517,24 @@ public final class RedBlackTreeFloat {
         private int size;
 
 
-        static {
-            NULL = new Node(Float.NaN);
-            NULL.key = Float.NaN;
-            NULL.left = NULL;
-            NULL.right = NULL;
-            NULL.parent = NULL;
-            NULL.color = BLACK;
-            NULL.size = 0;
+        /**
+         * Create sentinel node.
+         */
+        Node() {
+            this.key = Float.NaN;
+            this.left = this;
+            this.right = this;
+            this.parent = this;
+            this.color = BLACK;
+            this.size = 0;
         }
 
 
-        Node(final float element) {
+        Node(final float element, final Node nil) {
             this.key = element;
-            this.left = NULL;
-            this.right = NULL;
-            this.parent = NULL;
+            this.left = nil;
+            this.right = nil;
+            this.parent = nil;
             this.color = RedBlackTreeFloat.RED;
             this.size = 1;
         }
@@ -548,27 +551,16 @@ public final class RedBlackTreeFloat {
         }
 
 
-        public void clear() {
-            if (this != NULL) {
+        public void clear(final Node nil) {
+            if (this != nil) {
                 this.key = Float.NaN;
-                this.left = NULL;
-                this.right = NULL;
+                this.left = nil;
+                this.right = nil;
                 this.color = RedBlackTreeFloat.RED;
-                this.parent = NULL;
+                this.parent = nil;
                 this.size = 1;
             }
         }
-
-
-        static boolean verifyNull() {
-            assert Float.isNaN(NULL.key);
-            assert NULL.left == NULL;
-            assert NULL.right == NULL;
-            assert NULL.parent == NULL;
-            assert NULL.color == BLACK;
-            assert NULL.size == 0;
-            return true;
-        }
     }
 }
 
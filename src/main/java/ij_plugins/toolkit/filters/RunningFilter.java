@@ -24,22 +24,41 @@ package ij_plugins.toolkit.filters;
 import ij.ImagePlus;
 import ij.gui.ProgressBar;
 import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
 import ij_plugins.toolkit.io.IOUtils;
+import ij_plugins.toolkit.util.ParallelBands;
 import ij_plugins.toolkit.util.Validate;
 
 import java.awt.*;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * Implements iterations over an {@link RunningMedianOperator}.
+ * <br>
+ * If the filter is constructed with an operator factory, the ROI can be processed in parallel, split into
+ * horizontal bands, each band using its own operator instance, see {@link #setNumberOfThreads(int)}.
+ * Results do not depend on the number of threads.
+ * <br>
+ * If the source image has a non-rectangular ROI, pixels outside of the ROI mask are not evaluated and their values
+ * are copied from the source. Pixels of the ROI bounding rectangle are used as input.
+ * <br>
+ * The filter window spans {@code filterWidth / 2} columns and {@code filterHeight / 2} rows on each side of the
+ * center pixel, clipped to the ROI bounding rectangle, same as in {@link RunningUInt8Filter}. Even filter sizes
+ * are therefore rounded up to the next odd size.
  *
  * @author Jarek Sacha
  */
 public class RunningFilter {
     private final IRunningMedianFloatOperator operator;
+    private final Supplier<? extends IRunningMedianFloatOperator> operatorFactory;
     final int filterWidth;
     final int filterHeight;
     private ProgressBar progressBar;
+    private int numberOfThreads = 1;
+    private ExecutorService executor;
 
 
     /**
@@ -54,21 +73,63 @@ public class RunningFilter {
         Validate.argumentNotNull(operator, "operator");
 
         this.operator = operator;
-        this.operator.reset(filterWidth, filterHeight);
+        this.operatorFactory = null;
+        this.filterWidth = filterWidth;
+        this.filterHeight = filterHeight;
+        this.operator.reset(windowWidth(), windowHeight());
+    }
+
+    /**
+     * Construct a filter using operators created by a given <code>operatorFactory</code>,
+     * a new operator is created for each band processed in parallel.
+     *
+     * @param operatorFactory creates operators over which this filter iterates.
+     * @param filterWidth     filter width.
+     * @param filterHeight    filter height.
+     */
+    public RunningFilter(final Supplier<? extends IRunningMedianFloatOperator> operatorFactory,
+                         final int filterWidth, final int filterHeight) {
+        Validate.argumentNotNull(operatorFactory, "operatorFactory");
+
+        this.operator = null;
+        this.operatorFactory = operatorFactory;
         this.filterWidth = filterWidth;
         this.filterHeight = filterHeight;
     }
 
     public FloatProcessor run(final FloatProcessor src) {
 
-        final int width = src.getWidth();
         final FloatProcessor dest = (FloatProcessor) src.duplicate();
+        final float[] destPixels = (float[]) dest.getPixels();
+
+        final Supplier<? extends IRunningMedianFloatOperator> factory = operatorFactory != null
+                ? operatorFactory
+                : () -> operator;
+        iterate(src, factory, (op, offset) -> destPixels[offset] = op.evaluate());
+
+        return dest;
+    }
 
+    /**
+     * Slide the filter window over the ROI and call the {@code evaluator} for each pixel within the ROI mask.
+     * The evaluator may be called concurrently for pixels in different bands.
+     *
+     * @param src       input image.
+     * @param factory   creates operators, one for each band. The ROI is split into bands only if this filter was
+     *                  constructed with an operator factory.
+     * @param evaluator called for each pixel.
+     */
+    <T extends IRunningMedianFloatOperator> void iterate(final FloatProcessor src,
+                                                         final Supplier<? extends T> factory,
+                                                         final IRunningEvaluator<? super T> evaluator) {
+
+        final int width = src.getWidth();
         final float[] srcPixels = (float[]) src.getPixels();
-        final float[] destPixels = (float[]) dest.getPixels();
 
         final int xr = filterWidth / 2;
         final int yr = filterHeight / 2;
+        final int windowWidth = windowWidth();
+        final int windowHeight = windowHeight();
 
         final Rectangle roi = src.getRoi();
 
@@ -77,47 +138,91 @@ public class RunningFilter {
         final int yMin = roi.y;
         final int yMax = roi.y + roi.height;
 
+        final ImageProcessor mask = src.getMask();
+        final byte[] maskPixels = mask != null ? (byte[]) mask.getPixels() : null;
+
         // Calculate increment, make sure that different/larger than 0 otherwise '%' operation will fail.
         final int progressIncrement = Math.max((yMax - yMin) / 100, 1);
+        final AtomicInteger rowsDone = new AtomicInteger(0);
+
+        final int nbThreads = operatorFactory != null ? numberOfThreads : 1;
+        ParallelBands.run(executor, nbThreads, yMin, yMax, (band, yStart, yEnd) -> {
+            final T op = factory.get();
+            op.reset(windowWidth, windowHeight);
 
-        final float[] packet = new float[filterHeight];
-        for (int y = yMin; y < yMax; ++y) {
-            final int yOffset = y * width;
-
-            // Initialize median operator, with all but the last column in the structural key
-            operator.clear();
-            final int yyMin = Math.max(y - yr, yMin);
-            final int yyMax = Math.min(y + yr, yMax);
-            final int xxMax = Math.min(xMin + xr, xMax);
-            for (int xx = xMin; xx < xxMax; ++xx) {
-                for (int yy = yyMin; yy < yyMax; ++yy) {
-                    packet[yy - yyMin] = srcPixels[xx + yy * width];
+            final float[] packet = new float[windowHeight];
+            for (int y = yStart; y < yEnd; ++y) {
+                final int yOffset = y * width;
+                final int maskOffset = (y - yMin) * roi.width - xMin;
+
+                // Range of columns within the mask, only that range of the row is evaluated
+                int xStart = xMin;
+                int xEnd = xMax;
+                if (maskPixels != null) {
+                    while (xStart < xEnd && maskPixels[xStart + maskOffset] == 0) {
+                        ++xStart;
+                    }
+                    while (xEnd > xStart && maskPixels[xEnd - 1 + maskOffset] == 0) {
+                        --xEnd;
+                    }
                 }
-                operator.push(yyMax - yyMin, packet);
-            }
 
+                if (xStart < xEnd) {
+                    // Initialize median operator, with all but the last column in the structural key.
+                    // The operator keeps the last `windowWidth` pushed columns, columns right of the ROI are
+                    // pushed as empty packets, so the leftmost column drops out of the window also near the right
+                    // edge of the ROI.
+                    op.clear();
+                    final int yyMin = Math.max(y - yr, yMin);
+                    final int yyMax = Math.min(y + yr + 1, yMax);
+                    for (int xx = Math.max(xMin, xStart - xr); xx < xStart + xr; ++xx) {
+                        pushColumn(op, packet, srcPixels, width, xx < xMax ? xx : -1, yyMin, yyMax);
+                    }
+
+
+                    for (int x = xStart; x < xEnd; ++x) {
+                        pushColumn(op, packet, srcPixels, width, x + xr < xMax ? x + xr : -1, yyMin, yyMax);
 
-            for (int x = xMin; x < xMax; ++x) {
-                if (x + xr < xMax) {
-                    for (int yy = yyMin; yy < yyMax; ++yy) {
-                        packet[yy - yyMin] = srcPixels[x + xr + yy * width];
+                        if (maskPixels == null || maskPixels[x + maskOffset] != 0) {
+                            evaluator.evaluate(op, x + yOffset);
+                        }
                     }
-                    operator.push(yyMax - yyMin, packet);
                 }
 
-                destPixels[x + yOffset] = operator.evaluate();
+                final int done = rowsDone.incrementAndGet();
+                if (done % progressIncrement == 0) {
+                    showProgress((double) done / (yMax - yMin));
+                }
             }
+        });
+
+        hideProgress();
+    }
 
-            if (y % progressIncrement == 0) {
-                showProgress((double) (y - yMin) / (yMax - yMin));
-            }
 
+    /**
+     * Push rows {@code yFrom} (inclusive) to {@code yTo} (exclusive) of column {@code x}, an empty packet if
+     * {@code x} is negative.
+     */
+    private static void pushColumn(final IRunningMedianFloatOperator op, final float[] packet, final float[] pixels,
+                                   final int width, final int x, final int yFrom, final int yTo) {
+        if (x < 0) {
+            op.push(0, packet);
+            return;
         }
 
-        hideProgress();
+        for (int yy = yFrom; yy < yTo; ++yy) {
+            packet[yy - yFrom] = pixels[x + yy * width];
+        }
+        op.push(yTo - yFrom, packet);
+    }
 
-        return dest;
+    private int windowWidth() {
+        return 2 * (filterWidth / 2) + 1;
+    }
 
+    private int windowHeight() {
+        return 2 * (filterHeight / 2) + 1;
     }
 
 
@@ -125,6 +230,27 @@ public class RunningFilter {
         this.progressBar = progressBar;
     }
 
+    /**
+     * Number of threads used for filtering. When larger than 1 the ROI is split into horizontal bands processed
+     * concurrently. Parallel processing requires that the filter was constructed with an operator factory,
+     * otherwise the single operator instance is used and filtering is done in the calling thread.
+     * Default value is 1.
+     *
+     * @param numberOfThreads number of threads, must be larger than 0.
+     */
+    public void setNumberOfThreads(final int numberOfThreads) {
+        Validate.isTrue(numberOfThreads > 0, "Number of threads must be larger than 0, got " + numberOfThreads + ".");
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    /**
+     * Assigns executor used for processing bands when number of threads is larger than 1.
+     * Set {@code executor} to {@code null} to use {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+     */
+    public void setExecutor(final ExecutorService executor) {
+        this.executor = executor;
+    }
+
     protected void showProgress(final double percentDone) {
         if (progressBar != null) {
             progressBar.show(percentDone);
@@ -24,12 +24,23 @@ package ij_plugins.toolkit.filters;
 import java.util.Arrays;
 
 /**
+ * Computes running median using an order statistic tree.
+ * <br>
+ * Values of each packet are kept sorted. When a packet is replaced, the old and new values are merged,
+ * values present in both are left in the tree, and remaining values are removed and inserted in runs of equal
+ * values. Values are ordered by {@link Float#compare(float, float)}, so {@code NaN} pixels are counted as values
+ * larger than any other. The tree ({@link OrderStatisticTreeFloat}) keeps one node per distinct value in
+ * preallocated arrays, so in a steady state filtering does not allocate memory.
+ * <br>
+ * Besides the median, the operator can evaluate any rank, see {@link #evaluate(double)}.
+ *
  * @author Jarek Sacha
  */
-public class RunningMedianRBTOperator implements IRunningMedianFloatOperator {
+public class RunningMedianRBTOperator implements IRunningRankFloatOperator {
     private Packet[] packets;
     private int updatablePacket = 0;
-    private final RedBlackTreeFloat rankTree = new RedBlackTreeFloat();
+    private OrderStatisticTreeFloat rankTree = new OrderStatisticTreeFloat();
+    private float[] buffer = new float[0];
 
     public RunningMedianRBTOperator() {
     }
@@ -40,6 +51,8 @@ public class RunningMedianRBTOperator implements IRunningMedianFloatOperator {
         for (int i = 0; i < packets.length; ++i) {
             packets[i] = new Packet(maxElementsPerPacket);
         }
+        buffer = new float[maxElementsPerPacket];
+        rankTree = new OrderStatisticTreeFloat(maxPackets * maxElementsPerPacket);
 
         // Just to ensure that initial state is constistent with 'clear' state
         clear();
@@ -67,26 +80,44 @@ public class RunningMedianRBTOperator implements IRunningMedianFloatOperator {
 
         }
 
-        // Process numbers being removed
-        for (int i = 0; i < packet.size; ++i) {
-            final float v = packet.data[i];
-            if (!rankTree.remove(v)) {
-                throw new RuntimeException("Algorithm bug: internal data inconsistency.");
+        // Sort new values
+        final float[] added = buffer;
+        System.arraycopy(data, 0, added, 0, length);
+        Arrays.sort(added, 0, length);
+
+        // Merge sorted old and new values, values present in both do not change the tree
+        final float[] removed = packet.data;
+        int i = 0;
+        int j = 0;
+        while (i < packet.size || j < length) {
+            final int c = i >= packet.size ? 1 : j >= length ? -1 : Float.compare(removed[i], added[j]);
+            if (c < 0) {
+                final float v = removed[i];
+                int n = 0;
+                while (i < packet.size && Float.compare(removed[i], v) == 0) {
+                    ++i;
+                    ++n;
+                }
+                if (!rankTree.remove(v, n)) {
+                    throw new RuntimeException("Algorithm bug: internal data inconsistency.");
+                }
+            } else if (c > 0) {
+                final float v = added[j];
+                int n = 0;
+                while (j < length && Float.compare(added[j], v) == 0) {
+                    ++j;
+                    ++n;
+                }
+                rankTree.insert(v, n);
+            } else {
+                ++i;
+                ++j;
             }
-            //            rankTree.verify();
         }
 
-
-        // Process numbers being added
-        //        System.arraycopy(data, 0, packet.data, 0, length);
-        for (int i = 0; i < length; ++i) {
-            final float v = data[i];
-            packet.data[i] = v;
-            rankTree.insert(v);
-            //            rankTree.verify();
-        }
-
-
+        // Sorted new values become the packet content, old packet array is reused as a buffer
+        buffer = packet.data;
+        packet.data = added;
         packet.size = length;
 
         updatablePacket = (updatablePacket + 1) % packets.length;
@@ -99,22 +130,26 @@ public class RunningMedianRBTOperator implements IRunningMedianFloatOperator {
         return rankTree.select(medianRank);
     }
 
+    @Override
+    public float evaluate(final double fraction) {
+        final int rank = (int) Math.round(fraction * (rankTree.size() - 1));
+
+        return rankTree.select(rank + 1);
+    }
+
     @Override
     public void clear() {
         updatablePacket = 0;
         rankTree.clear();
-        rankTree.verify();
-
 
         for (final Packet packet : packets) {
             packet.size = 0;
-            Arrays.fill(packet.data, 0);
         }
     }
 
     private static class Packet {
         int size;
-        final float[] data;
+        float[] data;
 
         Packet(final int maxSize) {
             data = new float[maxSize];
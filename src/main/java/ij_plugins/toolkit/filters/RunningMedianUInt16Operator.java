@@ -0,0 +1,143 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import java.util.Arrays;
+
+/**
+ * Computes running median of 16 bit unsigned integer values.
+ * <br>
+ * Values are stored in a two level histogram: 256 coarse bins indexed by the high byte of a value and 65536
+ * fine bins. The coarse bin containing the median is tracked incrementally, so evaluation only needs to scan
+ * the neighbouring coarse bins and the 256 fine bins within the median coarse bin.
+ * Median of an even number of values is the average of the two middle values, rounded up.
+ *
+ * @author Jarek Sacha
+ */
+class RunningMedianUInt16Operator implements IRunningUInt16Operator {
+    private static final int COARSE_SHIFT = 8;
+    private static final int FINE_PER_COARSE = 1 << COARSE_SHIFT;
+
+    final private int[] fine = new int[0x10000];
+    final private int[] coarse = new int[0x10000 >> COARSE_SHIFT];
+    private int count = 0;
+    // Coarse bin at which last search stopped and number of values in the coarse bins below it
+    private int coarseIndex = 0;
+    private int coarseBelowCount = 0;
+
+    @Override
+    public void add(final short v) {
+        final int vi = v & 0xFFFF;
+        final int c = vi >> COARSE_SHIFT;
+        ++fine[vi];
+        ++coarse[c];
+        ++count;
+        if (c < coarseIndex) {
+            ++coarseBelowCount;
+        }
+    }
+
+    @Override
+    public void remove(final short v) {
+        final int vi = v & 0xFFFF;
+        final int c = vi >> COARSE_SHIFT;
+
+        assert fine[vi] > 0;
+
+        --fine[vi];
+        --coarse[c];
+        --count;
+        if (c < coarseIndex) {
+            --coarseBelowCount;
+        }
+    }
+
+    @Override
+    public boolean contains(final short v) {
+        final int vi = v & 0xFFFF;
+        return fine[vi] > 0;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(fine, 0);
+        Arrays.fill(coarse, 0);
+        count = 0;
+        coarseIndex = 0;
+        coarseBelowCount = 0;
+    }
+
+    @Override
+    public short evaluate() {
+        if (count == 0) {
+            return 0;
+        }
+
+        final int upper = select(count / 2);
+        if (count % 2 == 1) {
+            return (short) (upper & 0xFFFF);
+        }
+
+        final int lower = select(count / 2 - 1);
+        return (short) (((lower + upper + 1) / 2) & 0xFFFF);
+    }
+
+    /**
+     * Evaluate value at given fraction of the sorted values. For {@code n} values, fraction {@code f}
+     * corresponds to the value with zero based rank {@code round(f * (n - 1))}.
+     *
+     * @param fraction fraction between 0 and 1 (inclusive), 0 is the minimum and 1 is the maximum.
+     */
+    short evaluate(final double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+
+        return (short) (select((int) Math.round(fraction * (count - 1))) & 0xFFFF);
+    }
+
+    /**
+     * Find value with given zero based {@code rank}.
+     */
+    private int select(final int rank) {
+        // Move to the coarse bin containing the rank
+        while (coarseBelowCount > rank) {
+            --coarseIndex;
+            coarseBelowCount -= coarse[coarseIndex];
+        }
+        while (coarseBelowCount + coarse[coarseIndex] <= rank) {
+            coarseBelowCount += coarse[coarseIndex];
+            ++coarseIndex;
+        }
+
+        // Find fine bin within the coarse bin
+        int sum = coarseBelowCount;
+        int v = coarseIndex << COARSE_SHIFT;
+        final int vMax = v + FINE_PER_COARSE - 1;
+        while (v < vMax && sum + fine[v] <= rank) {
+            sum += fine[v];
+            ++v;
+        }
+
+        return v;
+    }
+}
@@ -41,11 +41,11 @@ class RunningMedianUInt8Operator implements IRunningUInt8Operator {
         ++histogram[vi];
         if (vi < median) {
             ++smallerCount;
-            needsUpdate = true;
         } else if (vi > median) {
             ++largerCount;
-            needsUpdate = true;
         }
+        // Median may change even if `vi` equals current median, when parity of the count changes
+        needsUpdate = true;
     }
 
     @Override
@@ -57,11 +57,11 @@ class RunningMedianUInt8Operator implements IRunningUInt8Operator {
         --histogram[vi];
         if (vi < median) {
             --smallerCount;
-            needsUpdate = true;
         } else if (vi > median) {
             --largerCount;
-            needsUpdate = true;
         }
+        // Median may change even if `vi` equals current median, when parity of the count changes
+        needsUpdate = true;
     }
 
     @Override
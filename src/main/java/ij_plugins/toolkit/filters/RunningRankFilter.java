@@ -0,0 +1,247 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.ImageStack;
+import ij.gui.ProgressBar;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import ij_plugins.toolkit.util.Validate;
+
+import java.awt.*;
+import java.util.function.Supplier;
+
+/**
+ * Rank filters: minimum, maximum, percentiles, range, and interquartile range, computed using running operators.
+ * <br>
+ * Several ranks are computed in a single pass, all from the same sliding window, so the image is scanned only once.
+ * For instance, the 10th and 90th percentiles:
+ * <pre>
+ *   RunningRankFilter filter = new RunningRankFilter(15, 15);
+ *   ImageStack stack = filter.percentiles(ip, 10, 90);
+ * </pre>
+ * 8-bit and 16-bit images are processed using histogram operators and produce results of the same type. 32-bit
+ * images are processed using an order statistic tree operator. For {@code n} values in the filter
+ * window, percentile {@code p} is the value with zero based rank {@code round(p / 100 * (n - 1))}.
+ * Pixels outside of the ROI, and outside of the ROI mask, keep their original values. Same as in
+ * {@link FastMedianUInt8} and {@link RunningFilter} the filter window is clipped to the ROI.
+ *
+ * @author Jarek Sacha
+ */
+public class RunningRankFilter {
+    private final int filterWidth;
+    private final int filterHeight;
+    private ProgressBar progressBar;
+    private int numberOfThreads = 1;
+
+
+    /**
+     * @param filterWidth  filter width.
+     * @param filterHeight filter height.
+     */
+    public RunningRankFilter(final int filterWidth, final int filterHeight) {
+        Validate.isTrue(filterWidth > 0, "Filter width must be larger than 0, got " + filterWidth + ".");
+        Validate.isTrue(filterHeight > 0, "Filter height must be larger than 0, got " + filterHeight + ".");
+
+        this.filterWidth = filterWidth;
+        this.filterHeight = filterHeight;
+    }
+
+
+    /**
+     * Compute percentiles in a single pass over the input image.
+     *
+     * @param ip          input image, 8-bit, 16-bit, or 32-bit.
+     * @param percentiles percentiles to compute, each between 0 and 100 (inclusive).
+     * @return stack with a slice for each percentile, in the order of the {@code percentiles} argument.
+     */
+    public ImageStack percentiles(final ImageProcessor ip, final double... percentiles) {
+        Validate.argumentNotNull(ip, "ip");
+        Validate.argumentNotNull(percentiles, "percentiles");
+        Validate.isTrue(percentiles.length > 0, "At least one percentile is required.");
+
+        final double[] fractions = new double[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            Validate.isTrue(percentiles[i] >= 0 && percentiles[i] <= 100,
+                    "Percentile must be between 0 and 100, got " + percentiles[i] + ".");
+            fractions[i] = percentiles[i] / 100;
+        }
+
+        final ImageProcessor[] dest;
+        if (ip instanceof ByteProcessor) {
+            dest = filter((ByteProcessor) ip, fractions);
+        } else if (ip instanceof ShortProcessor) {
+            dest = filter((ShortProcessor) ip, fractions);
+        } else if (ip instanceof FloatProcessor) {
+            dest = filter((FloatProcessor) ip, fractions);
+        } else {
+            throw new IllegalArgumentException("Unsupported image type: " + ip.getClass().getName());
+        }
+
+        final ImageStack stack = new ImageStack(ip.getWidth(), ip.getHeight());
+        for (int i = 0; i < dest.length; i++) {
+            stack.addSlice("P" + percentiles[i], dest[i]);
+        }
+        return stack;
+    }
+
+
+    /**
+     * Minimum filter.
+     */
+    public ImageProcessor min(final ImageProcessor ip) {
+        return percentiles(ip, 0).getProcessor(1);
+    }
+
+
+    /**
+     * Maximum filter.
+     */
+    public ImageProcessor max(final ImageProcessor ip) {
+        return percentiles(ip, 100).getProcessor(1);
+    }
+
+
+    /**
+     * Difference between the maximum and the minimum, computed in a single pass.
+     */
+    public ImageProcessor range(final ImageProcessor ip) {
+        return difference(ip, percentiles(ip, 0, 100));
+    }
+
+
+    /**
+     * Difference between the 75th and the 25th percentile, computed in a single pass.
+     */
+    public ImageProcessor interquartileRange(final ImageProcessor ip) {
+        return difference(ip, percentiles(ip, 25, 75));
+    }
+
+
+    /**
+     * Assigns a progress bar to this filter. Set {@code progressBar} to {@code null} to
+     * disable the progress bar.
+     */
+    public void setProgressBar(final ProgressBar progressBar) {
+        this.progressBar = progressBar;
+    }
+
+
+    /**
+     * Number of threads used for filtering. When larger than 1 the ROI is split into horizontal bands processed
+     * concurrently. Results do not depend on the number of threads. Default value is 1.
+     *
+     * @param numberOfThreads number of threads, must be larger than 0.
+     */
+    public void setNumberOfThreads(final int numberOfThreads) {
+        Validate.isTrue(numberOfThreads > 0, "Number of threads must be larger than 0, got " + numberOfThreads + ".");
+        this.numberOfThreads = numberOfThreads;
+    }
+
+
+    private ImageProcessor[] filter(final ByteProcessor src, final double[] fractions) {
+        final ByteProcessor[] dest = new ByteProcessor[fractions.length];
+        final byte[][] destPixels = new byte[fractions.length][];
+        for (int i = 0; i < dest.length; i++) {
+            dest[i] = (ByteProcessor) src.duplicate();
+            destPixels[i] = (byte[]) dest[i].getPixels();
+        }
+
+        final Supplier<RunningRankUInt8Operator> factory = () -> new RunningRankUInt8Operator(fractions);
+        final RunningUInt8Filter filter = new RunningUInt8Filter(factory);
+        filter.setNumberOfThreads(numberOfThreads);
+        filter.setProgressBar(progressBar);
+        filter.iterate(src, filterWidth, filterHeight, factory, (operator, offset) -> {
+            for (int i = 0; i < destPixels.length; i++) {
+                destPixels[i][offset] = operator.evaluate(i);
+            }
+        }, true);
+
+        return dest;
+    }
+
+
+    private ImageProcessor[] filter(final ShortProcessor src, final double[] fractions) {
+        final ShortProcessor[] dest = new ShortProcessor[fractions.length];
+        final short[][] destPixels = new short[fractions.length][];
+        for (int i = 0; i < dest.length; i++) {
+            dest[i] = (ShortProcessor) src.duplicate();
+            destPixels[i] = (short[]) dest[i].getPixels();
+        }
+
+        final Supplier<RunningMedianUInt16Operator> factory = RunningMedianUInt16Operator::new;
+        final RunningUInt16Filter filter = new RunningUInt16Filter(factory);
+        filter.setNumberOfThreads(numberOfThreads);
+        filter.setProgressBar(progressBar);
+        filter.iterate(src, filterWidth, filterHeight, factory, (operator, offset) -> {
+            for (int i = 0; i < destPixels.length; i++) {
+                destPixels[i][offset] = operator.evaluate(fractions[i]);
+            }
+        }, true);
+
+        return dest;
+    }
+
+
+    private ImageProcessor[] filter(final FloatProcessor src, final double[] fractions) {
+        final FloatProcessor[] dest = new FloatProcessor[fractions.length];
+        final float[][] destPixels = new float[fractions.length][];
+        for (int i = 0; i < dest.length; i++) {
+            dest[i] = (FloatProcessor) src.duplicate();
+            destPixels[i] = (float[]) dest[i].getPixels();
+        }
+
+        final Supplier<RunningMedianRBTOperator> factory = RunningMedianRBTOperator::new;
+        final RunningFilter filter = new RunningFilter(factory, filterWidth, filterHeight);
+        filter.setNumberOfThreads(numberOfThreads);
+        filter.setProgressBar(progressBar);
+        filter.iterate(src, factory, (operator, offset) -> {
+            for (int i = 0; i < destPixels.length; i++) {
+                destPixels[i][offset] = operator.evaluate(fractions[i]);
+            }
+        });
+
+        return dest;
+    }
+
+
+    /**
+     * Subtract the first slice from the second slice within the ROI of {@code ip}.
+     */
+    private static ImageProcessor difference(final ImageProcessor ip, final ImageStack stack) {
+        final ImageProcessor lower = stack.getProcessor(1);
+        final ImageProcessor upper = stack.getProcessor(2);
+
+        final Rectangle roi = ip.getRoi();
+        final ImageProcessor mask = ip.getMask();
+        for (int y = roi.y; y < roi.y + roi.height; y++) {
+            for (int x = roi.x; x < roi.x + roi.width; x++) {
+                if (mask == null || mask.get(x - roi.x, y - roi.y) != 0) {
+                    upper.setf(x, y, upper.getf(x, y) - lower.getf(x, y));
+                }
+            }
+        }
+        return upper;
+    }
+}
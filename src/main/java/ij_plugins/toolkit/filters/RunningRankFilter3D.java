@@ -0,0 +1,362 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.IJ;
+import ij.ImageStack;
+import ij_plugins.toolkit.util.ParallelBands;
+import ij_plugins.toolkit.util.Validate;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 3D median and rank filters for 8-bit and 16-bit stacks, computed using running histogram operators.
+ * <br>
+ * The filter window is a box of size {@code (2 * xRadius + 1) x (2 * yRadius + 1) x (2 * zRadius + 1)} clipped to
+ * the stack bounds. The window is moved voxel by voxel in a serpentine order, so each step only adds and removes
+ * a single plane of voxels from the running operator, instead of collecting the whole neighbourhood.
+ * Slices are split into slabs that are processed concurrently.
+ * <br>
+ * Median of an even number of values is the average of the two middle values, rounded up.
+ * For {@code n} values in the filter window, percentile {@code p} is the value with zero based rank
+ * {@code round(p / 100 * (n - 1))}.
+ *
+ * @author Jarek Sacha
+ */
+public class RunningRankFilter3D {
+
+    private static final int X = 0;
+    private static final int Y = 1;
+    private static final int Z = 2;
+
+    private final int xRadius;
+    private final int yRadius;
+    private final int zRadius;
+    private int numberOfThreads = 1;
+
+
+    /**
+     * @param xRadius filter radius in x direction.
+     * @param yRadius filter radius in y direction.
+     * @param zRadius filter radius in z direction.
+     */
+    public RunningRankFilter3D(final int xRadius, final int yRadius, final int zRadius) {
+        Validate.isTrue(xRadius >= 0, "Radius in x direction cannot be negative, got " + xRadius + ".");
+        Validate.isTrue(yRadius >= 0, "Radius in y direction cannot be negative, got " + yRadius + ".");
+        Validate.isTrue(zRadius >= 0, "Radius in z direction cannot be negative, got " + zRadius + ".");
+
+        this.xRadius = xRadius;
+        this.yRadius = yRadius;
+        this.zRadius = zRadius;
+    }
+
+
+    /**
+     * Set number of threads used for processing. Slices are split into slabs, each processed by a separate thread.
+     *
+     * @param numberOfThreads number of threads, must be at least 1.
+     */
+    public void setNumberOfThreads(final int numberOfThreads) {
+        Validate.isTrue(numberOfThreads > 0, "Number of threads must be at least 1, got " + numberOfThreads + ".");
+        this.numberOfThreads = numberOfThreads;
+    }
+
+
+    /**
+     * Compute 3D median of a stack.
+     *
+     * @param src input stack, 8-bit or 16-bit.
+     * @return median filtered stack of the same type as the input.
+     */
+    public ImageStack median(final ImageStack src) {
+        return filter(src, Double.NaN);
+    }
+
+
+    /**
+     * Compute 3D percentile of a stack.
+     *
+     * @param src        input stack, 8-bit or 16-bit.
+     * @param percentile percentile between 0 and 100 (inclusive), 0 is minimum and 100 maximum.
+     * @return filtered stack of the same type as the input.
+     */
+    public ImageStack percentile(final ImageStack src, final double percentile) {
+        Validate.isTrue(percentile >= 0 && percentile <= 100,
+                "Percentile must be between 0 and 100, got " + percentile + ".");
+
+        return filter(src, percentile / 100);
+    }
+
+
+    /**
+     * @param fraction fraction of sorted values to evaluate, {@code NaN} evaluates median.
+     */
+    private ImageStack filter(final ImageStack src, final double fraction) {
+        Validate.argumentNotNull(src, "src");
+
+        final int xSize = src.getWidth();
+        final int ySize = src.getHeight();
+        final int zSize = src.getSize();
+        final Object[] srcPixels = src.getImageArray();
+        final ImageStack dest = new ImageStack(xSize, ySize);
+        for (int z = 1; z <= zSize; ++z) {
+            dest.addSlice(src.getSliceLabel(z), src.getProcessor(z).createProcessor(xSize, ySize));
+        }
+        dest.setColorModel(src.getColorModel());
+        final Object[] destPixels = dest.getImageArray();
+
+        final boolean isUInt8 = srcPixels[0] instanceof byte[];
+        final boolean isUInt16 = srcPixels[0] instanceof short[];
+        Validate.isTrue(isUInt8 || isUInt16, "Expecting stack of 8-bit or 16-bit images.");
+
+        final AtomicInteger slicesDone = new AtomicInteger(0);
+        IJ.showProgress(0);
+        ParallelBands.run(null, numberOfThreads, 0, zSize, (band, zStart, zEnd) -> {
+            final Window window = isUInt8
+                    ? new UInt8Window(srcPixels, destPixels, xSize, fraction)
+                    : new UInt16Window(srcPixels, destPixels, xSize, fraction);
+            processSlab(window, xSize, ySize, zSize, zStart, zEnd, slicesDone);
+        });
+        IJ.showProgress(1);
+
+        return dest;
+    }
+
+
+    /**
+     * Process slices from {@code zStart} (inclusive) to {@code zEnd} (exclusive). Within each slice rows are visited
+     * in alternating directions, and consecutive slices are visited in alternating row order, so the window center
+     * always moves by a single voxel.
+     */
+    private void processSlab(final Window window,
+                             final int xSize, final int ySize, final int zSize,
+                             final int zStart, final int zEnd,
+                             final AtomicInteger slicesDone) {
+        if (zStart >= zEnd) {
+            return;
+        }
+
+        int x = 0;
+        int y = 0;
+        window.reset(
+                0, Math.min(xSize - 1, xRadius),
+                0, Math.min(ySize - 1, yRadius),
+                Math.max(0, zStart - zRadius), Math.min(zSize - 1, zStart + zRadius));
+
+        int dx = 1;
+        int dy = 1;
+        for (int z = zStart; z < zEnd; ++z) {
+            if (z > zStart) {
+                window.moveTo(Z, Math.max(0, z - zRadius), Math.min(zSize - 1, z + zRadius));
+            }
+            for (int iy = 0; iy < ySize; ++iy) {
+                if (iy > 0) {
+                    y += dy;
+                    window.moveTo(Y, Math.max(0, y - yRadius), Math.min(ySize - 1, y + yRadius));
+                }
+                for (int ix = 0; ix < xSize; ++ix) {
+                    if (ix > 0) {
+                        x += dx;
+                        window.moveTo(X, Math.max(0, x - xRadius), Math.min(xSize - 1, x + xRadius));
+                    }
+                    window.store(x, y, z);
+                }
+                dx = -dx;
+            }
+            dy = -dy;
+
+            IJ.showProgress(slicesDone.incrementAndGet(), zSize);
+        }
+    }
+
+
+    /**
+     * Box shaped filter window with its running operator. Box bounds are inclusive.
+     */
+    private abstract static class Window {
+        private final int[] lo = new int[3];
+        private final int[] hi = new int[3];
+        private final int[] boxLo = new int[3];
+        private final int[] boxHi = new int[3];
+
+        /**
+         * Clear the operator and fill it with values from given box.
+         */
+        void reset(final int x0, final int x1, final int y0, final int y1, final int z0, final int z1) {
+            clear();
+            lo[X] = x0;
+            hi[X] = x1;
+            lo[Y] = y0;
+            hi[Y] = y1;
+            lo[Z] = z0;
+            hi[Z] = z1;
+            update(x0, x1, y0, y1, z0, z1, true);
+        }
+
+        /**
+         * Change window range along one {@code axis}, ranges along other axes stay the same.
+         * Values that left the window are removed from the operator, values that entered are added.
+         */
+        void moveTo(final int axis, final int newLo, final int newHi) {
+            final int oldLo = lo[axis];
+            final int oldHi = hi[axis];
+            updateRange(axis, oldLo, Math.min(oldHi, newLo - 1), false);
+            updateRange(axis, Math.max(oldLo, newHi + 1), oldHi, false);
+            lo[axis] = newLo;
+            hi[axis] = newHi;
+            updateRange(axis, newLo, Math.min(newHi, oldLo - 1), true);
+            updateRange(axis, Math.max(newLo, oldHi + 1), newHi, true);
+        }
+
+        private void updateRange(final int axis, final int from, final int to, final boolean add) {
+            if (from > to) {
+                return;
+            }
+            System.arraycopy(lo, 0, boxLo, 0, 3);
+            System.arraycopy(hi, 0, boxHi, 0, 3);
+            boxLo[axis] = from;
+            boxHi[axis] = to;
+            update(boxLo[X], boxHi[X], boxLo[Y], boxHi[Y], boxLo[Z], boxHi[Z], add);
+        }
+
+        abstract void clear();
+
+        /**
+         * Add or remove all values in the box to/from the operator.
+         */
+        abstract void update(int x0, int x1, int y0, int y1, int z0, int z1, boolean add);
+
+        /**
+         * Evaluate the operator and store result at given location in destination.
+         */
+        abstract void store(int x, int y, int z);
+    }
+
+
+    private static final class UInt8Window extends Window {
+        private final byte[][] src;
+        private final byte[][] dest;
+        private final int width;
+        private final IRunningUInt8Operator operator;
+
+        UInt8Window(final Object[] src, final Object[] dest, final int width, final double fraction) {
+            this.src = toBytes(src);
+            this.dest = toBytes(dest);
+            this.width = width;
+            this.operator = Double.isNaN(fraction)
+                    ? new RunningMedianUInt8Operator()
+                    : new RunningRankUInt8Operator(fraction);
+        }
+
+        private static byte[][] toBytes(final Object[] pixels) {
+            final byte[][] r = new byte[pixels.length][];
+            for (int i = 0; i < r.length && pixels[i] != null; i++) {
+                r[i] = (byte[]) pixels[i];
+            }
+            return r;
+        }
+
+        @Override
+        void clear() {
+            operator.clear();
+        }
+
+        @Override
+        void update(final int x0, final int x1, final int y0, final int y1, final int z0, final int z1,
+                    final boolean add) {
+            for (int z = z0; z <= z1; ++z) {
+                final byte[] pixels = src[z];
+                for (int y = y0; y <= y1; ++y) {
+                    final int offset = y * width;
+                    if (add) {
+                        for (int x = x0; x <= x1; ++x) {
+                            operator.add(pixels[offset + x]);
+                        }
+                    } else {
+                        for (int x = x0; x <= x1; ++x) {
+                            operator.remove(pixels[offset + x]);
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        void store(final int x, final int y, final int z) {
+            dest[z][y * width + x] = operator.evaluate();
+        }
+    }
+
+
+    private static final class UInt16Window extends Window {
+        private final short[][] src;
+        private final short[][] dest;
+        private final int width;
+        private final RunningMedianUInt16Operator operator = new RunningMedianUInt16Operator();
+        private final double fraction;
+
+        UInt16Window(final Object[] src, final Object[] dest, final int width, final double fraction) {
+            this.src = toShorts(src);
+            this.dest = toShorts(dest);
+            this.width = width;
+            this.fraction = fraction;
+        }
+
+        private static short[][] toShorts(final Object[] pixels) {
+            final short[][] r = new short[pixels.length][];
+            for (int i = 0; i < r.length && pixels[i] != null; i++) {
+                r[i] = (short[]) pixels[i];
+            }
+            return r;
+        }
+
+        @Override
+        void clear() {
+            operator.clear();
+        }
+
+        @Override
+        void update(final int x0, final int x1, final int y0, final int y1, final int z0, final int z1,
+                    final boolean add) {
+            for (int z = z0; z <= z1; ++z) {
+                final short[] pixels = src[z];
+                for (int y = y0; y <= y1; ++y) {
+                    final int offset = y * width;
+                    if (add) {
+                        for (int x = x0; x <= x1; ++x) {
+                            operator.add(pixels[offset + x]);
+                        }
+                    } else {
+                        for (int x = x0; x <= x1; ++x) {
+                            operator.remove(pixels[offset + x]);
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        void store(final int x, final int y, final int z) {
+            dest[z][y * width + x] = Double.isNaN(fraction) ? operator.evaluate() : operator.evaluate(fraction);
+        }
+    }
+}
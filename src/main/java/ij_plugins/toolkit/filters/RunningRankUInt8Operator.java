@@ -0,0 +1,143 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij_plugins.toolkit.util.Validate;
+
+import java.util.Arrays;
+
+/**
+ * Computes running rank statistics of 8 bit unsigned integer values, for instance minimum, maximum or percentiles.
+ * <br>
+ * Several ranks, given as fractions of the sorted values, can be evaluated from the same histogram.
+ * For {@code n} values, fraction {@code f} corresponds to the value with zero based rank
+ * {@code round(f * (n - 1))}, so 0 is the minimum and 1 is the maximum. Each fraction keeps its own position
+ * in the histogram that is updated incrementally, similar to the median position in
+ * {@link RunningMedianUInt8Operator}.
+ *
+ * @author Jarek Sacha
+ */
+class RunningRankUInt8Operator implements IRunningUInt8Operator {
+    final private int[] histogram = new int[256];
+    final private double[] fractions;
+    // For each fraction: histogram bin at which last search stopped and number of values in the bins below it
+    final private int[] bin;
+    final private int[] belowCount;
+    private int count = 0;
+
+    /**
+     * @param fractions fractions of sorted values to evaluate, each between 0 and 1 (inclusive).
+     */
+    RunningRankUInt8Operator(final double... fractions) {
+        Validate.argumentNotNull(fractions, "fractions");
+        Validate.isTrue(fractions.length > 0, "At least one fraction is required.");
+        for (final double f : fractions) {
+            Validate.isTrue(f >= 0 && f <= 1, "Fraction must be between 0 and 1, got " + f + ".");
+        }
+
+        this.fractions = fractions.clone();
+        this.bin = new int[fractions.length];
+        this.belowCount = new int[fractions.length];
+    }
+
+    @Override
+    public void add(final byte v) {
+        final int vi = v & 0xFF;
+        ++histogram[vi];
+        ++count;
+        for (int i = 0; i < bin.length; ++i) {
+            if (vi < bin[i]) {
+                ++belowCount[i];
+            }
+        }
+    }
+
+    @Override
+    public void remove(final byte v) {
+        final int vi = v & 0xFF;
+
+        assert histogram[vi] > 0;
+
+        --histogram[vi];
+        --count;
+        for (int i = 0; i < bin.length; ++i) {
+            if (vi < bin[i]) {
+                --belowCount[i];
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(final byte v) {
+        final int vi = v & 0xFF;
+        return histogram[vi] > 0;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(histogram, 0);
+        Arrays.fill(bin, 0);
+        Arrays.fill(belowCount, 0);
+        count = 0;
+    }
+
+    /**
+     * Evaluate the first fraction.
+     */
+    @Override
+    public byte evaluate() {
+        return evaluate(0);
+    }
+
+    /**
+     * Number of fractions evaluated by this operator.
+     */
+    int numberOfFractions() {
+        return fractions.length;
+    }
+
+    /**
+     * Evaluate value of the fraction with index {@code i}.
+     */
+    byte evaluate(final int i) {
+        if (count == 0) {
+            return 0;
+        }
+
+        final int rank = (int) Math.round(fractions[i] * (count - 1));
+
+        int b = bin[i];
+        int below = belowCount[i];
+        while (below > rank) {
+            --b;
+            below -= histogram[b];
+        }
+        while (below + histogram[b] <= rank) {
+            below += histogram[b];
+            ++b;
+        }
+        bin[i] = b;
+        belowCount[i] = below;
+
+        return (byte) (b & 0xFF);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.process.ShortProcessor;
+import ij_plugins.toolkit.util.Validate;
+
+import java.util.function.Supplier;
+
+/**
+ * Implements iterating over an {@link IRunningUInt16Operator}, see {@link AbstractRunningIntegerFilter} for
+ * the traversal order and parallel processing.
+ *
+ * @author Jarek Sacha
+ */
+class RunningUInt16Filter extends AbstractRunningIntegerFilter<IRunningUInt16Operator, short[]> implements IRunningUInt16Filter {
+    final private Supplier<? extends IRunningUInt16Operator> operatorFactory;
+
+
+    /**
+     * Construct a filter using operators created by a given <code>operatorFactory</code>.
+     *
+     * @param operatorFactory creates operators over which this filter iterates, one operator for each band.
+     */
+    public RunningUInt16Filter(final Supplier<? extends IRunningUInt16Operator> operatorFactory) {
+        Validate.argumentNotNull(operatorFactory, "operatorFactory");
+
+        this.operatorFactory = operatorFactory;
+    }
+
+    @Override
+    public ShortProcessor run(final ShortProcessor src, final int filterWidth, final int filterHeight) {
+
+        final ShortProcessor dest = (ShortProcessor) src.duplicate();
+        final short[] destPixels = (short[]) dest.getPixels();
+
+        iterate(src, filterWidth, filterHeight, operatorFactory,
+                (operator, offset) -> destPixels[offset] = operator.evaluate(), false);
+
+        return dest;
+    }
+
+    @Override
+    protected void clear(final IRunningUInt16Operator operator) {
+        operator.clear();
+    }
+
+    @Override
+    protected void addRow(final IRunningUInt16Operator operator, final short[] pixels, final int yOffset,
+                          final int xFrom, final int xTo) {
+        for (int x = xFrom; x < xTo; ++x) {
+            operator.add(pixels[x + yOffset]);
+        }
+    }
+
+    @Override
+    protected void removeRow(final IRunningUInt16Operator operator, final short[] pixels, final int yOffset,
+                             final int xFrom, final int xTo) {
+        for (int x = xFrom; x < xTo; ++x) {
+            operator.remove(pixels[x + yOffset]);
+        }
+    }
+
+    @Override
+    protected void addColumn(final IRunningUInt16Operator operator, final short[] pixels, final int width,
+                             final int x, final int yFrom, final int yTo) {
+        for (int y = yFrom; y < yTo; ++y) {
+            operator.add(pixels[x + y * width]);
+        }
+    }
+
+    @Override
+    protected void removeColumn(final IRunningUInt16Operator operator, final short[] pixels, final int width,
+                                final int x, final int yFrom, final int yTo) {
+        for (int y = yFrom; y < yTo; ++y) {
+            operator.remove(pixels[x + y * width]);
+        }
+    }
+}
@@ -21,112 +21,78 @@
  */
 package ij_plugins.toolkit.filters;
 
-import ij.gui.ProgressBar;
 import ij.process.ByteProcessor;
 import ij_plugins.toolkit.util.Validate;
 
-import java.awt.*;
+import java.util.function.Supplier;
 
 /**
- * Implements iterating over an {@link IRunningUInt8Operator}.
+ * Implements iterating over an {@link IRunningUInt8Operator}, see {@link AbstractRunningIntegerFilter} for
+ * the traversal order and parallel processing.
  *
  * @author Jarek Sacha
  */
-class RunningUInt8Filter implements IRunningUInt8Filter {
-    final private IRunningUInt8Operator operator;
-    private ProgressBar progressBar;
+class RunningUInt8Filter extends AbstractRunningIntegerFilter<IRunningUInt8Operator, byte[]> implements IRunningUInt8Filter {
+    final private Supplier<? extends IRunningUInt8Operator> operatorFactory;
 
 
     /**
-     * Construct a filter using a given <code>operator</code>.
+     * Construct a filter using operators created by a given <code>operatorFactory</code>.
      *
-     * @param operator operator over which this filter iterates.
+     * @param operatorFactory creates operators over which this filter iterates, one operator for each band.
      */
-    public RunningUInt8Filter(final IRunningUInt8Operator operator) {
-        Validate.argumentNotNull(operator, "operator");
+    public RunningUInt8Filter(final Supplier<? extends IRunningUInt8Operator> operatorFactory) {
+        Validate.argumentNotNull(operatorFactory, "operatorFactory");
 
-        this.operator = operator;
+        this.operatorFactory = operatorFactory;
     }
 
     @Override
     public ByteProcessor run(final ByteProcessor src, final int filterWidth, final int filterHeight) {
 
-        final int width = src.getWidth();
         final ByteProcessor dest = (ByteProcessor) src.duplicate();
-
-        final byte[] srcPixels = (byte[]) src.getPixels();
         final byte[] destPixels = (byte[]) dest.getPixels();
 
-        final int xr = filterWidth / 2;
-        final int yr = filterHeight / 2;
-
-        final Rectangle roi = src.getRoi();
-
-        final int xMin = roi.x;
-        final int xMax = roi.x + roi.width;
-        final int yMin = roi.y;
-        final int yMax = roi.y + roi.height;
-
-        // Calculate increment, make sure that different/larger than 0 otherwise '%' operation will fail.
-        final int progressIncrement = Math.max((yMax - yMin) / 100, 1);
-
-        for (int y = yMin; y < yMax; ++y) {
-            final int yOffset = y * width;
-
-            // Initialize median operator, with all but the last column in the structural element
-            operator.clear();
-            final int yyMin = Math.max(y - yr, yMin);
-            final int yyMax = Math.min(y + yr + 1, yMax);
-            final int xxMax = Math.min(xMin + xr, xMax);
-            for (int yy = yyMin; yy < yyMax; ++yy) {
-                final int yyOfset = yy * width;
-                for (int xx = xMin; xx < xxMax; ++xx) {
-                    operator.add(srcPixels[xx + yyOfset]);
-                }
-            }
-
-
-            for (int x = xMin; x < xMax; ++x) {
-                if (x + xr < xMax) {
-                    for (int yy = yyMin; yy < yyMax; ++yy) {
-                        operator.add(srcPixels[x + xr + yy * width]);
-                    }
-                }
-                if (x - xr - 1 >= xMin) {
-                    for (int yy = yyMin; yy < yyMax; ++yy) {
-                        operator.remove(srcPixels[x - xr - 1 + yy * width]);
-                    }
-                }
-
-                destPixels[x + yOffset] = operator.evaluate();
-            }
-
-            if (y % progressIncrement == 0) {
-                showProgress((double) (y - yMin) / (yMax - yMin));
-            }
-
-        }
-
-        hideProgress();
+        iterate(src, filterWidth, filterHeight, operatorFactory,
+                (operator, offset) -> destPixels[offset] = operator.evaluate(), false);
 
         return dest;
-
     }
 
     @Override
-    public void setProgressBar(final ProgressBar progressBar) {
-        this.progressBar = progressBar;
+    protected void clear(final IRunningUInt8Operator operator) {
+        operator.clear();
     }
 
-    protected void showProgress(final double percentDone) {
-        if (progressBar != null) {
-            progressBar.show(percentDone);
+    @Override
+    protected void addRow(final IRunningUInt8Operator operator, final byte[] pixels, final int yOffset,
+                          final int xFrom, final int xTo) {
+        for (int x = xFrom; x < xTo; ++x) {
+            operator.add(pixels[x + yOffset]);
         }
     }
 
-    protected void hideProgress() {
-        showProgress(1.0);
+    @Override
+    protected void removeRow(final IRunningUInt8Operator operator, final byte[] pixels, final int yOffset,
+                             final int xFrom, final int xTo) {
+        for (int x = xFrom; x < xTo; ++x) {
+            operator.remove(pixels[x + yOffset]);
+        }
     }
 
+    @Override
+    protected void addColumn(final IRunningUInt8Operator operator, final byte[] pixels, final int width,
+                             final int x, final int yFrom, final int yTo) {
+        for (int y = yFrom; y < yTo; ++y) {
+            operator.add(pixels[x + y * width]);
+        }
+    }
 
+    @Override
+    protected void removeColumn(final IRunningUInt8Operator operator, final byte[] pixels, final int width,
+                                final int x, final int yFrom, final int yTo) {
+        for (int y = yFrom; y < yTo; ++y) {
+            operator.remove(pixels[x + y * width]);
+        }
+    }
 }
@@ -21,11 +21,10 @@
  */
 package ij_plugins.toolkit.filters;
 
-import ij.process.FloatProcessor;
-import ij_plugins.toolkit.operators.Neighborhood3x3;
-import ij_plugins.toolkit.operators.PixelIterator;
 import ij_plugins.toolkit.util.IJDebug;
 
+import java.awt.*;
+
 
 /**
  * Speckle Reducing Anisotropic Diffusion (SRAD) filter based on paper:<br> Y. Yu and T. Acton,
@@ -52,6 +51,11 @@ public class SRAD extends AbstractAnisotropicDiffusion {
      */
     private double ro = 1d / 6d;
 
+    /**
+     * Working buffers with diffusion coefficients, one for each band of rows.
+     */
+    private float[][] bandCoefficients;
+
     /**
      * Diffusion coefficient lower threshold. When diffusion coefficient is lower than threshold it is set to 0.
      */
@@ -80,72 +84,103 @@ public class SRAD extends AbstractAnisotropicDiffusion {
     }
 
 
+    @Override
+    protected AbstractAnisotropicDiffusion duplicate() {
+        final SRAD r = new SRAD();
+        r.setCThreshold(cThreshold);
+        r.setQ0(q0);
+        r.setRo(ro);
+        return r;
+    }
+
+
+    @Override
+    protected void initialize(final int width, final int height, final int numberOfBands) {
+        bandCoefficients = new float[numberOfBands][];
+    }
+
+
     /**
      * Perform single diffusion operation
      */
     @Override
-    protected void diffuse(final FloatProcessor src, final FloatProcessor dest) {
-        final float[] destPixels = (float[]) dest.getPixels();
-        final FloatProcessor cFP = new FloatProcessor(src.getWidth(), src.getHeight());
-        final float[] cPixels = (float[]) cFP.getPixels();
-        final PixelIterator iterator = new PixelIterator(src);
+    protected double diffuse(final float[] src, final float[] dest, final int width,
+                             final Rectangle interior, final int band, final int yStart, final int yEnd) {
+        // Diffusion coefficients for rows of the band and one halo row below, reused in each iteration.
+        // Coefficients outside of the interior are never written and stay 0.
+        final int bandHeight = yEnd - yStart + 1;
+        if (bandCoefficients[band] == null || bandCoefficients[band].length != bandHeight * width) {
+            bandCoefficients[band] = new float[bandHeight * width];
+        }
+        final float[] c = bandCoefficients[band];
+        final int cOffset = yStart * width;
+        final int xEnd = interior.x + interior.width;
+        final int yHaloEnd = Math.min(yEnd + 1, interior.y + interior.height);
 
         // Pre-calculate diffusion coefficient c(q)
         final double q0t = q0 * Math.exp(-ro * time());
         final double q0t2 = q0t * q0t;
-        IJDebug.log("time=" + time() + ", q0=" + q0 + ", q0t=" + q0t);
-        while (iterator.hasNext()) {
-            final Neighborhood3x3 n = iterator.next();
-
-            // Pixel numbers:
-            //  4 3 2
-            //  5 0 1
-            //  6 7 8
-
-            // Equation (52), h=1
-            final double dRI1 = (n.neighbor1 - n.center);
-            final double dRI2 = (n.neighbor7 - n.center);
-            // Equation (53), h=1
-            final double dLI1 = (n.center - n.neighbor5);
-            final double dLI2 = (n.center - n.neighbor3);
-            // Equation (54), h=1
-            final double d2I = (n.neighbor1 + n.neighbor5 + n.neighbor7 + n.neighbor3 - 4 * n.center);
-
-            // Equation (57)
-            final double v1 = Math.sqrt(dRI1 * dRI1 + dRI2 + dRI2 + dLI1 * dLI1 + dLI2 * dLI2) / n.center;
-            final double v2 = d2I / n.center;
-            final double v3 = 1 + v2 / 4;
-            final double q = Math.sqrt((v1 * v1 / 2 - v2 * v2 / 16) / (v3 * v3));
-            // Equation (33)
-            final double cij = 1 / (1 + (q * q - q0t2) / (q0t2 * (1 + q0t2)));
-
-            cPixels[n.offset] = cij > cThreshold ? (float) cij : 0f;
+        if (band == 0) {
+            IJDebug.log("time=" + time() + ", q0=" + q0 + ", q0t=" + q0t);
+        }
+        for (int y = yStart; y < yHaloEnd; y++) {
+            final int rowOffset = y * width;
+            for (int offset = rowOffset + interior.x; offset < rowOffset + xEnd; offset++) {
+                // Pixel numbers:
+                //  4 3 2
+                //  5 0 1
+                //  6 7 8
+                final float center = src[offset];
+                final float neighbor1 = src[offset + 1];
+                final float neighbor3 = src[offset - width];
+                final float neighbor5 = src[offset - 1];
+                final float neighbor7 = src[offset + width];
+
+                // Equation (52), h=1
+                final double dRI1 = (neighbor1 - center);
+                final double dRI2 = (neighbor7 - center);
+                // Equation (53), h=1
+                final double dLI1 = (center - neighbor5);
+                final double dLI2 = (center - neighbor3);
+                // Equation (54), h=1
+                final double d2I = (neighbor1 + neighbor5 + neighbor7 + neighbor3 - 4 * center);
+
+                // Equation (57)
+                final double v1 = Math.sqrt(dRI1 * dRI1 + dRI2 + dRI2 + dLI1 * dLI1 + dLI2 * dLI2) / center;
+                final double v2 = d2I / center;
+                final double v3 = 1 + v2 / 4;
+                final double q = Math.sqrt((v1 * v1 / 2 - v2 * v2 / 16) / (v3 * v3));
+                // Equation (33)
+                final double cij = 1 / (1 + (q * q - q0t2) / (q0t2 * (1 + q0t2)));
+
+                c[offset - cOffset] = cij > cThreshold ? (float) cij : 0f;
+            }
         }
 
-        iterator.rewind();
-        final PixelIterator cIterator = new PixelIterator(cFP);
-        while (iterator.hasNext()) {
-            // FIXME: make sure that the two iterators are correctly synchronized
-            final Neighborhood3x3 n = iterator.next();
-            final Neighborhood3x3 cn = cIterator.next();
-
-            // Pixel numbers:
-            //  4 3 2
-            //  5 0 1
-            //  6 7 8
-
-            final double cij = cn.center;
-            final double ci1j = cn.neighbor1;
-            final double cij1 = cn.neighbor7;
-
-            // Equation (58), h=1
-            final double d = ci1j * (n.neighbor1 - n.center) + cij * (n.neighbor5 - n.center) +
-                    cij1 * (n.neighbor7 - n.center) + cij * (n.neighbor3 - n.center);
-
-            // SRAD update, equation (61)
-            final double newValue = n.center + (getTimeStep() / 4d * d);
-            destPixels[n.offset] = (float) newValue;
+        final double timeStep = getTimeStep();
+        double sumSquares = 0;
+        for (int y = yStart; y < yEnd; y++) {
+            final int rowOffset = y * width;
+            for (int offset = rowOffset + interior.x; offset < rowOffset + xEnd; offset++) {
+                final float center = src[offset];
+
+                final double cij = c[offset - cOffset];
+                final double ci1j = c[offset - cOffset + 1];
+                final double cij1 = c[offset - cOffset + width];
+
+                // Equation (58), h=1
+                final double d = ci1j * (src[offset + 1] - center) + cij * (src[offset - 1] - center) +
+                        cij1 * (src[offset + width] - center) + cij * (src[offset - width] - center);
+
+                // SRAD update, equation (61)
+                final float newValue = (float) (center + (timeStep / 4d * d));
+                dest[offset] = newValue;
+
+                final float diff = newValue - center;
+                sumSquares += diff * diff;
+            }
         }
+        return sumSquares;
     }
 
 }
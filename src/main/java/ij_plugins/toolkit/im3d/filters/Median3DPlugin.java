@@ -19,22 +19,33 @@
  *
  *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
  */
-
 package ij_plugins.toolkit.im3d.filters;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
 import ij.WindowManager;
+import ij.gui.GenericDialog;
 import ij.plugin.PlugIn;
-import ij_plugins.toolkit.im3d.morphology.Morpho;
+import ij_plugins.toolkit.filters.RunningRankFilter3D;
 
 
 /**
+ * Median filter for 3D images, computed in a box shaped neighbourhood with configurable radius in each direction.
+ *
  * @author Jarek Sacha
  * @since Sep 8, 2010 6:17:55 PM
  */
 public final class Median3DPlugin implements PlugIn {
 
+    private static final String TITLE = "Median 3D";
+    private static final String PREFERENCES_PREFIX = Median3DPlugin.class.getName();
+
+    private static int xRadius = 1;
+    private static int yRadius = 1;
+    private static int zRadius = 1;
+
     @Override
     public void run(final String arg) {
         final ImagePlus src = WindowManager.getCurrentImage();
@@ -43,11 +54,65 @@ public final class Median3DPlugin implements PlugIn {
             return;
         }
 
-        if (src.getType() != ImagePlus.GRAY8) {
-            IJ.showMessage("Median 3D", "This plugin works only with GRAY8 images.");
+        if (src.getType() != ImagePlus.GRAY8 && src.getType() != ImagePlus.GRAY16) {
+            IJ.showMessage(TITLE, "This plugin works only with GRAY8 and GRAY16 images.");
             return;
         }
 
-        Morpho.median(src).show();
+        if (!showDialog()) {
+            return;
+        }
+
+        final RunningRankFilter3D filter = new RunningRankFilter3D(xRadius, yRadius, zRadius);
+        filter.setNumberOfThreads(Prefs.getThreads());
+
+        final long start = System.currentTimeMillis();
+        final ImageStack destStack = filter.median(src.getStack());
+        final long end = System.currentTimeMillis();
+
+        if (IJ.debugMode) {
+            IJ.log("Median 3D filtering completed in " + (end - start) + "ms.");
+        }
+
+        final ImagePlus dest = src.createImagePlus();
+        dest.setStack(destStack);
+        dest.setTitle(src.getTitle() + "+Median3D");
+        dest.show();
+    }
+
+
+    private boolean showDialog() {
+        xRadius = (int) Math.round(Prefs.get(PREFERENCES_PREFIX + ".xRadius", xRadius));
+        yRadius = (int) Math.round(Prefs.get(PREFERENCES_PREFIX + ".yRadius", yRadius));
+        zRadius = (int) Math.round(Prefs.get(PREFERENCES_PREFIX + ".zRadius", zRadius));
+
+        final GenericDialog gd = new GenericDialog(TITLE);
+        gd.addMessage("Filter radius");
+        gd.addNumericField("x", xRadius, 0, 3, "pixels");
+        gd.addNumericField("y", yRadius, 0, 3, "pixels");
+        gd.addNumericField("z", zRadius, 0, 3, "slices");
+
+        gd.showDialog();
+
+        if (gd.wasCanceled()) {
+            return false;
+        }
+
+        final int x = (int) Math.round(gd.getNextNumber());
+        final int y = (int) Math.round(gd.getNextNumber());
+        final int z = (int) Math.round(gd.getNextNumber());
+        if (gd.invalidNumber() || x < 0 || y < 0 || z < 0) {
+            IJ.error(TITLE, "Filter radius must be a non-negative integer.");
+            return false;
+        }
+
+        xRadius = x;
+        yRadius = y;
+        zRadius = z;
+        Prefs.set(PREFERENCES_PREFIX + ".xRadius", xRadius);
+        Prefs.set(PREFERENCES_PREFIX + ".yRadius", yRadius);
+        Prefs.set(PREFERENCES_PREFIX + ".zRadius", zRadius);
+
+        return true;
     }
 }
@@ -23,7 +23,6 @@
 package ij_plugins.toolkit.im3d.grow;
 
 import ij.process.ColorProcessor;
-import ij_plugins.toolkit.multiband.VectorMath;
 import ij_plugins.toolkit.multiband.VectorProcessor;
 import ij_plugins.toolkit.util.Validate;
 
@@ -79,7 +78,7 @@ import java.awt.*;
 public final class SRG2DVector extends SRG2DBase {
 
     private VectorProcessor image;
-    private float[][] imagePixels;
+    private float[][] imageBands;
 
 
     /**
@@ -89,7 +88,7 @@ public final class SRG2DVector extends SRG2DBase {
      */
     public void setImage(final VectorProcessor image) {
         Validate.argumentNotNull(image, "image");
-        this.image = image.duplicate();
+        this.image = image.duplicate(VectorProcessor.Layout.BAND_PLANAR);
     }
 
 
@@ -100,7 +99,7 @@ public final class SRG2DVector extends SRG2DBase {
      */
     public void setImage(final ColorProcessor image) {
         Validate.argumentNotNull(image, "image");
-        this.image = new VectorProcessor(image);
+        this.image = new VectorProcessor(image, VectorProcessor.Layout.BAND_PLANAR);
     }
 
 
@@ -108,14 +107,22 @@ public final class SRG2DVector extends SRG2DBase {
     protected void initializeImageStructures() {
         xSize = image.getWidth();
         ySize = image.getHeight();
-        imagePixels = image.getPixels();
+        imageBands = new float[image.getNumberOfValues()][];
+        for (int b = 0; b < imageBands.length; b++) {
+            imageBands[b] = image.getBand(b);
+        }
     }
 
 
     @Override
     protected double distanceFromMean(final int offset, final RegionInfo regionInfo) {
-        final float[] value = imagePixels[offset];
-        return VectorMath.distanceSqr(value, ((RegionInfoVector) regionInfo).mean());
+        final double[] mean = ((RegionInfoVector) regionInfo).mean();
+        double s = 0;
+        for (int b = 0; b < imageBands.length; b++) {
+            final double d = imageBands[b][offset] - mean[b];
+            s += d * d;
+        }
+        return s;
     }
 
 
@@ -142,8 +149,10 @@ public final class SRG2DVector extends SRG2DBase {
         @Override
         public void addPoint(final Point point) {
             ++pointCount;
-            final float[] b = new float[sumIntensity.length];
-            add(sumIntensity, image.get(point.x, point.y, b));
+            final int offset = point.x + point.y * image.getWidth();
+            for (int b = 0; b < sumIntensity.length; b++) {
+                sumIntensity[b] += image.getValue(offset, b);
+            }
         }
 
 
@@ -156,13 +165,6 @@ public final class SRG2DVector extends SRG2DBase {
         }
 
 
-        private static void add(final double[] a, final float[] b) {
-            for (int i = 0; i < a.length; i++) {
-                a[i] += b[i];
-            }
-        }
-
-
         private static double[] divide(final double[] a, final double b) {
             final double[] r = new double[a.length];
             for (int i = 0; i < a.length; i++) {
@@ -25,7 +25,9 @@ package ij_plugins.toolkit.im3d.morphology;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.Prefs;
 import ij.plugin.filter.RankFilters;
+import ij_plugins.toolkit.filters.RunningRankFilter3D;
 import ij_plugins.toolkit.im3d.Util;
 
 
@@ -215,10 +217,16 @@ public class Morpho {
     }
 
 
+    /**
+     * Compute 3D median filter of a stack in a 3x3x3 neighbourhood, using {@link RunningRankFilter3D}.
+     *
+     * @param src input stack, 8-bit or 16-bit.
+     * @return median filtered stack.
+     */
     public static ImageStack median(final ImageStack src) {
-        final ImageStack dest = Util.duplicateEmpty(src);
-        new Morpho().median(src, dest);
-        return dest;
+        final RunningRankFilter3D filter = new RunningRankFilter3D(1, 1, 1);
+        filter.setNumberOfThreads(Prefs.getThreads());
+        return filter.median(src);
     }
 
 
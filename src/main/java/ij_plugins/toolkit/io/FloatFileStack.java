@@ -0,0 +1,278 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.io;
+
+import ij.VirtualStack;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij_plugins.toolkit.IJPluginsRuntimeException;
+import ij_plugins.toolkit.util.Validate;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Writable virtual stack of 32-bit slices stored in a raw file. Unlike {@link VirtualStack}, slices replaced with
+ * {@link #setPixels(Object, int)} are written to the file, so results larger than available memory can be produced
+ * one slice at a time. Only one slice is in memory when the stack is displayed.
+ * <br>
+ * Slices can be read and written concurrently from multiple threads, but not the same slice.
+ * Number of slices is fixed, slices cannot be added or deleted.
+ *
+ * @author Jarek Sacha
+ */
+public final class FloatFileStack extends VirtualStack implements Closeable {
+
+    private final int depth;
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final String[] labels;
+    private final boolean temporary;
+
+
+    /**
+     * Create stack backed by a temporary file, the file is deleted when the stack is closed or when the virtual
+     * machine terminates. All voxels are initially 0.
+     *
+     * @param width  slice width.
+     * @param height slice height.
+     * @param depth  number of slices.
+     * @throws IOException when temporary file cannot be created.
+     */
+    public FloatFileStack(final int width, final int height, final int depth) throws IOException {
+        this(width, height, depth, File.createTempFile("ijp-", ".raw"), true);
+        file.deleteOnExit();
+    }
+
+
+    /**
+     * Create stack backed by {@code file}, existing content of the file is discarded.
+     *
+     * @param width  slice width.
+     * @param height slice height.
+     * @param depth  number of slices.
+     * @param file   file used to store voxel values, it is not deleted when the stack is closed.
+     * @throws IOException when the file cannot be created.
+     */
+    public FloatFileStack(final int width, final int height, final int depth, final File file) throws IOException {
+        this(width, height, depth, file, false);
+    }
+
+
+    private FloatFileStack(final int width, final int height, final int depth, final File file,
+                           final boolean temporary) throws IOException {
+        super(width, height);
+        Validate.isTrue(width > 0 && height > 0, "Slice size must be positive, got " + width + "x" + height + ".");
+        Validate.isTrue(depth > 0, "Number of slices must be at least 1, got " + depth + ".");
+        Validate.argumentNotNull(file, "file");
+
+        this.depth = depth;
+        this.file = file;
+        this.labels = new String[depth];
+        this.temporary = temporary;
+        Validate.isTrue(sliceBytes() <= Integer.MAX_VALUE, "Slice is too large: " + width + "x" + height + ".");
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.randomAccessFile.setLength(0);
+        this.randomAccessFile.setLength(sliceBytes() * depth);
+        this.channel = randomAccessFile.getChannel();
+    }
+
+
+    /**
+     * @return file in which voxel values are stored.
+     */
+    public File getFile() {
+        return file;
+    }
+
+
+    /**
+     * Read slice {@code n} to {@code dest}.
+     *
+     * @param n    slice index, from 1 to {@link #getSize()}.
+     * @param dest array of size width * height.
+     * @return {@code dest}.
+     */
+    public float[] readPixels(final int n, final float[] dest) {
+        checkSlice(n);
+        Validate.isTrue(dest.length == getWidth() * getHeight(), "Array size must be equal to slice size.");
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) sliceBytes()).order(ByteOrder.nativeOrder());
+        try {
+            long position = (n - 1) * sliceBytes();
+            while (buffer.hasRemaining()) {
+                final int count = channel.read(buffer, position);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of file '" + file.getAbsolutePath() + "'.");
+                }
+                position += count;
+            }
+        } catch (final IOException e) {
+            throw new IJPluginsRuntimeException("Cannot read slice " + n + ". " + e.getMessage(), e);
+        }
+        buffer.flip();
+        buffer.asFloatBuffer().get(dest);
+        return dest;
+    }
+
+
+    @Override
+    public Object getPixels(final int n) {
+        return readPixels(n, new float[getWidth() * getHeight()]);
+    }
+
+
+    /**
+     * Write slice {@code n} to the file.
+     *
+     * @param pixels {@code float[]} of size width * height, it is copied.
+     * @param n      slice index, from 1 to {@link #getSize()}.
+     */
+    @Override
+    public void setPixels(final Object pixels, final int n) {
+        checkSlice(n);
+        Validate.isTrue(pixels instanceof float[] && ((float[]) pixels).length == getWidth() * getHeight(),
+                "Pixels must be a float array of the slice size.");
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) sliceBytes()).order(ByteOrder.nativeOrder());
+        buffer.asFloatBuffer().put((float[]) pixels);
+        try {
+            long position = (n - 1) * sliceBytes();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        } catch (final IOException e) {
+            throw new IJPluginsRuntimeException("Cannot write slice " + n + ". " + e.getMessage(), e);
+        }
+    }
+
+
+    @Override
+    public ImageProcessor getProcessor(final int n) {
+        return new FloatProcessor(getWidth(), getHeight(), (float[]) getPixels(n));
+    }
+
+
+    @Override
+    public int size() {
+        return depth;
+    }
+
+
+    @Override
+    public int getSize() {
+        return depth;
+    }
+
+
+    @Override
+    public int getBitDepth() {
+        return 32;
+    }
+
+
+    @Override
+    public String getSliceLabel(final int n) {
+        checkSlice(n);
+        return labels[n - 1];
+    }
+
+
+    @Override
+    public void setSliceLabel(final String label, final int n) {
+        checkSlice(n);
+        labels[n - 1] = label;
+    }
+
+
+    @Override
+    public String getFileName(final int n) {
+        return file.getName();
+    }
+
+
+    @Override
+    public void addSlice(final String name) {
+        throw new UnsupportedOperationException("Slices cannot be added to " + getClass().getSimpleName() + ".");
+    }
+
+
+    @Override
+    public void addSlice(final String sliceLabel, final Object pixels) {
+        throw new UnsupportedOperationException("Slices cannot be added to " + getClass().getSimpleName() + ".");
+    }
+
+
+    @Override
+    public void addSlice(final String sliceLabel, final ImageProcessor ip) {
+        throw new UnsupportedOperationException("Slices cannot be added to " + getClass().getSimpleName() + ".");
+    }
+
+
+    @Override
+    public void addSlice(final String sliceLabel, final ImageProcessor ip, final int n) {
+        throw new UnsupportedOperationException("Slices cannot be added to " + getClass().getSimpleName() + ".");
+    }
+
+
+    @Override
+    public void deleteSlice(final int n) {
+        throw new UnsupportedOperationException("Slices cannot be deleted from " + getClass().getSimpleName() + ".");
+    }
+
+
+    @Override
+    public void deleteLastSlice() {
+        throw new UnsupportedOperationException("Slices cannot be deleted from " + getClass().getSimpleName() + ".");
+    }
+
+
+    /**
+     * Close the file, the file is deleted if it was created by {@link #FloatFileStack(int, int, int)}.
+     */
+    @Override
+    public void close() throws IOException {
+        randomAccessFile.close();
+        if (temporary && !file.delete()) {
+            throw new IOException("Cannot delete '" + file.getAbsolutePath() + "'.");
+        }
+    }
+
+
+    private long sliceBytes() {
+        return (long) getWidth() * getHeight() * Float.BYTES;
+    }
+
+
+    private void checkSlice(final int n) {
+        if (n < 1 || n > depth) {
+            throw new IllegalArgumentException("Slice index out of range: " + n + ", expected 1 to " + depth + ".");
+        }
+    }
+}
@@ -25,8 +25,6 @@ package ij_plugins.toolkit.multiband;
 import ij.ImagePlus;
 import ij.process.FloatProcessor;
 
-import java.awt.*;
-
 /**
  * Finds edges in a vector valued image by computing maximum Euclidean distance within 3x3
  * neighbourhood. The distance is computed between opposite pixels in the neighbourhood, that is
@@ -38,7 +36,7 @@ public class VectorDifferenceEdgeOperator {
 
 
     public static FloatProcessor run(final ImagePlus imp) {
-        final VectorProcessor vp = new VectorProcessor(imp);
+        final VectorProcessor vp = new VectorProcessor(imp, VectorProcessor.Layout.BAND_PLANAR);
         return run(vp);
     }
 
@@ -48,21 +46,38 @@ public class VectorDifferenceEdgeOperator {
         final int width = vp.getWidth();
         final int height = vp.getHeight();
 
-        final FloatProcessor dest = new FloatProcessor(width, height);
-
-        final Rectangle roi = new Rectangle(1, 1, width - 2, height - 2);
-        vp.setRoi(roi);
+        final int nbBands = vp.getNumberOfValues();
 
-        final VectorProcessor.Iterator iterator = vp.iterator();
-        while (iterator.hasNext()) {
-            final VectorProcessor.Neighborhood3x3 vn = iterator.next();
-
-            double d = VectorMath.distance(vn.p1, vn.p6);
-            d = Math.max(d, VectorMath.distance(vn.p2, vn.p7));
-            d = Math.max(d, VectorMath.distance(vn.p3, vn.p8));
-            d = Math.max(d, VectorMath.distance(vn.p4, vn.p9));
-
-            dest.putPixelValue(vn.x, vn.y, d);
+        final FloatProcessor dest = new FloatProcessor(width, height);
+        final float[] destPixels = (float[]) dest.getPixels();
+
+        // Work directly on band arrays, pixels on image border are not processed
+        final VectorProcessor src = vp.toLayout(VectorProcessor.Layout.BAND_PLANAR);
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                final int offset = x + y * width;
+                double s16 = 0;
+                double s27 = 0;
+                double s38 = 0;
+                double s49 = 0;
+                for (int b = 0; b < nbBands; b++) {
+                    final float[] band = src.getBand(b);
+                    final double d16 = band[offset - width - 1] - band[offset + 1];
+                    final double d27 = band[offset - width] - band[offset + width - 1];
+                    final double d38 = band[offset - width + 1] - band[offset + width];
+                    final double d49 = band[offset - 1] - band[offset + width + 1];
+                    s16 += d16 * d16;
+                    s27 += d27 * d27;
+                    s38 += d38 * d38;
+                    s49 += d49 * d49;
+                }
+
+                double d = Math.sqrt(s16);
+                d = Math.max(d, Math.sqrt(s27));
+                d = Math.max(d, Math.sqrt(s38));
+                d = Math.max(d, Math.sqrt(s49));
+                destPixels[offset] = (float) d;
+            }
         }
 
         return dest;
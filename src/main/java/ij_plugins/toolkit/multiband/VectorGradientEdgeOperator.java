@@ -24,7 +24,7 @@ package ij_plugins.toolkit.multiband;
 import ij.ImagePlus;
 import ij.process.FloatProcessor;
 
-import java.awt.*;
+import java.util.Arrays;
 
 /**
  * Finds edges in a vector valued image by computing maximum Euclidean distance between the center
@@ -37,7 +37,7 @@ public class VectorGradientEdgeOperator {
 
 
     public static FloatProcessor run(final ImagePlus imp) {
-        final VectorProcessor vp = new VectorProcessor(imp);
+        final VectorProcessor vp = new VectorProcessor(imp, VectorProcessor.Layout.BAND_PLANAR);
         return run(vp);
     }
 
@@ -47,25 +47,39 @@ public class VectorGradientEdgeOperator {
         final int width = vp.getWidth();
         final int height = vp.getHeight();
 
-        final FloatProcessor dest = new FloatProcessor(width, height);
+        final int nbBands = vp.getNumberOfValues();
 
-        final Rectangle roi = new Rectangle(1, 1, width - 2, height - 2);
-        vp.setRoi(roi);
+        final FloatProcessor dest = new FloatProcessor(width, height);
+        final float[] destPixels = (float[]) dest.getPixels();
 
-        final VectorProcessor.Iterator iterator = vp.iterator();
-        while (iterator.hasNext()) {
-            final VectorProcessor.Neighborhood3x3 vn = iterator.next();
+        // Offsets of the eight neighbours relative to the center pixel
+        final int[] neighbours = {
+                -width - 1, -width, -width + 1,
+                -1, 1,
+                width - 1, width, width + 1};
+        final double[] sums = new double[neighbours.length];
 
-            double d = VectorMath.distance(vn.p1, vn.p5);
-            d = Math.max(d, VectorMath.distance(vn.p2, vn.p5));
-            d = Math.max(d, VectorMath.distance(vn.p3, vn.p5));
-            d = Math.max(d, VectorMath.distance(vn.p4, vn.p5));
-            d = Math.max(d, VectorMath.distance(vn.p6, vn.p5));
-            d = Math.max(d, VectorMath.distance(vn.p7, vn.p5));
-            d = Math.max(d, VectorMath.distance(vn.p8, vn.p5));
-            d = Math.max(d, VectorMath.distance(vn.p9, vn.p5));
+        // Work directly on band arrays, pixels on image border are not processed
+        final VectorProcessor src = vp.toLayout(VectorProcessor.Layout.BAND_PLANAR);
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                final int offset = x + y * width;
+                Arrays.fill(sums, 0);
+                for (int b = 0; b < nbBands; b++) {
+                    final float[] band = src.getBand(b);
+                    final float p5 = band[offset];
+                    for (int n = 0; n < neighbours.length; n++) {
+                        final double d = band[offset + neighbours[n]] - p5;
+                        sums[n] += d * d;
+                    }
+                }
 
-            dest.putPixelValue(vn.x, vn.y, d);
+                double d = 0;
+                for (final double sum : sums) {
+                    d = Math.max(d, Math.sqrt(sum));
+                }
+                destPixels[offset] = (float) d;
+            }
         }
 
         return dest;
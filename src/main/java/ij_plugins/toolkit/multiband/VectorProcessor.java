@@ -37,36 +37,98 @@ import java.awt.*;
 /**
  * Represents vector valued image.
  * Value at each pixel in the image is a vector of floating point numbers.
+ * <br>
+ * Pixel values can be stored in two layouts, see {@link Layout}. The default, {@link Layout#PIXEL_ARRAYS}, uses
+ * a separate array for each pixel. {@link Layout#BAND_PLANAR} stores each band in a single flat array, like a slice
+ * of a float stack, it uses much less memory for large images and is faster to process. Methods
+ * {@link #get(int, int, float[])}, {@link #set(int, int, float[])}, and primitive accessors work the same way for
+ * both layouts. Direct access to the storage is provided by {@link #getPixels()} for {@link Layout#PIXEL_ARRAYS}
+ * and by {@link #getBand(int)} for {@link Layout#BAND_PLANAR}.
  *
  * @author Jarek Sacha
  */
 public class VectorProcessor {
 
+    /**
+     * Layout of pixel values in memory.
+     */
+    public enum Layout {
+        /**
+         * Each pixel is stored in a separate array, {@code float[width * height][numberOfValues]}.
+         */
+        PIXEL_ARRAYS,
+        /**
+         * Each band is stored in a separate flat array, {@code float[numberOfValues][width * height]}.
+         */
+        BAND_PLANAR
+    }
+
     private final int width;
     private final int height;
     private final int numberOfValues;
+    private final Layout layout;
+    // Storage for PIXEL_ARRAYS layout, null otherwise
     private final float[][] pixels;
+    // Storage for BAND_PLANAR layout, null otherwise
+    private final float[][] bands;
     private Rectangle roi;
     // TODO: use ij_plugins.toolkit.ui.progress instead of ij.gui.ProgressBar for more flexibility.
     private ProgressBar progressBar;
 
 
     public VectorProcessor(final int width, final int height, final int numberOfValues) {
+        this(width, height, numberOfValues, Layout.PIXEL_ARRAYS);
+    }
+
+
+    public VectorProcessor(final int width, final int height, final int numberOfValues, final Layout layout) {
+        Validate.argumentNotNull(layout, "layout");
         this.width = width;
         this.height = height;
         this.numberOfValues = numberOfValues;
-        pixels = new float[width * height][numberOfValues];
+        this.layout = layout;
+        if (layout == Layout.PIXEL_ARRAYS) {
+            pixels = new float[width * height][numberOfValues];
+            bands = null;
+        } else {
+            pixels = null;
+            bands = new float[numberOfValues][width * height];
+        }
         roi = new Rectangle(0, 0, width, height);
     }
 
 
     public VectorProcessor(final ColorProcessor cp) {
-        this(new ImagePlus("", cp));
+        this(cp, Layout.PIXEL_ARRAYS);
+    }
+
+
+    /**
+     * Create three band image with values of red, green, and blue channels.
+     *
+     * @param cp     color image.
+     * @param layout layout of pixel values.
+     */
+    public VectorProcessor(final ColorProcessor cp, final Layout layout) {
+        this(cp.getWidth(), cp.getHeight(), 3, layout);
+
+        final int[] rgb = (int[]) cp.getPixels();
+        for (int i = 0; i < rgb.length; i++) {
+            final int c = rgb[i];
+            setValue(i, 0, (c & 0xff0000) >> 16);
+            setValue(i, 1, (c & 0xff00) >> 8);
+            setValue(i, 2, c & 0xff);
+        }
     }
 
 
     public VectorProcessor(final ImagePlus imp) {
-        this(convertToFloatStack(imp));
+        this(imp, Layout.PIXEL_ARRAYS);
+    }
+
+
+    public VectorProcessor(final ImagePlus imp, final Layout layout) {
+        this(convertToFloatStack(imp), layout);
     }
 
 
@@ -74,14 +136,27 @@ public class VectorProcessor {
      * @param stack a stack of {@link FloatProcessor}s.
      */
     public VectorProcessor(final ImageStack stack) {
-        this(stack.getWidth(), stack.getHeight(), stack.getSize());
+        this(stack, Layout.PIXEL_ARRAYS);
+    }
+
+
+    /**
+     * @param stack  a stack of {@link FloatProcessor}s, values are copied.
+     * @param layout layout of pixel values.
+     */
+    public VectorProcessor(final ImageStack stack, final Layout layout) {
+        this(stack.getWidth(), stack.getHeight(), stack.getSize(), layout);
 
         // Copy data
         final Object[] slices = stack.getImageArray();
         for (int i = 0; i < numberOfValues; ++i) {
             final float[] values = (float[]) slices[i];
-            for (int j = 0; j < values.length; j++) {
-                pixels[j][i] = values[j];
+            if (layout == Layout.BAND_PLANAR) {
+                System.arraycopy(values, 0, bands[i], 0, bands[i].length);
+            } else {
+                for (int j = 0; j < values.length; j++) {
+                    pixels[j][i] = values[j];
+                }
             }
         }
     }
@@ -111,17 +186,144 @@ public class VectorProcessor {
     }
 
 
+    /**
+     * @return layout of pixel values in memory.
+     */
+    public Layout getLayout() {
+        return layout;
+    }
+
+
     /**
      * Gives direct access to pixel values in the image first index is the pixel number (between 0
      * and width*height-1), the second index references within each pixel value.
+     * Only available for {@link Layout#PIXEL_ARRAYS} layout.
      *
      * @return reference to the array containing pixel values in the image.
+     * @throws IllegalStateException if layout is not {@link Layout#PIXEL_ARRAYS}.
+     * @see #getBand(int)
      */
     public float[][] getPixels() {
+        if (pixels == null) {
+            throw new IllegalStateException("Pixel arrays are only available for layout " + Layout.PIXEL_ARRAYS
+                    + ", current layout is " + layout + ". Use getBand() instead.");
+        }
         return pixels;
     }
 
 
+    /**
+     * Gives direct access to values of a single band, stored row by row, like pixels of a {@link FloatProcessor}.
+     * Row {@code y} starts at index {@code y * width}.
+     * Only available for {@link Layout#BAND_PLANAR} layout.
+     *
+     * @param band band index, from 0 to {@code numberOfValues - 1}.
+     * @return reference to the array containing values of the band.
+     * @throws IllegalStateException if layout is not {@link Layout#BAND_PLANAR}.
+     * @see #getPixels()
+     */
+    public float[] getBand(final int band) {
+        if (bands == null) {
+            throw new IllegalStateException("Band arrays are only available for layout " + Layout.BAND_PLANAR
+                    + ", current layout is " + layout + ". Use getPixels() instead.");
+        }
+        return bands[band];
+    }
+
+
+    /**
+     * Copy values of a row of a single band.
+     *
+     * @param y    row index.
+     * @param band band index.
+     * @param dest array to store values, can be {@code null}.
+     * @return values of the row. If {@code dest} is not {@code null} it will be returned.
+     */
+    public float[] getRow(final int y, final int band, float[] dest) {
+        if (y < 0 || y >= height) {
+            throw new IllegalArgumentException("Value of row y=" + y + " is out of range [0," + height + ").");
+        }
+        if (dest == null) {
+            dest = new float[width];
+        } else if (dest.length < width) {
+            throw new IllegalArgumentException("Invalid length of array dest.");
+        }
+        final int offset = y * width;
+        if (bands != null) {
+            System.arraycopy(bands[band], offset, dest, 0, width);
+        } else {
+            for (int x = 0; x < width; x++) {
+                dest[x] = pixels[offset + x][band];
+            }
+        }
+        return dest;
+    }
+
+
+    /**
+     * Primitive accessor, does not check range of arguments.
+     *
+     * @param offset pixel offset, {@code x + y * width}.
+     * @param band   band index.
+     * @return value of the band at given pixel.
+     */
+    public float getValue(final int offset, final int band) {
+        return bands != null ? bands[band][offset] : pixels[offset][band];
+    }
+
+
+    /**
+     * Primitive accessor, does not check range of arguments.
+     *
+     * @param offset pixel offset, {@code x + y * width}.
+     * @param band   band index.
+     * @param value  new value of the band at given pixel.
+     */
+    public void setValue(final int offset, final int band, final float value) {
+        if (bands != null) {
+            bands[band][offset] = value;
+        } else {
+            pixels[offset][band] = value;
+        }
+    }
+
+
+    /**
+     * Copy all values of a pixel, does not check range of arguments.
+     *
+     * @param offset pixel offset, {@code x + y * width}.
+     * @param dest   array of length {@code numberOfValues} to store pixel value.
+     * @return {@code dest}.
+     */
+    public float[] getValues(final int offset, final float[] dest) {
+        if (bands != null) {
+            for (int b = 0; b < numberOfValues; b++) {
+                dest[b] = bands[b][offset];
+            }
+        } else {
+            System.arraycopy(pixels[offset], 0, dest, 0, numberOfValues);
+        }
+        return dest;
+    }
+
+
+    /**
+     * Set all values of a pixel, does not check range of arguments.
+     *
+     * @param offset pixel offset, {@code x + y * width}.
+     * @param v      new pixel value, array of length {@code numberOfValues}.
+     */
+    public void setValues(final int offset, final float[] v) {
+        if (bands != null) {
+            for (int b = 0; b < numberOfValues; b++) {
+                bands[b][offset] = v[b];
+            }
+        } else {
+            System.arraycopy(v, 0, pixels[offset], 0, numberOfValues);
+        }
+    }
+
+
     /**
      * @return region of interest within the image.
      */
@@ -150,6 +352,9 @@ public class VectorProcessor {
 
 
     /**
+     * For {@link Layout#BAND_PLANAR} layout, the iterator returns a copy of pixel value, changes to returned
+     * values are not stored in the image.
+     *
      * @return pixel value iterator.
      */
     public PixelIterator pixelIterator() {
@@ -174,12 +379,16 @@ public class VectorProcessor {
     public FloatProcessor[] toFloatProcessors() {
         final FloatProcessor[] r = new FloatProcessor[numberOfValues];
         for (int i = 0; i < numberOfValues; ++i) {
-            final FloatProcessor fp = new FloatProcessor(width, height);
-            final float[] values = (float[]) fp.getPixels();
-            for (int j = 0; j < values.length; j++) {
-                values[j] = pixels[j][i];
+            if (bands != null) {
+                r[i] = new FloatProcessor(width, height, bands[i].clone());
+            } else {
+                final FloatProcessor fp = new FloatProcessor(width, height);
+                final float[] values = (float[]) fp.getPixels();
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = pixels[j][i];
+                }
+                r[i] = fp;
             }
-            r[i] = fp;
         }
 
         return r;
@@ -304,10 +513,7 @@ public class VectorProcessor {
                 throw new IllegalArgumentException("Invalid length of array dest.");
             }
         }
-        final int offset = x + y * width;
-        final float[] v = pixels[offset];
-        System.arraycopy(v, 0, dest, 0, v.length);
-        return dest;
+        return getValues(x + y * width, dest);
     }
 
 
@@ -327,27 +533,59 @@ public class VectorProcessor {
             throw new IllegalArgumentException("Invalid size of argument 'v' expecting " + numberOfValues
                     + ", got " + v.length + ".");
         }
-        final int offset = x + y * width;
-        final float[] s = pixels[offset];
-        System.arraycopy(v, 0, s, 0, v.length);
+        setValues(x + y * width, v);
     }
 
 
     public VectorProcessor duplicate() {
-        final VectorProcessor r = new VectorProcessor(this.width, this.height, this.numberOfValues);
+        return duplicate(layout);
+    }
+
+
+    /**
+     * Create a copy of this image using given layout.
+     *
+     * @param layout layout of the copy.
+     * @return copy of this image.
+     */
+    public VectorProcessor duplicate(final Layout layout) {
+        final VectorProcessor r = new VectorProcessor(this.width, this.height, this.numberOfValues, layout);
         r.roi = (Rectangle) (roi != null ? roi.clone() : null);
         // TODO: ignore progress bar?
         r.progressBar = null;
 
         // copy data
-        for (int i = 0; i < pixels.length; ++i) {
-            System.arraycopy(pixels[i], 0, r.pixels[i], 0, numberOfValues);
+        if (bands != null && r.bands != null) {
+            for (int b = 0; b < numberOfValues; ++b) {
+                System.arraycopy(bands[b], 0, r.bands[b], 0, bands[b].length);
+            }
+        } else if (pixels != null && r.pixels != null) {
+            for (int i = 0; i < pixels.length; ++i) {
+                System.arraycopy(pixels[i], 0, r.pixels[i], 0, numberOfValues);
+            }
+        } else {
+            final float[] v = new float[numberOfValues];
+            for (int i = 0; i < width * height; ++i) {
+                r.setValues(i, getValues(i, v));
+            }
         }
 
         return r;
     }
 
 
+    /**
+     * Return image in given layout. If this image already uses that layout it is returned, otherwise a copy is
+     * created.
+     *
+     * @param layout layout of the returned image.
+     * @return image with given layout.
+     */
+    public VectorProcessor toLayout(final Layout layout) {
+        return this.layout == layout ? this : duplicate(layout);
+    }
+
+
     /**
      * Represents 3x3 neighborhood. the center pixel is <code>p5</code>. Pixels <code>p1</code> to
      * <code>p3</code> are in the top row, <code>p4</code> to <code>p6</code> in the middle, and
@@ -382,6 +620,7 @@ public class VectorProcessor {
         final int yMax1 = roi.y + roi.height - 1;
         int x = roi.x - 1;
         int y = roi.y;
+        final float[] buffer = new float[numberOfValues];
 
 
         private PixelIterator() {
@@ -427,7 +666,7 @@ public class VectorProcessor {
 
             final int offset = x + y * width;
 
-            return pixels[offset];
+            return pixels != null ? pixels[offset] : getValues(offset, buffer);
         }
 
 
@@ -448,6 +687,7 @@ public class VectorProcessor {
 
     /**
      * Iterator over 3x3 neighborhood of vector valued pixels.
+     * For {@link Layout#BAND_PLANAR} layout, neighborhood contains copies of pixel values.
      */
     public class Iterator implements java.util.Iterator<Neighborhood3x3> {
 
@@ -459,12 +699,18 @@ public class VectorProcessor {
         int x = xMin - 1;
         int y = yMin;
         final Neighborhood3x3 neighborhood3x3 = new Neighborhood3x3();
+        final float[][] buffers = new float[9][numberOfValues];
 
 
         private Iterator() {
         }
 
 
+        private float[] value(final int offset, final float[] buffer) {
+            return pixels != null ? pixels[offset] : getValues(offset, buffer);
+        }
+
+
         @Override
         public boolean hasNext() {
             return x < xMax || y < yMax;
@@ -488,17 +734,17 @@ public class VectorProcessor {
             final int offset = x + y * width;
 
             // Update neighbourhood information
-            neighborhood3x3.p1 = pixels[offset - rowOffset - 1];
-            neighborhood3x3.p2 = pixels[offset - rowOffset];
-            neighborhood3x3.p3 = pixels[offset - rowOffset + 1];
+            neighborhood3x3.p1 = value(offset - rowOffset - 1, buffers[0]);
+            neighborhood3x3.p2 = value(offset - rowOffset, buffers[1]);
+            neighborhood3x3.p3 = value(offset - rowOffset + 1, buffers[2]);
 
-            neighborhood3x3.p4 = pixels[offset - 1];
-            neighborhood3x3.p5 = pixels[offset];
-            neighborhood3x3.p6 = pixels[offset + 1];
+            neighborhood3x3.p4 = value(offset - 1, buffers[3]);
+            neighborhood3x3.p5 = value(offset, buffers[4]);
+            neighborhood3x3.p6 = value(offset + 1, buffers[5]);
 
-            neighborhood3x3.p7 = pixels[offset + rowOffset - 1];
-            neighborhood3x3.p8 = pixels[offset + rowOffset];
-            neighborhood3x3.p9 = pixels[offset + rowOffset + 1];
+            neighborhood3x3.p7 = value(offset + rowOffset - 1, buffers[6]);
+            neighborhood3x3.p8 = value(offset + rowOffset, buffers[7]);
+            neighborhood3x3.p9 = value(offset + rowOffset + 1, buffers[8]);
 
             neighborhood3x3.x = x;
             neighborhood3x3.y = y;
@@ -24,8 +24,6 @@ package ij_plugins.toolkit.multiband;
 import ij.ImagePlus;
 import ij.process.FloatProcessor;
 
-import java.awt.*;
-
 /**
  * Sobel edge detector for vector valued images.
  *
@@ -35,7 +33,7 @@ public class VectorSobelEdgeOperator {
 
 
     public static FloatProcessor run(final ImagePlus imp) {
-        final VectorProcessor vp = new VectorProcessor(imp);
+        final VectorProcessor vp = new VectorProcessor(imp, VectorProcessor.Layout.BAND_PLANAR);
         return run(vp);
     }
 
@@ -47,43 +45,42 @@ public class VectorSobelEdgeOperator {
         final int nbBands = vp.getNumberOfValues();
 
         final FloatProcessor dest = new FloatProcessor(width, height);
+        final float[] destPixels = (float[]) dest.getPixels();
 
-        final Rectangle roi = new Rectangle(1, 1, width - 2, height - 2);
-        vp.setRoi(roi);
-
-        final VectorProcessor.Iterator iterator = vp.iterator();
-        while (iterator.hasNext()) {
-            final VectorProcessor.Neighborhood3x3 vn = iterator.next();
-            // 3x3 Sobel filter
-            //sum1 = p1 + 2 * p2 + p3 - p7 - 2 * p8 - p9;
-            final float[] sum11 = new float[nbBands];
-            VectorMath.add(sum11, vn.p1);
-            VectorMath.add(sum11, vn.p2);
-            VectorMath.add(sum11, vn.p2);
-            VectorMath.add(sum11, vn.p3);
-            final float[] sum12 = new float[nbBands];
-            VectorMath.add(sum12, vn.p7);
-            VectorMath.add(sum12, vn.p8);
-            VectorMath.add(sum12, vn.p8);
-            VectorMath.add(sum12, vn.p9);
+        // Work directly on band arrays, pixels on image border are not processed
+        final VectorProcessor src = vp.toLayout(VectorProcessor.Layout.BAND_PLANAR);
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                final int offset = x + y * width;
+                double s1 = 0;
+                double s2 = 0;
+                for (int b = 0; b < nbBands; b++) {
+                    final float[] band = src.getBand(b);
+                    final float p1 = band[offset - width - 1];
+                    final float p2 = band[offset - width];
+                    final float p3 = band[offset - width + 1];
+                    final float p4 = band[offset - 1];
+                    final float p6 = band[offset + 1];
+                    final float p7 = band[offset + width - 1];
+                    final float p8 = band[offset + width];
+                    final float p9 = band[offset + width + 1];
 
-            // sum2 = p1 + 2 * p4 + p7 - p3 - 2 * p6 - p9;
-            final float[] sum21 = new float[nbBands];
-            VectorMath.add(sum21, vn.p1);
-            VectorMath.add(sum21, vn.p4);
-            VectorMath.add(sum21, vn.p4);
-            VectorMath.add(sum21, vn.p7);
-            final float[] sum22 = new float[nbBands];
-            VectorMath.add(sum22, vn.p3);
-            VectorMath.add(sum22, vn.p6);
-            VectorMath.add(sum22, vn.p6);
-            VectorMath.add(sum22, vn.p9);
+                    // 3x3 Sobel filter
+                    // sum1 = p1 + 2 * p2 + p3 - p7 - 2 * p8 - p9;
+                    final float sum11 = p1 + p2 + p2 + p3;
+                    final float sum12 = p7 + p8 + p8 + p9;
+                    final double d1 = sum11 - sum12;
+                    s1 += d1 * d1;
 
-            final double d1 = VectorMath.distance(sum11, sum12);
-            final double d2 = VectorMath.distance(sum21, sum22);
-            final double d = Math.max(d1, d2);
+                    // sum2 = p1 + 2 * p4 + p7 - p3 - 2 * p6 - p9;
+                    final float sum21 = p1 + p4 + p4 + p7;
+                    final float sum22 = p3 + p6 + p6 + p9;
+                    final double d2 = sum21 - sum22;
+                    s2 += d2 * d2;
+                }
 
-            dest.putPixelValue(vn.x, vn.y, d);
+                destPixels[offset] = (float) Math.max(Math.sqrt(s1), Math.sqrt(s2));
+            }
         }
 
         return dest;
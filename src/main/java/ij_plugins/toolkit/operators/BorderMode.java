@@ -0,0 +1,53 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.operators;
+
+/**
+ * Strategy for handling pixels of a 3x3 neighbourhood that fall outside of the image.
+ *
+ * @author Jarek Sacha
+ * @see Stencil3x3
+ */
+public enum BorderMode {
+    /**
+     * Pixels which neighbourhood extends outside of the image are not processed,
+     * corresponding destination pixels are left unchanged.
+     */
+    NONE,
+    /**
+     * Pixels outside of the image take value of the nearest border pixel.
+     */
+    CLAMP,
+    /**
+     * Image is reflected about its border pixels, without repeating them,
+     * so pixel at <code>-1</code> takes value of pixel <code>1</code>.
+     */
+    MIRROR,
+    /**
+     * Image is periodically repeated, pixel at <code>-1</code> takes value of the last pixel.
+     */
+    WRAP,
+    /**
+     * Pixels outside of the image take a constant value, see {@link Stencil3x3#setBorderValue(float)}.
+     */
+    CONSTANT
+}
@@ -28,7 +28,10 @@ package ij_plugins.toolkit.operators;
  *  5 0 1
  *  6 7 8
  * </pre>
+ *
+ * @deprecated Used by {@link PixelIterator}, use {@link StencilKernel3x3} instead.
  */
+@Deprecated
 public class Neighborhood3x3 {
     private final float[] neighbors = new float[9];
     /**
@@ -29,8 +29,9 @@ import java.util.NoSuchElementException;
 
 /**
  * @author Jarek Sacha
+ * @deprecated Use {@link Stencil3x3}, it processes whole rows at a time, in parallel, and handles image borders.
  */
-
+@Deprecated
 public class PixelIterator implements Iterator<Neighborhood3x3> {
     private final int width;
     private final float[] pixels;
@@ -0,0 +1,261 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.operators;
+
+import ij.process.FloatProcessor;
+import ij_plugins.toolkit.util.ParallelBands;
+import ij_plugins.toolkit.util.Validate;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Applies a {@link StencilKernel3x3} to every pixel in a region of a float image.
+ * <br>
+ * Rows of the region are split into bands processed concurrently, see {@link #setNumberOfThreads(int)}.
+ * Within a row the kernel is invoked once for the interior segment, where the whole 3x3 neighbourhood is
+ * inside the image, with offsets pointing directly into the source pixels. Pixels near the image border are
+ * handled according to the {@link BorderMode}: their neighbourhood is assembled in a small per-band buffer,
+ * so the kernel itself never needs to test coordinates and no padded copy of the image is created.
+ * Only pixels in the first and the last row and column of the image go through the buffer.
+ * <br>
+ * Example, 3x3 Laplacian:
+ * <pre>
+ *   final Stencil3x3 stencil = new Stencil3x3();
+ *   stencil.setBorderMode(BorderMode.CLAMP);
+ *   stencil.run(src, dest, (s, above, center, below, d, offset, length) -&gt; {
+ *       for (int i = 0; i &lt; length; i++) {
+ *           final int c = center + i;
+ *           d[offset + i] = s[above + i] + s[below + i] + s[c - 1] + s[c + 1] - 4 * s[c];
+ *       }
+ *   });
+ * </pre>
+ * Instance of this class caches its border buffers, it should not be used by several threads at the same time.
+ *
+ * @author Jarek Sacha
+ */
+public final class Stencil3x3 {
+
+    private BorderMode borderMode = BorderMode.NONE;
+    private float borderValue = 0;
+    private int numberOfThreads = 1;
+    private float[][] buffers = new float[0][];
+
+
+    public BorderMode getBorderMode() {
+        return borderMode;
+    }
+
+
+    /**
+     * @param borderMode handling of pixels which neighbourhood extends outside of the image.
+     */
+    public void setBorderMode(final BorderMode borderMode) {
+        Validate.argumentNotNull(borderMode, "borderMode");
+        this.borderMode = borderMode;
+    }
+
+
+    public float getBorderValue() {
+        return borderValue;
+    }
+
+
+    /**
+     * @param borderValue value of pixels outside of the image used by {@link BorderMode#CONSTANT}.
+     */
+    public void setBorderValue(final float borderValue) {
+        this.borderValue = borderValue;
+    }
+
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+
+    /**
+     * @param numberOfThreads number of threads used to process bands of rows, must be at least 1.
+     */
+    public void setNumberOfThreads(final int numberOfThreads) {
+        Validate.isTrue(numberOfThreads > 0, "Number of threads must be at least 1, got " + numberOfThreads + ".");
+        this.numberOfThreads = numberOfThreads;
+    }
+
+
+    /**
+     * Apply the kernel to pixels within ROI of the source image.
+     *
+     * @param src    source image.
+     * @param dest   destination image, must be of the same size as the source and cannot share its pixels.
+     * @param kernel kernel to apply.
+     */
+    public void run(final FloatProcessor src, final FloatProcessor dest, final StencilKernel3x3 kernel) {
+        Validate.argumentNotNull(src, "src");
+        Validate.argumentNotNull(dest, "dest");
+        Validate.isTrue(src.getWidth() == dest.getWidth() && src.getHeight() == dest.getHeight(),
+                "Source and destination images must be of the same size.");
+
+        run((float[]) src.getPixels(), (float[]) dest.getPixels(), src.getWidth(), src.getHeight(), src.getRoi(),
+                kernel);
+    }
+
+
+    /**
+     * Apply the kernel to pixels within a region of the source image.
+     * Neighbours inside the image are always read from the source, even if they are outside of the region.
+     *
+     * @param src    source pixels.
+     * @param dest   destination pixels, cannot be the same array as the source.
+     * @param width  image width.
+     * @param height image height.
+     * @param region region of the image to process.
+     * @param kernel kernel to apply.
+     */
+    public void run(final float[] src, final float[] dest, final int width, final int height,
+                    final Rectangle region, final StencilKernel3x3 kernel) {
+        Validate.argumentNotNull(src, "src");
+        Validate.argumentNotNull(dest, "dest");
+        Validate.argumentNotNull(region, "region");
+        Validate.argumentNotNull(kernel, "kernel");
+        Validate.isTrue(src != dest, "Source and destination cannot be the same array.");
+        Validate.isTrue(width > 0 && height > 0, "Image size must be positive, got " + width + "x" + height + ".");
+        Validate.isTrue(src.length >= width * height && dest.length >= width * height,
+                "Pixel arrays are smaller than image size " + width + "x" + height + ".");
+        Validate.isTrue(new Rectangle(0, 0, width, height).contains(region),
+                "Region " + region + " is not contained within the image.");
+
+        final Rectangle r = borderMode == BorderMode.NONE
+                ? region.intersection(new Rectangle(1, 1, width - 2, height - 2))
+                : region;
+        if (r.width <= 0 || r.height <= 0) {
+            return;
+        }
+
+        final int nbBands = ParallelBands.numberOfBands(numberOfThreads, r.y, r.y + r.height);
+        final int bufferSize = 3 * (r.width + 2);
+        if (buffers.length < nbBands) {
+            buffers = new float[nbBands][];
+        }
+        for (int b = 0; b < nbBands; b++) {
+            if (buffers[b] == null || buffers[b].length < bufferSize) {
+                buffers[b] = new float[bufferSize];
+            }
+        }
+
+        ParallelBands.run(null, nbBands, r.y, r.y + r.height, (band, yStart, yEnd) ->
+                processBand(src, dest, width, height, r.x, r.x + r.width, yStart, yEnd, kernel, buffers[band]));
+    }
+
+
+    private void processBand(final float[] src, final float[] dest, final int width, final int height,
+                             final int xStart, final int xEnd, final int yStart, final int yEnd,
+                             final StencilKernel3x3 kernel, final float[] buffer) {
+        // Columns for which the whole neighbourhood is inside the image
+        final int xInStart = Math.max(xStart, 1);
+        final int xInEnd = Math.min(xEnd, width - 1);
+
+        for (int y = yStart; y < yEnd; y++) {
+            if (y == 0 || y == height - 1 || xInStart >= xInEnd) {
+                processBorder(src, dest, width, height, y, xStart, xEnd, kernel, buffer);
+                continue;
+            }
+
+            if (xStart < xInStart) {
+                processBorder(src, dest, width, height, y, xStart, xInStart, kernel, buffer);
+            }
+
+            final int offset = y * width + xInStart;
+            kernel.processRow(src, offset - width, offset, offset + width, dest, offset, xInEnd - xInStart);
+
+            if (xInEnd < xEnd) {
+                processBorder(src, dest, width, height, y, xInEnd, xEnd, kernel, buffer);
+            }
+        }
+    }
+
+
+    /**
+     * Process segment <code>[x0, x1)</code> of row <code>y</code> assembling its neighbourhood in the buffer.
+     */
+    private void processBorder(final float[] src, final float[] dest, final int width, final int height,
+                               final int y, final int x0, final int x1,
+                               final StencilKernel3x3 kernel, final float[] buffer) {
+        final int stride = x1 - x0 + 2;
+        for (int r = 0; r < 3; r++) {
+            fillRow(src, width, height, y - 1 + r, x0 - 1, stride, buffer, r * stride);
+        }
+        kernel.processRow(buffer, 1, stride + 1, 2 * stride + 1, dest, y * width + x0, x1 - x0);
+    }
+
+
+    /**
+     * Copy <code>length</code> pixels of row <code>y</code>, starting at column <code>x</code>, to the buffer.
+     * Coordinates outside of the image are resolved according to the border mode.
+     */
+    private void fillRow(final float[] src, final int width, final int height, final int y, final int x,
+                         final int length, final float[] buffer, final int bufferOffset) {
+        if ((y < 0 || y >= height) && borderMode == BorderMode.CONSTANT) {
+            Arrays.fill(buffer, bufferOffset, bufferOffset + length, borderValue);
+            return;
+        }
+
+        final int rowOffset = borderIndex(y, height) * width;
+        final int xInStart = Math.max(x, 0);
+        final int xInEnd = Math.min(x + length, width);
+        for (int xx = x; xx < xInStart; xx++) {
+            buffer[bufferOffset + xx - x] = borderPixel(src, rowOffset, xx, width);
+        }
+        System.arraycopy(src, rowOffset + xInStart, buffer, bufferOffset + xInStart - x, xInEnd - xInStart);
+        for (int xx = xInEnd; xx < x + length; xx++) {
+            buffer[bufferOffset + xx - x] = borderPixel(src, rowOffset, xx, width);
+        }
+    }
+
+
+    /**
+     * Value of pixel in column <code>x</code>, outside of the image, of a row starting at <code>rowOffset</code>.
+     */
+    private float borderPixel(final float[] src, final int rowOffset, final int x, final int width) {
+        return borderMode == BorderMode.CONSTANT ? borderValue : src[rowOffset + borderIndex(x, width)];
+    }
+
+
+    /**
+     * Map index, possibly outside of range <code>[0, n)</code>, to index inside that range.
+     */
+    private int borderIndex(final int i, final int n) {
+        if (i >= 0 && i < n) {
+            return i;
+        }
+        switch (borderMode) {
+            case CLAMP:
+                return i < 0 ? 0 : n - 1;
+            case MIRROR:
+                return i < 0 ? Math.min(-i, n - 1) : Math.max(2 * (n - 1) - i, 0);
+            case WRAP:
+                return ((i % n) + n) % n;
+            default:
+                throw new IllegalStateException("Unexpected border mode: " + borderMode + ".");
+        }
+    }
+}
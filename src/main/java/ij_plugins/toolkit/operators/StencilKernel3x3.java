@@ -0,0 +1,54 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.operators;
+
+/**
+ * Kernel of a 3x3 stencil operation, applied by {@link Stencil3x3} to a segment of an image row at a time.
+ * <br>
+ * The three row offsets point to the first pixel of the segment in the row above, the row of the segment itself,
+ * and the row below. Value of the <code>i</code>-th pixel of the segment is <code>src[center + i]</code>,
+ * its left and right neighbours are <code>src[center + i - 1]</code> and <code>src[center + i + 1]</code>, and
+ * its neighbours above and below are <code>src[above + i]</code> and <code>src[below + i]</code>.
+ * Result for that pixel should be written to <code>dest[destOffset + i]</code>.
+ * <br>
+ * Near the image border <code>src</code> may be a small padded buffer, rather than the source image itself,
+ * so the kernel should not assume any relation between the offsets and pixel coordinates.
+ *
+ * @author Jarek Sacha
+ * @see Stencil3x3
+ */
+@FunctionalInterface
+public interface StencilKernel3x3 {
+
+    /**
+     * Process a segment of a single image row.
+     *
+     * @param src        source pixels.
+     * @param above      offset of the first pixel of the segment in the row above.
+     * @param center     offset of the first pixel of the segment.
+     * @param below      offset of the first pixel of the segment in the row below.
+     * @param dest       destination pixels.
+     * @param destOffset offset of the first destination pixel.
+     * @param length     number of pixels in the segment.
+     */
+    void processRow(float[] src, int above, int center, int below, float[] dest, int destOffset, int length);
+}
@@ -27,8 +27,8 @@ import ij.ImageStack;
 import ij.plugin.filter.Convolver;
 import ij.process.FloatProcessor;
 import ij_plugins.toolkit.filters.GaussianSmoothFilter;
-import ij_plugins.toolkit.operators.Neighborhood3x3;
-import ij_plugins.toolkit.operators.PixelIterator;
+
+import java.awt.*;
 
 
 /**
@@ -169,64 +169,69 @@ public class CoherenceEnhancingDiffusionFilter {
             //
             final float[] destPixels = (float[]) dest.getPixels();
 
-            final PixelIterator iterator = new PixelIterator(in);
-
-            while (iterator.hasNext()) {
-                final Neighborhood3x3 n = iterator.next();
-                final double j11 = gXX.getPixelValue(n.x, n.y);
-                final double j12 = 0.5f * (gXY.getPixelValue(n.x, n.y) +
-                        gYX.getPixelValue(n.x, n.y));
-                final double j22 = gYY.getPixelValue(n.x, n.y);
-                final double dd = j11 - j22;
-                final double delta = Math.sqrt(4 * j12 * j12 + dd * dd);
-                final double mu1 = 0.5 * (j11 + j22 + delta);
-                final double mu2 = 0.5 * (j11 + j22 - delta);
-
-                double cosA = 2 * j12;
-                double sinA = j22 - j11 + delta;
-                final double l = Math.sqrt(cosA * cosA + sinA * sinA);
-
-                if (l == 0) {
-                    continue;
+            // Pixels inside the ROI of `in`, except its 1 pixel wide border
+            final Rectangle roi = in.getRoi();
+            final int xMin = roi.x + 1;
+            final int xMax = roi.x + roi.width - 1;
+            final int yMin = roi.y + 1;
+            final int yMax = roi.y + roi.height - 1;
+
+            for (int y = yMin; y < yMax; ++y) {
+                for (int x = xMin; x < xMax; ++x) {
+                    final double j11 = gXX.getPixelValue(x, y);
+                    final double j12 = 0.5f * (gXY.getPixelValue(x, y) +
+                            gYX.getPixelValue(x, y));
+                    final double j22 = gYY.getPixelValue(x, y);
+                    final double dd = j11 - j22;
+                    final double delta = Math.sqrt(4 * j12 * j12 + dd * dd);
+                    final double mu1 = 0.5 * (j11 + j22 + delta);
+                    final double mu2 = 0.5 * (j11 + j22 - delta);
+
+                    double cosA = 2 * j12;
+                    double sinA = j22 - j11 + delta;
+                    final double l = Math.sqrt(cosA * cosA + sinA * sinA);
+
+                    if (l == 0) {
+                        continue;
+                    }
+
+                    cosA /= l;
+                    sinA /= l;
+
+                    final double lambda1 = c1;
+                    final double lambda2 = g1(mu1, mu2);
+
+                    //                     (a b)
+                    // Diffusion tensor D = (b c)
+                    //
+                    final double a = (lambda1 * cosA * cosA) + (lambda2 * sinA * sinA);
+                    final double b = (lambda1 - lambda2) * sinA * cosA;
+                    final double c = (lambda1 * sinA * sinA) + (lambda2 * cosA * cosA);
+
+                    // Flux components
+                    final double dxu = gX.getPixelValue(x, y);
+                    final double dyu = gY.getPixelValue(x, y);
+                    j1.putPixelValue(x, y, (a * dxu) + (b * dyu));
+                    j2.putPixelValue(x, y, (b * dxu) + (c * dyu));
                 }
-
-                cosA /= l;
-                sinA /= l;
-
-                final double lambda1 = c1;
-                final double lambda2 = g1(mu1, mu2);
-
-                //                     (a b)
-                // Diffusion tensor D = (b c)
-                //
-                final double a = (lambda1 * cosA * cosA) + (lambda2 * sinA * sinA);
-                final double b = (lambda1 - lambda2) * sinA * cosA;
-                final double c = (lambda1 * sinA * sinA) + (lambda2 * cosA * cosA);
-
-                // Flux components
-                final double dxu = gX.getPixelValue(n.x, n.y);
-                final double dyu = gY.getPixelValue(n.x, n.y);
-                j1.putPixelValue(n.x, n.y, (a * dxu) + (b * dyu));
-                j2.putPixelValue(n.x, n.y, (b * dxu) + (c * dyu));
             }
 
             convolver.convolveFloat(j1, gradientXKernel, 3, 3);
             convolver.convolveFloat(j2, gradientYKernel, 3, 3);
 
-            iterator.rewind();
-
             double maxUpdate = 0;
             final FloatProcessor debugIm = new FloatProcessor(width, height);
 
-            while (iterator.hasNext()) {
-                final Neighborhood3x3 n = iterator.next();
-                final double du = j1.getPixelValue(n.x, n.y) +
-                        j2.getPixelValue(n.x, n.y);
-                destPixels[n.offset] += (timeStep * du);
+            for (int y = yMin; y < yMax; ++y) {
+                for (int x = xMin; x < xMax; ++x) {
+                    final double du = j1.getPixelValue(x, y) +
+                            j2.getPixelValue(x, y);
+                    destPixels[x + y * width] += (timeStep * du);
 
-                final double delta = Math.abs(du);
-                maxUpdate = Math.max(delta, maxUpdate);
-                debugIm.putPixelValue(n.x, n.y, du);
+                    final double delta = Math.abs(du);
+                    maxUpdate = Math.max(delta, maxUpdate);
+                    debugIm.putPixelValue(x, y, du);
+                }
             }
 
             timeStack.addSlice("" + i, debugIm);
@@ -0,0 +1,193 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+
+package ij_plugins.toolkit.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Splits a range of indices, typically image rows or slices, into contiguous bands and processes them concurrently.
+ * The last band is always processed by the calling thread, the remaining bands are submitted to an executor.
+ * When only a single band is requested, the task is executed directly, without any synchronization overhead.
+ * If processing of a band fails, bands that have not started yet are skipped and the failure is rethrown only after
+ * all bands that are already running complete, so no band is still running when {@code run} returns.
+ * <br>
+ * Example of processing image rows in parallel:
+ * <pre>
+ *   ParallelBands.run(executor, Prefs.getThreads(), 0, height, (band, yStart, yEnd) -&gt; {
+ *       for (int y = yStart; y &lt; yEnd; y++) {
+ *           ...
+ *       }
+ *   });
+ * </pre>
+ *
+ * @author Jarek Sacha
+ */
+public final class ParallelBands {
+
+    private ParallelBands() {
+    }
+
+
+    /**
+     * Task processing a single band.
+     */
+    @FunctionalInterface
+    public interface BandTask {
+        /**
+         * Process indices in range from {@code start} (inclusive) to {@code end} (exclusive).
+         *
+         * @param band  index of the band, from 0 to number of bands - 1.
+         * @param start first index in the band.
+         * @param end   index past the last index in the band.
+         */
+        void process(int band, int start, int end);
+    }
+
+
+    /**
+     * Compute number of bands that range {@code [min, max)} will be split into.
+     *
+     * @param numberOfBands requested number of bands.
+     * @param min           first index in the range.
+     * @param max           index past the last index in the range.
+     * @return number of bands, it is at least 1 and not larger than the size of the range.
+     */
+    public static int numberOfBands(final int numberOfBands, final int min, final int max) {
+        return Math.max(1, Math.min(numberOfBands, max - min));
+    }
+
+
+    /**
+     * Split range {@code [min, max)} into {@code numberOfBands} contiguous bands of nearly equal size
+     * and process each band with the {@code task}. Returns when all bands are processed.
+     *
+     * @param executor      executor used to process bands. If {@code null}, {@link ForkJoinPool#commonPool()} is used.
+     * @param numberOfBands requested number of bands, it will be reduced if the range is smaller.
+     * @param min           first index in the range.
+     * @param max           index past the last index in the range.
+     * @param task          task applied to each band.
+     * @throws RuntimeException if processing of any of the bands failed or was interrupted. When more than one band
+     *                          failed, the first failure is thrown, the others are added to it as suppressed.
+     */
+    public static void run(final ExecutorService executor,
+                           final int numberOfBands,
+                           final int min,
+                           final int max,
+                           final BandTask task) {
+        Validate.argumentNotNull(task, "task");
+        Validate.isTrue(min <= max, "Argument 'min' cannot be larger than 'max'.");
+
+        final int n = numberOfBands(numberOfBands, min, max);
+        if (n == 1) {
+            task.process(0, min, max);
+            return;
+        }
+
+        final ExecutorService service = executor != null ? executor : ForkJoinPool.commonPool();
+        // Set when any band fails, bands that have not started yet are then skipped
+        final AtomicBoolean aborted = new AtomicBoolean(false);
+        final List<Future<?>> futures = new ArrayList<>(n - 1);
+        for (int b = 0; b < n - 1; b++) {
+            final int band = b;
+            final int start = bandStart(band, n, min, max);
+            final int end = bandStart(band + 1, n, min, max);
+            futures.add(service.submit(() -> {
+                if (aborted.get()) {
+                    return;
+                }
+                try {
+                    task.process(band, start, end);
+                } catch (final RuntimeException | Error e) {
+                    aborted.set(true);
+                    throw e;
+                }
+            }));
+        }
+
+        // Last band is processed by the current thread
+        Throwable failure = null;
+        try {
+            task.process(n - 1, bandStart(n - 1, n, min, max), max);
+        } catch (final RuntimeException | Error e) {
+            aborted.set(true);
+            failure = e;
+        }
+
+        // Wait for all submitted bands, even after a failure, so none is running when this method returns
+        boolean interrupted = false;
+        for (final Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (final InterruptedException e) {
+                    aborted.set(true);
+                    if (failure == null) {
+                        failure = new RuntimeException("Interrupted while waiting for band processing to complete.", e);
+                    }
+                    interrupted = true;
+                } catch (final ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (failure == null) {
+                        failure = cause;
+                    } else if (failure != cause) {
+                        failure.addSuppressed(cause);
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+
+    /**
+     * First index of a band, as used by {@link #run(ExecutorService, int, int, int, BandTask)}.
+     * The band ends at the first index of the next band.
+     *
+     * @param band          index of the band, from 0 to {@code numberOfBands}, the last value gives {@code max}.
+     * @param numberOfBands number of bands, as returned by {@link #numberOfBands(int, int, int)}.
+     * @param min           first index in the range.
+     * @param max           index past the last index in the range.
+     * @return first index of the band.
+     */
+    public static int bandStart(final int band, final int numberOfBands, final int min, final int max) {
+        return min + (int) ((long) (max - min) * band / numberOfBands);
+    }
+}
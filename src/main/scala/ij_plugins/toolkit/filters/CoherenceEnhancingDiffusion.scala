@@ -23,17 +23,14 @@
 package ij_plugins.toolkit.filters
 
 import ij.plugin.filter.GaussianBlur
-import ij.process.{Blitter, FloatBlitter, FloatProcessor}
-import ij.{IJ, ImagePlus}
+import ij.process.FloatProcessor
+import ij.{IJ, ImagePlus, Prefs}
 import ij_plugins.toolkit.filters.CoherenceEnhancingDiffusion._
 import ij_plugins.toolkit.ui.progress.ProgressReporter
+import ij_plugins.toolkit.util.ParallelBands
 import org.apache.commons.math3.util.FastMath
 
 import java.io.File
-import scala.collection.parallel.immutable.ParRange
-import scala.concurrent.ExecutionContext.Implicits.global
-import scala.concurrent.duration.Duration
-import scala.concurrent.{Await, Future}
 
 
 object CoherenceEnhancingDiffusion {
@@ -48,11 +45,43 @@ object CoherenceEnhancingDiffusion {
   def run(src: FloatProcessor, config:Config ): FloatProcessor = {
     new CoherenceEnhancingDiffusion(config).run(src)
   }
+
+  /**
+    * Working buffers used in each step of the filter, allocated once for an image.
+    * Buffers are wrapped in `FloatProcessor`s where ImageJ filters are applied to them.
+    */
+  private class Workspace(val sizeX: Int, val sizeY: Int) {
+    private def newProcessor() = new FloatProcessor(sizeX, sizeY)
+
+    private def pixels(fp: FloatProcessor) = fp.getPixels.asInstanceOf[Array[Float]]
+
+    val smoothedFP: FloatProcessor = newProcessor()
+    val s11FP: FloatProcessor = newProcessor()
+    val s12FP: FloatProcessor = newProcessor()
+    val s22FP: FloatProcessor = newProcessor()
+    val smoothed: Array[Float] = pixels(smoothedFP)
+    val gradX: Array[Float] = new Array[Float](sizeX * sizeY)
+    val gradY: Array[Float] = new Array[Float](sizeX * sizeY)
+    val s11: Array[Float] = pixels(s11FP)
+    val s12: Array[Float] = pixels(s12FP)
+    val s22: Array[Float] = pixels(s22FP)
+    // `alpha` and `c2` are handed over to the filter results after each run, and replaced by new buffers
+    var alpha: Array[Float] = new Array[Float](sizeX * sizeY)
+    var c2: Array[Float] = new Array[Float](sizeX * sizeY)
+    val d11: Array[Float] = new Array[Float](sizeX * sizeY)
+    val d12: Array[Float] = new Array[Float](sizeX * sizeY)
+    val d22: Array[Float] = new Array[Float](sizeX * sizeY)
+  }
 }
 
 /**
  * Coherence enhancing diffusion filter based on filter described in J. Weickert,
  * "Coherence-Enhancing Diffusion Filtering", <i>International Journal of Computer Vision</i>, 1999, vol.31, p.111-127.
+ *
+ * Working buffers are allocated once and reused in each step, and in consecutive runs on images of the same size. Point-wise computations
+ * are fused into single passes over rows of the image, rows are split into bands processed in parallel.
+ * Each diffusion step reads the image from one buffer and writes the result to another one, so results are
+ * deterministic: they are bit-identical for any number of threads.
  */
 class CoherenceEnhancingDiffusion(config: Config = Config()) extends ProgressReporter {
   private val Eps: Double = Math.pow(2.0, -52.0)
@@ -64,6 +93,20 @@ class CoherenceEnhancingDiffusion(config: Config = Config()) extends ProgressRep
   private var dumpEnabled: Boolean = false
   private var _alpha: FloatProcessor = _
   private var _c2: FloatProcessor = _
+  private var workspace: Workspace = _
+  private var _numberOfThreads: Int = Prefs.getThreads
+
+  def numberOfThreads: Int = _numberOfThreads
+
+  def numberOfThreads_=(numberOfThreads: Int): Unit = {
+    require(numberOfThreads > 0, s"Number of threads must be at least 1, got $numberOfThreads.")
+    _numberOfThreads = numberOfThreads
+  }
+
+  /** Java-convention compatible setter for numberOfThreads */
+  def setNumberOfThreads(numberOfThreads: Int): Unit = {
+    this.numberOfThreads = numberOfThreads
+  }
 
   /**
     * Perform filtering.
@@ -77,103 +120,64 @@ class CoherenceEnhancingDiffusion(config: Config = Config()) extends ProgressRep
     sizeY = src.getHeight
     sizeX = src.getWidth
 
-    val dest = src.duplicate.asInstanceOf[FloatProcessor]
+    // Diffusion step reads from `image` and writes to `next`, the buffers are swapped after each step
+    var dest = src.duplicate.asInstanceOf[FloatProcessor]
+    var next = new FloatProcessor(sizeX, sizeY)
+    if (workspace == null || workspace.sizeX != sizeX || workspace.sizeY != sizeY) {
+      workspace = new Workspace(sizeX, sizeY)
+    }
+    val ws = workspace
+    val gaussianBlur = new GaussianBlur()
+    gaussianBlur.showProgress(false)
+
     for (i <- 0 until config.numberOfSteps) {
       notifyProgressListeners(i, config.numberOfSteps, s" step ${i + 1} / ${config.numberOfSteps}")
 
-      // Do parallel computations
-      // `vF = ... ` variables are created to start parallel computations as early as possible
-      // `v <- vF` values from features are extracted only when needed, since `<-` blocks
-      val f = for {
-      // Gaussian smoothing (sigma)
-        filtImage <- Future(gaussian(dest, config.sigma))
-
-        // Gradient in x and y direction
-        gradxImF = gradientXF(filtImage)
-        gradyImF = gradientYF(filtImage)
-        gradxIm <- gradxImF
-        // Start `s11` early since it only depends on `gradxIm`, it can be computed while waiting for `gradyIm`
-        s11F = Future(multiplyAndSmooth(gradxIm, gradxIm, config.rho))
-        gradyIm <- gradyImF
-        s12F = Future(multiplyAndSmooth(gradxIm, gradyIm, config.rho))
-        s22F = Future(multiplyAndSmooth(gradyIm, gradyIm, config.rho))
-        s11 <- s11F
-        s12 <- s12F
-        s22 <- s22F
-
-        alpha = calcAlpha(s11, s12, s22)
-        c2 = calcC2(alpha, config.lambda)
-        c1 = Gamma
-
-        ddF = Future(calcDD(s11, s22, alpha, c2, c1))
-        d12F = Future(calcD12(s12, alpha, c2, c1))
-        dd <- ddF
-        d11F = Future(calcD11(dd, c2, c1))
-        d22F = Future(calcD22(dd, c2, c1))
-        d11 <- d11F
-        d12 <- d12F
-        d22 <- d22F
-      } yield {
-        dumpImage("sigma_smooth", i, filtImage)
-        dumpImage("gradx", i, gradxIm)
-        dumpImage("grady", i, gradyIm)
-        dumpImage("s11", i, s11)
-        dumpImage("s12", i, s12)
-        dumpImage("s22", i, s22)
-        dumpImage("alpha", i, alpha)
-        dumpImage("c2", i, c2)
-        dumpImage("dd", i, dd)
-        dumpImage("d11", i, d11)
-        dumpImage("d12", i, d12)
-        dumpImage("d22", i, d22)
-        this._alpha = alpha
-        this._c2 = c2
-        diffusionStep(dest, d11, d12, d22, config.stepSize)
-      }
-      dumpImage("diffusionStep", i, dest)
+      val image = dest.getPixels.asInstanceOf[Array[Float]]
 
-      // Wait till computation step is completed since the next step will need the result
-      Await.result(f, Duration.Inf)
+      // Gaussian smoothing (sigma)
+      System.arraycopy(image, 0, ws.smoothed, 0, image.length)
+      gaussianBlur.blurGaussian(ws.smoothedFP, config.sigma, config.sigma, 0.0001)
+
+      // Gradient in x and y direction and structure tensor components, smoothed (rho)
+      inBands((yStart, yEnd) => calcGradientAndProducts(ws, yStart, yEnd))
+      gaussianBlur.blurGaussian(ws.s11FP, config.rho, config.rho, 0.0001)
+      gaussianBlur.blurGaussian(ws.s12FP, config.rho, config.rho, 0.0001)
+      gaussianBlur.blurGaussian(ws.s22FP, config.rho, config.rho, 0.0001)
+
+      // Diffusion tensor
+      inBands((yStart, yEnd) => calcDiffusionTensor(ws, yStart, yEnd))
+
+      dumpImage("sigma_smooth", i, ws.smoothed)
+      dumpImage("gradx", i, ws.gradX)
+      dumpImage("grady", i, ws.gradY)
+      dumpImage("s11", i, ws.s11)
+      dumpImage("s12", i, ws.s12)
+      dumpImage("s22", i, ws.s22)
+      dumpImage("alpha", i, ws.alpha)
+      dumpImage("c2", i, ws.c2)
+      dumpImage("d11", i, ws.d11)
+      dumpImage("d12", i, ws.d12)
+      dumpImage("d22", i, ws.d22)
+
+      val nextImage = next.getPixels.asInstanceOf[Array[Float]]
+      inBands((yStart, yEnd) =>
+        diffusionStep(image, nextImage, ws.d11, ws.d12, ws.d22, config.stepSize, yStart, yEnd))
+      dumpImage("diffusionStep", i, nextImage)
+
+      // swap
+      val tmp = dest
+      dest = next
+      next = tmp
     }
 
-    notifyProgressListeners(1)
+    this._alpha = new FloatProcessor(sizeX, sizeY, ws.alpha)
+    this._c2 = new FloatProcessor(sizeX, sizeY, ws.c2)
+    ws.alpha = new Array[Float](sizeX * sizeY)
+    ws.c2 = new Array[Float](sizeX * sizeY)
 
-    dest
-  }
-
-  private[this] def gradientXF(src: FloatProcessor): Future[FloatProcessor] = Future {
-    val dest = src.duplicate.asInstanceOf[FloatProcessor]
-    dest.convolve(GradientKernel, GradientKernel.length, 1)
-    dest
-  }
-
-  private[this] def gradientYF(src: FloatProcessor): Future[FloatProcessor] = Future {
-    val dest = src.duplicate.asInstanceOf[FloatProcessor]
-    dest.convolve(GradientKernel, 1, GradientKernel.length)
-    dest
-  }
-
-  private[this] def gaussian(src: FloatProcessor, sigma: Double): FloatProcessor = {
-    val dest = src.duplicate.asInstanceOf[FloatProcessor]
-    val gaussianBlur = new GaussianBlur()
-    gaussianBlur.showProgress(false)
-    gaussianBlur.blurGaussian(dest, sigma, sigma, 0.0001)
-    dest
-  }
+    notifyProgressListeners(1)
 
-  private[this] def calcAlpha(s11: FloatProcessor, s12: FloatProcessor, s22: FloatProcessor): FloatProcessor = {
-    val width = s11.getWidth
-    val height = s11.getHeight
-    val dest = new FloatProcessor(width, height)
-
-    for (x <- new ParRange(0 until sizeX)) {
-      for (y <- 0 until height) {
-        val a = s11.getf(x, y) - s22.getf(x, y)
-        val b = s12.getf(x, y)
-        val v = Math.sqrt(a * a + 4 * b * b)
-        dest.setf(x, y, v.toFloat)
-      }
-    }
     dest
   }
 
@@ -187,113 +191,120 @@ class CoherenceEnhancingDiffusion(config: Config = Config()) extends ProgressRep
     this.dumpEnabled = dumpEnabled
   }
 
-  private[this] def multiplyAndSmooth(ip1: FloatProcessor, fp2: FloatProcessor, sigma: Double): FloatProcessor = {
-    val dest = ip1.duplicate.asInstanceOf[FloatProcessor]
-    val blitter = new FloatBlitter(dest)
-    blitter.copyBits(fp2, 0, 0, Blitter.MULTIPLY)
-    gaussian(dest, sigma)
+  /** Process rows of the image in bands, in parallel. */
+  private[this] def inBands(op: (Int, Int) => Unit): Unit = {
+    ParallelBands.run(null, numberOfThreads, 0, sizeY, (_, yStart, yEnd) => op(yStart, yEnd))
   }
 
-
-  private[this] def diffusionStep(image: FloatProcessor, c: FloatProcessor, b: FloatProcessor, a: FloatProcessor, step: Double): Double = {
-    //y = .5* ( (c_cop).*xop + (a_amo).*xmo - (a_amo + a_apo + c_com + c_cop).*x + (a_apo).*xpo + (c_com).*xom) ...
-    //   + .25* ( -1*( (bmo+bop).*xmp + (bpo+bom).*xpm ) + (bpo+bop).*xpp + (bmo+bom).*xmm );
-    for (i <- new ParRange(0 until sizeX)) {
-      for (j <- 0 until sizeY) {
-        val currentValue = image.getf(i, j)
-        val firstDeriv = (getPixel(i, j, c) + getPixel(i, j - 1, c)) * getPixel(i, j - 1, image) +
-          (getPixel(i + 1, j, a) + getPixel(i, j, a)) * getPixel(i + 1, j, image) -
-          (getPixel(i - 1, j, a) + getPixel(i + 1, j, a) + 2.0 * getPixel(i, j, a)) * getPixel(i, j, image) -
-          (getPixel(i, j - 1, c) + getPixel(i, j + 1, c) + 2.0 * getPixel(i, j, c)) * getPixel(i, j, image) +
-          (getPixel(i - 1, j, a) + getPixel(i, j, a)) * getPixel(i - 1, j, image) +
-          (getPixel(i, j, c) + getPixel(i, j + 1, c)) * getPixel(i, j + 1, image)
-        val secondDeriv = (getPixel(i - 1, j, b) + getPixel(i, j - 1, b)) * getPixel(i - 1, j - 1, image) +
-          (getPixel(i + 1, j, b) + getPixel(i, j + 1, b)) * getPixel(i + 1, j + 1, image) -
-          (getPixel(i + 1, j, b) + getPixel(i, j - 1, b)) * getPixel(i + 1, j - 1, image) -
-          (getPixel(i - 1, j, b) + getPixel(i, j + 1, b)) * getPixel(i - 1, j + 1, image)
-        val adder = step * (firstDeriv / 2 + secondDeriv / 4)
-        val v = currentValue + adder
-        image.setf(i, j, v.toFloat)
+  /**
+    * Compute gradient of the smoothed image, using central differences with replicated borders,
+    * and products of gradient components, to be smoothed into components of the structure tensor.
+    */
+  private[this] def calcGradientAndProducts(ws: Workspace, yStart: Int, yEnd: Int): Unit = {
+    val smoothed = ws.smoothed
+    var y = yStart
+    while (y < yEnd) {
+      val rowOffset = y * sizeX
+      val rowAbove = math.max(0, y - 1) * sizeX
+      val rowBelow = math.min(sizeY - 1, y + 1) * sizeX
+      var x = 0
+      while (x < sizeX) {
+        val xm = math.max(0, x - 1)
+        val xp = math.min(sizeX - 1, x + 1)
+        val offset = rowOffset + x
+        val center = smoothed(offset) * GradientKernel(1)
+        val gx = ((smoothed(rowOffset + xm) * GradientKernel(0): Double) + center + smoothed(rowOffset + xp) * GradientKernel(2)).toFloat
+        val gy = ((smoothed(rowAbove + x) * GradientKernel(0): Double) + center + smoothed(rowBelow + x) * GradientKernel(2)).toFloat
+        ws.gradX(offset) = gx
+        ws.gradY(offset) = gy
+        ws.s11(offset) = gx * gx
+        ws.s12(offset) = gx * gy
+        ws.s22(offset) = gy * gy
+        x += 1
       }
+      y += 1
     }
-
-    image.getf(0, 0)
   }
 
-  private[this] def calcC2(alpha: FloatProcessor, lambda: Double): FloatProcessor = {
-    val dest = new FloatProcessor(sizeX, sizeY)
+  /**
+    * Compute components of the diffusion tensor from the structure tensor, in a single pass.
+    */
+  private[this] def calcDiffusionTensor(ws: Workspace, yStart: Int, yEnd: Int): Unit = {
     val Cm = 7.2848
     val powerOfOne = Math.abs(config.m - 1d) < Float.MinPositiveValue
-    for (x <- new ParRange(0 until sizeX)) {
-      for (y <- 0 until sizeY) {
-        val a = alpha.getf(x, y)
-        val h1 = (a + Eps) / lambda
-        val h2 = if (powerOfOne) h1 else FastMath.pow(h1, config.m)
-        val h3 = FastMath.exp(-Cm / h2)
-        val v = Gamma + (1 - Gamma) * h3
-        dest.setf(x, y, v.toFloat)
-      }
-    }
-    dest
-  }
-
-  private[this] def calcDD(s11: FloatProcessor, s22: FloatProcessor, alpha: FloatProcessor, c2: FloatProcessor, c1: Double): FloatProcessor = {
-    val dest = new FloatProcessor(sizeX, sizeY)
-    for (x <- new ParRange(0 until sizeX)) {
-      for (y <- 0 until sizeY) {
-        val v = (c2.getf(x, y) - c1) * (s11.getf(x, y) - s22.getf(x, y)) / (alpha.getf(x, y) + Eps)
-        dest.setf(x, y, v.toFloat)
-      }
-    }
-    dest
-  }
-
-  private[this] def calcD11(dd: FloatProcessor, c2: FloatProcessor, c1: Double): FloatProcessor = {
-    val dest = new FloatProcessor(sizeX, sizeY)
-    for (x <- new ParRange(0 until sizeX)) {
-      for (y <- 0 until sizeY) {
-        val v = 0.5 * (c1 + c2.getf(x, y) + dd.getf(x, y))
-        dest.setf(x, y, v.toFloat)
-      }
-    }
-    dest
-  }
-
-  private[this] def calcD12(s12: FloatProcessor, alpha: FloatProcessor, c2: FloatProcessor, c1: Double): FloatProcessor = {
-    val dest = new FloatProcessor(sizeX, sizeY)
-    for (x <- new ParRange(0 until sizeX)) {
-      for (y <- 0 until sizeY) {
-        val v = ((c1 - c2.getf(x, y)) * s12.getf(x, y)) / (alpha.getf(x, y) + Eps)
-        dest.setf(x, y, v.toFloat)
-      }
+    val lambda = config.lambda
+    val c1 = Gamma
+    var offset = yStart * sizeX
+    val end = yEnd * sizeX
+    while (offset < end) {
+      val s11 = ws.s11(offset)
+      val s12 = ws.s12(offset)
+      val s22 = ws.s22(offset)
+
+      // Alpha
+      val a = s11 - s22
+      val alpha = Math.sqrt(a * a + 4 * s12 * s12).toFloat
+
+      // c2
+      val h1 = (alpha + Eps) / lambda
+      val h2 = if (powerOfOne) h1 else FastMath.pow(h1, config.m)
+      val h3 = FastMath.exp(-Cm / h2)
+      val c2 = (Gamma + (1 - Gamma) * h3).toFloat
+
+      // Components of the diffusion tensor
+      val dd = ((c2 - c1) * (s11 - s22) / (alpha + Eps)).toFloat
+      ws.d11(offset) = (0.5 * (c1 + c2 + dd)).toFloat
+      ws.d12(offset) = (((c1 - c2) * s12) / (alpha + Eps)).toFloat
+      ws.d22(offset) = (0.5 * (c1 + c2 - dd)).toFloat
+      ws.alpha(offset) = alpha
+      ws.c2(offset) = c2
+
+      offset += 1
     }
-    dest
   }
 
-  private[this] def calcD22(dd: FloatProcessor, c2: FloatProcessor, c1: Double): FloatProcessor = {
-    val dest: FloatProcessor = new FloatProcessor(sizeX, sizeY)
-    for (x <- new ParRange(0 until sizeX)) {
-      for (y <- 0 until sizeY) {
-        val v = 0.5 * (c1 + c2.getf(x, y) - dd.getf(x, y))
-        dest.setf(x, y, v.toFloat)
+  private[this] def diffusionStep(image: Array[Float], dest: Array[Float],
+                                  c: Array[Float], b: Array[Float], a: Array[Float],
+                                  step: Double, yStart: Int, yEnd: Int): Unit = {
+    //y = .5* ( (c_cop).*xop + (a_amo).*xmo - (a_amo + a_apo + c_com + c_cop).*x + (a_apo).*xpo + (c_com).*xom) ...
+    //   + .25* ( -1*( (bmo+bop).*xmp + (bpo+bom).*xpm ) + (bpo+bop).*xpp + (bmo+bom).*xmm );
+    // Neighbours outside of the image are replaced by nearest border pixels
+    var j = yStart
+    while (j < yEnd) {
+      val r0 = j * sizeX
+      val rm = math.max(0, j - 1) * sizeX
+      val rp = math.min(sizeY - 1, j + 1) * sizeX
+      var i = 0
+      while (i < sizeX) {
+        val im = math.max(0, i - 1)
+        val ip = math.min(sizeX - 1, i + 1)
+        val currentValue: Double = image(r0 + i)
+        val firstDeriv = (c(r0 + i).toDouble + c(rm + i)) * image(rm + i) +
+          (a(r0 + ip).toDouble + a(r0 + i)) * image(r0 + ip) -
+          (a(r0 + im).toDouble + a(r0 + ip) + 2.0 * a(r0 + i)) * currentValue -
+          (c(rm + i).toDouble + c(rp + i) + 2.0 * c(r0 + i)) * currentValue +
+          (a(r0 + im).toDouble + a(r0 + i)) * image(r0 + im) +
+          (c(r0 + i).toDouble + c(rp + i)) * image(rp + i)
+        val secondDeriv = (b(r0 + im).toDouble + b(rm + i)) * image(rm + im) +
+          (b(r0 + ip).toDouble + b(rp + i)) * image(rp + ip) -
+          (b(r0 + ip).toDouble + b(rm + i)) * image(rm + ip) -
+          (b(r0 + im).toDouble + b(rp + i)) * image(rp + im)
+        val adder = step * (firstDeriv / 2 + secondDeriv / 4)
+        val v = currentValue + adder
+        dest(r0 + i) = v.toFloat
+        i += 1
       }
+      j += 1
     }
-    dest
-  }
-
-  private[this] def getPixel(x: Int, y: Int, fp: FloatProcessor): Double = {
-    val x2 = math.max(0, math.min(x, sizeX - 1))
-    val y2 = math.max(0, math.min(y, sizeY - 1))
-    fp.getf(x2, y2)
   }
 
-  private[this] def dumpImage(name: String, iteration: Int, fp: FloatProcessor): Unit = {
+  private[this] def dumpImage(name: String, iteration: Int, pixels: Array[Float]): Unit = {
     if (dumpEnabled) {
       val fileName = "%s_%s_%04d.tif".format(dumpFilenamePrefix, name, iteration)
       val file = new File(fileName).getAbsoluteFile
       file.getParentFile.mkdirs()
       IJ.log("Saving " + file)
-      IJ.saveAsTiff(new ImagePlus("", fp), file.getPath)
+      IJ.saveAsTiff(new ImagePlus("", new FloatProcessor(sizeX, sizeY, pixels.clone())), file.getPath)
     }
   }
 }
@@ -0,0 +1,175 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters
+
+import ij.process.{FloatProcessor, ImageProcessor}
+import ij.{ImageStack, Prefs}
+import ij_plugins.toolkit.filters.CoherenceEnhancingDiffusion.Config
+import ij_plugins.toolkit.ui.progress.ProgressReporter
+
+import java.util.concurrent.{Callable, ExecutionException, Executors, Future}
+import scala.collection.mutable
+
+
+/**
+  * Applies [[CoherenceEnhancingDiffusion]] to a batch of frames, for instance slices of a stack, using the same
+  * configuration for each frame.
+  *
+  * Frames are processed concurrently by `numberOfWorkers` worker threads. Each worker has its own filter instance,
+  * so working buffers are allocated once per worker and reused for all frames it processes. At most
+  * `maxFramesInFlight` frames are submitted for processing and not yet consumed at any time, which bounds memory
+  * used by the batch. Results are delivered in the order of the input frames.
+  *
+  * Row bands within a frame are processed using `Prefs.getThreads / numberOfWorkers` threads per worker, so
+  * together the workers do not use more than `Prefs.getThreads` threads for that part. Gaussian smoothing is done by
+  * ImageJ's `GaussianBlur`, which always uses up to `Prefs.getThreads` threads of its own and cannot be limited for
+  * a single call. During smoothing up to `numberOfWorkers * Prefs.getThreads` threads may be active. When that
+  * oversubscription matters, reduce `numberOfWorkers` or set `Prefs.setThreads(1)` while the batch runs.
+  *
+  * Progress notifications include throughput, in frames per second.
+  *
+  * Example:
+  * {{{
+  * val batch = new CoherenceEnhancingDiffusionBatch(Config(numberOfSteps = 10))
+  * batch.addProgressListener(e => println(e.message))
+  * val dest = batch.run(stack)
+  * }}}
+  *
+  * @param config configuration used for each frame.
+  */
+class CoherenceEnhancingDiffusionBatch(config: Config = Config()) extends ProgressReporter {
+
+  private var _numberOfWorkers: Int = Prefs.getThreads
+  private var _maxFramesInFlight: Int = 0
+  private var _framesPerSecond: Double = 0
+
+  def numberOfWorkers: Int = _numberOfWorkers
+
+  def numberOfWorkers_=(numberOfWorkers: Int): Unit = {
+    require(numberOfWorkers > 0, s"Number of workers must be at least 1, got $numberOfWorkers.")
+    _numberOfWorkers = numberOfWorkers
+  }
+
+  /** Java-convention compatible setter for numberOfWorkers */
+  def setNumberOfWorkers(numberOfWorkers: Int): Unit = {
+    this.numberOfWorkers = numberOfWorkers
+  }
+
+  /** Maximum number of frames in flight, if 0 twice the number of workers is used. */
+  def maxFramesInFlight: Int = _maxFramesInFlight
+
+  def maxFramesInFlight_=(maxFramesInFlight: Int): Unit = {
+    require(maxFramesInFlight >= 0, s"Maximum number of frames in flight cannot be negative, got $maxFramesInFlight.")
+    _maxFramesInFlight = maxFramesInFlight
+  }
+
+  /** Java-convention compatible setter for maxFramesInFlight */
+  def setMaxFramesInFlight(maxFramesInFlight: Int): Unit = {
+    this.maxFramesInFlight = maxFramesInFlight
+  }
+
+  /** Throughput of the last run, in frames per second. */
+  def framesPerSecond: Double = _framesPerSecond
+
+  /**
+    * Filter each slice of a stack.
+    *
+    * @param src stack of 8-bit, 16-bit, or 32-bit images, it is not modified.
+    * @return stack of filtered slices.
+    */
+  def run(src: ImageStack): ImageStack = {
+    require(src != null, "Argument 'src' cannot be null.")
+
+    val dest = new ImageStack(src.getWidth, src.getHeight, src.getSize)
+    val frames = Iterator.range(1, src.getSize + 1).map(src.getProcessor)
+    run(frames, src.getSize, (i, fp) => {
+      dest.setProcessor(fp, i + 1)
+      dest.setSliceLabel(src.getSliceLabel(i + 1), i + 1)
+    })
+    dest
+  }
+
+  /**
+    * Filter a sequence of frames. Frames are read from `frames` only when there is room for them in the queue,
+    * so they can be, for instance, loaded from disk on demand.
+    *
+    * @param frames         frames to filter, 8-bit, 16-bit, or 32-bit.
+    * @param numberOfFrames number of frames in `frames`, used to report progress.
+    * @param consumer       receives index and the filtered frame, called on the calling thread in order of frames.
+    */
+  def run(frames: Iterator[ImageProcessor], numberOfFrames: Int, consumer: (Int, FloatProcessor) => Unit): Unit = {
+    require(frames != null, "Argument 'frames' cannot be null.")
+    require(consumer != null, "Argument 'consumer' cannot be null.")
+
+    val maxInFlight = if (maxFramesInFlight > 0) maxFramesInFlight else 2 * numberOfWorkers
+    val threadsPerFrame = math.max(1, Prefs.getThreads / numberOfWorkers)
+
+    // Filter instance, with its workspace, for each worker thread
+    val filters = ThreadLocal.withInitial[CoherenceEnhancingDiffusion](() => {
+      val filter = new CoherenceEnhancingDiffusion(config)
+      filter.numberOfThreads = threadsPerFrame
+      filter
+    })
+
+    val startTime = System.nanoTime()
+    _framesPerSecond = 0
+    notifyProgressListeners(0, "Starting")
+
+    val threadPool = Executors.newFixedThreadPool(numberOfWorkers)
+    try {
+      val inFlight = mutable.Queue.empty[Future[FloatProcessor]]
+      var nbCompleted = 0
+      while (frames.hasNext || inFlight.nonEmpty) {
+        // Keep queue filled, without exceeding its depth
+        while (frames.hasNext && inFlight.size < maxInFlight) {
+          val frame = frames.next()
+          inFlight.enqueue(threadPool.submit(new Callable[FloatProcessor] {
+            override def call(): FloatProcessor = {
+              val src = frame.convertToFloat().asInstanceOf[FloatProcessor]
+              filters.get.run(src)
+            }
+          }))
+        }
+
+        // Wait for the oldest frame
+        val result = inFlight.dequeue().get()
+        consumer(nbCompleted, result)
+        nbCompleted += 1
+
+        val seconds = (System.nanoTime() - startTime) / 1e9
+        _framesPerSecond = if (seconds > 0) nbCompleted / seconds else 0
+        val progress = if (numberOfFrames > 0) math.min(1d, nbCompleted.toDouble / numberOfFrames) else 0
+        notifyProgressListeners(progress, f"Frame $nbCompleted/$numberOfFrames, ${_framesPerSecond}%.2f frames/s")
+      }
+    } catch {
+      case e: ExecutionException =>
+        throw e.getCause
+      case e: InterruptedException =>
+        Thread.currentThread().interrupt()
+        throw new RuntimeException("Interrupted while waiting for frame processing to complete.", e)
+    } finally {
+      threadPool.shutdownNow()
+    }
+
+    notifyProgressListeners(1, f"Completed, ${_framesPerSecond}%.2f frames/s")
+  }
+}
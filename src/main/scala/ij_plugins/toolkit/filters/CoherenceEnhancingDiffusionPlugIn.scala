@@ -58,6 +58,7 @@ object CoherenceEnhancingDiffusionPlugIn {
 final class CoherenceEnhancingDiffusionPlugIn extends ExtendedPlugInFilter with DialogListener {
 
   private var imp: ImagePlus = _
+  private var processStack = false
   private var nPasses = 0
   private var passCount = 0
 
@@ -83,7 +84,11 @@ final class CoherenceEnhancingDiffusionPlugIn extends ExtendedPlugInFilter with
     dialog.showDialog()
     if (dialog.wasCanceled) return DONE
 
-    IJ.setupDialog(imp, FLAGS)
+    val flags = IJ.setupDialog(imp, FLAGS)
+    // Whole stack is filtered in a single call to `run`, using CoherenceEnhancingDiffusionBatch.
+    // Undo is not available, the runner would only keep a snapshot of the current slice.
+    processStack = (flags & DOES_STACKS) != 0
+    if (processStack) (flags & ~(DOES_STACKS | PARALLELIZE_STACKS)) | NO_UNDO else flags
   }
 
   def dialogItemChanged(gd: GenericDialog, e: AWTEvent): Boolean = {
@@ -105,6 +110,10 @@ final class CoherenceEnhancingDiffusionPlugIn extends ExtendedPlugInFilter with
   }
 
   def run(ip: ImageProcessor): Unit = {
+    if (processStack) runStack() else runSlice(ip)
+  }
+
+  private def runSlice(ip: ImageProcessor): Unit = {
     passCount += 1
     val statsMessage = if (nPasses > 1) TITLE + " - pass " + passCount + "/" + nPasses + ". " else TITLE
     IJ.showStatus(statsMessage)
@@ -124,5 +133,23 @@ final class CoherenceEnhancingDiffusionPlugIn extends ExtendedPlugInFilter with
     ip.copyBits(dest, 0, 0, Blitter.COPY)
   }
 
+  /**
+    * Filter all slices of the stack, slices are processed concurrently. Debug data are not shown.
+    */
+  private def runStack(): Unit = {
+    IJ.showStatus(TITLE)
+    val stack = imp.getStack
+    val batch = new CoherenceEnhancingDiffusionBatch(CONFIG synchronized { CONFIG.copy() })
+    val progressListener = new IJProgressBarAdapter()
+    batch.addProgressListener(progressListener)
+    try {
+      val frames = Iterator.range(1, stack.getSize + 1).map(stack.getProcessor)
+      batch.run(frames, stack.getSize, (i, fp) => stack.getProcessor(i + 1).copyBits(fp, 0, 0, Blitter.COPY))
+    } finally {
+      batch.removeProgressListener(progressListener)
+    }
+    IJ.showStatus(TITLE + f" - ${batch.framesPerSecond}%.2f frames/s")
+  }
+
 }
 
@@ -89,30 +89,36 @@ class ProgressAccumulator extends ProgressReporter with ProgressListener {
     */
   def addProgressReporter(reporter: ProgressReporter, weight: Double, message: String): Unit = {
     if (reporter == null) return
-    _reporters.synchronized {
-      if (!_reporters.contains(reporter)) {
-        reporter.addProgressListener(this)
-      }
-      _reporters.put(reporter, ProgressAccumulator.Data(weight, message))
+    // Reporter's listeners are updated outside of the lock, reporters hold their own lock while notifying
+    val added = _reporters.synchronized {
+      _reporters.put(reporter, ProgressAccumulator.Data(weight, message)).isEmpty
+    }
+    if (added) {
+      reporter.addProgressListener(this)
     }
   }
 
   def removeProgressReporter(reporter: ProgressReporter): Unit = {
+    // Once removed as listener, reporter cannot send notifications, so it can be safely forgotten
+    reporter.removeProgressListener(this)
     _reporters.synchronized {
       _reporters.remove(reporter)
-      reporter.removeProgressListener(this)
     }
   }
 
   def removeAllProgressReporter(): Unit = {
-    _reporters.synchronized {
-      for (progressReporter <- _reporters.keySet) {
-        progressReporter.removeProgressListener(this)
-      }
-      _reporters.clear()
+    val reporters = _reporters.synchronized {
+      _reporters.keys.toList
+    }
+    for (progressReporter <- reporters) {
+      removeProgressReporter(progressReporter)
     }
   }
 
+  /**
+    * Combine progress of all reporters and notify listeners. Reporters can send notifications concurrently,
+    * notifications are processed one at a time.
+    */
   override def progressNotification(event: ProgressEvent): Unit = {
     Validate.argumentNotNull(event, "event")
 
@@ -122,29 +128,31 @@ class ProgressAccumulator extends ProgressReporter with ProgressListener {
         throw new IllegalArgumentException("Event source cannot be empty.")
     }
 
-    if (!_reporters.contains(source))
-      throw new RuntimeException("Received notification from unregistered reporter: " + source)
-
-    // Sum all weight
-    var weightSum: Double = 0
-    var progressSum: Double = 0
-    for ((reporter, data) <- _reporters) {
-      weightSum += data.weight
-      val progress = reporter.currentProgress
-      progressSum += progress * data.weight
-    }
-    assert(progressSum >= 0)
-    assert(weightSum > 0)
-
-    val progress = progressSum / weightSum
-    val data = _reporters(source)
-    val message = Option(data.message).getOrElse(event.message)
-
-    if ((progress - _lastReportedProgress) > minimumChange) {
-      _lastReportedProgress = progress
-      notifyProgressListeners(progress, message)
-    } else {
-      setCurrentProgress(progress)
+    _reporters.synchronized {
+      if (!_reporters.contains(source))
+        throw new RuntimeException("Received notification from unregistered reporter: " + source)
+
+      // Sum all weight
+      var weightSum: Double = 0
+      var progressSum: Double = 0
+      for ((reporter, data) <- _reporters) {
+        weightSum += data.weight
+        val progress = reporter.currentProgress
+        progressSum += progress * data.weight
+      }
+      assert(progressSum >= 0)
+      assert(weightSum > 0)
+
+      val progress = progressSum / weightSum
+      val data = _reporters(source)
+      val message = Option(data.message).getOrElse(event.message)
+
+      if ((progress - _lastReportedProgress) > minimumChange) {
+        _lastReportedProgress = progress
+        notifyProgressListeners(progress, message)
+      } else {
+        setCurrentProgress(progress)
+      }
     }
   }
 }
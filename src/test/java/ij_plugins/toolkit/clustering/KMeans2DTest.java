@@ -34,6 +34,8 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -99,6 +101,299 @@ public final class KMeans2DTest {
     }
 
 
+    @Test
+    public void testNumberOfThreads() throws Exception {
+        // Read test image
+        final File imageFile = new File("test/data/Flamingo.png");
+        assertTrue("Input file should exist", imageFile.exists());
+        final ImagePlus imp = IOUtils.openImage(imageFile);
+        new ImageConverter(imp).convertToRGBStack();
+        new StackConverter(imp).convertToGray32();
+        final ImageStack stack = imp.getStack();
+
+        final KMeansConfig config = new KMeansConfig();
+        config.setNumberOfClusters(5);
+        config.setRandomizationSeed(13);
+        config.setNumberOfThreads(1);
+        final KMeans2D expected = new KMeans2D(config);
+        final ByteProcessor expectedImage = expected.run(stack);
+
+        for (final int numberOfThreads : new int[]{2, 3, 8}) {
+            config.setNumberOfThreads(numberOfThreads);
+            final KMeans2D kmeans = new KMeans2D(config);
+            final ByteProcessor clusterImage = kmeans.run(stack);
+
+            // Results must be identical, not only close
+            assertEquals(expected.getNumberOfStepsToConvergence(), kmeans.getNumberOfStepsToConvergence());
+            for (int c = 0; c < expected.getClusterCenters().length; c++) {
+                assertArrayEquals(expected.getClusterCenters()[c], kmeans.getClusterCenters()[c], 0f);
+            }
+            assertArrayEquals((byte[]) expectedImage.getPixels(), (byte[]) clusterImage.getPixels());
+        }
+    }
+
+
+    @Test
+    public void testHamerlyAssignment() throws Exception {
+        // Read test image
+        final File imageFile = new File("test/data/Flamingo.png");
+        assertTrue("Input file should exist", imageFile.exists());
+        final ImagePlus imp = IOUtils.openImage(imageFile);
+        new ImageConverter(imp).convertToRGBStack();
+        new StackConverter(imp).convertToGray32();
+        final ImageStack stack = imp.getStack();
+
+        for (final int numberOfClusters : new int[]{1, 3, 12}) {
+            final KMeansConfig config = new KMeansConfig();
+            config.setNumberOfClusters(numberOfClusters);
+            config.setNumberOfThreads(3);
+            config.setAssignmentStrategy(KMeansConfig.AssignmentStrategy.LLOYD);
+            final KMeans2D expected = new KMeans2D(config);
+            final ByteProcessor expectedImage = expected.run(stack);
+
+            config.setAssignmentStrategy(KMeansConfig.AssignmentStrategy.HAMERLY);
+            final KMeans2D kmeans = new KMeans2D(config);
+            final ByteProcessor clusterImage = kmeans.run(stack);
+
+            // Results must be identical, not only close
+            assertEquals(expected.getNumberOfStepsToConvergence(), kmeans.getNumberOfStepsToConvergence());
+            for (int c = 0; c < numberOfClusters; c++) {
+                assertArrayEquals(expected.getClusterCenters()[c], kmeans.getClusterCenters()[c], 0f);
+            }
+            assertArrayEquals((byte[]) expectedImage.getPixels(), (byte[]) clusterImage.getPixels());
+        }
+    }
+
+
+    @Test
+    public void testMiniBatch() throws Exception {
+        // Read test image
+        final File imageFile = new File("test/data/Flamingo.png");
+        assertTrue("Input file should exist", imageFile.exists());
+        final ImagePlus imp = IOUtils.openImage(imageFile);
+        new ImageConverter(imp).convertToRGBStack();
+        final ImageStack byteStack = imp.getStack().duplicate();
+        new StackConverter(imp).convertToGray32();
+        final ImageStack stack = imp.getStack();
+
+        final KMeansConfig config = new KMeansConfig();
+        config.setNumberOfClusters(3);
+        final KMeans2D expected = new KMeans2D(config);
+        final ByteProcessor expectedImage = expected.run(stack);
+
+        config.setMiniBatchSize(500);
+        config.setMiniBatchIterations(50);
+        config.setNumberOfThreads(2);
+        final KMeans2D kmeans = new KMeans2D(config);
+        final ByteProcessor clusterImage = kmeans.run(stack);
+
+        // Mini-batch cluster centers are approximate, cluster order may differ
+        final float[][] centers = kmeans.getClusterCenters();
+        final int[] matching = new int[centers.length];
+        for (int c = 0; c < centers.length; c++) {
+            matching[c] = KMeansUtils.closestCluster(centers[c], expected.getClusterCenters());
+            assertEquals(0, KMeansUtils.distanceSqr(centers[c], expected.getClusterCenters()[matching[c]]), 25);
+        }
+
+        final byte[] expectedPixels = (byte[]) expectedImage.getPixels();
+        final byte[] pixels = (byte[]) clusterImage.getPixels();
+        int same = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            if (matching[pixels[i]] == expectedPixels[i]) {
+                same++;
+            }
+        }
+        assertTrue("Segmentation should be nearly the same, got " + same + " of " + pixels.length,
+                same > 0.98 * pixels.length);
+
+        // Centroid value image is available without keeping a copy of the input
+        final ImageStack centroidValueImage = kmeans.getCentroidValueImage();
+        assertEquals(3, centroidValueImage.getSize());
+        assertEquals(centers[pixels[1000]][2], centroidValueImage.getProcessor(3).getf(1000), 0);
+
+        // Input does not need to be a float stack
+        final KMeans2D kmeansByte = new KMeans2D(config);
+        final ByteProcessor clusterImageByte = kmeansByte.run(byteStack);
+        for (int c = 0; c < centers.length; c++) {
+            assertArrayEquals(centers[c], kmeansByte.getClusterCenters()[c], 0);
+        }
+        assertArrayEquals(pixels, (byte[]) clusterImageByte.getPixels());
+    }
+
+
+    @Test
+    public void testMiniBatchChunks() throws Exception {
+        // Read test image
+        final File imageFile = new File("test/data/Flamingo.png");
+        assertTrue("Input file should exist", imageFile.exists());
+        final ImagePlus imp = IOUtils.openImage(imageFile);
+        new ImageConverter(imp).convertToRGBStack();
+        new StackConverter(imp).convertToGray32();
+        final ImageStack stack = imp.getStack();
+
+        // Large settings do not overflow, a chunk has at least one mini-batch
+        assertEquals(1, MiniBatchKMeans.batchesPerChunk(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        final int batchesPerChunk = MiniBatchKMeans.batchesPerChunk(100, 3);
+        assertTrue(batchesPerChunk > 1);
+
+        final KMeansConfig config = new KMeansConfig();
+        config.setNumberOfClusters(3);
+        final KMeans2D expected = new KMeans2D(config);
+        expected.run(stack);
+
+        // Samples are read in several chunks
+        config.setMiniBatchSize(100);
+        config.setMiniBatchIterations(2 * batchesPerChunk + 1);
+        final KMeans2D kmeans = new KMeans2D(config);
+        final ByteProcessor clusterImage = kmeans.run(stack);
+        final float[][] centers = kmeans.getClusterCenters();
+        for (final float[] center : centers) {
+            final int c = KMeansUtils.closestCluster(center, expected.getClusterCenters());
+            assertEquals(0, KMeansUtils.distanceSqr(center, expected.getClusterCenters()[c]), 25);
+        }
+
+        // Each pixel is assigned to the closest center
+        final float[] v = new float[stack.getSize()];
+        for (int i = 0; i < clusterImage.getPixelCount(); i++) {
+            for (int b = 0; b < v.length; b++) {
+                v[b] = stack.getProcessor(b + 1).getf(i);
+            }
+            assertEquals("Pixel " + i, KMeansUtils.closestCluster(v, centers), clusterImage.get(i));
+        }
+    }
+
+
+    @Test
+    public void testMiniBatchNotSupportedIn3D() {
+        final ImageStack stack = ImageStack.create(8, 8, 4, 32);
+        final KMeansConfig config = new KMeansConfig();
+        config.setMiniBatchSize(10);
+        try {
+            new KMeans3D(config).run(stack);
+            fail("Expecting IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void test3DFirstVoxel() {
+        final ImageStack stack = ImageStack.create(8, 8, 3, 32);
+        for (int z = 1; z <= stack.getSize(); z++) {
+            stack.getProcessor(z).add(10);
+        }
+        stack.setVoxel(0, 0, 0, 200);
+        stack.setVoxel(1, 0, 0, 210);
+
+        final KMeansConfig config = new KMeansConfig();
+        config.setNumberOfClusters(2);
+        final KMeans3D kMeans = new KMeans3D(config);
+        final ImageStack clusters = kMeans.run(stack);
+
+        final int high = kMeans.closestCluster(new float[]{205});
+        assertEquals(high, (int) clusters.getVoxel(0, 0, 0));
+        assertEquals(high, (int) clusters.getVoxel(1, 0, 0));
+        final ImageStack centroids = kMeans.getCentroidValueImage();
+        assertEquals(205, centroids.getVoxel(0, 0, 0), 0.001);
+        assertEquals(205, centroids.getVoxel(1, 0, 0), 0.001);
+        assertEquals(10, centroids.getVoxel(7, 7, 2), 0.001);
+    }
+
+
+    @Test
+    public void testMiniBatchInitialization() throws Exception {
+        // Read test image
+        final File imageFile = new File("test/data/Flamingo.png");
+        assertTrue("Input file should exist", imageFile.exists());
+        final ImagePlus imp = IOUtils.openImage(imageFile);
+        new ImageConverter(imp).convertToRGBStack();
+        new StackConverter(imp).convertToGray32();
+        final ImageStack stack = imp.getStack();
+
+        final KMeansConfig config = new KMeansConfig();
+        config.setNumberOfClusters(3);
+        final KMeans2D expected = new KMeans2D(config);
+        expected.run(stack);
+
+        config.setMiniBatchSize(500);
+        config.setMiniBatchIterations(50);
+        for (final KMeansConfig.Initialization initialization : KMeansConfig.Initialization.values()) {
+            config.setInitialization(initialization);
+            final KMeans2D kmeans = new KMeans2D(config);
+            kmeans.run(stack);
+
+            // Close to full k-means for any initialization
+            for (final float[] center : kmeans.getClusterCenters()) {
+                final int c = KMeansUtils.closestCluster(center, expected.getClusterCenters());
+                assertEquals(initialization.name(), 0,
+                        KMeansUtils.distanceSqr(center, expected.getClusterCenters()[c]), 25);
+            }
+        }
+
+        // Initialization setting is used in mini-batch mode, with many clusters it changes the result
+        config.setNumberOfClusters(16);
+        final float[][][] centers = new float[KMeansConfig.Initialization.values().length][][];
+        for (final KMeansConfig.Initialization initialization : KMeansConfig.Initialization.values()) {
+            config.setInitialization(initialization);
+            final KMeans2D kmeans = new KMeans2D(config);
+            kmeans.run(stack);
+            centers[initialization.ordinal()] = kmeans.getClusterCenters();
+        }
+        boolean same = true;
+        for (int c = 0; c < centers[0].length; c++) {
+            same &= Arrays.equals(centers[0][c], centers[1][c]);
+        }
+        assertFalse("Initialization method should affect mini-batch cluster centers", same);
+    }
+
+
+    @Test
+    public void testInitialization() throws Exception {
+        // Read test image
+        final File imageFile = new File("test/data/Flamingo.png");
+        assertTrue("Input file should exist", imageFile.exists());
+        final ImagePlus imp = IOUtils.openImage(imageFile);
+        new ImageConverter(imp).convertToRGBStack();
+        new StackConverter(imp).convertToGray32();
+        final KMeans2D kMeans = new KMeans2D();
+        kMeans.run(imp.getStack());
+
+        for (final KMeansConfig.Initialization initialization : KMeansConfig.Initialization.values()) {
+            float[][] expected = null;
+            for (final int numberOfThreads : new int[]{1, 4}) {
+                final KMeansConfig config = new KMeansConfig();
+                config.setNumberOfClusters(16);
+                config.setInitialization(initialization);
+                config.setNumberOfThreads(numberOfThreads);
+                final KMeansSeeding seeding = new KMeansSeeding(kMeans, new Random(17), numberOfThreads);
+                final float[][] centers = initialization == KMeansConfig.Initialization.KMEANS_PLUS_PLUS
+                        ? seeding.kMeansPlusPlus(config.getNumberOfClusters())
+                        : seeding.kMeansParallel(config.getNumberOfClusters());
+
+                assertEquals(16, centers.length);
+                // Centers are distinct pixel values
+                for (int i = 0; i < centers.length; i++) {
+                    assertEquals(3, centers[i].length);
+                    for (int j = i + 1; j < centers.length; j++) {
+                        assertTrue(initialization + ": centers " + i + " and " + j + " should differ",
+                                KMeansUtils.distanceSqr(centers[i], centers[j]) > 0);
+                    }
+                }
+
+                // Does not depend on number of threads
+                if (expected == null) {
+                    expected = centers;
+                } else {
+                    for (int c = 0; c < centers.length; c++) {
+                        assertArrayEquals(expected[c], centers[c], 0);
+                    }
+                }
+            }
+        }
+    }
+
+
     @Test
     @Ignore("Only for benchmarking.")
     public void benchmark01() throws IOException {
@@ -22,8 +22,12 @@
 
 package ij_plugins.toolkit.color;
 
+import ij.process.ColorProcessor;
+import ij_plugins.toolkit.multiband.VectorProcessor;
 import junit.framework.TestCase;
 
+import java.awt.*;
+
 
 /**
  * Unit test for {@link ColorSpaceConversion}.
@@ -198,6 +202,43 @@ public class ColorSpaceConversionTest extends TestCase {
     }
 
 
+    public void testVectorProcessorLayout() {
+        final ColorProcessor cp = new ColorProcessor(3, 2);
+        cp.setColor(new Color(243, 201, 203));
+        cp.fill();
+        cp.putPixel(1, 1, new int[]{71, 139, 243});
+
+        final VectorProcessor[] defaults = {
+                ColorSpaceConversion.rgbToLabVectorProcessor(cp),
+                ColorSpaceConversion.rgbToXYZVectorProcessor(cp),
+                ColorSpaceConversion.labToXYZVectorProcessor(ColorSpaceConversion.rgbToLabVectorProcessor(cp)),
+                ColorSpaceConversion.xyzToLabVectorProcessor(ColorSpaceConversion.rgbToXYZVectorProcessor(cp)),
+        };
+        final VectorProcessor.Layout planar = VectorProcessor.Layout.BAND_PLANAR;
+        final VectorProcessor[] planars = {
+                ColorSpaceConversion.rgbToLabVectorProcessor(cp, planar),
+                ColorSpaceConversion.rgbToXYZVectorProcessor(cp, planar),
+                ColorSpaceConversion.labToXYZVectorProcessor(ColorSpaceConversion.rgbToLabVectorProcessor(cp), planar),
+                ColorSpaceConversion.xyzToLabVectorProcessor(ColorSpaceConversion.rgbToXYZVectorProcessor(cp), planar),
+        };
+
+        for (int i = 0; i < defaults.length; i++) {
+            // Default layout gives direct access to pixel arrays
+            assertEquals(VectorProcessor.Layout.PIXEL_ARRAYS, defaults[i].getLayout());
+            final float[][] pixels = defaults[i].getPixels();
+            assertEquals(6, pixels.length);
+
+            assertEquals(planar, planars[i].getLayout());
+            for (int p = 0; p < pixels.length; p++) {
+                final float[] expected = planars[i].getValues(p, new float[3]);
+                for (int b = 0; b < 3; b++) {
+                    assertEquals(expected[b], pixels[p][b], 0);
+                }
+            }
+        }
+    }
+
+
     public void testRgbToYCbCr_1() {
         final byte[] rgb = new byte[]{(byte) (0xff & 233), (byte) (0xff & 161), (byte) (0xff & 25)};
         final byte[] ybr = new byte[3];
@@ -0,0 +1,135 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import ij_plugins.toolkit.io.IOUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Jarek Sacha
+ */
+public class AbstractAnisotropicDiffusionTest extends TestCase {
+    public AbstractAnisotropicDiffusionTest(String test) {
+        super(test);
+    }
+
+    public void testSRADMultiThreaded() throws Exception {
+        final FloatProcessor src = loadImage();
+
+        final SRAD filter = new SRAD();
+        filter.setNumberOfIterations(10);
+        filter.setMeanSquareError(0);
+        assertSameForThreads(filter, src);
+    }
+
+    public void testPeronaMalikMultiThreaded() throws Exception {
+        final FloatProcessor src = loadImage();
+
+        final PeronaMalikAnisotropicDiffusion filter = new PeronaMalikAnisotropicDiffusion();
+        filter.setNumberOfIterations(10);
+        filter.setMeanSquareError(0);
+        assertSameForThreads(filter, src);
+    }
+
+    public void testBorderUnchanged() throws Exception {
+        final FloatProcessor src = loadImage();
+
+        final PeronaMalikAnisotropicDiffusion filter = new PeronaMalikAnisotropicDiffusion();
+        filter.setNumberOfIterations(5);
+        filter.setNumberOfThreads(3);
+        final FloatProcessor dest = filter.process(src);
+
+        boolean changed = false;
+        for (int y = 0; y < src.getHeight(); y++) {
+            for (int x = 0; x < src.getWidth(); x++) {
+                final boolean interior = x > 0 && x < src.getWidth() - 1 && y > 0 && y < src.getHeight() - 1;
+                if (interior) {
+                    changed |= src.getf(x, y) != dest.getf(x, y);
+                } else {
+                    assertEquals(src.getf(x, y), dest.getf(x, y), 0);
+                }
+            }
+        }
+        assertTrue(changed);
+    }
+
+    public void testProcessStack() throws Exception {
+        final FloatProcessor fp = loadImage();
+        final ImageStack src = new ImageStack(fp.getWidth(), fp.getHeight());
+        for (int i = 0; i < 7; i++) {
+            final FloatProcessor slice = (FloatProcessor) fp.duplicate();
+            slice.multiply(1 + i * 0.1);
+            src.addSlice("slice" + i, slice);
+        }
+
+        final SRAD filter = new SRAD();
+        filter.setNumberOfIterations(5);
+        filter.setQ0(0.8);
+        filter.setNumberOfThreads(3);
+        filter.setQueueDepth(2);
+        final List<Double> progress = new ArrayList<>();
+        filter.addProgressListener(e -> {
+            synchronized (progress) {
+                progress.add(e.progress());
+            }
+        });
+
+        final ImageStack dest = filter.process(src);
+
+        assertEquals(src.getSize(), dest.getSize());
+        final SRAD sliceFilter = new SRAD();
+        sliceFilter.setNumberOfIterations(5);
+        sliceFilter.setQ0(0.8);
+        for (int i = 1; i <= src.getSize(); i++) {
+            assertEquals(src.getSliceLabel(i), dest.getSliceLabel(i));
+            final float[] expected = (float[]) sliceFilter.process((FloatProcessor) src.getProcessor(i)).getPixels();
+            assertTrue("Slice " + i, Arrays.equals(expected, (float[]) dest.getPixels(i)));
+        }
+        assertEquals(1, progress.get(progress.size() - 1), 1e-6);
+    }
+
+    private static void assertSameForThreads(final AbstractAnisotropicDiffusion filter, final FloatProcessor src) {
+        filter.setNumberOfThreads(1);
+        final float[] expected = (float[]) filter.process(src).getPixels();
+
+        for (int threads = 2; threads <= 5; threads++) {
+            filter.setNumberOfThreads(threads);
+            final float[] actual = (float[]) filter.process(src).getPixels();
+            assertTrue("Threads: " + threads, Arrays.equals(expected, actual));
+        }
+    }
+
+    private static FloatProcessor loadImage() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final FloatProcessor fp = (FloatProcessor) imp.getProcessor().convertToFloat();
+        // SRAD divides by pixel values
+        fp.add(1);
+        return fp;
+    }
+}
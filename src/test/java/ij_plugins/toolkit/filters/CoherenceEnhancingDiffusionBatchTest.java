@@ -0,0 +1,70 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import ij_plugins.toolkit.io.IOUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Jarek Sacha
+ */
+public class CoherenceEnhancingDiffusionBatchTest extends TestCase {
+    public CoherenceEnhancingDiffusionBatchTest(String test) {
+        super(test);
+    }
+
+    public void testStack() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final ImageStack src = new ImageStack(imp.getWidth(), imp.getHeight());
+        for (int i = 0; i < 5; i++) {
+            final FloatProcessor fp = (FloatProcessor) imp.getProcessor().convertToFloat();
+            fp.multiply(1 + 0.2 * i);
+            src.addSlice("frame" + i, fp);
+        }
+        final CoherenceEnhancingDiffusion.Config config = new CoherenceEnhancingDiffusion.Config(1, 3, 5, 0.24, 1, 2);
+
+        final CoherenceEnhancingDiffusionBatch batch = new CoherenceEnhancingDiffusionBatch(config);
+        batch.setNumberOfWorkers(2);
+        batch.setMaxFramesInFlight(3);
+        final List<String> messages = new ArrayList<>();
+        batch.addProgressListener(e -> messages.add(e.message()));
+        final ImageStack dest = batch.run(src);
+
+        assertEquals(src.getSize(), dest.getSize());
+        for (int i = 1; i <= src.getSize(); i++) {
+            final CoherenceEnhancingDiffusion filter = new CoherenceEnhancingDiffusion(config);
+            filter.setNumberOfThreads(1);
+            final float[] expected = (float[]) filter.run((FloatProcessor) src.getProcessor(i)).getPixels();
+            assertTrue("Frame " + i, Arrays.equals(expected, (float[]) dest.getPixels(i)));
+            assertEquals(src.getSliceLabel(i), dest.getSliceLabel(i));
+        }
+        assertTrue(batch.framesPerSecond() > 0);
+        assertTrue(messages.get(messages.size() - 1).contains("frames/s"));
+    }
+}
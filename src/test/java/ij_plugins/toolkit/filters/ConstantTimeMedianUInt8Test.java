@@ -0,0 +1,83 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij_plugins.toolkit.io.IOUtils;
+import junit.framework.TestCase;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * @author Jarek Sacha
+ */
+public class ConstantTimeMedianUInt8Test extends TestCase {
+    public ConstantTimeMedianUInt8Test(String test) {
+        super(test);
+    }
+
+    public void testSameAsBruteForce() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final ByteProcessor src = (ByteProcessor) imp.getProcessor();
+        src.setRoi(new Rectangle(5, 3, 61, 47));
+
+        final ConstantTimeMedianUInt8 filter = new ConstantTimeMedianUInt8();
+        for (final int[] size : new int[][]{{1, 1}, {3, 3}, {4, 6}, {11, 5}, {33, 71}, {151, 151}}) {
+            final ByteProcessor expected = FastMedianUInt8Test.bruteForceMedian(src, size[0], size[1]);
+            final ByteProcessor actual = filter.run(src, size[0], size[1]);
+            assertTrue("Filter size: " + size[0] + "x" + size[1],
+                    Arrays.equals((byte[]) expected.getPixels(), (byte[]) actual.getPixels()));
+        }
+    }
+
+    public void testSameAsFastMedianUInt8() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final ByteProcessor src = (ByteProcessor) imp.getProcessor();
+
+        final byte[] expected = (byte[]) new FastMedianUInt8().run(src, 41, 41).getPixels();
+
+        final ConstantTimeMedianUInt8 filter = new ConstantTimeMedianUInt8();
+        for (final int threads : new int[]{1, 3, 8}) {
+            filter.setNumberOfThreads(threads);
+            final byte[] actual = (byte[]) filter.run(src, 41, 41).getPixels();
+            assertTrue("Number of threads: " + threads, Arrays.equals(expected, actual));
+        }
+    }
+
+    public void testColor() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/clown24.png");
+        final ColorProcessor src = (ColorProcessor) imp.getProcessor();
+
+        final int filterSize = FastMedian.CONSTANT_TIME_THRESHOLD + 1;
+        final ColorProcessor dest = (ColorProcessor) FastMedian.process(src, filterSize);
+
+        final FastMedianUInt8 filter = new FastMedianUInt8();
+        for (int c = 0; c < 3; c++) {
+            final byte[] expected = (byte[]) filter.run(src.getChannel(c + 1, null), filterSize, filterSize).getPixels();
+            final byte[] actual = (byte[]) dest.getChannel(c + 1, null).getPixels();
+            assertTrue("Channel " + c, Arrays.equals(expected, actual));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import ij_plugins.toolkit.io.IOUtils;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * @author Jarek Sacha
+ */
+public class DirectionalCoherenceFilterTest extends TestCase {
+    public DirectionalCoherenceFilterTest(String test) {
+        super(test);
+    }
+
+    public void testScaleZeroSameAsSingleScale() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final FloatProcessor src = (FloatProcessor) imp.getProcessor().convertToFloat();
+
+        final DirectionalCoherenceFilter filter = new DirectionalCoherenceFilter();
+        final float[] expected = (float[]) filter.run(src).getPixels();
+        final ImageStack stack = filter.run(src, 0);
+
+        assertEquals(4, stack.getSize());
+        final float[] actual = (float[]) stack.getPixels(1);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Pixel " + i, expected[i], actual[i], 1e-5 * Math.max(1, expected[i]));
+        }
+    }
+
+    public void testOrientationOfLinearPattern() {
+        final int size = 40;
+        final double angle = Math.PI / 6;
+        final FloatProcessor src = new FloatProcessor(size, size);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                src.setf(x, y, (float) (10 * Math.sin(0.5 * (x * Math.cos(angle) + y * Math.sin(angle)))));
+            }
+        }
+
+        final DirectionalCoherenceFilter filter = new DirectionalCoherenceFilter();
+        final ImageStack stack = filter.run(src, 4, 2);
+
+        assertEquals(8, stack.getSize());
+        assertTrue(stack.getSliceLabel(5).endsWith("scale 4.0"));
+        // Integration at scale 4 averages gradient products over the pattern period
+        final int center = size / 2 * size + size / 2;
+        assertEquals(angle, ((float[]) stack.getPixels(6))[center], 0.01);
+        final float lambda1 = ((float[]) stack.getPixels(7))[center];
+        final float lambda2 = ((float[]) stack.getPixels(8))[center];
+        assertTrue(lambda1 > 0);
+        assertEquals(0, lambda2 / lambda1, 0.01);
+    }
+
+    public void testIncrementalScalesSameAsDirect() {
+        final FloatProcessor src = new FloatProcessor(50, 40);
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 50; x++) {
+                src.setf(x, y, (float) (100 * Math.sin(0.3 * x) * Math.cos(0.2 * y + 0.01 * x * x)));
+            }
+        }
+
+        final DirectionalCoherenceFilter filter = new DirectionalCoherenceFilter();
+        filter.setRecursiveSmoothing(true);
+        final ImageStack direct = filter.run(src, 3);
+        final ImageStack incremental = filter.run(src, 1, 2, 3);
+
+        for (int slice = 1; slice <= 4; slice++) {
+            final float[] expected = (float[]) direct.getPixels(slice);
+            final float[] actual = (float[]) incremental.getPixels(8 + slice);
+            double range = 0;
+            for (final float v : expected) {
+                range = Math.max(range, Math.abs(v));
+            }
+            // Replicating border pixels does not commute with smoothing, compare away from the border
+            for (int y = 10; y < 30; y++) {
+                for (int x = 10; x < 40; x++) {
+                    final int i = x + y * 50;
+                    assertEquals("Slice " + slice + ", (" + x + "," + y + ")", expected[i], actual[i], 0.02 * range);
+                }
+            }
+        }
+    }
+
+    public void testMultiThreadedSameAsSingleThreaded() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final FloatProcessor src = (FloatProcessor) imp.getProcessor().convertToFloat();
+
+        final DirectionalCoherenceFilter filter = new DirectionalCoherenceFilter();
+        filter.setRecursiveSmoothing(true);
+        final ImageStack expected = filter.run(src, 1, 4);
+        filter.setNumberOfThreads(3);
+        final ImageStack actual = filter.run(src, 1, 4);
+
+        for (int slice = 1; slice <= expected.getSize(); slice++) {
+            assertTrue("Slice " + slice,
+                    Arrays.equals((float[]) expected.getPixels(slice), (float[]) actual.getPixels(slice)));
+        }
+    }
+}
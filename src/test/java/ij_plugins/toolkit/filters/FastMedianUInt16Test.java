@@ -0,0 +1,114 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.process.ShortProcessor;
+import junit.framework.TestCase;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Jarek Sacha
+ */
+public class FastMedianUInt16Test extends TestCase {
+    public FastMedianUInt16Test(String test) {
+        super(test);
+    }
+
+    public void testSameAsBruteForce() throws Exception {
+        final ShortProcessor src = createTestImage();
+        src.setRoi(new Rectangle(5, 3, 61, 47));
+
+        final FastMedianUInt16 filter = new FastMedianUInt16();
+        for (final int[] size : new int[][]{{1, 1}, {3, 3}, {4, 6}, {11, 5}, {33, 71}, {151, 151}}) {
+            final ShortProcessor expected = bruteForceMedian(src, size[0], size[1]);
+            final ShortProcessor actual = filter.run(src, size[0], size[1]);
+            assertTrue("Filter size: " + size[0] + "x" + size[1],
+                    Arrays.equals((short[]) expected.getPixels(), (short[]) actual.getPixels()));
+        }
+    }
+
+    public void testMultiThreadedSameAsSingleThreaded() throws Exception {
+        final ShortProcessor src = createTestImage();
+
+        final FastMedianUInt16 filter = new FastMedianUInt16();
+        final short[] expected = (short[]) filter.run(src, 9, 9).getPixels();
+
+        for (final int threads : new int[]{2, 3, 8}) {
+            filter.setNumberOfThreads(threads);
+            final short[] actual = (short[]) filter.run(src, 9, 9).getPixels();
+            assertTrue("Number of threads: " + threads, Arrays.equals(expected, actual));
+        }
+    }
+
+    public void testFastMedianReturnsShortProcessor() throws Exception {
+        final ShortProcessor src = createTestImage();
+        assertTrue(FastMedian.process(src, 5) instanceof ShortProcessor);
+    }
+
+    /**
+     * Values spread over the full 16 bit range, including values above 32767.
+     */
+    private static ShortProcessor createTestImage() {
+        final ShortProcessor sp = new ShortProcessor(80, 60);
+        final Random random = new Random(7);
+        for (int y = 0; y < sp.getHeight(); y++) {
+            for (int x = 0; x < sp.getWidth(); x++) {
+                final int v = x * 700 + y * 200 + (int) (random.nextGaussian() * 4000);
+                sp.set(x, y, Math.max(0, Math.min(0xFFFF, v)));
+            }
+        }
+        return sp;
+    }
+
+    /**
+     * Reference median, window is clipped to the ROI, median of even number of values is the rounded up average of
+     * the two middle values.
+     */
+    private static ShortProcessor bruteForceMedian(final ShortProcessor src, final int filterWidth, final int filterHeight) {
+        final ShortProcessor dest = (ShortProcessor) src.duplicate();
+        final Rectangle roi = src.getRoi();
+        final int xr = filterWidth / 2;
+        final int yr = filterHeight / 2;
+        for (int y = roi.y; y < roi.y + roi.height; y++) {
+            for (int x = roi.x; x < roi.x + roi.width; x++) {
+                final int yyMin = Math.max(y - yr, roi.y);
+                final int yyMax = Math.min(y + yr + 1, roi.y + roi.height);
+                final int xxMin = Math.max(x - xr, roi.x);
+                final int xxMax = Math.min(x + xr + 1, roi.x + roi.width);
+                final int[] values = new int[(yyMax - yyMin) * (xxMax - xxMin)];
+                int i = 0;
+                for (int yy = yyMin; yy < yyMax; yy++) {
+                    for (int xx = xxMin; xx < xxMax; xx++) {
+                        values[i++] = src.get(xx, yy);
+                    }
+                }
+                Arrays.sort(values);
+                final int n = values.length;
+                dest.set(x, y, n % 2 == 1 ? values[n / 2] : (values[n / 2 - 1] + values[n / 2] + 1) / 2);
+            }
+        }
+        return dest;
+    }
+}
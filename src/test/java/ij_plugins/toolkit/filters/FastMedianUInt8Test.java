@@ -26,6 +26,9 @@ import ij.process.ByteProcessor;
 import ij_plugins.toolkit.io.IOUtils;
 import junit.framework.TestCase;
 
+import java.awt.*;
+import java.util.Arrays;
+
 /**
  * @author Jarek Sacha
  */
@@ -61,4 +64,63 @@ public class FastMedianUInt8Test extends TestCase {
             fail("BUG 1198520");
         }
     }
-}
\ No newline at end of file
+
+    public void testMultiThreadedSameAsSingleThreaded() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final ByteProcessor src = (ByteProcessor) imp.getProcessor();
+        src.setRoi(new Rectangle(13, 7, 201, 190));
+
+        final FastMedianUInt8 filter = new FastMedianUInt8();
+        final byte[] expected = (byte[]) filter.run(src, 11, 7).getPixels();
+
+        for (final int threads : new int[]{2, 3, 8, 1000}) {
+            filter.setNumberOfThreads(threads);
+            final byte[] actual = (byte[]) filter.run(src, 11, 7).getPixels();
+            assertTrue("Number of threads: " + threads, Arrays.equals(expected, actual));
+        }
+    }
+
+    public void testSameAsBruteForce() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final ByteProcessor src = (ByteProcessor) imp.getProcessor();
+        src.setRoi(new Rectangle(5, 3, 61, 47));
+
+        final FastMedianUInt8 filter = new FastMedianUInt8();
+        for (final int[] size : new int[][]{{1, 1}, {3, 3}, {4, 6}, {11, 5}, {33, 71}, {151, 151}}) {
+            final ByteProcessor expected = bruteForceMedian(src, size[0], size[1]);
+            final ByteProcessor actual = filter.run(src, size[0], size[1]);
+            assertTrue("Filter size: " + size[0] + "x" + size[1],
+                    Arrays.equals((byte[]) expected.getPixels(), (byte[]) actual.getPixels()));
+        }
+    }
+
+    /**
+     * Reference median, window is clipped to the ROI, median of even number of values is the rounded up average of
+     * the two middle values.
+     */
+    static ByteProcessor bruteForceMedian(final ByteProcessor src, final int filterWidth, final int filterHeight) {
+        final ByteProcessor dest = (ByteProcessor) src.duplicate();
+        final Rectangle roi = src.getRoi();
+        final int xr = filterWidth / 2;
+        final int yr = filterHeight / 2;
+        for (int y = roi.y; y < roi.y + roi.height; y++) {
+            for (int x = roi.x; x < roi.x + roi.width; x++) {
+                final int yyMin = Math.max(y - yr, roi.y);
+                final int yyMax = Math.min(y + yr + 1, roi.y + roi.height);
+                final int xxMin = Math.max(x - xr, roi.x);
+                final int xxMax = Math.min(x + xr + 1, roi.x + roi.width);
+                final int[] values = new int[(yyMax - yyMin) * (xxMax - xxMin)];
+                int i = 0;
+                for (int yy = yyMin; yy < yyMax; yy++) {
+                    for (int xx = xxMin; xx < xxMax; xx++) {
+                        values[i++] = src.get(xx, yy);
+                    }
+                }
+                Arrays.sort(values);
+                final int n = values.length;
+                dest.set(x, y, n % 2 == 1 ? values[n / 2] : (values[n / 2 - 1] + values[n / 2] + 1) / 2);
+            }
+        }
+        return dest;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * @author Jarek Sacha
+ */
+public class FluxAnisotropicDiffusion3DTest extends TestCase {
+    public FluxAnisotropicDiffusion3DTest(String test) {
+        super(test);
+    }
+
+    public void testSameInAllModes() {
+        final ImageStack src = PeronaMalikAnisotropicDiffusion3DTest.randomStack(21, 17, 11);
+        for (final boolean recursive : new boolean[]{false, true}) {
+            final FluxAnisotropicDiffusion3D filter = new FluxAnisotropicDiffusion3D();
+            filter.setRecursiveSmoothing(recursive);
+            filter.setNumberOfIterations(3);
+            filter.setMeanSquareError(0);
+            final ImageStack expected = filter.process(src);
+
+            for (final boolean lowMemory : new boolean[]{false, true}) {
+                for (int threads = 1; threads <= 4; threads++) {
+                    filter.setLowMemory(lowMemory);
+                    filter.setNumberOfThreads(threads);
+                    final ImageStack actual = filter.process(src);
+                    for (int z = 1; z <= src.getSize(); z++) {
+                        assertTrue("Low memory: " + lowMemory + ", threads: " + threads + ", slice: " + z,
+                                Arrays.equals((float[]) expected.getPixels(z), (float[]) actual.getPixels(z)));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testConstantVolumeUnchanged() {
+        final ImageStack src = new ImageStack(9, 7);
+        for (int z = 0; z < 5; z++) {
+            final FloatProcessor fp = new FloatProcessor(9, 7);
+            fp.set(42);
+            src.addSlice("", fp);
+        }
+
+        final FluxAnisotropicDiffusion3D filter = new FluxAnisotropicDiffusion3D();
+        filter.setNumberOfIterations(5);
+        final ImageStack dest = filter.process(src);
+        for (int z = 1; z <= dest.getSize(); z++) {
+            for (final float v : (float[]) dest.getPixels(z)) {
+                assertEquals(42f, v, 1e-4f);
+            }
+        }
+    }
+
+    public void testReducesNoise() {
+        final ImageStack src = PeronaMalikAnisotropicDiffusion3DTest.randomStack(16, 12, 10);
+        final FluxAnisotropicDiffusion3D filter = new FluxAnisotropicDiffusion3D();
+        filter.setNumberOfIterations(5);
+        filter.setMeanSquareError(0);
+        final ImageStack dest = filter.process(src);
+
+        assertTrue(variance(dest) < 0.5 * variance(src));
+        final double n = src.getWidth() * src.getHeight() * src.getSize();
+        assertEquals(PeronaMalikAnisotropicDiffusion3DTest.sum(src) / n,
+                PeronaMalikAnisotropicDiffusion3DTest.sum(dest) / n, 1);
+    }
+
+    private static double variance(final ImageStack stack) {
+        final double n = stack.getWidth() * stack.getHeight() * stack.getSize();
+        final double mean = PeronaMalikAnisotropicDiffusion3DTest.sum(stack) / n;
+        double sum = 0;
+        for (int z = 1; z <= stack.getSize(); z++) {
+            for (final float v : (float[]) stack.getPixels(z)) {
+                sum += (v - mean) * (v - mean);
+            }
+        }
+        return sum / n;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.ImagePlus;
+import ij.process.FloatProcessor;
+import ij_plugins.toolkit.io.IOUtils;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * @author Jarek Sacha
+ */
+public class FluxAnisotropicDiffusionFilterTest extends TestCase {
+    public FluxAnisotropicDiffusionFilterTest(String test) {
+        super(test);
+    }
+
+    public void testMultiThreadedSameAsSingleThreaded() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final FloatProcessor src = (FloatProcessor) imp.getProcessor().convertToFloat();
+
+        final FluxAnisotropicDiffusionFilter filter = new FluxAnisotropicDiffusionFilter();
+        filter.setNumberOfIterations(4);
+        final float[] expected = (float[]) filter.run(src).getPixels();
+
+        for (int threads = 2; threads <= 5; threads++) {
+            filter.setNumberOfThreads(threads);
+            final float[] actual = (float[]) filter.run(src).getPixels();
+            assertTrue("Threads: " + threads, Arrays.equals(expected, actual));
+        }
+    }
+
+    public void testSourceNotModified() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final FloatProcessor src = (FloatProcessor) imp.getProcessor().convertToFloat();
+        final float[] original = ((float[]) src.getPixels()).clone();
+
+        final FluxAnisotropicDiffusionFilter filter = new FluxAnisotropicDiffusionFilter();
+        filter.setNumberOfIterations(3);
+        filter.setNumberOfThreads(3);
+        final FloatProcessor dest = filter.run(src);
+
+        assertTrue(Arrays.equals(original, (float[]) src.getPixels()));
+        assertFalse(Arrays.equals(original, (float[]) dest.getPixels()));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Jarek Sacha
+ */
+public class OrderStatisticTreeFloatTest extends TestCase {
+
+    public OrderStatisticTreeFloatTest(String test) {
+        super(test);
+    }
+
+
+    public void testInsertRemove() throws Exception {
+        final OrderStatisticTreeFloat tree = new OrderStatisticTreeFloat();
+
+        tree.insert(5);
+        tree.insert(7);
+        tree.insert(5);
+        tree.verify();
+        assertEquals(3, tree.size());
+        assertTrue(tree.contains(5));
+        assertEquals(5f, tree.select(2));
+        assertEquals(7f, tree.select(3));
+
+        assertTrue(tree.remove(5));
+        tree.verify();
+        assertTrue(tree.contains(5));
+
+        assertTrue(tree.remove(5));
+        tree.verify();
+        assertFalse(tree.contains(5));
+
+        assertFalse(tree.remove(8.1f));
+        assertFalse(tree.remove(7, 2));
+        assertEquals(1, tree.size());
+
+        tree.clear();
+        assertTrue(tree.isEmpty());
+        assertEquals(0, tree.size());
+    }
+
+
+    public void testBatch() throws Exception {
+        final OrderStatisticTreeFloat tree = new OrderStatisticTreeFloat();
+
+        tree.insertAll(new float[]{1, 1, 1, 2, 3, 3, 9}, 7);
+        tree.verify();
+        assertEquals(7, tree.size());
+        assertEquals(1f, tree.select(3));
+        assertEquals(2f, tree.select(4));
+
+        assertTrue(tree.removeAll(new float[]{1, 1, 3, 9}, 3));
+        tree.verify();
+        assertEquals(4, tree.size());
+        assertEquals(1f, tree.select(1));
+        assertEquals(2f, tree.select(2));
+        assertEquals(3f, tree.select(3));
+        assertEquals(9f, tree.select(4));
+    }
+
+
+    public void testNaN() throws Exception {
+        final OrderStatisticTreeFloat tree = new OrderStatisticTreeFloat();
+
+        tree.insert(Float.NaN);
+        tree.insert(3);
+        tree.insert(Float.NaN, 2);
+        tree.insert(Float.POSITIVE_INFINITY);
+        tree.verify();
+        assertEquals(5, tree.size());
+        assertTrue(tree.contains(Float.NaN));
+        assertEquals(3f, tree.select(1));
+        assertEquals(Float.POSITIVE_INFINITY, tree.select(2));
+        assertTrue(Float.isNaN(tree.select(3)));
+        assertTrue(Float.isNaN(tree.select(5)));
+
+        assertTrue(tree.remove(Float.NaN, 3));
+        tree.verify();
+        assertFalse(tree.contains(Float.NaN));
+        assertFalse(tree.remove(Float.NaN));
+        assertEquals(2, tree.size());
+
+        assertTrue(tree.removeAll(new float[]{3, Float.POSITIVE_INFINITY}, 2));
+        assertTrue(tree.isEmpty());
+    }
+
+
+    public void testRandomAgainstSortedList() throws Exception {
+        // Small initial capacity to exercise growth
+        final OrderStatisticTreeFloat tree = new OrderStatisticTreeFloat(2);
+        final List<Float> reference = new ArrayList<>();
+        final Random random = new Random(13);
+
+        for (int i = 0; i < 5000; i++) {
+            if (reference.isEmpty() || random.nextInt(3) > 0) {
+                final float v = random.nextInt(50);
+                final int n = 1 + random.nextInt(3);
+                tree.insert(v, n);
+                for (int k = 0; k < n; k++) {
+                    reference.add(v);
+                }
+            } else {
+                final float v = reference.get(random.nextInt(reference.size()));
+                assertTrue(tree.remove(v));
+                reference.remove(v);
+            }
+
+            if (i % 50 == 0) {
+                tree.verify();
+            }
+
+            Collections.sort(reference);
+            assertEquals(reference.size(), tree.size());
+            final int rank = 1 + random.nextInt(reference.size());
+            assertEquals(reference.get(rank - 1), tree.select(rank));
+        }
+
+        // Remove everything
+        for (final Float v : new ArrayList<>(reference)) {
+            assertTrue(tree.remove(v));
+        }
+        tree.verify();
+        assertTrue(tree.isEmpty());
+    }
+}
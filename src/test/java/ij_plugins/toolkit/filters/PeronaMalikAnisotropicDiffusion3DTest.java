@@ -0,0 +1,191 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.FloatProcessor;
+import ij_plugins.toolkit.io.FloatFileStack;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Jarek Sacha
+ */
+public class PeronaMalikAnisotropicDiffusion3DTest extends TestCase {
+    public PeronaMalikAnisotropicDiffusion3DTest(String test) {
+        super(test);
+    }
+
+    public void testSameInAllModes6() {
+        assertSameInAllModes(6);
+    }
+
+    public void testSameInAllModes26() {
+        assertSameInAllModes(26);
+    }
+
+    public void testSingleSliceSameAs2DInterior() {
+        // With a single slice there is no flux between slices, interior pixels match the 2D filter
+        final ImageStack src = randomStack(25, 20, 1);
+
+        final PeronaMalikAnisotropicDiffusion3D filter3D = new PeronaMalikAnisotropicDiffusion3D();
+        filter3D.setNumberOfIterations(1);
+        final FloatProcessor actual = (FloatProcessor) filter3D.process(src).getProcessor(1);
+
+        final PeronaMalikAnisotropicDiffusion filter2D = new PeronaMalikAnisotropicDiffusion();
+        filter2D.setNumberOfIterations(1);
+        final FloatProcessor expected = filter2D.process((FloatProcessor) src.getProcessor(1));
+
+        for (int y = 1; y < src.getHeight() - 1; y++) {
+            for (int x = 1; x < src.getWidth() - 1; x++) {
+                assertEquals(expected.getf(x, y), actual.getf(x, y), 0);
+            }
+        }
+    }
+
+    public void testMeanPreserved() {
+        // No flux through the boundary, so the sum of values does not change (up to rounding)
+        final ImageStack src = randomStack(16, 12, 10);
+        final PeronaMalikAnisotropicDiffusion3D filter = new PeronaMalikAnisotropicDiffusion3D();
+        filter.setConnectivity(26);
+        filter.setNumberOfIterations(10);
+        filter.setMeanSquareError(0);
+        final ImageStack dest = filter.process(src);
+
+        assertEquals(sum(src), sum(dest), 1e-5 * sum(src));
+    }
+
+    public void testInPlace() {
+        final ImageStack src = randomStack(21, 17, 11);
+        final PeronaMalikAnisotropicDiffusion3D filter = new PeronaMalikAnisotropicDiffusion3D();
+        filter.setNumberOfIterations(4);
+        filter.setMeanSquareError(0);
+        final ImageStack expected = filter.process(src);
+
+        filter.setLowMemory(true);
+        filter.setNumberOfThreads(3);
+        filter.process(src, src);
+        for (int z = 1; z <= src.getSize(); z++) {
+            assertTrue("Slice: " + z, Arrays.equals((float[]) expected.getPixels(z), (float[]) src.getPixels(z)));
+        }
+    }
+
+    public void testLowMemory16Bit() {
+        final ImageStack src = randomStack(21, 17, 11);
+        final ImageStack src16 = new ImageStack(src.getWidth(), src.getHeight());
+        for (int z = 1; z <= src.getSize(); z++) {
+            src16.addSlice("", src.getProcessor(z).convertToShort(false));
+        }
+
+        final PeronaMalikAnisotropicDiffusion3D filter = new PeronaMalikAnisotropicDiffusion3D();
+        filter.setNumberOfIterations(3);
+        filter.setMeanSquareError(0);
+        final ImageStack expected = filter.process(src);
+
+        filter.setLowMemory(true);
+        filter.setNumberOfThreads(2);
+        final ImageStack actual = filter.process(src16);
+        assertEquals(32, actual.getBitDepth());
+        for (int z = 1; z <= src.getSize(); z++) {
+            assertTrue("Slice: " + z, Arrays.equals((float[]) expected.getPixels(z), (float[]) actual.getPixels(z)));
+        }
+    }
+
+    public void testFileDestination() throws Exception {
+        final ImageStack src = randomStack(21, 17, 11);
+        final PeronaMalikAnisotropicDiffusion3D filter = new PeronaMalikAnisotropicDiffusion3D();
+        filter.setNumberOfIterations(4);
+        filter.setMeanSquareError(0);
+        final ImageStack expected = filter.process(src);
+
+        for (final boolean lowMemory : new boolean[]{false, true}) {
+            filter.setLowMemory(lowMemory);
+            filter.setNumberOfThreads(3);
+            try (final FloatFileStack dest = new FloatFileStack(src.getWidth(), src.getHeight(), src.getSize())) {
+                filter.process(src, dest);
+                for (int z = 1; z <= src.getSize(); z++) {
+                    assertTrue("Low memory: " + lowMemory + ", slice: " + z,
+                            Arrays.equals((float[]) expected.getPixels(z), (float[]) dest.getPixels(z)));
+                }
+            }
+        }
+    }
+
+    public void testVirtualDestinationRejected() {
+        final ImageStack src = randomStack(21, 17, 11);
+        final PeronaMalikAnisotropicDiffusion3D filter = new PeronaMalikAnisotropicDiffusion3D();
+        filter.setLowMemory(true);
+        try {
+            filter.process(src, new VirtualStack(src.getWidth(), src.getHeight(), src.getSize()));
+            fail("Expecting IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertSameInAllModes(final int connectivity) {
+        final ImageStack src = randomStack(21, 17, 11);
+        final PeronaMalikAnisotropicDiffusion3D filter = new PeronaMalikAnisotropicDiffusion3D();
+        filter.setConnectivity(connectivity);
+        filter.setNumberOfIterations(5);
+        filter.setMeanSquareError(0);
+        final ImageStack expected = filter.process(src);
+
+        for (final boolean lowMemory : new boolean[]{false, true}) {
+            for (int threads = 1; threads <= 4; threads++) {
+                filter.setLowMemory(lowMemory);
+                filter.setNumberOfThreads(threads);
+                final ImageStack actual = filter.process(src);
+                for (int z = 1; z <= src.getSize(); z++) {
+                    assertTrue("Low memory: " + lowMemory + ", threads: " + threads + ", slice: " + z,
+                            Arrays.equals((float[]) expected.getPixels(z), (float[]) actual.getPixels(z)));
+                }
+            }
+        }
+    }
+
+    static double sum(final ImageStack stack) {
+        double sum = 0;
+        for (int z = 1; z <= stack.getSize(); z++) {
+            for (final float v : (float[]) stack.getPixels(z)) {
+                sum += v;
+            }
+        }
+        return sum;
+    }
+
+    static ImageStack randomStack(final int width, final int height, final int depth) {
+        final Random random = new Random(13);
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; z++) {
+            final float[] pixels = new float[width * height];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = random.nextInt(100);
+            }
+            stack.addSlice("", new FloatProcessor(width, height, pixels));
+        }
+        return stack;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.OvalRoi;
+import ij.gui.Roi;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij_plugins.toolkit.io.IOUtils;
+import junit.framework.TestCase;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * @author Jarek Sacha
+ */
+public class RecursiveGaussianTest extends TestCase {
+    public RecursiveGaussianTest(String test) {
+        super(test);
+    }
+
+    public void testImpulseResponse() {
+        for (final double sigma : new double[]{1, 2.5, 5, 20}) {
+            final int size = (int) (20 * sigma) + 1;
+            final FloatProcessor fp = new FloatProcessor(size, 1);
+            fp.setf(size / 2, 0, 1);
+
+            new RecursiveGaussian(sigma).run(fp);
+
+            double sum = 0;
+            double variance = 0;
+            for (int x = 0; x < size; x++) {
+                final double v = fp.getf(x, 0);
+                sum += v;
+                variance += v * (x - size / 2) * (x - size / 2);
+            }
+            assertEquals("Sigma " + sigma, 1, sum, 1e-4);
+            assertEquals("Sigma " + sigma, sigma, Math.sqrt(variance / sum), 0.01 * sigma);
+        }
+    }
+
+    public void testConstantPreserved() {
+        final FloatProcessor fp = new FloatProcessor(37, 2);
+        fp.set(100);
+
+        new RecursiveGaussian(7).run(fp);
+
+        for (final float v : (float[]) fp.getPixels()) {
+            assertEquals(100, v, 1e-3);
+        }
+    }
+
+    public void testCloseToGaussianBlur() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final FloatProcessor src = (FloatProcessor) imp.getProcessor().convertToFloat();
+
+        final GaussianSmoothFilter filter = new GaussianSmoothFilter();
+        filter.setStandardDeviation(4);
+        final float[] expected = (float[]) filter.run(src).getPixels();
+        filter.setRecursive(true);
+        final float[] actual = (float[]) filter.run(src).getPixels();
+
+        // Pixel values are in range 0-255
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Pixel " + i, expected[i], actual[i], 2.5);
+        }
+    }
+
+    public void testRoiRespected() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final ImageProcessor src = imp.getProcessor();
+        final Rectangle bounds = new Rectangle(41, 23, 70, 50);
+
+        final GaussianSmoothFilter filter = new GaussianSmoothFilter();
+        filter.setStandardDeviation(3);
+        filter.setRecursive(true);
+        final ImageProcessor whole = filter.run(src.convertToFloat());
+
+        for (final boolean recursive : new boolean[]{false, true}) {
+            filter.setRecursive(recursive);
+            final Roi[] rois = {new Roi(bounds), new OvalRoi(bounds.x, bounds.y, bounds.width, bounds.height)};
+            for (final Roi roi : rois) {
+                final ImageProcessor ip = src.duplicate();
+                ip.setRoi(roi);
+                final ImageProcessor mask = ip.getMask();
+                filter.runInPlace(ip);
+
+                for (int y = 0; y < ip.getHeight(); y++) {
+                    for (int x = 0; x < ip.getWidth(); x++) {
+                        final boolean inside = bounds.contains(x, y)
+                                && (mask == null || mask.get(x - bounds.x, y - bounds.y) != 0);
+                        if (!inside) {
+                            assertEquals("Recursive: " + recursive + ", (" + x + ", " + y + ")",
+                                    src.get(x, y), ip.get(x, y));
+                        } else if (recursive) {
+                            // Same as smoothing of the whole image, up to rounding to 8-bit and truncation of the margin
+                            assertEquals("(" + x + ", " + y + ")", whole.getf(x, y), ip.getf(x, y), 1);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void testMultiThreadedSameAsSingleThreaded() {
+        final ImageStack stack = ImageStack.create(31, 23, 7, 32);
+        for (int z = 1; z <= stack.getSize(); z++) {
+            final float[] pixels = (float[]) stack.getPixels(z);
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = (i * 7 + z * 13) % 29;
+            }
+        }
+
+        final ImageStack expected = stack.duplicate();
+        new RecursiveGaussian(1.5).run(expected);
+
+        for (int threads = 2; threads <= 5; threads++) {
+            final ImageStack actual = stack.duplicate();
+            final RecursiveGaussian gaussian = new RecursiveGaussian(1.5);
+            gaussian.setNumberOfThreads(threads);
+            gaussian.run(actual);
+            for (int z = 1; z <= stack.getSize(); z++) {
+                assertTrue("Threads " + threads + ", slice " + z,
+                        Arrays.equals((float[]) expected.getPixels(z), (float[]) actual.getPixels(z)));
+            }
+        }
+    }
+
+    public void testStackSmoothedAlongZ() {
+        final ImageStack stack = ImageStack.create(5, 4, 41, 32);
+        Arrays.fill((float[]) stack.getPixels(21), 1);
+
+        new RecursiveGaussian(3).run(stack);
+
+        double sum = 0;
+        for (int z = 1; z <= stack.getSize(); z++) {
+            sum += ((float[]) stack.getPixels(z))[7];
+        }
+        assertEquals(1, sum, 1e-4);
+        final double center = ((float[]) stack.getPixels(21))[7];
+        final double side = ((float[]) stack.getPixels(24))[7];
+        assertTrue(side > 0);
+        assertEquals(Math.exp(-0.5), side / center, 0.02);
+    }
+
+    public void testStackCloseToGaussianBlur3D() {
+        final ImageStack stack = ImageStack.create(40, 30, 20, 32);
+        for (int z = 1; z <= stack.getSize(); z++) {
+            final float[] pixels = (float[]) stack.getPixels(z);
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = (i % 40 > 20) ^ (z > 10) ? 100 : 0;
+            }
+        }
+
+        final GaussianSmoothFilter filter = new GaussianSmoothFilter();
+        filter.setStandardDeviation(3);
+        final ImageStack expected = filter.run(stack);
+        filter.setRecursive(true);
+        filter.setNumberOfThreads(3);
+        final ImageStack actual = filter.run(stack);
+
+        for (int z = 1; z <= stack.getSize(); z++) {
+            final float[] e = (float[]) expected.getPixels(z);
+            final float[] a = (float[]) actual.getPixels(z);
+            for (int i = 0; i < e.length; i++) {
+                assertEquals("Slice " + z + ", pixel " + i, e[i], a[i], 1.5);
+            }
+        }
+    }
+}
@@ -22,10 +22,16 @@
 package ij_plugins.toolkit.filters;
 
 import ij.ImagePlus;
+import ij.gui.OvalRoi;
 import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
 import ij_plugins.toolkit.io.IOUtils;
 import junit.framework.TestCase;
 
+import java.awt.*;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
 /**
  * @author Jarek Sacha
  */
@@ -55,4 +61,52 @@ public class RunningFilterTest extends TestCase {
         final RunningFilter filter = new RunningFilter(new RunningMedianRBTOperator(), 29, 29);
         filter.run(fp);
     }
-}
\ No newline at end of file
+
+    public void testMultiThreadedSameAsSingleThreaded() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final FloatProcessor fp = (FloatProcessor) imp.getProcessor().convertToFloat();
+        fp.setRoi(new Rectangle(13, 7, 201, 190));
+
+        for (final Supplier<IRunningMedianFloatOperator> factory : operatorFactories()) {
+            final float[] expected = (float[]) new RunningFilter(factory.get(), 9, 9).run(fp).getPixels();
+
+            final RunningFilter filter = new RunningFilter(factory, 9, 9);
+            for (final int threads : new int[]{1, 2, 3, 8}) {
+                filter.setNumberOfThreads(threads);
+                final float[] actual = (float[]) filter.run(fp).getPixels();
+                assertTrue("Number of threads: " + threads, Arrays.equals(expected, actual));
+            }
+        }
+    }
+
+    public void testMask() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final FloatProcessor fp = (FloatProcessor) imp.getProcessor().convertToFloat();
+        final Rectangle bounds = new Rectangle(21, 17, 120, 90);
+
+        for (final Supplier<IRunningMedianFloatOperator> factory : operatorFactories()) {
+            final RunningFilter filter = new RunningFilter(factory, 7, 7);
+            filter.setNumberOfThreads(3);
+
+            fp.setRoi(bounds);
+            final FloatProcessor expected = filter.run(fp);
+
+            fp.setRoi(new OvalRoi(bounds.x, bounds.y, bounds.width, bounds.height));
+            final ImageProcessor mask = fp.getMask();
+            assertNotNull(mask);
+            final FloatProcessor actual = filter.run(fp);
+
+            for (int y = 0; y < fp.getHeight(); y++) {
+                for (int x = 0; x < fp.getWidth(); x++) {
+                    final boolean inside = bounds.contains(x, y) && mask.get(x - bounds.x, y - bounds.y) != 0;
+                    final float v = inside ? expected.getf(x, y) : fp.getf(x, y);
+                    assertEquals("(" + x + ", " + y + ")", v, actual.getf(x, y), 0);
+                }
+            }
+        }
+    }
+
+    private static java.util.List<Supplier<IRunningMedianFloatOperator>> operatorFactories() {
+        return Arrays.asList(RunningMedianOperator::new, RunningMedianRBTOperator::new);
+    }
+}
@@ -35,4 +35,41 @@ public class RunningMedianRBTOperatorTest extends AbstractRunningMedianOperatorT
     protected void setUp() throws Exception {
         operator = new RunningMedianRBTOperator();
     }
+
+    /**
+     * NaN values are ordered above all other values and do not prevent packets from being replaced.
+     */
+    public void testNaN() throws Exception {
+        final RunningMedianRBTOperator operator = new RunningMedianRBTOperator();
+        operator.reset(3, 3);
+
+        operator.push(3, new float[]{Float.NaN, 1, Float.NaN});
+        assertTrue(Float.isNaN(operator.evaluate()));
+        assertEquals(1f, operator.evaluate(0));
+
+        operator.push(3, new float[]{4, Float.NaN, 2});
+        operator.push(3, new float[]{3, 5, 6});
+        // 1, 2, 3, 4, 5, 6, NaN, NaN, NaN
+        assertEquals(5f, operator.evaluate());
+        assertTrue(Float.isNaN(operator.evaluate(1)));
+
+        // Replace the first packet, NaN values have to be removed from the tree
+        operator.push(3, new float[]{7, 8, 9});
+        // 2, 3, 4, 5, 6, 7, 8, 9, NaN
+        assertEquals(6f, operator.evaluate());
+        assertEquals(9f, operator.evaluate(7 / 8.0));
+        assertTrue(Float.isNaN(operator.evaluate(1)));
+
+        // Replace the second packet
+        operator.push(3, new float[]{Float.NaN, Float.NaN, 0});
+        // 0, 3, 5, 6, 7, 8, 9, NaN, NaN
+        assertEquals(7f, operator.evaluate());
+        assertEquals(0f, operator.evaluate(0));
+
+        operator.push(3, new float[]{1, 1, 1});
+        operator.push(3, new float[]{1, 1, 1});
+        operator.push(3, new float[]{1, 1, 1});
+        assertEquals(1f, operator.evaluate());
+        assertEquals(1f, operator.evaluate(1));
+    }
 }
\ No newline at end of file
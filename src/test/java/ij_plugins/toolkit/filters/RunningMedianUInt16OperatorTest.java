@@ -0,0 +1,65 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Jarek Sacha
+ */
+public class RunningMedianUInt16OperatorTest extends TestCase {
+    public RunningMedianUInt16OperatorTest(String test) {
+        super(test);
+    }
+
+    public void testEvaluate() throws Exception {
+        final RunningMedianUInt16Operator operator = new RunningMedianUInt16Operator();
+
+        operator.add((short) (5 & 0xFFFF));
+        assertEquals(5, operator.evaluate() & 0xFFFF);
+
+        operator.add((short) (60000 & 0xFFFF));
+        assertEquals(30003, operator.evaluate() & 0xFFFF);
+
+        operator.add((short) (40000 & 0xFFFF));
+        assertEquals(40000, operator.evaluate() & 0xFFFF);
+
+        operator.add((short) (300 & 0xFFFF));
+        assertEquals(20150, operator.evaluate() & 0xFFFF);
+
+        operator.add((short) (301 & 0xFFFF));
+        assertEquals(301, operator.evaluate() & 0xFFFF);
+
+        operator.remove((short) (5 & 0xFFFF));
+        assertEquals(20151, operator.evaluate() & 0xFFFF);
+
+        operator.remove((short) (300 & 0xFFFF));
+        assertEquals(40000, operator.evaluate() & 0xFFFF);
+
+        assertTrue(operator.contains((short) (60000 & 0xFFFF)));
+        assertFalse(operator.contains((short) (300 & 0xFFFF)));
+
+        operator.clear();
+        operator.add((short) (65535 & 0xFFFF));
+        assertEquals(65535, operator.evaluate() & 0xFFFF);
+    }
+}
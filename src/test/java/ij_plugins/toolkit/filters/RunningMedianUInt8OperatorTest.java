@@ -97,4 +97,34 @@ public class RunningMedianUInt8OperatorTest extends TestCase {
         assertEquals(217, medianUInt8Operator.evaluate() & 0xFF);
     }
 
-}
\ No newline at end of file
+    public void testRemoveValueEqualToMedian() throws Exception {
+        RunningMedianUInt8Operator medianUInt8Operator = new RunningMedianUInt8Operator();
+
+        medianUInt8Operator.add((byte) (5 & 0xFF));
+        medianUInt8Operator.add((byte) (7 & 0xFF));
+        medianUInt8Operator.add((byte) (9 & 0xFF));
+        medianUInt8Operator.add((byte) (9 & 0xFF));
+        medianUInt8Operator.add((byte) (9 & 0xFF));
+        assertEquals(9, medianUInt8Operator.evaluate());
+
+        // Median of {5, 7, 9, 9} is an average of 7 and 9
+        medianUInt8Operator.remove((byte) (9 & 0xFF));
+        assertEquals(8, medianUInt8Operator.evaluate());
+
+        // Median of {5, 7, 9} is 7
+        medianUInt8Operator.remove((byte) (9 & 0xFF));
+        assertEquals(7, medianUInt8Operator.evaluate());
+
+        // Median of {5, 7, 7, 9} is 7
+        medianUInt8Operator.add((byte) (7 & 0xFF));
+        assertEquals(7, medianUInt8Operator.evaluate());
+
+        // Median of {5, 7, 9} is 7
+        medianUInt8Operator.remove((byte) (7 & 0xFF));
+        assertEquals(7, medianUInt8Operator.evaluate());
+
+        // Median of {5, 9} is an average of 5 and 9
+        medianUInt8Operator.remove((byte) (7 & 0xFF));
+        assertEquals(7, medianUInt8Operator.evaluate());
+    }
+}
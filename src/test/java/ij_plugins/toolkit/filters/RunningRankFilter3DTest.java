@@ -0,0 +1,129 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import ij_plugins.toolkit.im3d.Util;
+import ij_plugins.toolkit.im3d.morphology.Morpho;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Jarek Sacha
+ */
+public class RunningRankFilter3DTest extends TestCase {
+    public RunningRankFilter3DTest(String test) {
+        super(test);
+    }
+
+    public void testMedianUInt8() {
+        final ImageStack src = randomStack(false, 23, 17, 9);
+        assertSameAsBruteForce(src, 1, 1, 1, Double.NaN, 1);
+        assertSameAsBruteForce(src, 2, 1, 0, Double.NaN, 3);
+        assertSameAsBruteForce(src, 0, 3, 2, Double.NaN, 4);
+    }
+
+    public void testMedianUInt16() {
+        final ImageStack src = randomStack(true, 19, 21, 7);
+        assertSameAsBruteForce(src, 1, 1, 1, Double.NaN, 1);
+        assertSameAsBruteForce(src, 3, 2, 1, Double.NaN, 3);
+    }
+
+    public void testPercentile() {
+        final ImageStack src8 = randomStack(false, 17, 13, 8);
+        assertSameAsBruteForce(src8, 2, 1, 1, 0, 2);
+        assertSameAsBruteForce(src8, 1, 2, 1, 30, 3);
+        assertSameAsBruteForce(src8, 1, 1, 2, 100, 1);
+
+        final ImageStack src16 = randomStack(true, 17, 13, 8);
+        assertSameAsBruteForce(src16, 2, 1, 1, 0, 2);
+        assertSameAsBruteForce(src16, 1, 2, 1, 75, 3);
+    }
+
+    public void testMorphoMedian() {
+        final ImageStack src = randomStack(false, 31, 24, 6);
+
+        final ImageStack expected = Util.duplicateEmpty(src);
+        new Morpho().median(src, expected);
+        final ImageStack actual = Morpho.median(src);
+
+        for (int z = 1; z <= src.getSize(); z++) {
+            assertTrue("Slice " + z, Arrays.equals(
+                    (byte[]) expected.getPixels(z), (byte[]) actual.getPixels(z)));
+        }
+    }
+
+    private static void assertSameAsBruteForce(final ImageStack src,
+                                               final int xRadius, final int yRadius, final int zRadius,
+                                               final double percentile, final int numberOfThreads) {
+        final RunningRankFilter3D filter = new RunningRankFilter3D(xRadius, yRadius, zRadius);
+        filter.setNumberOfThreads(numberOfThreads);
+        final ImageStack actual = Double.isNaN(percentile) ? filter.median(src) : filter.percentile(src, percentile);
+
+        final int xSize = src.getWidth();
+        final int ySize = src.getHeight();
+        final int zSize = src.getSize();
+        final int[] values = new int[(2 * xRadius + 1) * (2 * yRadius + 1) * (2 * zRadius + 1)];
+        for (int z = 0; z < zSize; z++) {
+            final ImageProcessor ip = actual.getProcessor(z + 1);
+            for (int y = 0; y < ySize; y++) {
+                for (int x = 0; x < xSize; x++) {
+                    int n = 0;
+                    for (int zz = Math.max(0, z - zRadius); zz <= Math.min(zSize - 1, z + zRadius); zz++) {
+                        final ImageProcessor srcIP = src.getProcessor(zz + 1);
+                        for (int yy = Math.max(0, y - yRadius); yy <= Math.min(ySize - 1, y + yRadius); yy++) {
+                            for (int xx = Math.max(0, x - xRadius); xx <= Math.min(xSize - 1, x + xRadius); xx++) {
+                                values[n++] = srcIP.get(xx, yy);
+                            }
+                        }
+                    }
+                    Arrays.sort(values, 0, n);
+                    final int expected;
+                    if (Double.isNaN(percentile)) {
+                        expected = n % 2 == 1 ? values[n / 2] : (values[n / 2 - 1] + values[n / 2] + 1) / 2;
+                    } else {
+                        expected = values[(int) Math.round(percentile / 100 * (n - 1))];
+                    }
+                    assertEquals("(" + x + ", " + y + ", " + z + ")", expected, ip.get(x, y));
+                }
+            }
+        }
+    }
+
+    private static ImageStack randomStack(final boolean uint16, final int xSize, final int ySize, final int zSize) {
+        final Random random = new Random(7);
+        final ImageStack stack = new ImageStack(xSize, ySize);
+        for (int z = 0; z < zSize; z++) {
+            final ImageProcessor ip = uint16 ? new ShortProcessor(xSize, ySize) : new ByteProcessor(xSize, ySize);
+            for (int i = 0; i < xSize * ySize; i++) {
+                ip.set(i, uint16 ? random.nextInt(0x10000) : random.nextInt(256));
+            }
+            stack.addSlice("", ip);
+        }
+        return stack;
+    }
+}
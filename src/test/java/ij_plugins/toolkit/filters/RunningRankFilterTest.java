@@ -0,0 +1,220 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.filters;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.OvalRoi;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import ij_plugins.toolkit.io.IOUtils;
+import junit.framework.TestCase;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * @author Jarek Sacha
+ */
+public class RunningRankFilterTest extends TestCase {
+    public RunningRankFilterTest(String test) {
+        super(test);
+    }
+
+    public void testPercentilesUInt8() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final ByteProcessor src = (ByteProcessor) imp.getProcessor();
+        src.setRoi(new Rectangle(5, 3, 61, 47));
+
+        final double[] percentiles = {0, 10, 50, 90, 100};
+        final RunningRankFilter filter = new RunningRankFilter(7, 5);
+        filter.setNumberOfThreads(3);
+        final ImageStack stack = filter.percentiles(src, percentiles);
+        assertEquals(percentiles.length, stack.getSize());
+
+        for (int i = 0; i < percentiles.length; i++) {
+            final ImageProcessor expected = bruteForcePercentile(src, 7, 5, percentiles[i]);
+            assertTrue("Percentile " + percentiles[i],
+                    Arrays.equals((byte[]) expected.getPixels(), (byte[]) stack.getProcessor(i + 1).getPixels()));
+        }
+    }
+
+    public void testPercentilesFloat() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final FloatProcessor src = (FloatProcessor) imp.getProcessor().convertToFloat();
+
+        final RunningRankFilter filter = new RunningRankFilter(5, 5);
+        final ImageStack stack = filter.percentiles(src, 10, 50);
+
+        // Median should match the median filter
+        final FloatProcessor median = new RunningFilter(new RunningMedianRBTOperator(), 5, 5).run(src);
+        assertTrue(Arrays.equals((float[]) median.getPixels(), (float[]) stack.getProcessor(2).getPixels()));
+
+        // 10th percentile cannot exceed the median
+        final float[] p10 = (float[]) stack.getProcessor(1).getPixels();
+        final float[] p50 = (float[]) stack.getProcessor(2).getPixels();
+        for (int i = 0; i < p10.length; i++) {
+            assertTrue(p10[i] <= p50[i]);
+        }
+    }
+
+    public void testPercentilesUInt16() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final ShortProcessor src = (ShortProcessor) imp.getProcessor().convertToShort(false);
+        src.multiply(211);
+        src.setRoi(new Rectangle(5, 3, 61, 47));
+
+        final double[] percentiles = {0, 25, 50, 100};
+        final RunningRankFilter filter = new RunningRankFilter(5, 7);
+        filter.setNumberOfThreads(2);
+        final ImageStack stack = filter.percentiles(src, percentiles);
+
+        for (int i = 0; i < percentiles.length; i++) {
+            assertTrue(stack.getProcessor(i + 1) instanceof ShortProcessor);
+            final ImageProcessor expected = bruteForcePercentile(src, 5, 7, percentiles[i]);
+            assertTrue("Percentile " + percentiles[i],
+                    Arrays.equals((short[]) expected.getPixels(), (short[]) stack.getProcessor(i + 1).getPixels()));
+        }
+    }
+
+    public void testPercentilesFloatBruteForce() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final FloatProcessor src = (FloatProcessor) imp.getProcessor().convertToFloat();
+        src.sqrt();
+        src.setRoi(new Rectangle(5, 3, 61, 47));
+
+        final double[] percentiles = {0, 10, 50, 90, 100};
+        final RunningRankFilter filter = new RunningRankFilter(7, 5);
+        filter.setNumberOfThreads(3);
+        final ImageStack stack = filter.percentiles(src, percentiles);
+
+        for (int i = 0; i < percentiles.length; i++) {
+            final ImageProcessor expected = bruteForcePercentile(src, 7, 5, percentiles[i]);
+            assertTrue("Percentile " + percentiles[i],
+                    Arrays.equals((float[]) expected.getPixels(), (float[]) stack.getProcessor(i + 1).getPixels()));
+        }
+    }
+
+    /**
+     * The same data produce the same results regardless of bit depth.
+     */
+    public void testMaxSameForAllBitDepths() throws Exception {
+        final ByteProcessor bp = new ByteProcessor(9, 9);
+        for (int y = 0; y < 9; y++) {
+            for (int x = 0; x < 9; x++) {
+                bp.set(x, y, x + 9 * y);
+            }
+        }
+
+        final RunningRankFilter filter = new RunningRankFilter(3, 3);
+        final ImageProcessor[] results = {
+                filter.max(bp),
+                filter.max(bp.convertToShort(false)),
+                filter.max(bp.convertToFloat())};
+        for (final ImageProcessor max : results) {
+            assertEquals(50f, max.getf(4, 4));
+            assertEquals(46f, max.getf(0, 4));
+            assertEquals(80f, max.getf(8, 8));
+            assertEquals(10f, max.getf(0, 0));
+            for (int y = 0; y < 9; y++) {
+                for (int x = 0; x < 9; x++) {
+                    assertEquals(results[0].getf(x, y), max.getf(x, y), 0);
+                }
+            }
+        }
+    }
+
+    public void testMaskSameForAllBitDepths() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final ByteProcessor bp = (ByteProcessor) imp.getProcessor();
+        final OvalRoi roi = new OvalRoi(20, 30, 80, 60);
+
+        final ImageProcessor[] srcs = {bp.duplicate(), bp.convertToShort(false), bp.convertToFloat()};
+        final ImageProcessor[] results = new ImageProcessor[srcs.length];
+        final RunningRankFilter filter = new RunningRankFilter(5, 5);
+        for (int i = 0; i < srcs.length; i++) {
+            srcs[i].setRoi(roi);
+            results[i] = filter.max(srcs[i]);
+        }
+
+        final ImageProcessor mask = roi.getMask();
+        final Rectangle r = roi.getBounds();
+        for (final ImageProcessor max : results) {
+            for (int y = 0; y < bp.getHeight(); y++) {
+                for (int x = 0; x < bp.getWidth(); x++) {
+                    final boolean inside = r.contains(x, y) && mask.get(x - r.x, y - r.y) != 0;
+                    if (!inside) {
+                        assertEquals("(" + x + "," + y + ")", bp.getf(x, y), max.getf(x, y), 0);
+                    }
+                    assertEquals("(" + x + "," + y + ")", results[2].getf(x, y), max.getf(x, y), 0);
+                }
+            }
+        }
+    }
+
+    public void testRange() throws Exception {
+        final ImagePlus imp = IOUtils.openImage("test/data/blobs_noise.png");
+        final ByteProcessor src = (ByteProcessor) imp.getProcessor();
+
+        final RunningRankFilter filter = new RunningRankFilter(3, 3);
+        final ImageProcessor min = filter.min(src);
+        final ImageProcessor max = filter.max(src);
+        final ImageProcessor range = filter.range(src);
+        final ImageProcessor iqr = filter.interquartileRange(src);
+        for (int y = 0; y < src.getHeight(); y++) {
+            for (int x = 0; x < src.getWidth(); x++) {
+                assertEquals(max.get(x, y) - min.get(x, y), range.get(x, y));
+                assertTrue(iqr.get(x, y) <= range.get(x, y));
+            }
+        }
+    }
+
+    private static ImageProcessor bruteForcePercentile(final ImageProcessor src,
+                                                       final int filterWidth,
+                                                       final int filterHeight,
+                                                       final double percentile) {
+        final ImageProcessor dest = src.duplicate();
+        final Rectangle roi = src.getRoi();
+        final int xr = filterWidth / 2;
+        final int yr = filterHeight / 2;
+        for (int y = roi.y; y < roi.y + roi.height; y++) {
+            for (int x = roi.x; x < roi.x + roi.width; x++) {
+                final int yyMin = Math.max(y - yr, roi.y);
+                final int yyMax = Math.min(y + yr + 1, roi.y + roi.height);
+                final int xxMin = Math.max(x - xr, roi.x);
+                final int xxMax = Math.min(x + xr + 1, roi.x + roi.width);
+                final float[] values = new float[(yyMax - yyMin) * (xxMax - xxMin)];
+                int i = 0;
+                for (int yy = yyMin; yy < yyMax; yy++) {
+                    for (int xx = xxMin; xx < xxMax; xx++) {
+                        values[i++] = src.getf(xx, yy);
+                    }
+                }
+                Arrays.sort(values);
+                dest.setf(x, y, values[(int) Math.round(percentile / 100 * (values.length - 1))]);
+            }
+        }
+        return dest;
+    }
+}
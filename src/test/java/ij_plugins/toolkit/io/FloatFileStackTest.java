@@ -0,0 +1,81 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.io;
+
+import ij.ImagePlus;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * @author Jarek Sacha
+ */
+public class FloatFileStackTest extends TestCase {
+    public FloatFileStackTest(String test) {
+        super(test);
+    }
+
+    public void testReadWrite() throws Exception {
+        final File file;
+        try (final FloatFileStack stack = new FloatFileStack(7, 5, 3)) {
+            file = stack.getFile();
+            assertTrue(file.exists());
+            assertEquals(3, stack.getSize());
+            assertEquals(32, stack.getBitDepth());
+            assertTrue(stack.isVirtual());
+
+            // Initially zero
+            assertTrue(Arrays.equals(new float[35], (float[]) stack.getPixels(2)));
+
+            final float[] pixels = new float[35];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = i - 0.5f;
+            }
+            stack.setPixels(pixels, 2);
+            stack.setSliceLabel("two", 2);
+
+            assertTrue(Arrays.equals(pixels, (float[]) stack.getPixels(2)));
+            assertTrue(Arrays.equals(pixels, stack.readPixels(2, new float[35])));
+            assertTrue(Arrays.equals(new float[35], (float[]) stack.getPixels(3)));
+            assertEquals(pixels[12], stack.getProcessor(2).getf(5, 1), 0);
+            assertEquals("two", stack.getSliceLabel(2));
+
+            // Can be displayed as an image
+            final ImagePlus imp = new ImagePlus("test", stack);
+            imp.setSlice(2);
+            assertEquals(pixels[12], imp.getProcessor().getf(5, 1), 0);
+        }
+        assertFalse("Temporary file should be deleted", file.exists());
+    }
+
+    public void testSliceOutOfRange() throws Exception {
+        try (final FloatFileStack stack = new FloatFileStack(7, 5, 3)) {
+            try {
+                stack.getPixels(4);
+                fail("Expecting IllegalArgumentException");
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@ package ij_plugins.toolkit.multiband;
 
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.process.ColorProcessor;
 import ij.process.FloatProcessor;
 import junit.framework.TestCase;
 
@@ -157,4 +158,111 @@ public class VectorProcessorTest extends TestCase {
             }
         }
     }
-}
\ No newline at end of file
+
+
+    public void testBandPlanarLayout() {
+        final int nbBands = 4;
+        final int width = 9;
+        final int height = 5;
+        final ImageStack stack = new ImageStack(width, height);
+        final Random random = new Random(271);
+        for (int i = 0; i < nbBands; ++i) {
+            final float[] pixels = new float[width * height];
+            for (int j = 0; j < pixels.length; j++) {
+                pixels[j] = random.nextFloat();
+            }
+            stack.addSlice("" + i, new FloatProcessor(width, height, pixels));
+        }
+
+        final VectorProcessor expected = new VectorProcessor(stack);
+        final VectorProcessor vp = new VectorProcessor(stack, VectorProcessor.Layout.BAND_PLANAR);
+        assertEquals(VectorProcessor.Layout.PIXEL_ARRAYS, expected.getLayout());
+        assertEquals(VectorProcessor.Layout.BAND_PLANAR, vp.getLayout());
+
+        // Bands are copies of the slices, stored row by row
+        for (int b = 0; b < nbBands; b++) {
+            final float[] slice = (float[]) stack.getPixels(b + 1);
+            assertNotSame(slice, vp.getBand(b));
+            assertTrue(java.util.Arrays.equals(slice, vp.getBand(b)));
+            final float[] row = vp.getRow(3, b, null);
+            final float[] expectedRow = expected.getRow(3, b, null);
+            for (int x = 0; x < width; x++) {
+                assertEquals(slice[3 * width + x], row[x], 0);
+                assertEquals(slice[3 * width + x], expectedRow[x], 0);
+            }
+        }
+
+        // get/set behave the same way as for pixel arrays
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final float[] v = vp.get(x, y);
+                assertTrue(java.util.Arrays.equals(expected.get(x, y), v));
+                assertEquals(v[2], vp.getValue(x + y * width, 2), 0);
+            }
+        }
+        final float[] v = {1, 2, 3, 4};
+        vp.set(4, 2, v);
+        assertTrue(java.util.Arrays.equals(v, vp.get(4, 2)));
+        assertEquals(3f, vp.getBand(2)[4 + 2 * width], 0);
+        vp.setValue(4 + 2 * width, 1, 7);
+        assertEquals(7f, vp.get(4, 2)[1], 0);
+
+        // Conversion between layouts
+        final VectorProcessor pixelArrays = vp.duplicate(VectorProcessor.Layout.PIXEL_ARRAYS);
+        assertEquals(VectorProcessor.Layout.PIXEL_ARRAYS, pixelArrays.getLayout());
+        assertTrue(java.util.Arrays.equals(new float[]{1, 7, 3, 4}, pixelArrays.getPixels()[4 + 2 * width]));
+        assertSame(vp, vp.toLayout(VectorProcessor.Layout.BAND_PLANAR));
+        assertNotSame(vp, vp.duplicate());
+        assertEquals(VectorProcessor.Layout.BAND_PLANAR, vp.duplicate().getLayout());
+
+        // Pixel iterator returns copies of pixel values
+        final VectorProcessor.PixelIterator iterator = vp.pixelIterator();
+        while (iterator.hasNext()) {
+            final float[] p = iterator.next();
+            assertTrue(java.util.Arrays.equals(vp.get(iterator.getX(), iterator.getY()), p));
+        }
+
+        // Direct access to storage is only available for matching layout
+        try {
+            vp.getPixels();
+            fail("Expecting IllegalStateException");
+        } catch (final IllegalStateException e) {
+            // Expected
+        }
+        try {
+            expected.getBand(0);
+            fail("Expecting IllegalStateException");
+        } catch (final IllegalStateException e) {
+            // Expected
+        }
+    }
+
+
+    public void testBandPlanarConversion() {
+        final int width = 6;
+        final int height = 7;
+        final ColorProcessor cp = new ColorProcessor(width, height);
+        final Random random = new Random(11);
+        final int[] rgb = (int[]) cp.getPixels();
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = random.nextInt() & 0xffffff;
+        }
+
+        final VectorProcessor vp = new VectorProcessor(cp, VectorProcessor.Layout.BAND_PLANAR);
+        final ImageStack stack = vp.toFloatStack().getStack();
+        assertEquals(3, stack.getSize());
+        for (int i = 0; i < rgb.length; i++) {
+            assertEquals((rgb[i] >> 16) & 0xff, ((float[]) stack.getPixels(1))[i], 0);
+            assertEquals((rgb[i] >> 8) & 0xff, ((float[]) stack.getPixels(2))[i], 0);
+            assertEquals(rgb[i] & 0xff, ((float[]) stack.getPixels(3))[i], 0);
+        }
+        // Output is a copy
+        assertNotSame(vp.getBand(0), stack.getPixels(1));
+
+        // Same values as for pixel arrays converted through ImagePlus
+        final VectorProcessor expected = new VectorProcessor(new ImagePlus("", cp));
+        for (int i = 0; i < rgb.length; i++) {
+            assertTrue(java.util.Arrays.equals(expected.getPixels()[i], vp.getValues(i, new float[3])));
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+package ij_plugins.toolkit.operators;
+
+import junit.framework.TestCase;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Jarek Sacha
+ */
+public class Stencil3x3Test extends TestCase {
+
+    // Distinct weights, so that misplaced neighbours are detected
+    private static final float[] WEIGHTS = {1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+    private static final StencilKernel3x3 KERNEL = (s, above, center, below, d, offset, length) -> {
+        for (int i = 0; i < length; i++) {
+            d[offset + i] = WEIGHTS[0] * s[above + i - 1] + WEIGHTS[1] * s[above + i] + WEIGHTS[2] * s[above + i + 1]
+                    + WEIGHTS[3] * s[center + i - 1] + WEIGHTS[4] * s[center + i] + WEIGHTS[5] * s[center + i + 1]
+                    + WEIGHTS[6] * s[below + i - 1] + WEIGHTS[7] * s[below + i] + WEIGHTS[8] * s[below + i + 1];
+        }
+    };
+
+
+    public Stencil3x3Test(String test) {
+        super(test);
+    }
+
+
+    public void testNoneSkipsBorder() {
+        final int width = 23;
+        final int height = 17;
+        final float[] src = random(width, height);
+        final float[] dest = new float[width * height];
+        Arrays.fill(dest, -1);
+
+        new Stencil3x3().run(src, dest, width, height, new Rectangle(0, 0, width, height), KERNEL);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final boolean border = x == 0 || y == 0 || x == width - 1 || y == height - 1;
+                final float expected = border ? -1 : reference(src, width, height, x, y, BorderMode.CLAMP, 0);
+                assertEquals("(" + x + "," + y + ")", expected, dest[x + y * width], 0);
+            }
+        }
+    }
+
+
+    public void testBorderModes() {
+        for (final BorderMode mode : new BorderMode[]{
+                BorderMode.CLAMP, BorderMode.MIRROR, BorderMode.WRAP, BorderMode.CONSTANT}) {
+            for (final Dimension size : new Dimension[]{
+                    new Dimension(23, 17), new Dimension(1, 1), new Dimension(2, 5), new Dimension(7, 1)}) {
+                final float[] src = random(size.width, size.height);
+                final float[] dest = new float[size.width * size.height];
+
+                final Stencil3x3 stencil = new Stencil3x3();
+                stencil.setBorderMode(mode);
+                stencil.setBorderValue(-7);
+                stencil.run(src, dest, size.width, size.height, new Rectangle(size), KERNEL);
+
+                for (int y = 0; y < size.height; y++) {
+                    for (int x = 0; x < size.width; x++) {
+                        assertEquals(mode + " " + size + " (" + x + "," + y + ")",
+                                reference(src, size.width, size.height, x, y, mode, -7), dest[x + y * size.width], 0);
+                    }
+                }
+            }
+        }
+    }
+
+
+    public void testRegion() {
+        final int width = 20;
+        final int height = 15;
+        final float[] src = random(width, height);
+        final float[] dest = new float[width * height];
+        Arrays.fill(dest, -1);
+        final Rectangle region = new Rectangle(0, 3, 8, 12);
+
+        final Stencil3x3 stencil = new Stencil3x3();
+        stencil.setBorderMode(BorderMode.CLAMP);
+        stencil.run(src, dest, width, height, region, KERNEL);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final float expected = region.contains(x, y) ? reference(src, width, height, x, y, BorderMode.CLAMP, 0) : -1;
+                assertEquals("(" + x + "," + y + ")", expected, dest[x + y * width], 0);
+            }
+        }
+    }
+
+
+    public void testMultiThreaded() {
+        final int width = 101;
+        final int height = 67;
+        final float[] src = random(width, height);
+        for (final BorderMode mode : BorderMode.values()) {
+            final Stencil3x3 stencil = new Stencil3x3();
+            stencil.setBorderMode(mode);
+            final float[] expected = new float[width * height];
+            stencil.run(src, expected, width, height, new Rectangle(width, height), KERNEL);
+
+            for (int threads = 2; threads <= 5; threads++) {
+                stencil.setNumberOfThreads(threads);
+                final float[] actual = new float[width * height];
+                stencil.run(src, actual, width, height, new Rectangle(width, height), KERNEL);
+                assertTrue(mode + ", threads: " + threads, Arrays.equals(expected, actual));
+            }
+        }
+    }
+
+
+    private static float[] random(final int width, final int height) {
+        final Random random = new Random(width * 31L + height);
+        final float[] pixels = new float[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt(256);
+        }
+        return pixels;
+    }
+
+
+    private static float reference(final float[] src, final int width, final int height, final int x, final int y,
+                                   final BorderMode mode, final float borderValue) {
+        float sum = 0;
+        int w = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                final int xx = x + dx;
+                final int yy = y + dy;
+                final float v = mode == BorderMode.CONSTANT && (xx < 0 || xx >= width || yy < 0 || yy >= height)
+                        ? borderValue
+                        : src[index(xx, width, mode) + index(yy, height, mode) * width];
+                sum += WEIGHTS[w++] * v;
+            }
+        }
+        return sum;
+    }
+
+
+    private static int index(final int i, final int n, final BorderMode mode) {
+        if (i >= 0 && i < n) {
+            return i;
+        }
+        switch (mode) {
+            case MIRROR:
+                // Reflection without repeating the border pixel, degenerates to clamping for single pixel
+                return n == 1 ? 0 : (i < 0 ? -i : 2 * n - 2 - i);
+            case WRAP:
+                return i < 0 ? n - 1 : 0;
+            default:
+                return Math.max(0, Math.min(n - 1, i));
+        }
+    }
+}
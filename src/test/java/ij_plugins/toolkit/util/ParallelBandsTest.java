@@ -0,0 +1,111 @@
+/*
+ *  IJ-Plugins
+ *  Copyright (C) 2002-2021 Jarek Sacha
+ *  Author's email: jpsacha at gmail dot com
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  Latest release available at https://github.com/ij-plugins/ijp-toolkit/
+ */
+
+package ij_plugins.toolkit.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * @author Jarek Sacha
+ */
+public final class ParallelBandsTest {
+
+    @Test
+    public void testBandsCoverRange() {
+        final int[] counts = new int[37];
+        ParallelBands.run(null, 5, 3, counts.length, (band, start, end) -> {
+            for (int i = start; i < end; i++) {
+                counts[i]++;
+            }
+        });
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals("Index " + i, i < 3 ? 0 : 1, counts[i]);
+        }
+    }
+
+
+    /**
+     * When the band processed by the calling thread fails, other bands complete before the exception is thrown.
+     */
+    @Test
+    public void testCallerBandFailure() {
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final AtomicInteger running = new AtomicInteger();
+            final RuntimeException expected = new IllegalStateException("Last band");
+            try {
+                ParallelBands.run(executor, 4, 0, 4, (band, start, end) -> {
+                    if (band == 3) {
+                        throw expected;
+                    }
+                    running.incrementAndGet();
+                    try {
+                        Thread.sleep(200);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                });
+                fail("Expecting IllegalStateException");
+            } catch (final IllegalStateException e) {
+                assertSame(expected, e);
+            }
+            assertEquals(0, running.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * When a band fails, bands that have not started yet are skipped.
+     */
+    @Test
+    public void testWorkerBandFailure() {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final AtomicInteger processed = new AtomicInteger();
+            try {
+                ParallelBands.run(executor, 4, 0, 4, (band, start, end) -> {
+                    if (band == 0) {
+                        throw new IllegalStateException("First band");
+                    }
+                    processed.incrementAndGet();
+                });
+                fail("Expecting IllegalStateException");
+            } catch (final IllegalStateException e) {
+                assertEquals("First band", e.getMessage());
+            }
+            // Only the band processed by the calling thread could run concurrently with the failing one
+            assertTrue(processed.get() <= 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}